@@ -19,9 +19,11 @@
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 import javax.annotation.Nullable;
@@ -65,6 +67,12 @@ public class ClassFile {
 
     private BootstrapMethod[]     bootstrapMethods;
 
+    // lookup of the methods via name + signature, created on first use
+    private HashMap<String, MethodInfo> methodIndex;
+
+    // lookup of the fields via name, created on first use
+    private HashMap<String, FieldInfo>  fieldIndex;
+
     /**
      * Load a class file and create a model of the class.
      *
@@ -74,7 +82,21 @@ public class ClassFile {
      *             if this input stream reaches the end before reading the class file.
      */
     public ClassFile( InputStream stream ) throws IOException {
-        DataInputStream input = new DataInputStream( stream );
+        this( readAllBytes( stream ) );
+    }
+
+    /**
+     * Load a class file from a buffer and create a model of the class. The buffer can be memory mapped. The constant
+     * pool and the attributes are decoded on first access. The needed parts are copied and the buffer is not referenced
+     * after this call.
+     *
+     * @param buffer
+     *            the data of the class file from the current position. The position is not changed.
+     * @throws IOException
+     *             if the buffer reaches the end before reading the class file or the class file is malformed.
+     */
+    public ClassFile( ByteBuffer buffer ) throws IOException {
+        ClassInputStream input = new ClassInputStream( buffer );
         int magic = input.readInt();
         if( magic != 0xCAFEBABE ) {
             throw new IOException( "Invalid class magic: " + Integer.toHexString( magic ) );
@@ -94,8 +116,6 @@ public ClassFile( InputStream stream ) throws IOException {
         methods = readMethods( input );
         attributes = new Attributes( input, constantPool );
 
-        stream.close();
-
         AttributeInfo info = attributes.get( "Signature" );
         if( info != null ) {
             int idx = info.getDataInputStream().readShort();
@@ -120,6 +140,31 @@ public ClassFile( InputStream stream ) throws IOException {
         }
     }
 
+    /**
+     * Read the complete stream and close it.
+     *
+     * @param stream
+     *            the stream of the class file
+     * @return the data
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    private static ByteBuffer readAllBytes( InputStream stream ) throws IOException {
+        try {
+            byte[] data = new byte[Math.max( stream.available(), 1024 )];
+            int length = 0;
+            for( int count; (count = stream.read( data, length, data.length - length )) >= 0; ) {
+                length += count;
+                if( length == data.length ) {
+                    data = Arrays.copyOf( data, data.length * 2 );
+                }
+            }
+            return ByteBuffer.wrap( data, 0, length );
+        } finally {
+            stream.close();
+        }
+    }
+
     /**
      * Create a replaced instance.
      * 
@@ -147,6 +192,7 @@ public ClassFile( String className, ClassFile classFile ) {
         for( MethodInfo m : methods ) {
             m.setDeclaringClassFile( origClassName, this );
         }
+        classFile.resetIndex(); // the signatures of the shared methods was changed
     }
 
     /**
@@ -160,6 +206,10 @@ public ClassFile( String className, ClassFile classFile ) {
     private void patchConstantPool( String origClassName, ConstantClass thisClass ) {
         String origSignature = 'L' + origClassName + ';';
         String thisSignature = 'L' + thisClass.getName() + ';';
+        // decode all entries before patching that references between the entries use the original values
+        for( int i = 0; i < constantPool.size(); i++ ) {
+            constantPool.get( i );
+        }
         // patch constant pool
         for( int i = 0; i < constantPool.size(); i++ ) {
             Object obj = constantPool.get( i );
@@ -273,21 +323,43 @@ public MethodInfo[] getMethods() {
      * @return the method or null if not found
      */
     public MethodInfo getMethod( String name, String signature ) {
-        for( MethodInfo method : methods ) {
-            if( name.equals( method.getName() ) && signature.equals( method.getType() ) ) {
-                return method;
+        HashMap<String, MethodInfo> index = methodIndex;
+        if( index == null ) {
+            index = new HashMap<>();
+            for( MethodInfo method : methods ) {
+                index.putIfAbsent( method.getName() + method.getType(), method );
             }
+            methodIndex = index;
         }
-        return null;
+        return index.get( name + signature );
     }
 
+    /**
+     * Find a field via name.
+     * 
+     * @param name
+     *            the name
+     * @return the field or null if not found
+     */
     public FieldInfo getField( String name ) {
-        for( FieldInfo field : fields ) {
-            if( name.equals( field.getName() ) ) {
-                return field;
+        HashMap<String, FieldInfo> index = fieldIndex;
+        if( index == null ) {
+            index = new HashMap<>();
+            for( FieldInfo field : fields ) {
+                index.putIfAbsent( field.getName(), field );
             }
+            fieldIndex = index;
         }
-        return null;
+        return index.get( name );
+    }
+
+    /**
+     * Release the index of the members after a change of the members or its signatures. The index is created again on
+     * the next request.
+     */
+    private void resetIndex() {
+        methodIndex = null;
+        fieldIndex = null;
     }
 
     /**
@@ -408,6 +480,7 @@ public void partial( ClassFile partialClassFile ) throws IOException {
             }
         }
         methods = allMethods.toArray( methods );
+        partialClassFile.resetIndex(); // the signatures of the moved methods was changed
 
         ArrayList<FieldInfo> allFields = new ArrayList<>( Arrays.asList( fields ) );
         for( FieldInfo field : partialClassFile.fields ) {
@@ -416,6 +489,7 @@ public void partial( ClassFile partialClassFile ) throws IOException {
             }
         }
         fields = allFields.toArray( fields );
+        resetIndex();
 
         partialClassFile.patchConstantPool( origClassName, thisClass );
     }
@@ -0,0 +1,123 @@
+/*
+   Copyright 2022 Volker Berlin (i-net software)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+package de.inetsoftware.classparser;
+
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Extends the DataInputStream with the access to the underlying buffer. This allows to copy parts of the class file
+ * in one step and to decode them on first access.
+ *
+ * @author Volker Berlin
+ */
+class ClassInputStream extends DataInputStream {
+
+    /**
+     * Create a new instance. The position of the given buffer is not changed.
+     *
+     * @param buffer
+     *            the data from the current position to the limit
+     */
+    ClassInputStream( @Nonnull ByteBuffer buffer ) {
+        super( new BufferInputStream( buffer.slice() ) );
+    }
+
+    /**
+     * The read position relative to the start of the stream.
+     *
+     * @return the position
+     */
+    int position() {
+        return ((BufferInputStream)in).buffer.position();
+    }
+
+    /**
+     * Get a copy of the data from the given position to the current read position.
+     *
+     * @param start
+     *            the start position relative to the start of the stream
+     * @return the copy with position 0
+     */
+    @Nonnull
+    ByteBuffer copy( int start ) {
+        ByteBuffer buffer = ((BufferInputStream)in).buffer.duplicate();
+        buffer.limit( buffer.position() );
+        buffer.position( start );
+        ByteBuffer copy = ByteBuffer.allocate( buffer.remaining() );
+        copy.put( buffer );
+        copy.flip();
+        return copy;
+    }
+
+    /**
+     * An InputStream that read from a ByteBuffer.
+     */
+    private static class BufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private BufferInputStream( ByteBuffer buffer ) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read( byte[] b, int off, int len ) {
+            if( len == 0 ) {
+                return 0;
+            }
+            int count = Math.min( len, buffer.remaining() );
+            if( count == 0 ) {
+                return -1;
+            }
+            buffer.get( b, off, count );
+            return count;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long skip( long n ) {
+            int count = (int)Math.max( 0, Math.min( n, buffer.remaining() ) );
+            buffer.position( buffer.position() + count );
+            return count;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -16,15 +16,25 @@
 */
 package de.inetsoftware.classparser;
 
-import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
+ * The constant pool of a class file. The entries are decoded on first access. The pool holds a copy of its own bytes
+ * and not the data of the whole class file.
+ *
  * @author Volker Berlin
  */
 public class ConstantPool {
 
-    private final Object[] constantPool;
+    private final AtomicReferenceArray<Object> constantPool;
+
+    private final ByteBuffer                   buffer;
+
+    private final int[]                        offsets;
+
     public static final int CONSTANT_Utf8 = 1;
     public static final int CONSTANT_Integer = 3;
     public static final int CONSTANT_Float = 4;
@@ -43,33 +53,40 @@ public class ConstantPool {
     public static final int CONSTANT_Package = 20;
     /**
      * https://docs.oracle.com/javase/specs/jvms/se9/html/jvms-4.html#jvms-4.4
+     * Only the offsets of the entries are read and the strings are validated. The entries are decoded on first access.
      *
      * @param input
      *            the stream of the class
      * @throws IOException
-     *             if any IO error occur
+     *             if any IO error occur or the constant pool is malformed
      */
-    ConstantPool( DataInputStream input ) throws IOException {
+    ConstantPool( ClassInputStream input ) throws IOException {
+        // the offsets are relative to the count that an offset of 0 marks an unused entry
+        int start = input.position();
         int count = input.readUnsignedShort();
-        Object[] pool = constantPool = new Object[count];
+        constantPool = new AtomicReferenceArray<>( count );
+        offsets = new int[count];
         for( int i = 1; i < count; i++ ) {
+            offsets[i] = input.position() - start;
             byte type = input.readByte();
+            int size;
             switch( type ) {
                 case CONSTANT_Utf8:
-                    pool[i] = input.readUTF();
-                    break;
+                    size = input.readUnsignedShort();
+                    checkUTF( input, size );
+                    continue;
                 case CONSTANT_Integer:
-                    pool[i] = Integer.valueOf( input.readInt() );
-                    break;
                 case CONSTANT_Float:
-                    pool[i] = Float.valueOf( input.readFloat() );
+                case CONSTANT_Fieldref:
+                case CONSTANT_Methodref:
+                case CONSTANT_InterfaceMethodref:
+                case CONSTANT_NameAndType:
+                case CONSTANT_InvokeDynamic:
+                    size = 4;
                     break;
                 case CONSTANT_Long:
-                    pool[i] = Long.valueOf( input.readLong() );
-                    i++;
-                    break;
                 case CONSTANT_Double:
-                    pool[i] = Double.valueOf( input.readDouble() );
+                    size = 8;
                     i++;
                     break;
                 case CONSTANT_Class:
@@ -77,79 +94,152 @@ public class ConstantPool {
                 case CONSTANT_MethodType:
                 case CONSTANT_Module:
                 case CONSTANT_Package:
-                    pool[i] = new int[] { type, input.readUnsignedShort() };
-                    break;
-                case CONSTANT_Fieldref:
-                case CONSTANT_Methodref:
-                case CONSTANT_InterfaceMethodref:
-                case CONSTANT_NameAndType:
-                case CONSTANT_InvokeDynamic:
-                    pool[i] = new int[] { type, input.readUnsignedShort(), input.readUnsignedShort() };
+                    size = 2;
                     break;
                 case CONSTANT_MethodHandle:
-                    pool[i] = new int[] { type, input.readUnsignedByte(), input.readUnsignedShort() };
+                    size = 3;
                     break;
                 default:
                     throw new IOException( "Unknown constant pool type: " + type );
             }
+            if( input.skipBytes( size ) != size ) {
+                throw new IOException( "Unexpected end of the constant pool" );
+            }
         }
+        buffer = input.copy( start );
+    }
 
-        boolean repeat;
-        do {
-            repeat = false;
-            for( int i = 0; i < count; i++ ) {
-                if( pool[i] instanceof int[] ) {
-                    int[] data = (int[])pool[i];
-                    switch( data[0] ) {
-                        case CONSTANT_Class:
-                            pool[i] = new ConstantClass( (String)pool[data[1]] );
-                            break;
-                        case CONSTANT_String:
-                        case CONSTANT_MethodType:
-                        case CONSTANT_Module:
-                        case CONSTANT_Package:
-                            pool[i] = pool[data[1]];
-                            break;
-                        case CONSTANT_Fieldref:
-                            if( pool[data[1]] instanceof int[] || pool[data[2]] instanceof int[] ) {
-                                repeat = true;
-                            } else {
-                                pool[i] = new ConstantFieldRef( (ConstantClass)pool[data[1]], (ConstantNameAndType)pool[data[2]] );
-                            }
-                            break;
-                        case CONSTANT_Methodref:
-                            if( pool[data[1]] instanceof int[] || pool[data[2]] instanceof int[] ) {
-                                repeat = true;
-                            } else {
-                                pool[i] = new ConstantMethodRef( (ConstantClass)pool[data[1]], (ConstantNameAndType)pool[data[2]] );
-                            }
-                            break;
-                        case CONSTANT_InterfaceMethodref:
-                            if( pool[data[1]] instanceof int[] || pool[data[2]] instanceof int[] ) {
-                                repeat = true;
-                            } else {
-                                pool[i] = new ConstantInterfaceRef( (ConstantClass)pool[data[1]], (ConstantNameAndType)pool[data[2]] );
-                            }
-                            break;
-                        case CONSTANT_NameAndType:
-                            pool[i] = new ConstantNameAndType( (String)pool[data[1]], (String)pool[data[2]] );
-                            break;
-                        case CONSTANT_MethodHandle:
-                            pool[i] = pool[data[2]];
-                            break;
-                        case CONSTANT_InvokeDynamic:
-                            if( pool[data[2]] instanceof int[] ) {
-                                repeat = true;
-                            } else {
-                                pool[i] = new ConstantInvokeDynamic( data[1], (ConstantNameAndType)pool[data[2]] );
-                            }
-                            break;
-                        default:
-                            throw new IOException( "Unknown constant pool type: " + data[0] );
-                    }
+    /**
+     * Check that the next bytes are a valid string in the modified UTF-8 format of the class file like
+     * {@link java.io.DataInput#readUTF()} and skip it.
+     *
+     * @param input
+     *            the stream of the class
+     * @param length
+     *            the count of bytes
+     * @throws IOException
+     *             if the bytes are not a valid string or the stream ends
+     */
+    private static void checkUTF( ClassInputStream input, int length ) throws IOException {
+        while( length > 0 ) {
+            int c = input.readUnsignedByte();
+            int size;
+            switch( c >> 4 ) {
+                case 0:
+                case 1:
+                case 2:
+                case 3:
+                case 4:
+                case 5:
+                case 6:
+                case 7:
+                    size = 1;
+                    break;
+                case 12:
+                case 13:
+                    size = 2;
+                    break;
+                case 14:
+                    size = 3;
+                    break;
+                default:
+                    throw new UTFDataFormatException( "Malformed input around byte " + input.position() );
+            }
+            if( size > length ) {
+                throw new UTFDataFormatException( "Malformed input: partial character at end" );
+            }
+            for( int i = 1; i < size; i++ ) {
+                if( (input.readUnsignedByte() & 0xC0) != 0x80 ) {
+                    throw new UTFDataFormatException( "Malformed input around byte " + input.position() );
                 }
             }
-        } while( repeat );
+            length -= size;
+        }
+    }
+
+    /**
+     * Decode a single entry.
+     *
+     * @param index
+     *            the index of the entry
+     * @return the decoded value
+     */
+    private Object decode( int index ) {
+        int offset = offsets[index];
+        switch( buffer.get( offset ) ) {
+            case CONSTANT_Utf8:
+                return readUTF( offset + 3, buffer.getShort( offset + 1 ) & 0xFFFF );
+            case CONSTANT_Integer:
+                return Integer.valueOf( buffer.getInt( offset + 1 ) );
+            case CONSTANT_Float:
+                return Float.valueOf( buffer.getFloat( offset + 1 ) );
+            case CONSTANT_Long:
+                return Long.valueOf( buffer.getLong( offset + 1 ) );
+            case CONSTANT_Double:
+                return Double.valueOf( buffer.getDouble( offset + 1 ) );
+            case CONSTANT_Class:
+                return new ConstantClass( (String)get( index( offset + 1 ) ) );
+            case CONSTANT_String:
+            case CONSTANT_MethodType:
+            case CONSTANT_Module:
+            case CONSTANT_Package:
+                return get( index( offset + 1 ) );
+            case CONSTANT_Fieldref:
+                return new ConstantFieldRef( (ConstantClass)get( index( offset + 1 ) ), (ConstantNameAndType)get( index( offset + 3 ) ) );
+            case CONSTANT_Methodref:
+                return new ConstantMethodRef( (ConstantClass)get( index( offset + 1 ) ), (ConstantNameAndType)get( index( offset + 3 ) ) );
+            case CONSTANT_InterfaceMethodref:
+                return new ConstantInterfaceRef( (ConstantClass)get( index( offset + 1 ) ), (ConstantNameAndType)get( index( offset + 3 ) ) );
+            case CONSTANT_NameAndType:
+                return new ConstantNameAndType( (String)get( index( offset + 1 ) ), (String)get( index( offset + 3 ) ) );
+            case CONSTANT_MethodHandle:
+                return get( index( offset + 2 ) );
+            case CONSTANT_InvokeDynamic:
+                return new ConstantInvokeDynamic( index( offset + 1 ), (ConstantNameAndType)get( index( offset + 3 ) ) );
+            default:
+                throw new IllegalStateException( "Unknown constant pool type: " + buffer.get( offset ) );
+        }
+    }
+
+    /**
+     * Read an unsigned 2 byte index.
+     *
+     * @param offset
+     *            the offset in the class file
+     * @return the index
+     */
+    private int index( int offset ) {
+        return buffer.getShort( offset ) & 0xFFFF;
+    }
+
+    /**
+     * Decode a string in the modified UTF-8 format of the class file like {@link java.io.DataInput#readUTF()}. The
+     * bytes are already checked in the constructor.
+     *
+     * @param offset
+     *            the offset of the first byte
+     * @param length
+     *            the count of bytes
+     * @return the string
+     */
+    private String readUTF( int offset, int length ) {
+        char[] chars = new char[length];
+        int count = 0;
+        int end = offset + length;
+        while( offset < end ) {
+            int c = buffer.get( offset ) & 0xFF;
+            if( c < 0x80 ) {
+                chars[count++] = (char)c;
+                offset++;
+            } else if( (c & 0xE0) == 0xC0 ) {
+                chars[count++] = (char)(((c & 0x1F) << 6) | (buffer.get( offset + 1 ) & 0x3F));
+                offset += 2;
+            } else {
+                chars[count++] = (char)(((c & 0x0F) << 12) | ((buffer.get( offset + 1 ) & 0x3F) << 6) | (buffer.get( offset + 2 ) & 0x3F));
+                offset += 3;
+            }
+        }
+        return new String( chars, 0, count );
     }
 
     /**
@@ -160,7 +250,15 @@ public class ConstantPool {
      * @return the object
      */
     public Object get( int index ) {
-        return constantPool[index];
+        Object value = constantPool.get( index );
+        if( value == null && offsets[index] != 0 ) {
+            // on a parallel decoding of the same entry the first value wins that all callers see the same instance
+            value = decode( index );
+            if( !constantPool.compareAndSet( index, null, value ) ) {
+                value = constantPool.get( index );
+            }
+        }
+        return value;
     }
 
     /**
@@ -172,7 +270,7 @@ public Object get( int index ) {
      *            the new value
      */
     void set( int index, Object value ) {
-        constantPool[index] = value;
+        constantPool.set( index, value );
     }
 
     /**
@@ -181,6 +279,6 @@ void set( int index, Object value ) {
      * @return the count
      */
     int size() {
-        return constantPool.length;
+        return constantPool.length();
     }
 }
@@ -35,9 +35,11 @@
 import java.util.logging.StreamHandler;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import de.inetsoftware.classparser.ClassFile;
 import de.inetsoftware.jwebassembly.binary.BinaryModuleWriter;
+import de.inetsoftware.jwebassembly.module.ModuleCache;
 import de.inetsoftware.jwebassembly.module.ModuleGenerator;
 import de.inetsoftware.jwebassembly.module.ModuleWriter;
 import de.inetsoftware.jwebassembly.module.WasmOptions;
@@ -103,11 +105,86 @@ public class JWebAssembly {
      */
     public static final String WASM_USE_EH = "wasm.use_eh";
 
+    /**
+     * If the objects and arrays of the non GC mode should be allocated in the linear memory of WASM instead of the
+     * JavaScript host. If true the fields are accessed with load and store instructions. Has no effect with GC. The
+     * unreachable objects and arrays are freed if the outermost exported function returns. Objects and arrays can not be
+     * passed to or from imported and exported functions.
+     */
+    public static final String WASM_USE_LINEAR_MEMORY = "wasm.use_linear_memory";
+
+    /**
+     * If the virtual calls of the GC mode should load a typed function reference from an immutable vtable struct of
+     * the class and call it with call_ref instead of call_indirect with a vtable in the linear memory. Has only an
+     * effect with GC.
+     */
+    public static final String WASM_USE_CALL_REF = "wasm.use_call_ref";
+
+    /**
+     * If a call in a tail position should be written as tail call with return_call or return_call_indirect. The stack
+     * frame of the caller is released before the call. The default is false.
+     */
+    public static final String WASM_USE_TAIL_CALL = "wasm.use_tail_call";
+
     /**
      * Compiler property to ignore all referenced native methods without declared replacement in a library and replace them with a stub that throws an exception at runtime.
      */
     public static final String IGNORE_NATIVE = "IgnoreNative";
 
+    /**
+     * Compiler property for the count of worker threads that scan the libraries and optimize the code of the functions.
+     * The default is 1 for a sequential compiling. A value of 0 use all available processors. The output is identical in
+     * every mode.
+     */
+    public static final String PARALLEL_THREADS = "ParallelThreads";
+
+    /**
+     * Compiler property for a directory to cache the compiled output. If the class files, the libraries and the
+     * properties are not changed since a previous compile then the output is written from the cache. If only some class
+     * files are changed then the instructions of the methods of the not changed classes are reused.
+     */
+    public static final String CACHE_DIR = "CacheDir";
+
+    /**
+     * Compiler property for the size limit in megabytes of the {@link #CACHE_DIR}. If the limit is exceeded then the
+     * least recently used outputs are removed. The default is 100.
+     */
+    public static final String CACHE_LIMIT = "CacheLimit";
+
+    /**
+     * Compiler property for the memory limit in megabytes of the class files that are loaded on demand. If the limit is
+     * exceeded then the least recently used class files can be released and parsed again on the next use. The default
+     * is 0 for no limit.
+     */
+    public static final String CLASS_CACHE_LIMIT = "ClassCacheLimit";
+
+    /**
+     * Compiler property for the memory limit in megabytes of the compiled function bodies until the binary module is
+     * written. If the limit is exceeded then the further function bodies are written to a temporary file. Fractions like
+     * 0.5 are possible. The default is 0 for no limit.
+     */
+    public static final String CODE_BUFFER_LIMIT = "CodeBufferLimit";
+
+    /**
+     * Compiler property to evaluate the static class initializers at compile time if they only calculate primitive
+     * values and arrays of the own class. The results are written as initial values of the globals and as data of the
+     * linear memory. The default is false.
+     */
+    public static final String EVALUATE_CLINIT = "EvaluateClinit";
+
+    /**
+     * Compiler property to call the static class initializers on the first access of a static field, the first call of a
+     * static method or the first creation of an instance of the class instead of calling all in the start function of
+     * the module. The default is false.
+     */
+    public static final String LAZY_CLINIT = "LazyClinit";
+
+    /**
+     * Compiler property to inline the calls of small static functions with a WasmTextCode annotation. The default is
+     * true.
+     */
+    public static final String INLINE_FUNCTIONS = "InlineFunctions";
+
     /**
      * The logger instance
      */
@@ -280,8 +357,20 @@ public void compileToText( Appendable output ) throws WasmException {
      *             if any conversion error occurs
      */
     private void compileToText( WasmTarget target ) throws WasmException {
-        try (TextModuleWriter writer = new TextModuleWriter( target, new WasmOptions( properties ) )) {
-            compile( writer, target );
+        try {
+            ModuleCache cache = ModuleCache.create( properties, false, classFiles, libraries, target );
+            if( cache != null ) {
+                if( cache.restore() ) {
+                    return;
+                }
+                target = cache.getTarget();
+            }
+            try (TextModuleWriter writer = new TextModuleWriter( target, new WasmOptions( properties ) )) {
+                compile( writer, target, cache );
+            }
+            if( cache != null ) {
+                cache.save();
+            }
         } catch( Exception ex ) {
             throw WasmException.create( ex );
         }
@@ -341,8 +430,20 @@ public void compileToBinary( OutputStream output ) throws WasmException {
      *             if any conversion error occurs
      */
     private void compileToBinary( WasmTarget target ) throws WasmException {
-        try (BinaryModuleWriter writer = new BinaryModuleWriter( target, new WasmOptions( properties ) )) {
-            compile( writer, target );
+        try {
+            ModuleCache cache = ModuleCache.create( properties, true, classFiles, libraries, target );
+            if( cache != null ) {
+                if( cache.restore() ) {
+                    return;
+                }
+                target = cache.getTarget();
+            }
+            try (BinaryModuleWriter writer = new BinaryModuleWriter( target, new WasmOptions( properties ) )) {
+                compile( writer, target, cache );
+            }
+            if( cache != null ) {
+                cache.save();
+            }
         } catch( Exception ex ) {
             throw WasmException.create( ex );
         }
@@ -355,16 +456,21 @@ private void compileToBinary( WasmTarget target ) throws WasmException {
      *            the formatter
      * @param target
      *            the target for the module data
+     * @param cache
+     *            the persistent cache or null
      * @throws IOException
      *             if any I/O error occur
      * @throws WasmException
      *             if any conversion error occurs
      */
-    private void compile( ModuleWriter writer, WasmTarget target ) throws IOException, WasmException {
-        ModuleGenerator generator = new ModuleGenerator( writer, target, libraries );
+    private void compile( ModuleWriter writer, WasmTarget target, @Nullable ModuleCache cache ) throws IOException, WasmException {
+        ModuleGenerator generator = new ModuleGenerator( writer, target, libraries, cache );
         for( URL url : classFiles ) {
             try {
                 ClassFile classFile = new ClassFile( new BufferedInputStream( url.openStream() ) );
+                if( cache != null ) {
+                    cache.addClass( classFile, url );
+                }
                 generator.prepare( classFile );
             } catch( IOException ex ) {
                 LOGGER.fine( url + " " + ex );
@@ -35,6 +35,7 @@
 import de.inetsoftware.jwebassembly.module.TypeManager.BlockType;
 import de.inetsoftware.jwebassembly.module.TypeManager.StructType;
 import de.inetsoftware.jwebassembly.module.TypeManager.StructTypeKind;
+import de.inetsoftware.jwebassembly.module.TypeManager.VTableType;
 import de.inetsoftware.jwebassembly.module.ValueTypeConvertion;
 import de.inetsoftware.jwebassembly.module.WasmOptions;
 import de.inetsoftware.jwebassembly.module.WasmTarget;
@@ -69,6 +70,12 @@ public class BinaryModuleWriter extends ModuleWriter implements InstructionOpcod
 
     private final boolean               createSourceMap;
 
+    private final long                  codeBufferLimit;
+
+    private long                        codeBufferSize;
+
+    private SpillFile                   spillFile;
+
     private WasmOutputStream            codeStream          = new WasmOutputStream( options );
 
     private List<TypeEntry>             functionTypes       = new ArrayList<>();
@@ -101,6 +108,16 @@ public class BinaryModuleWriter extends ModuleWriter implements InstructionOpcod
 
     private StructType                  classType;
 
+    /** the writer of the module if this is a function writer */
+    private final BinaryModuleWriter    module;
+
+    private FunctionName                functionName;
+
+    private boolean                     useException;
+
+    /** the positions in the code of a function writer which are resolved if the function is appended */
+    private List<CodeMark>              codeMarks;
+
     /**
      * Create new instance.
      * 
@@ -116,6 +133,25 @@ public BinaryModuleWriter( WasmTarget target, WasmOptions options ) throws IOExc
         this.target = target;
         // for now we build the source map together with debug names
         createSourceMap = options.debugNames();
+        codeBufferLimit = options.codeBufferLimit();
+        module = null;
+    }
+
+    /**
+     * Create a writer for the code of a single function. It share the functions of the module read only.
+     * 
+     * @param module
+     *            the writer of the module
+     */
+    private BinaryModuleWriter( BinaryModuleWriter module ) {
+        super( module.options );
+        this.module = module;
+        createSourceMap = module.createSourceMap;
+        codeBufferLimit = 0;
+        functions = module.functions;
+        imports = module.imports;
+        abstracts = module.abstracts;
+        codeMarks = new ArrayList<>();
     }
 
     /**
@@ -123,27 +159,33 @@ public BinaryModuleWriter( WasmTarget target, WasmOptions options ) throws IOExc
      */
     @Override
     public void close() throws IOException {
-        wasm = new WasmOutputStream( options, target.getWasmOutput() );
-        wasm.write( WASM_BINARY_MAGIC );
-        wasm.writeInt32( WASM_BINARY_VERSION );
-
-        writeSection( SectionType.Type, functionTypes );
-        writeSection( SectionType.Import, imports.values() );
-        writeSection( SectionType.Function, functions.values() );
-        writeTableSection();
-        writeMemorySection();
-        writeTagSection();
-        writeSection( SectionType.Global, globals.values() );
-        writeSection( SectionType.Export, exports );
-        writeStartSection();
-        writeElementSection();
-        writeCodeSection();
-        writeDataSection();
-        writeDebugNames();
-        writeSourceMappingUrl();
-        writeProducersSection();
-
-        wasm.close();
+        try {
+            wasm = new WasmOutputStream( options, target.getWasmOutput() );
+            wasm.write( WASM_BINARY_MAGIC );
+            wasm.writeInt32( WASM_BINARY_VERSION );
+
+            writeSection( SectionType.Type, functionTypes );
+            writeSection( SectionType.Import, imports.values() );
+            writeSection( SectionType.Function, functions.values() );
+            writeTableSection();
+            writeMemorySection();
+            writeTagSection();
+            writeSection( SectionType.Global, globals.values() );
+            writeSection( SectionType.Export, exports );
+            writeStartSection();
+            writeElementSection();
+            writeCodeSection();
+            writeDataSection();
+            writeDebugNames();
+            writeSourceMappingUrl();
+            writeProducersSection();
+
+            wasm.close();
+        } finally {
+            if( spillFile != null ) {
+                spillFile.close();
+            }
+        }
     }
 
     /**
@@ -175,20 +217,16 @@ private void writeSection( SectionType type, Collection<? extends SectionEntry>
      *             if any I/O error occur
      */
     private void writeTableSection() throws IOException {
-        int stringCount = options.strings.size();
-        int typeCount = options.types.size();
-        if( !callIndirect && stringCount == 0 ) {
+        // with linear memory the String and Class instances are saved in the memory
+        int stringCount = options.useLinearMemory() ? 0 : options.strings.size();
+        int typeCount = options.useLinearMemory() ? 0 : options.types.size();
+        // the tables are declared in the order of its indices, a table before a used table is declared empty
+        int count = typeCount > 0 ? CLASS_TABLE + 1 : stringCount > 0 ? STRING_TABLE + 1 : FUNCTION_TABLE + 1;
+        if( !callIndirect && count == FUNCTION_TABLE + 1 ) {
             return;
         }
 
         WasmOutputStream stream = new WasmOutputStream( options );
-        int count = 1;
-        if( stringCount > 0 ) {
-            count++;
-        }
-        if( typeCount > 0 ) {
-            count++;
-        }
         stream.writeVaruint32( count ); // count of tables
 
         // indirect function table 
@@ -199,14 +237,14 @@ private void writeTableSection() throws IOException {
         //stream.writeVaruint32( elemCount ); // maximum length
 
         // string constants table
-        if( count >= 2 ) {
+        if( count > STRING_TABLE ) {
             stream.writeRefValueType( stringType != null ? stringType : ValueType.externref ); // the type of elements
             stream.writeVaruint32( 0 ); // flags; 1-maximum is available, 0-no maximum value available
             stream.writeVaruint32( stringCount ); // initial length
         }
 
         // table with classes
-        if( count >= 3 ) {
+        if( count > CLASS_TABLE ) {
             stream.writeRefValueType( classType != null ? classType : ValueType.externref ); // the type of elements
             stream.writeVaruint32( 0 ); // flags; 1-maximum is available, 0-no maximum value available
             stream.writeVaruint32( typeCount ); // initial length
@@ -223,9 +261,9 @@ private void writeTableSection() throws IOException {
      */
     private void writeMemorySection() throws IOException {
         int dataSize = dataStream.size();
-        if( dataSize > 0 ) {
+        if( dataSize > 0 || options.useLinearMemory() ) {
             WasmOutputStream stream = new WasmOutputStream( options );
-            int pages = (dataSize + 0xFFFF) / 0x10000; // a page is defined with a size of 64KiB
+            int pages = Math.max( (dataSize + 0xFFFF) / 0x10000, 1 ); // a page is defined with a size of 64KiB
             int count = 1;
             stream.writeVaruint32( count );
             for( int i = 0; i < count; i++ ) {
@@ -311,26 +349,34 @@ private void writeCodeSection() throws IOException {
             return;
         }
 
-        int start = wasm.size();
-        WasmOutputStream stream = new WasmOutputStream( options );
-        stream.writeVaruint32( size );
+        // the size of all function bodies is known, the section is written without an extra buffer
+        int sectionSize = WasmOutputStream.sizeOfVaruint32( size );
+        for( Function func : functions.values() ) {
+            sectionSize += WasmOutputStream.sizeOfVaruint32( func.codeSize ) + func.codeSize;
+        }
+        wasm.writeVaruint32( SectionType.Code.ordinal() );
+        wasm.writeVaruint32( sectionSize );
+        wasm.writeVaruint32( size );
         for( Entry<String, Function> entry : functions.entrySet() ) {
             try {
                 Function func = entry.getValue();
-                func.addCodeOffset( start + stream.size() );
-                func.functionsStream.writeTo( stream );
+                wasm.writeVaruint32( func.codeSize );
+                func.addCodeOffset( wasm.size() );
+                if( func.functionsStream != null ) {
+                    func.functionsStream.writeTo( wasm );
+                    func.functionsStream = null;
+                } else {
+                    spillFile.copyTo( func.spillPosition, func.codeSize, wasm );
+                }
             } catch( RuntimeException ex ) {
                 throw WasmException.create( entry.getKey(), ex );
             }
         }
-        wasm.writeSection( SectionType.Code, stream );
 
         SourceMapWriter sourceMap = createSourceMap ? new SourceMapWriter( options.getSourceMapBase() ) : null;
         if( sourceMap != null ) {
-            int offset = wasm.size() - start - stream.size();
             for( Function func : functions.values() ) {
                 if( func.sourceMappings != null ) {
-                    func.addCodeOffset( offset );
                     for( SourceMapping mapping : func.sourceMappings ) {
                         sourceMap.addMapping( mapping );
                     }
@@ -508,7 +554,7 @@ protected int writeStructType( StructType type ) throws IOException {
         }
 
         if( !options.useGC() ) {
-            return ValueType.externref.getCode();
+            return options.useLinearMemory() ? ValueType.i32.getCode() : ValueType.externref.getCode();
         }
 
         switch( type.getName() ) {
@@ -526,6 +572,36 @@ protected int writeStructType( StructType type ) throws IOException {
         return typeId;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int writeVTableType( VTableType type ) throws IOException {
+        List<FunctionName> declarations = type.getDeclarations();
+        int[] typeIds = new int[declarations.size()];
+        for( int i = 0; i < typeIds.length; i++ ) {
+            typeIds[i] = getFunction( declarations.get( i ) ).typeId;
+        }
+
+        int typeId = functionTypes.size();
+        functionTypes.add( new VTableTypeEntry( typeIds ) );
+
+        FunctionName instance = type.getInstance();
+        if( instance != null ) {
+            Global var = new Global();
+            var.id = globals.size();
+            var.type = type;
+            List<FunctionName> functions = type.getFunctions();
+            var.functionRefs = new int[functions.size()];
+            for( int i = 0; i < var.functionRefs.length; i++ ) {
+                var.functionRefs[i] = getFunction( functions.get( i ) ).id;
+            }
+            var.rttHierarchy = type.getHierarchy();
+            globals.put( instance.fullName, var );
+        }
+        return typeId;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -543,6 +619,11 @@ protected int writeBlockType( BlockType type ) throws IOException {
      */
     @Override
     protected void writeException() throws IOException {
+        if( module != null ) {
+            // the tag is declared if the function is appended
+            useException = true;
+            return;
+        }
         if( exceptionSignatureIndex <= 0 ) {
             FunctionTypeEntry type = new FunctionTypeEntry();
             AnyType eventType = options.useGC() ? options.types.valueOf( "java/lang/Throwable" ) : ValueType.externref;
@@ -594,15 +675,21 @@ protected void writeExport( FunctionName name, String exportName ) throws IOExce
      */
     @Override
     protected void writeMethodParamStart( FunctionName name, FunctionType funcType ) throws IOException {
-        switch( funcType ) {
-            case Abstract:
-                abstracts.put( name.signatureName, function = new Function() );
-                break;
-            case Start:
-                startFunction = name;
-                //$FALL-THROUGH$
-            default:
-                function = getFunction( name );
+        if( module != null ) {
+            // the signature is assigned to the function of the module if it is appended
+            functionName = name;
+            function = new Function();
+        } else {
+            switch( funcType ) {
+                case Abstract:
+                    abstracts.put( name.signatureName, function = new Function() );
+                    break;
+                case Start:
+                    startFunction = name;
+                    //$FALL-THROUGH$
+                default:
+                    function = getFunction( name );
+            }
         }
         functionType = new FunctionTypeEntry();
         locals.clear();
@@ -640,6 +727,9 @@ protected void writeMethodParam( String kind, AnyType valueType, @Nullable Strin
      */
     @Override
     protected void writeMethodParamFinish(FunctionName name) throws IOException {
+        if( module != null ) {
+            return;
+        }
         int typeId = functionTypes.indexOf( functionType );
         if( typeId < 0 ) {
             typeId = functionTypes.size();
@@ -666,7 +756,11 @@ protected void writeMethodStart( FunctionName name, String sourceFile ) throws I
     @Override
     protected void markSourceLine( int javaSourceLine ) {
         if( createSourceMap ) {
-            function.markCodePosition( codeStream.size(), javaSourceLine, javaSourceFile );
+            if( module != null ) {
+                codeMarks.add( new CodeMark( codeStream.size(), javaSourceLine ) );
+            } else {
+                function.markCodePosition( codeStream.size(), javaSourceLine, javaSourceFile );
+            }
         }
     }
 
@@ -675,6 +769,9 @@ protected void markSourceLine( int javaSourceLine ) {
      */
     @Override
     protected void writeMethodFinish() throws IOException {
+        if( module != null ) {
+            return;
+        }
         @SuppressWarnings( "resource" )
         WasmOutputStream localsTypeStream = new WasmOutputStream( options );
         int localEntryCount = 0;      // number of local entries in output
@@ -695,13 +792,77 @@ protected void writeMethodFinish() throws IOException {
         WasmOutputStream localsStream = new WasmOutputStream( options );
         localsStream.writeVaruint32( localEntryCount );
 
-        WasmOutputStream functionsStream = function.functionsStream = new WasmOutputStream( options );
-        functionsStream.writeVaruint32( localsStream.size() + localsTypeStream.size() + codeStream.size() + 1 );
+        // the size prefix of the body is written with the code section
+        WasmOutputStream functionsStream = new WasmOutputStream( options );
         localsStream.writeTo( functionsStream );
         localsTypeStream.writeTo( functionsStream );
         function.addCodeOffset( functionsStream.size() );
         codeStream.writeTo( functionsStream );
         functionsStream.write( END );
+
+        int codeSize = function.codeSize = functionsStream.size();
+        if( codeBufferLimit > 0 && codeBufferSize + codeSize > codeBufferLimit ) {
+            if( spillFile == null ) {
+                spillFile = new SpillFile();
+            }
+            function.spillPosition = spillFile.write( functionsStream );
+            function.functionsStream = null;
+        } else {
+            codeBufferSize += codeSize;
+            function.functionsStream = functionsStream;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected ModuleWriter createFunctionWriter() throws IOException {
+        return new BinaryModuleWriter( this );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void appendFunction( ModuleWriter functionWriter ) throws IOException {
+        BinaryModuleWriter writer = (BinaryModuleWriter)functionWriter;
+        function = getFunction( writer.functionName );
+        List<String> paramNames = writer.function.paramNames;
+        if( function.paramNames == null ) {
+            function.paramNames = paramNames;
+        } else {
+            function.paramNames.clear();
+            if( paramNames != null ) {
+                function.paramNames.addAll( paramNames );
+            }
+        }
+        functionType = writer.functionType;
+        locals = writer.locals;
+        writeMethodParamFinish( writer.functionName );
+        if( writer.useException ) {
+            writeException();
+        }
+        if( writer.callIndirect ) {
+            callIndirect = true;
+        }
+
+        // copy the code and insert the values that depends on the order of the writing
+        javaSourceFile = writer.javaSourceFile;
+        codeStream.reset();
+        byte[] code = writer.codeStream.toByteArray();
+        int pos = 0;
+        for( CodeMark mark : writer.codeMarks ) {
+            codeStream.write( code, pos, mark.position - pos );
+            pos = mark.position;
+            if( mark.globalName != null ) {
+                codeStream.writeVaruint32( getGlobal( mark.globalName, mark.globalType ).id );
+            } else {
+                markSourceLine( mark.javaSourceLine );
+            }
+        }
+        codeStream.write( code, pos, code.length - pos );
+        writeMethodFinish();
     }
 
     /**
@@ -737,17 +898,49 @@ protected void writeLocal( VariableOperator op, int idx ) throws IOException {
      */
     @Override
     protected void writeGlobalAccess( boolean load, FunctionName name, AnyType type ) throws IOException {
-        Global var = globals.get( name.fullName );
-        if( var == null ) { // if not declared then create a definition in the global section
+        int op = load ? GLOBAL_GET : GLOBAL_SET;
+        codeStream.writeOpCode( op );
+        if( module != null ) {
+            // the index of a new global depends on the order of the first access
+            codeMarks.add( new CodeMark( codeStream.size(), name.fullName, type ) );
+            return;
+        }
+        codeStream.writeVaruint32( getGlobal( name.fullName, type ).id );
+    }
+
+    /**
+     * Get the global variable for the name. If not declared then create a definition in the global section.
+     * 
+     * @param fullName
+     *            the full name of the global variable
+     * @param type
+     *            the type of the variable
+     * @return the global
+     */
+    @Nonnull
+    private Global getGlobal( String fullName, AnyType type ) {
+        Global var = globals.get( fullName );
+        if( var == null ) {
             var = new Global();
             var.id = globals.size();
             var.type = type;
             var.mutability = true;
-            globals.put( name.fullName, var );
+            globals.put( fullName, var );
         }
-        int op = load ? GLOBAL_GET : GLOBAL_SET;
-        codeStream.writeOpCode( op );
-        codeStream.writeVaruint32( var.id );
+        return var;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void prepareGlobal( FunctionName name, AnyType type, Number value ) throws IOException {
+        Global var = new Global();
+        var.id = globals.size();
+        var.type = type;
+        var.mutability = true;
+        var.value = value;
+        globals.put( name.fullName, var );
     }
 
     /**
@@ -1066,14 +1259,16 @@ protected void writeNumericOperator( NumericOperator numOp, @Nullable ValueType
                 }
                 break;
             case ifnull:
-                op = REF_ISNULL;
+                op = options.useLinearMemory() ? I32_EQZ : REF_ISNULL;
                 break;
             case ifnonnull:
-                codeStream.writeOpCode( REF_ISNULL );
+                codeStream.writeOpCode( options.useLinearMemory() ? I32_EQZ : REF_ISNULL );
                 op = I32_EQZ;
                 break;
             case ref_eq:
-                if( options.useGC() ) {
+                if( options.useLinearMemory() ) {
+                    op = I32_EQ;
+                } else if( options.useGC() ) {
                     op = REF_EQ;
                 } else {
                     writeFunctionCall( options.ref_eq, null );
@@ -1081,7 +1276,10 @@ protected void writeNumericOperator( NumericOperator numOp, @Nullable ValueType
                 }
                 break;
             case ref_ne:
-                if( options.useGC() ) {
+                if( options.useLinearMemory() ) {
+                    op = I32_NE;
+                    break;
+                } else if( options.useGC() ) {
                     codeStream.writeOpCode( REF_EQ );
                 } else {
                     writeFunctionCall( options.ref_eq, null );
@@ -1261,7 +1459,46 @@ protected void writeVirtualFunctionCall( FunctionName name, AnyType type ) throw
         Function func = getFunction( name );
         codeStream.writeOpCode( CALL_INDIRECT );
         codeStream.writeVaruint32( func.typeId );
-        codeStream.writeVaruint32( 0 ); // table 0
+        codeStream.writeVaruint32( FUNCTION_TABLE ); // table index
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void writeFunctionCallRef( FunctionName name ) throws IOException {
+        codeStream.writeOpCode( CALL_REF );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void writeReturnFunctionCall( FunctionName name ) throws IOException {
+        Function func = getFunction( name );
+        codeStream.writeOpCode( RETURN_CALL );
+        codeStream.writeVaruint32( func.id );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void writeReturnVirtualFunctionCall( FunctionName name, AnyType type ) throws IOException {
+        callIndirect = true;
+
+        Function func = getFunction( name );
+        codeStream.writeOpCode( RETURN_CALL_INDIRECT );
+        codeStream.writeVaruint32( func.typeId );
+        codeStream.writeVaruint32( FUNCTION_TABLE ); // table index
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void writeReturnFunctionCallRef( FunctionName name ) throws IOException {
+        codeStream.writeOpCode( RETURN_CALL_REF );
     }
 
     /**
@@ -1280,6 +1517,10 @@ private Function getFunction( FunctionName name ) {
             if( func == null ) {
                 func = abstracts.get( signatureName );
                 if( func == null ) {
+                    if( module != null ) {
+                        // a function writer can not change the functions of the module
+                        throw new WasmException( "Function was not prepared: " + signatureName, -1 );
+                    }
                     func = new Function();
                     func.id = functions.size() + imports.size();
                     functions.put( signatureName, func );
@@ -1414,10 +1655,17 @@ protected void writeArrayOperator( @Nonnull ArrayOperator op, ArrayType type ) t
             case NEW_ARRAY_WITH_RTT:
                 opCode = ARRAY_NEW_DEFAULT;
                 break;
+            case COPY:
+                codeStream.writeOpCode( ARRAY_COPY );
+                codeStream.writeValueType( type.getNativeArrayType() ); // destination
+                opCode = -1;
+                break;
             default:
                 throw new Error( "Unknown operator: " + op );
         }
-        codeStream.writeOpCode( opCode );
+        if( opCode >= 0 ) {
+            codeStream.writeOpCode( opCode );
+        }
         codeStream.writeValueType( type.getNativeArrayType() );
     }
 
@@ -1444,9 +1692,16 @@ protected void writeStructOperator( StructOperator op, AnyType type, NamedStorag
                 opCode = REF_NULL;
                 type = options.useGC() ? type : ValueType.externref;
                 break;
+            case NON_NULL:
+                opCode = REF_AS_NON_NULL;
+                type = null;
+                break;
             case RTT_CANON:
                 opCode = RTT_CANON;
                 break;
+            case RTT_SUB:
+                opCode = RTT_SUB;
+                break;
             case NEW_WITH_RTT:
                 opCode = STRUCT_NEW;
                 break;
@@ -1482,6 +1737,22 @@ protected void writeMemoryOperator( MemoryOperator memOp, ValueType valueType, i
                     case i64:
                         op = I64_LOAD;
                         break;
+                    case f32:
+                        op = F32_LOAD;
+                        break;
+                    case f64:
+                        op = F64_LOAD;
+                        break;
+                }
+                break;
+            case load8_s:
+                switch( valueType ) {
+                    case i32:
+                        op = I32_LOAD8_S;
+                        break;
+                    case i64:
+                        op = I64_LOAD8_S;
+                        break;
                 }
                 break;
             case load8_u:
@@ -1494,12 +1765,128 @@ protected void writeMemoryOperator( MemoryOperator memOp, ValueType valueType, i
                         break;
                 }
                 break;
+            case load16_s:
+                switch( valueType ) {
+                    case i32:
+                        op = I32_LOAD16_S;
+                        break;
+                    case i64:
+                        op = I64_LOAD16_S;
+                        break;
+                }
+                break;
+            case load16_u:
+                switch( valueType ) {
+                    case i32:
+                        op = I32_LOAD16_U;
+                        break;
+                    case i64:
+                        op = I64_LOAD16_U;
+                        break;
+                }
+                break;
+            case store:
+                switch( valueType ) {
+                    case i32:
+                        op = I32_STORE;
+                        break;
+                    case i64:
+                        op = I64_STORE;
+                        break;
+                    case f32:
+                        op = F32_STORE;
+                        break;
+                    case f64:
+                        op = F64_STORE;
+                        break;
+                }
+                break;
+            case store8:
+                switch( valueType ) {
+                    case i32:
+                        op = I32_STORE8;
+                        break;
+                    case i64:
+                        op = I54_STORE8;
+                        break;
+                }
+                break;
+            case store16:
+                switch( valueType ) {
+                    case i32:
+                        op = I32_STORE16;
+                        break;
+                    case i64:
+                        op = I54_STORE16;
+                        break;
+                }
+                break;
+            case size:
+            case grow:
+                codeStream.writeOpCode( memOp == MemoryOperator.size ? MEMORY_SIZE : MEMORY_GROW );
+                codeStream.write( 0 ); // memory index
+                return;
+            case copy:
+                codeStream.writeOpCode( MEMORY_COPY );
+                codeStream.write( 0 ); // destination memory index
+                codeStream.write( 0 ); // source memory index
+                return;
+            case fill:
+                codeStream.writeOpCode( MEMORY_FILL );
+                codeStream.write( 0 ); // memory index
+                return;
         }
         if( op == 0 ) {
             throw new Error( valueType + "." + memOp );
         }
         codeStream.writeOpCode( op );
-        codeStream.write( alignment ); // 0: 8 Bit; 1: 16 Bit; 2: 32 Bit of the resulting offset
+        codeStream.write( alignment ); // 0: 8 Bit; 1: 16 Bit; 2: 32 Bit; 3: 64 Bit of the resulting offset
         codeStream.writeVaruint32( offset );
     }
+
+    /**
+     * A position in the code of a function writer with a value that is inserted if the function is appended.
+     */
+    private static class CodeMark {
+
+        private final int     position;
+
+        private final String  globalName;
+
+        private final AnyType globalType;
+
+        private final int     javaSourceLine;
+
+        /**
+         * Create a mark for the index of a global variable.
+         * 
+         * @param position
+         *            the position in the code
+         * @param globalName
+         *            the full name of the global variable
+         * @param globalType
+         *            the type of the global variable
+         */
+        private CodeMark( int position, String globalName, AnyType globalType ) {
+            this.position = position;
+            this.globalName = globalName;
+            this.globalType = globalType;
+            this.javaSourceLine = -1;
+        }
+
+        /**
+         * Create a mark for the source map.
+         * 
+         * @param position
+         *            the position in the code
+         * @param javaSourceLine
+         *            the line number in the Java code
+         */
+        private CodeMark( int position, int javaSourceLine ) {
+            this.position = position;
+            this.globalName = null;
+            this.globalType = null;
+            this.javaSourceLine = javaSourceLine;
+        }
+    }
 }
@@ -34,8 +34,13 @@ class Function extends SectionEntry {
 
     List<String>             paramNames;
 
+    // the body of the function or null if it was written to the spill file
     WasmOutputStream         functionsStream;
 
+    long                     spillPosition;
+
+    int                      codeSize;
+
     ArrayList<SourceMapping> sourceMappings;
 
     /**
@@ -16,8 +16,10 @@
 package de.inetsoftware.jwebassembly.binary;
 
 import java.io.IOException;
+import java.util.List;
 
 import de.inetsoftware.jwebassembly.wasm.AnyType;
+import de.inetsoftware.jwebassembly.wasm.ValueType;
 
 /**
  * An entry in the global section of the WebAssembly.
@@ -32,6 +34,14 @@ class Global extends SectionEntry {
 
     boolean mutability;
 
+    Number  value;
+
+    /** the function indexes of an immutable vtable struct, the type must be the struct type */
+    int[]   functionRefs;
+
+    /** the types for the rtt of the vtable struct, from the top most super type to the struct type */
+    List<? extends AnyType> rttHierarchy;
+
     /**
      * {@inheritDoc}
      */
@@ -39,7 +49,23 @@ class Global extends SectionEntry {
     void writeSectionEntry( WasmOutputStream stream ) throws IOException {
         stream.writeRefValueType( this.type );
         stream.write( this.mutability ? 1 : 0 );
-        stream.writeDefaultValue( this.type );
+        if( functionRefs != null ) {
+            for( int funcIdx : functionRefs ) {
+                stream.writeOpCode( InstructionOpcodes.REF_FUNC );
+                stream.writeVaruint32( funcIdx );
+            }
+            for( int i = 0; i < rttHierarchy.size(); i++ ) {
+                stream.writeOpCode( i == 0 ? InstructionOpcodes.RTT_CANON : InstructionOpcodes.RTT_SUB );
+                stream.writeValueType( rttHierarchy.get( i ) );
+            }
+            stream.writeOpCode( InstructionOpcodes.STRUCT_NEW );
+            stream.writeValueType( this.type );
+        } else if( value == null ) {
+            stream.writeDefaultValue( this.type );
+        } else {
+            AnyType type = this.type;
+            stream.writeConst( value, type == ValueType.i64 || type == ValueType.f32 || type == ValueType.f64 ? (ValueType)type : ValueType.i32 );
+        }
         stream.writeOpCode( InstructionOpcodes.END );
     }
 }
@@ -457,6 +457,9 @@ interface InstructionOpcodes {
 
     static final int REF_ISNULL             = 0xD1;
 
+    /** create a reference to a function */
+    static final int REF_FUNC               = 0xD2;
+
     /** converts a nullable reference to a non-nullable one or traps if null */
     static final int REF_AS_NON_NULL        = 0xD3;
 
@@ -483,6 +486,12 @@ interface InstructionOpcodes {
 
     static final int I64_TRUNC_SAT_F64_U    = 0xFC07;
 
+    // === bulk memory opcodes ===== https://webassembly.github.io/spec/core/binary/instructions.html#memory-instructions
+
+    static final int MEMORY_COPY            = 0xFC0A;
+
+    static final int MEMORY_FILL            = 0xFC0B;
+
     // === table opcodes ===== https://webassembly.github.io/reference-types/core/binary/instructions.html#table-instructions
 
     static final int TABLE_GROW             = 0xFC0F;
@@ -516,7 +525,12 @@ interface InstructionOpcodes {
 
     static final int ARRAY_LEN              = 0xFB17;
 
+    static final int ARRAY_COPY             = 0xFB18;
+
     static final int RTT_CANON              = 0xFB30;
 
+    /** create a sub rtt of the rtt on the stack */
+    static final int RTT_SUB                = 0xFB31;
+
     static final int REF_CAST               = 0xFB41;
 }
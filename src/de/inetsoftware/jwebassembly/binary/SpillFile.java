@@ -0,0 +1,102 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.binary;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A temporary file for the function bodies that does not fit in the memory limit of the binary writer. The file is
+ * deleted on closing.
+ *
+ * @author Volker Berlin
+ */
+class SpillFile implements Closeable {
+
+    private final FileChannel channel;
+
+    private final ByteBuffer  buffer = ByteBuffer.allocate( 0x10000 );
+
+    /**
+     * Create a new temporary file.
+     *
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    SpillFile() throws IOException {
+        channel = FileChannel.open( Files.createTempFile( "jwebassembly", ".code" ), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE );
+    }
+
+    /**
+     * Append the data of an in memory stream to the end of the file.
+     *
+     * @param data
+     *            the data
+     * @return the position of the data in the file
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    long write( @Nonnull WasmOutputStream data ) throws IOException {
+        long position = channel.size();
+        channel.position( position );
+        data.writeTo( Channels.newOutputStream( channel ) );
+        return position;
+    }
+
+    /**
+     * Copy data from the file to the output.
+     *
+     * @param position
+     *            the position in the file
+     * @param size
+     *            the count of bytes
+     * @param output
+     *            the target
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    void copyTo( long position, int size, @Nonnull OutputStream output ) throws IOException {
+        byte[] bytes = buffer.array();
+        while( size > 0 ) {
+            buffer.clear();
+            buffer.limit( Math.min( size, bytes.length ) );
+            int count = channel.read( buffer, position );
+            if( count < 0 ) {
+                throw new EOFException();
+            }
+            output.write( bytes, 0, count );
+            position += count;
+            size -= count;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
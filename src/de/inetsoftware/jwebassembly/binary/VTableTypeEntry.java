@@ -0,0 +1,85 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.binary;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import de.inetsoftware.jwebassembly.wasm.ValueType;
+
+/**
+ * An immutable struct type entry of a vtable with typed function references in the type section of the WebAssembly.
+ * 
+ * @author Volker Berlin
+ */
+class VTableTypeEntry extends TypeEntry {
+
+    private final int[] typeIds;
+
+    /**
+     * Create a new instance.
+     * 
+     * @param typeIds
+     *            the function type indexes of the fields
+     */
+    VTableTypeEntry( int[] typeIds ) {
+        this.typeIds = typeIds;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    ValueType getTypeForm() {
+        return ValueType.struct;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    void writeSectionEntryDetails( WasmOutputStream stream ) throws IOException {
+        stream.writeVaruint32( typeIds.length );
+        for( int typeId : typeIds ) {
+            stream.writeValueType( ValueType.optref );
+            stream.writeVarint( typeId );
+            stream.writeVarint( 0 ); // 0 - immutable; 1 - mutable 
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode( typeIds );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals( Object obj ) {
+        if( obj == this ) {
+            return true;
+        }
+        if( obj == null || obj.getClass() != getClass() ) {
+            return false;
+        }
+        VTableTypeEntry type = (VTableTypeEntry)obj;
+        return Arrays.equals( typeIds, type.typeIds );
+    }
+}
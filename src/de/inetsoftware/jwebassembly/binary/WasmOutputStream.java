@@ -75,6 +75,17 @@ public void writeOpCode( int op ) throws IOException {
         write( op );
     }
 
+    /**
+     * If the type is a reference to an object.
+     * 
+     * @param type
+     *            the type
+     * @return true, if a reference
+     */
+    private static boolean isReference( AnyType type ) {
+        return type.isRefType() || type == ValueType.externref || type == ValueType.eqref || type == ValueType.anyref;
+    }
+
     /**
      * Write a value type.
      * 
@@ -84,7 +95,10 @@ public void writeOpCode( int op ) throws IOException {
      *             if an I/O error occurs.
      */
     public void writeValueType( AnyType type ) throws IOException {
-        if( !options.useGC() && type == ValueType.eqref ) {
+        if( options.useLinearMemory() && isReference( type ) ) {
+            // the reference is an address in the linear memory
+            type = ValueType.i32;
+        } else if( !options.useGC() && type == ValueType.eqref ) {
             type = ValueType.externref;
         }
         writeVarint( type.getCode() );
@@ -99,7 +113,7 @@ public void writeValueType( AnyType type ) throws IOException {
      *             if an I/O error occurs.
      */
     public void writeRefValueType( AnyType type ) throws IOException {
-        if( type.isRefType() ) {
+        if( type.isRefType() && !options.useLinearMemory() ) {
             if( options.useGC() ) {
                 writeValueType( ValueType.optref );
             } else {
@@ -118,7 +132,9 @@ public void writeRefValueType( AnyType type ) throws IOException {
      *             if an I/O error occurs.
      */
     public void writeDefaultValue( AnyType type ) throws IOException {
-        if( type instanceof ValueType ) {
+        if( options.useLinearMemory() && isReference( type ) ) {
+            writeConst( 0, ValueType.i32 );
+        } else if( type instanceof ValueType ) {
             ValueType valueType = (ValueType)type;
             switch( valueType ) {
                 case i32:
@@ -166,6 +182,21 @@ void writeVaruint32( @Nonnegative int value ) throws IOException {
         } while( value != 0 );
     }
 
+    /**
+     * Get the count of bytes of an unsigned integer in LEB128 encoding.
+     * 
+     * @param value
+     *            the value
+     * @return the size
+     */
+    static int sizeOfVaruint32( @Nonnegative int value ) {
+        int size = 1;
+        while( (value >>>= 7) != 0 ) {
+            size++;
+        }
+        return size;
+    }
+
     /**
      * Write an integer value.
      * 
@@ -16,6 +16,7 @@
 */
 package de.inetsoftware.jwebassembly.javascript;
 
+import java.io.Serializable;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
@@ -30,7 +31,16 @@
  */
 public class JavaScriptSyntheticFunctionName extends ArraySyntheticFunctionName {
 
-    private final Supplier<String> js;
+    private final JavaScript js;
+
+    /**
+     * The dynamic JavaScript of the function. It is serializable that the function can be saved with the instructions of
+     * the caller.
+     */
+    @FunctionalInterface
+    public static interface JavaScript extends Supplier<String>, Serializable {
+        // only the combination of the interfaces
+    }
 
     /**
      * Create a synthetic function which based on imported, dynamic generated JavaScript.
@@ -44,7 +54,7 @@ public class JavaScriptSyntheticFunctionName extends ArraySyntheticFunctionName
      * @param signature
      *            the types of the signature
      */
-    public JavaScriptSyntheticFunctionName( String module, String functionName, Supplier<String> js, AnyType... signature ) {
+    public JavaScriptSyntheticFunctionName( String module, String functionName, JavaScript js, AnyType... signature ) {
         super( module, functionName, signature );
         this.js = js;
     }
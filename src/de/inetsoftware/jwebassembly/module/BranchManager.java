@@ -33,10 +33,10 @@
 import de.inetsoftware.classparser.TryCatchFinally;
 import de.inetsoftware.jwebassembly.WasmException;
 import de.inetsoftware.jwebassembly.module.TypeManager.BlockType;
-import de.inetsoftware.jwebassembly.module.TypeManager.StructType;
 import de.inetsoftware.jwebassembly.module.WasmInstruction.Type;
 import de.inetsoftware.jwebassembly.wasm.AnyType;
 import de.inetsoftware.jwebassembly.wasm.NumericOperator;
+import de.inetsoftware.jwebassembly.wasm.StructOperator;
 import de.inetsoftware.jwebassembly.wasm.ValueType;
 import de.inetsoftware.jwebassembly.wasm.VariableOperator;
 import de.inetsoftware.jwebassembly.wasm.WasmBlockOperator;
@@ -1309,18 +1309,16 @@ private void calculateTry( final BranchNode parent, TryCatchParsedBlock tryBlock
                 @Override
                 int handle(int codePosition, java.util.List<WasmInstruction> instructions, int idx, int lineNumber) {
                     if( codePosition == catchPos + 1 ) {
-                        FunctionName instanceOf = options.getInstanceOf();
-
                         instructions.add( idx++, new WasmBlockInstruction( WasmBlockOperator.BLOCK, null, catchPos, lineNumber ) );
                         int brIf = -1;
                         int handler = -1;
                         for( int i = 0; i < catches.size(); i++ ) {
                             TryCatchFinally tryCat = catches.get( i );
                             String exceptionTypeName = tryCat.getType().getName();
-                            StructType type = options.types.valueOf( exceptionTypeName );
+                            WasmStructInstruction instanceOf = new WasmStructInstruction( StructOperator.INSTANCEOF, exceptionTypeName, null, catchPos, lineNumber, options.types );
+                            instanceOf.createNonGcFunction();
                             instructions.add( idx++, new WasmLoadStoreInstruction( VariableOperator.get, ex.getSlot(), localVariables, catchPos, lineNumber ) );
-                            instructions.add( idx++, new WasmConstNumberInstruction( type.getClassIndex(), catchPos, lineNumber ) );
-                            instructions.add( idx++, new WasmCallInstruction( instanceOf, catchPos, lineNumber, options.types, false, exceptionTypeName ) );
+                            instructions.add( idx++, instanceOf );
                             if( handler != tryCat.getHandler() ) {
                                 // if not multiple exception in catch block like "catch ( ArrayIndexOutOfBoundsException | IllegalArgumentException ex )"
                                 handler = tryCat.getHandler();
@@ -0,0 +1,504 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.module;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.InvalidObjectException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import de.inetsoftware.classparser.MethodInfo;
+import de.inetsoftware.jwebassembly.JWebAssembly;
+import de.inetsoftware.jwebassembly.module.TypeManager.BlockType;
+import de.inetsoftware.jwebassembly.module.TypeManager.LambdaType;
+import de.inetsoftware.jwebassembly.module.TypeManager.StructType;
+import de.inetsoftware.jwebassembly.module.TypeManager.VTableType;
+import de.inetsoftware.jwebassembly.wasm.AnyType;
+import de.inetsoftware.jwebassembly.wasm.ArrayType;
+
+/**
+ * A persistent cache of the instructions of the methods per class. The instructions are saved with the recorded calls
+ * of the managers from the {@link ScanJournal}. On a restore the calls are replayed. The instructions are only reused
+ * if the replayed calls have the same results and all classes, that was read while creating the instructions, are not
+ * changed. Then the side effects of the creation like needed functions, types and strings are the same as without the
+ * cache. The manager and the types are not saved, a reference is replaced with a token and resolved with the managers
+ * of the current compile.
+ * <p>
+ * The file of a class is named with a hash of the environment, the class name and the content of the class file.
+ *
+ * @author Volker Berlin
+ */
+class ClassCache {
+
+    static final String                       SUFFIX             = ".classcode";
+
+    private final Path                        dir;
+
+    private final String                      baseEnvironment;
+
+    private final Map<String, String>         identities;
+
+    private final WasmOptions                 options;
+
+    private final TreeSet<String>             environmentClasses = new TreeSet<>();
+
+    private String                            environment;
+
+    private final HashMap<String, ClassEntry> classes            = new HashMap<>();
+
+    private int                               hits;
+
+    private int                               misses;
+
+    /**
+     * Create a new instance.
+     *
+     * @param dir
+     *            the cache directory
+     * @param environment
+     *            the hash of the compiler, the runtime, the properties and the libraries
+     * @param identities
+     *            the content hashes of the class files of the compile
+     * @param options
+     *            the compiler options with the managers
+     */
+    ClassCache( @Nonnull Path dir, @Nonnull String environment, @Nonnull Map<String, String> identities, @Nonnull WasmOptions options ) {
+        this.dir = dir;
+        this.baseEnvironment = environment;
+        this.identities = identities;
+        this.options = options;
+    }
+
+    /**
+     * Add a class to the environment of all classes. This is needed for a class of the compile that replace or extends
+     * another class with annotations.
+     *
+     * @param className
+     *            the class name like "java/lang/Object"
+     */
+    void addEnvironment( @Nonnull String className ) {
+        environmentClasses.add( className );
+        environment = null;
+    }
+
+    /**
+     * Get the content hash of a class of the compile.
+     *
+     * @param className
+     *            the class name
+     * @return the hash or an empty string for a class of a library or the runtime that is part of the environment
+     */
+    @Nonnull
+    private String identity( @Nonnull String className ) {
+        String identity = identities.get( className );
+        return identity == null ? "" : identity;
+    }
+
+    /**
+     * Get the entry of a class. The file is read on first use.
+     *
+     * @param className
+     *            the class name
+     * @return the entry
+     */
+    @Nonnull
+    private ClassEntry getEntry( @Nonnull String className ) {
+        ClassEntry entry = classes.get( className );
+        if( entry == null ) {
+            try {
+                if( environment == null ) {
+                    List<String> values = new ArrayList<>();
+                    values.add( baseEnvironment );
+                    for( String name : environmentClasses ) {
+                        values.add( name );
+                        values.add( identity( name ) );
+                    }
+                    environment = ModuleCache.hash( values.toArray( new String[values.size()] ) );
+                }
+                entry = new ClassEntry( dir.resolve( ModuleCache.hash( environment, className, identity( className ) ) + SUFFIX ) );
+                if( Files.isRegularFile( entry.file ) ) {
+                    try (DataInputStream input = new DataInputStream( Files.newInputStream( entry.file ) )) {
+                        for( int count = input.readInt(); count > 0; count-- ) {
+                            String key = input.readUTF();
+                            byte[] data = new byte[input.readInt()];
+                            input.readFully( data );
+                            entry.methods.put( key, data );
+                        }
+                    }
+                    Files.setLastModifiedTime( entry.file, FileTime.fromMillis( System.currentTimeMillis() ) );
+                }
+            } catch( IOException ex ) {
+                // a damaged or removed file, the class is cached again
+                JWebAssembly.LOGGER.fine( "class cache: " + className + " " + ex );
+                if( entry != null ) {
+                    entry.methods.clear();
+                    entry.changed = true;
+                }
+            }
+            if( entry == null ) {
+                entry = new ClassEntry( null );
+            }
+            classes.put( className, entry );
+        }
+        return entry;
+    }
+
+    /**
+     * Save the instructions of a method. The method is not saved if the instructions depends on values that can't be
+     * replayed or saved.
+     *
+     * @param method
+     *            the method of the instructions
+     * @param entries
+     *            the recorded manager calls
+     * @param readClasses
+     *            the names of the classes that was read while creating the instructions
+     * @param codeBuilder
+     *            the code builder with the created instructions
+     */
+    void store( @Nonnull MethodInfo method, @Nonnull List<ScanJournal.Entry> entries, @Nonnull Iterable<String> readClasses, @Nonnull WasmCodeBuilder codeBuilder ) {
+        ClassEntry entry = getEntry( method.getClassName() );
+        if( entry.file == null ) {
+            return;
+        }
+        String key = method.getName() + method.getType();
+        try {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            try (ObjectOutputStream output = new TokenOutputStream( data )) {
+                LinkedHashMap<String, String> identities = new LinkedHashMap<>();
+                for( String className : readClasses ) {
+                    identities.put( className, identity( className ) );
+                }
+                output.writeObject( identities );
+                output.writeInt( entries.size() );
+                for( ScanJournal.Entry call : entries ) {
+                    output.writeObject( call.op );
+                    output.writeObject( call.args );
+                    output.writeObject( call.result );
+                }
+                output.writeObject( new ArrayList<>( codeBuilder.getInstructions() ) );
+                output.writeObject( codeBuilder.getLocalVariables() );
+            }
+            entry.methods.put( key, data.toByteArray() );
+            entry.changed = true;
+        } catch( Exception ex ) {
+            // for example a lambda or a JavaScript function of an import
+            JWebAssembly.LOGGER.finer( "class cache: " + key + " not saveable " + ex );
+        }
+    }
+
+    /**
+     * Restore the instructions of a method. The recorded calls are replayed with the managers of the current compile.
+     * The journal must not record.
+     *
+     * @param method
+     *            the method
+     * @return a code builder with the instructions and its own local variables or null if not in the cache or not valid
+     */
+    @Nullable
+    WasmCodeBuilder restore( @Nonnull MethodInfo method ) {
+        ClassEntry entry = getEntry( method.getClassName() );
+        byte[] data = entry.methods.get( method.getName() + method.getType() );
+        if( data != null ) {
+            try (ObjectInputStream input = new TokenInputStream( new ByteArrayInputStream( data ) )) {
+                Map<?, ?> identities = (Map<?, ?>)input.readObject();
+                boolean valid = true;
+                for( Map.Entry<?, ?> identity : identities.entrySet() ) {
+                    if( !identity( (String)identity.getKey() ).equals( identity.getValue() ) ) {
+                        valid = false;
+                        break;
+                    }
+                }
+                ScanJournal journal = options.functions.journal;
+                for( int count = input.readInt(); valid && count > 0; count-- ) {
+                    ScanJournal.Entry call = new ScanJournal.Entry( (ScanJournal.Op)input.readObject(), (Object[])input.readObject() );
+                    call.result = input.readObject();
+                    valid = journal.replay( options, call );
+                }
+                if( valid ) {
+                    @SuppressWarnings( "unchecked" )
+                    List<WasmInstruction> instructions = (List<WasmInstruction>)input.readObject();
+                    LocaleVariableManager localVariables = (LocaleVariableManager)input.readObject();
+                    WasmCodeBuilder codeBuilder = new WasmCodeBuilder( localVariables ) {};
+                    codeBuilder.getInstructions().addAll( instructions );
+                    hits++;
+                    return codeBuilder;
+                }
+            } catch( Exception ex ) {
+                // a type that does not exists in the current compile or a changed class of the compiler
+                JWebAssembly.LOGGER.finer( "class cache: " + method.getClassName() + '.' + method.getName() + " " + ex );
+            }
+            entry.methods.remove( method.getName() + method.getType() );
+            entry.changed = true;
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Write all changed classes to the cache directory.
+     *
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    void save() throws IOException {
+        JWebAssembly.LOGGER.fine( "class cache reused: " + hits + ", created: " + misses );
+        for( ClassEntry entry : classes.values() ) {
+            if( !entry.changed || entry.file == null ) {
+                continue;
+            }
+            Path temp = Files.createTempFile( dir, "class", ".tmp" );
+            try {
+                try (DataOutputStream output = new DataOutputStream( Files.newOutputStream( temp ) )) {
+                    output.writeInt( entry.methods.size() );
+                    for( Map.Entry<String, byte[]> method : entry.methods.entrySet() ) {
+                        output.writeUTF( method.getKey() );
+                        output.writeInt( method.getValue().length );
+                        output.write( method.getValue() );
+                    }
+                }
+                Files.move( temp, entry.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            } catch( NoSuchFileException ex ) {
+                // the cache directory was cleaned from a parallel running compile
+            } finally {
+                Files.deleteIfExists( temp );
+            }
+            entry.changed = false;
+        }
+    }
+
+    /**
+     * The cached methods of a single class.
+     */
+    private static class ClassEntry {
+
+        private final Path                          file;
+
+        private final LinkedHashMap<String, byte[]> methods = new LinkedHashMap<>();
+
+        private boolean                             changed;
+
+        /**
+         * Create an entry.
+         *
+         * @param file
+         *            the file of the class or null if the file name can't be created
+         */
+        private ClassEntry( @Nullable Path file ) {
+            this.file = file;
+        }
+    }
+
+    /**
+     * The placeholder of an object of the current compile.
+     */
+    private static class Token implements Serializable {
+
+        private static final int OPTIONS     = 0;
+
+        private static final int TYPES       = 1;
+
+        private static final int FUNCTIONS   = 2;
+
+        private static final int STRINGS     = 3;
+
+        private static final int MEMORY      = 4;
+
+        private static final int STRUCT      = 5;
+
+        private static final int ARRAY       = 6;
+
+        private static final int BLOCK       = 7;
+
+        private static final int VTABLE_BASE = 8;
+
+        private final int        kind;
+
+        private final Object[]   values;
+
+        /**
+         * Create a token.
+         *
+         * @param kind
+         *            the kind of the object
+         * @param values
+         *            the values to find the object
+         */
+        private Token( int kind, Object... values ) {
+            this.kind = kind;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Replace the managers and types with tokens.
+     */
+    private class TokenOutputStream extends ObjectOutputStream {
+
+        /**
+         * Create a stream.
+         *
+         * @param out
+         *            the target
+         * @throws IOException
+         *             if any I/O error occur
+         */
+        private TokenOutputStream( @Nonnull OutputStream out ) throws IOException {
+            super( out );
+            enableReplaceObject( true );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected Object replaceObject( Object obj ) throws IOException {
+            if( obj == options ) {
+                return new Token( Token.OPTIONS );
+            }
+            if( obj == options.types ) {
+                return new Token( Token.TYPES );
+            }
+            if( obj == options.functions ) {
+                return new Token( Token.FUNCTIONS );
+            }
+            if( obj == options.strings ) {
+                return new Token( Token.STRINGS );
+            }
+            if( obj == options.memory ) {
+                return new Token( Token.MEMORY );
+            }
+            if( obj instanceof ArrayType ) {
+                return new Token( Token.ARRAY, ((ArrayType)obj).getArrayType() );
+            }
+            if( obj instanceof LambdaType ) {
+                throw new NotSerializableException( "lambda " + ((LambdaType)obj).getName() );
+            }
+            if( obj instanceof StructType ) {
+                return new Token( Token.STRUCT, ((StructType)obj).getName() );
+            }
+            if( obj instanceof BlockType ) {
+                BlockType blockType = (BlockType)obj;
+                return new Token( Token.BLOCK, new ArrayList<>( blockType.getParams() ), new ArrayList<>( blockType.getResults() ) );
+            }
+            if( obj instanceof VTableType && obj == options.types.getVTableBaseType() ) {
+                return new Token( Token.VTABLE_BASE );
+            }
+            return obj;
+        }
+    }
+
+    /**
+     * Resolve the tokens with the managers and the existing types of the current compile.
+     */
+    private class TokenInputStream extends ObjectInputStream {
+
+        /**
+         * Create a stream.
+         *
+         * @param in
+         *            the source
+         * @throws IOException
+         *             if any I/O error occur
+         */
+        private TokenInputStream( @Nonnull InputStream in ) throws IOException {
+            super( in );
+            enableResolveObject( true );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected Class<?> resolveClass( ObjectStreamClass desc ) throws IOException, ClassNotFoundException {
+            String name = desc.getName();
+            while( name.startsWith( "[" ) ) {
+                name = name.substring( 1 );
+            }
+            if( name.length() > 1 && !name.startsWith( "de.inetsoftware.jwebassembly." ) //
+                            && !name.startsWith( "Lde.inetsoftware.jwebassembly." ) //
+                            && !name.startsWith( "java.util." ) && !name.startsWith( "Ljava.util." ) //
+                            && !name.startsWith( "java.lang." ) && !name.startsWith( "Ljava.lang." ) ) {
+                throw new InvalidClassException( name, "not a class of the compiler" );
+            }
+            return super.resolveClass( desc );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @SuppressWarnings( "unchecked" )
+        @Override
+        protected Object resolveObject( Object obj ) throws IOException {
+            if( !(obj instanceof Token) ) {
+                return obj;
+            }
+            Token token = (Token)obj;
+            Object result;
+            switch( token.kind ) {
+                case Token.OPTIONS:
+                    return options;
+                case Token.TYPES:
+                    return options.types;
+                case Token.FUNCTIONS:
+                    return options.functions;
+                case Token.STRINGS:
+                    return options.strings;
+                case Token.MEMORY:
+                    return options.memory;
+                case Token.STRUCT:
+                case Token.ARRAY:
+                    result = options.types.getStructType( token.values[0] );
+                    break;
+                case Token.BLOCK:
+                    result = options.types.getBlockType( new BlockType( (List<AnyType>)token.values[0], (List<AnyType>)token.values[1] ) );
+                    break;
+                case Token.VTABLE_BASE:
+                    return options.types.getVTableBaseType();
+                default:
+                    result = null;
+            }
+            if( result == null ) {
+                throw new InvalidObjectException( "type does not exists: " + token.values[0] );
+            }
+            return result;
+        }
+    }
+}
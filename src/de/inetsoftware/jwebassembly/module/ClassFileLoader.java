@@ -16,17 +16,33 @@
 */
 package de.inetsoftware.jwebassembly.module;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import de.inetsoftware.classparser.ClassFile;
+import de.inetsoftware.classparser.ConstantClass;
+import de.inetsoftware.classparser.MethodInfo;
 
 /**
- * Cache and manager for the loaded ClassFiles
+ * Cache and manager for the loaded ClassFiles. The class files from the prescan, the replaced and the partial classes
+ * are hold permanently. With a memory limit the class files that are loaded on demand are hold in a LRU cache. If the
+ * limit is exceeded then the least recently used class files are only soft referenced and parsed again from the same
+ * location if the garbage collector has released it. The replaced and partial classes from a library index and the
+ * check if a class of a library also exists in the JVM self are applied on the first request of a class. The access is
+ * synchronized because the functions are also created in worker threads.
  * 
  * @author Volker Berlin
  */
@@ -37,18 +53,65 @@ public class ClassFileLoader {
     //A weak cache has produce problems if there are different versions of the same class in the build path and/or library path. Then the prescan can add the second version of the class. 
     private final HashMap<String, ClassFile>        cache = new HashMap<>();
 
+    // the locations of class files from the prescan that are parsed on first use
+    private final HashMap<String, URL>              locations = new HashMap<>();
+
+    // the replacing classes from a library index, key is the replaced class, resolved on first use
+    private final HashMap<String, String>           replaceLater = new HashMap<>();
+
+    // the partial classes from a library index, key is the extended class, resolved on first use
+    private final HashMap<String, List<String>>     partialLater = new HashMap<>();
+
+    // the methods that was found in the super classes or interfaces, key is class name + method name + signature
+    private final HashMap<String, MethodInfo>       resolved  = new HashMap<>();
+
+    // the keys of resolved methods for every declaring class, used to release the methods of an evicted class
+    private final HashMap<String, List<String>>     resolvedKeys = new HashMap<>();
+
     private final ClassLoader                       loader;
 
     private final ClassLoader                       bootLoader;
 
+    private final long                              cacheLimit;
+
+    // the class files that are loaded on demand in access order, only used with a memory limit
+    private final LinkedHashMap<String, Loaded>     loaded    = new LinkedHashMap<>( 16, 0.75F, true );
+
+    // the class files that are removed from the LRU cache
+    private final HashMap<String, EvictedReference> evicted = new HashMap<>();
+
+    private long                                    loadedSize;
+
+    private int                                     hits;
+
+    private int                                     misses;
+
+    private int                                     evictions;
+
+    // the recording of the read classes while the instructions of a method are created
+    private ScanJournal                             journal;
+
     /**
-     * Create a new instance
+     * Create a new instance without a memory limit.
      * 
      * @param loader
      *            the classloader to find the *.class files
      */
     public ClassFileLoader( ClassLoader loader ) {
+        this( loader, 0 );
+    }
+
+    /**
+     * Create a new instance
+     * 
+     * @param loader
+     *            the classloader to find the *.class files
+     * @param cacheLimit
+     *            the limit in bytes for the class files that are loaded on demand or 0 for no limit
+     */
+    public ClassFileLoader( ClassLoader loader, long cacheLimit ) {
         this.loader = loader;
+        this.cacheLimit = cacheLimit;
         ClassLoader cl = ClassLoader.getSystemClassLoader();
         do {
             ClassLoader parent = cl.getParent();
@@ -60,6 +123,25 @@ public ClassFileLoader( ClassLoader loader ) {
         } while( true );
     }
 
+    /**
+     * Set the journal that record the read classes while the instructions of a method are created.
+     * 
+     * @param journal
+     *            the journal
+     */
+    void setJournal( @Nonnull ScanJournal journal ) {
+        this.journal = journal;
+    }
+
+    /**
+     * If the cache of resolved methods can be used. While recording the classes of the super chain must be read again.
+     * 
+     * @return true, if usable
+     */
+    private boolean useResolved() {
+        return journal == null || !journal.isRecording();
+    }
+
     /**
      * Get the ClassFile from cache or load it.
      * 
@@ -70,16 +152,65 @@ public ClassFileLoader( ClassLoader loader ) {
      *             If any I/O error occur
      */
     @Nullable
-    public ClassFile get( String className ) throws IOException {
+    public synchronized ClassFile get( String className ) throws IOException {
+        if( journal != null ) {
+            journal.readClass( className );
+        }
+        if( !replaceLater.isEmpty() || !partialLater.isEmpty() ) {
+            resolveLater( className );
+        }
         ClassFile classFile = replace.get( className );
         if( classFile != null ) {
+            hits++;
             return classFile;
         }
         classFile = cache.get( className );
         if( classFile != null ) {
+            hits++;
+            return classFile;
+        }
+        Loaded entry = loaded.get( className );
+        if( entry == null ) {
+            EvictedReference ref = evicted.remove( className );
+            if( ref != null ) {
+                entry = ref.get();
+                if( entry == null ) {
+                    // released from the garbage collector, parse it again from the same location
+                    entry = load( ref );
+                } else {
+                    hits++;
+                }
+                addLoaded( className, entry );
+            }
+        } else {
+            hits++;
+        }
+        if( entry != null ) {
+            return entry.classFile;
+        }
+        misses++;
+        URL location = locations.remove( className );
+        if( location != null && isBootClass( className ) ) {
+            // the class of the library exists also in the JVM self, the class loader would find the version of the JVM
+            classFile = new ClassFile( ByteBuffer.wrap( readAllBytes( location.openStream() ) ) );
+            replace.put( className, classFile );
+            clearResolved();
             return classFile;
         }
-        InputStream stream = loader.getResourceAsStream( className + ".class" );
+        if( cacheLimit > 0 ) {
+            // the location is needed to parse the same version again after an eviction
+            if( location == null ) {
+                location = loader.getResource( className + ".class" );
+                if( location == null ) {
+                    return null;
+                }
+            }
+            byte[] bytes = readAllBytes( location.openStream() );
+            classFile = new ClassFile( ByteBuffer.wrap( bytes ) );
+            addLoaded( className, new Loaded( classFile, location, bytes.length ) );
+            return classFile;
+        }
+        InputStream stream = location != null ? location.openStream() : loader.getResourceAsStream( className + ".class" );
         if( stream != null ) {
             classFile = new ClassFile( stream );
             cache.put( className, classFile );
@@ -87,28 +218,253 @@ public ClassFile get( String className ) throws IOException {
         return classFile;
     }
 
+    /**
+     * Apply the replacing and partial classes of a library index for the requested class.
+     * 
+     * @param className
+     *            the class name like "java/lang/Object"
+     * @throws IOException
+     *             If any I/O error occur
+     */
+    private void resolveLater( String className ) throws IOException {
+        String replacement = replaceLater.remove( className );
+        if( replacement != null ) {
+            ClassFile classFile = get( replacement );
+            if( classFile != null ) {
+                replace( className, classFile );
+            }
+        }
+        List<String> partials = partialLater.remove( className );
+        if( partials != null ) {
+            for( String partial : partials ) {
+                ClassFile classFile = get( partial );
+                if( classFile != null ) {
+                    partial( className, classFile );
+                }
+            }
+        }
+    }
+
+    /**
+     * Parse an evicted class file again.
+     * 
+     * @param ref
+     *            the released reference
+     * @return the new entry
+     * @throws IOException
+     *             If any I/O error occur
+     */
+    @Nonnull
+    private Loaded load( EvictedReference ref ) throws IOException {
+        misses++;
+        URL location = ref.location;
+        byte[] bytes = readAllBytes( location.openStream() );
+        return new Loaded( new ClassFile( ByteBuffer.wrap( bytes ) ), location, bytes.length );
+    }
+
+    /**
+     * Add an entry to the LRU cache and evict the least recently used entries if the limit is exceeded.
+     * 
+     * @param className
+     *            the class name
+     * @param entry
+     *            the entry
+     */
+    private void addLoaded( String className, Loaded entry ) {
+        loaded.put( className, entry );
+        loadedSize += entry.size;
+        for( Iterator<Entry<String, Loaded>> iterator = loaded.entrySet().iterator(); loadedSize > cacheLimit && iterator.hasNext(); ) {
+            Entry<String, Loaded> eldest = iterator.next();
+            if( eldest.getValue() == entry ) {
+                break; // hold at least the requested class
+            }
+            iterator.remove();
+            loadedSize -= eldest.getValue().size;
+            evictions++;
+            evicted.put( eldest.getKey(), new EvictedReference( eldest.getValue() ) );
+            releaseResolved( eldest.getKey() );
+        }
+    }
+
+    /**
+     * Remove the resolved methods of an evicted class. Else the methods hold the class file and the class file can be
+     * parsed a second time with other method instances.
+     * 
+     * @param className
+     *            the class name of the evicted class
+     */
+    private void releaseResolved( String className ) {
+        List<String> keys = resolvedKeys.remove( className );
+        if( keys != null ) {
+            for( String key : keys ) {
+                resolved.remove( key );
+            }
+        }
+    }
+
+    /**
+     * Add a resolved method to the cache.
+     * 
+     * @param key
+     *            the key of the request
+     * @param method
+     *            the method or null if not found
+     */
+    private void putResolved( String key, MethodInfo method ) {
+        resolved.put( key, method );
+        if( method != null ) {
+            resolvedKeys.computeIfAbsent( method.getDeclaringClassFile().getThisClass().getName(), k -> new ArrayList<>() ).add( key );
+        }
+    }
+
+    /**
+     * Clear all resolved methods because the classes was changed.
+     */
+    private void clearResolved() {
+        resolved.clear();
+        resolvedKeys.clear();
+    }
+
+    /**
+     * Remove a class from the LRU cache because it is hold permanently now.
+     * 
+     * @param className
+     *            the class name
+     */
+    private void pin( String className ) {
+        Loaded entry = loaded.remove( className );
+        if( entry != null ) {
+            loadedSize -= entry.size;
+        }
+        evicted.remove( className );
+    }
+
+    /**
+     * Read the complete stream and close it.
+     * 
+     * @param stream
+     *            the stream
+     * @return the data
+     * @throws IOException
+     *             If any I/O error occur
+     */
+    private static byte[] readAllBytes( InputStream stream ) throws IOException {
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for( int count; (count = stream.read( buffer )) > 0; ) {
+                output.write( buffer, 0, count );
+            }
+            return output.toByteArray();
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Count of requests that was answered from the cache.
+     * 
+     * @return the count
+     */
+    public int getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Count of requests that needs to parse a class file.
+     * 
+     * @return the count
+     */
+    public int getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Count of class files that was removed from the LRU cache because the memory limit was exceeded.
+     * 
+     * @return the count
+     */
+    public int getEvictionCount() {
+        return evictions;
+    }
+
     /**
      * Add a class file to the weak cache.
      * 
      * @param classFile
      *            the class file
      */
-    public void cache( @Nonnull ClassFile classFile ) {
+    public synchronized void cache( @Nonnull ClassFile classFile ) {
         String name = classFile.getThisClass().getName();
-        if( bootLoader.getResource( name + ".class" ) != null ) {
+        if( isBootClass( name ) ) {
             // if the same resource is exist in the JVM self then we need to hold the reference permanently
             if( replace.get( name ) == null ) {
                 // does not add a second version of the same file
                 replace.put( name, classFile );
+                clearResolved();
             }
         } else {
-            if( cache.get( name ) == null ) {
+            if( cache.get( name ) == null && !locations.containsKey( name ) && !loaded.containsKey( name ) && !evicted.containsKey( name ) ) {
                 // does not add a second version of the same file
                 cache.put( name, classFile );
             }
         }
     }
 
+    /**
+     * Register the location of a class file from the prescan that was not parsed. It is parsed on the first request.
+     * Like with {@link #cache(ClassFile)} the first version of a class wins.
+     * 
+     * @param className
+     *            the class name like "java/lang/Object"
+     * @param location
+     *            the URL of the class file
+     */
+    synchronized void cacheLater( @Nonnull String className, @Nonnull URL location ) {
+        if( cache.get( className ) == null && replace.get( className ) == null && !loaded.containsKey( className ) && !evicted.containsKey( className ) ) {
+            locations.putIfAbsent( className, location );
+        }
+    }
+
+    /**
+     * Register a replacing class from a library index. The replacing class is loaded on the first request of the replaced
+     * class. Like with {@link #replace(String, ClassFile)} the first replacement wins.
+     * 
+     * @param className
+     *            the name of the class to replace
+     * @param replacement
+     *            the name of the replacing class
+     */
+    synchronized void replaceLater( @Nonnull String className, @Nonnull String replacement ) {
+        if( replace.get( className ) == null ) {
+            replaceLater.putIfAbsent( className, replacement );
+        }
+    }
+
+    /**
+     * Register a partial class from a library index. The partial class is loaded and added on the first request of the
+     * extended class.
+     * 
+     * @param className
+     *            the name of the class to extend like "java/lang/String"
+     * @param partial
+     *            the name of the partial class
+     */
+    synchronized void partialLater( @Nonnull String className, @Nonnull String partial ) {
+        partialLater.computeIfAbsent( className, k -> new ArrayList<>() ).add( partial );
+    }
+
+    /**
+     * If a class with the same name exists in the JVM self. Such class files must be hold permanently.
+     * 
+     * @param className
+     *            the class name like "java/lang/Object"
+     * @return true, if the boot class loader has such class
+     */
+    boolean isBootClass( @Nonnull String className ) {
+        return bootLoader.getResource( className + ".class" ) != null;
+    }
+
     /**
      * Replace the class in the cache with the given instance to the loader cache.
      * 
@@ -117,10 +473,12 @@ public void cache( @Nonnull ClassFile classFile ) {
      * @param classFile
      *            the replacing ClassFile
      */
-    void replace( String className, ClassFile classFile ) {
+    synchronized void replace( String className, ClassFile classFile ) {
         if( replace.get( className ) == null ) {
             classFile = new ClassFile( className, classFile );
             replace.put( className, classFile );
+            pin( className );
+            clearResolved();
         }
     }
 
@@ -134,9 +492,166 @@ void replace( String className, ClassFile classFile ) {
      * @throws IOException
      *             If any I/O error occur
      */
-    void partial( String className, ClassFile partialClassFile ) throws IOException {
+    synchronized void partial( String className, ClassFile partialClassFile ) throws IOException {
         ClassFile classFile = get( className );
         replace.put( className, classFile );
+        pin( className );
         classFile.partial( partialClassFile );
+        clearResolved();
+    }
+
+    /**
+     * Find a method in the class or in its super classes. The result is cached until the classes are changed with a
+     * replacement or partial class.
+     * 
+     * @param classFile
+     *            the class to start the search
+     * @param name
+     *            the method name
+     * @param signature
+     *            the signature of the method
+     * @return the method or null if not found
+     * @throws IOException
+     *             If any I/O error occur
+     */
+    @Nullable
+    synchronized MethodInfo resolveMethod( @Nonnull ClassFile classFile, @Nonnull String name, @Nonnull String signature ) throws IOException {
+        String key = classFile.getThisClass().getName() + '.' + name + signature;
+        if( useResolved() && resolved.containsKey( key ) ) {
+            return resolved.get( key );
+        }
+        MethodInfo method = null;
+        for( ClassFile superClassFile = classFile; superClassFile != null; superClassFile = getSuperClassFile( superClassFile ) ) {
+            method = superClassFile.getMethod( name, signature );
+            if( method != null ) {
+                break;
+            }
+        }
+        putResolved( key, method );
+        return method;
+    }
+
+    /**
+     * Find a default implementation of a method in the interfaces of the class or of its super classes. The direct
+     * interfaces of a class are searched before the super interfaces. The result is cached until the classes are
+     * changed with a replacement or partial class.
+     * 
+     * @param classFile
+     *            the class to start the search
+     * @param name
+     *            the method name
+     * @param signature
+     *            the signature of the method
+     * @return the method or null if not found
+     * @throws IOException
+     *             If any I/O error occur
+     */
+    @Nullable
+    synchronized MethodInfo resolveInterfaceMethod( @Nonnull ClassFile classFile, @Nonnull String name, @Nonnull String signature ) throws IOException {
+        String key = classFile.getThisClass().getName() + ':' + name + signature;
+        if( useResolved() && resolved.containsKey( key ) ) {
+            return resolved.get( key );
+        }
+        MethodInfo method = null;
+        for( ClassFile superClassFile = classFile; superClassFile != null && method == null; superClassFile = getSuperClassFile( superClassFile ) ) {
+            method = resolveInterfaceMethodImpl( superClassFile, name, signature );
+        }
+        putResolved( key, method );
+        return method;
+    }
+
+    /**
+     * Search a method in the interfaces of a class or interface recursively.
+     * 
+     * @param classFile
+     *            the class or interface
+     * @param name
+     *            the method name
+     * @param signature
+     *            the signature of the method
+     * @return the method or null if not found
+     * @throws IOException
+     *             If any I/O error occur
+     */
+    @Nullable
+    private MethodInfo resolveInterfaceMethodImpl( @Nonnull ClassFile classFile, @Nonnull String name, @Nonnull String signature ) throws IOException {
+        // first scan direct interfaces
+        for( ConstantClass iface : classFile.getInterfaces() ) {
+            ClassFile iClassFile = get( iface.getName() );
+            MethodInfo method = iClassFile.getMethod( name, signature );
+            if( method != null ) {
+                return method;
+            }
+        }
+        // then possible super interfaces
+        for( ConstantClass iface : classFile.getInterfaces() ) {
+            MethodInfo method = resolveInterfaceMethodImpl( get( iface.getName() ), name, signature );
+            if( method != null ) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the super class of a class.
+     * 
+     * @param classFile
+     *            the class
+     * @return the super class or null if there is no super class
+     * @throws IOException
+     *             If any I/O error occur
+     */
+    @Nullable
+    private ClassFile getSuperClassFile( @Nonnull ClassFile classFile ) throws IOException {
+        ConstantClass superClass = classFile.getSuperClass();
+        return superClass == null ? null : get( superClass.getName() );
+    }
+
+    /**
+     * A class file that was loaded on demand.
+     */
+    private static class Loaded {
+
+        private final ClassFile classFile;
+
+        private final URL       location;
+
+        private final int       size;
+
+        /**
+         * Create a new entry.
+         * 
+         * @param classFile
+         *            the parsed class file
+         * @param location
+         *            the location to parse it again
+         * @param size
+         *            the size of the class file
+         */
+        private Loaded( ClassFile classFile, URL location, int size ) {
+            this.classFile = classFile;
+            this.location = location;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A soft reference to an evicted class file which hold the location to parse it again.
+     */
+    private static class EvictedReference extends SoftReference<Loaded> {
+
+        private final URL location;
+
+        /**
+         * Create a new reference.
+         * 
+         * @param entry
+         *            the evicted entry
+         */
+        private EvictedReference( Loaded entry ) {
+            super( entry );
+            this.location = entry.location;
+        }
     }
 }
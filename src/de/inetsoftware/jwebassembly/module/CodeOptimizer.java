@@ -1,5 +1,5 @@
 /*
- * Copyright 2019 - 2020 Volker Berlin (i-net software)
+ * Copyright 2019 - 2022 Volker Berlin (i-net software)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,50 +15,850 @@
  */
 package de.inetsoftware.jwebassembly.module;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import de.inetsoftware.jwebassembly.JWebAssembly;
 import de.inetsoftware.jwebassembly.module.WasmInstruction.Type;
+import de.inetsoftware.jwebassembly.wasm.NumericOperator;
+import de.inetsoftware.jwebassembly.wasm.ValueType;
 import de.inetsoftware.jwebassembly.wasm.VariableOperator;
+import de.inetsoftware.jwebassembly.wasm.WasmBlockOperator;
 
 /**
  * Optimize the code of a single method/function through using of WebAssembly features without equivalent in Java.
- * 
+ * The optimizer applies a list of rules until no rule changes the code anymore. Every rule counts how often it was
+ * applied.
+ *
  * @author Volker Berlin
  */
 class CodeOptimizer {
 
+    private final List<Rule> rules = new ArrayList<>();
+
+    /**
+     * Create a new instance with the default rules.
+     */
+    CodeOptimizer() {
+        addRule( new ConstantFolding() );
+        addRule( new CompareWithZero() );
+        addRule( new RedundantConversion() );
+        addRule( new UnreachableCode() );
+        addRule( new DeadLocalSet() );
+        addRule( new DropValue() );
+        addRule( new LocalTee() );
+    }
+
+    /**
+     * Register an additional rule. The rules are applied in the order of registration.
+     *
+     * @param rule
+     *            the rule
+     */
+    void addRule( @Nonnull Rule rule ) {
+        rules.add( rule );
+    }
+
     /**
      * Optimize the code before writing.
-     * 
+     *
      * @param instructions
      *            the list of instructions
      */
     void optimize( List<WasmInstruction> instructions ) {
-        for( int i = instructions.size()-1; i >= 0; i-- ) {
-            WasmInstruction instr = instructions.get( i );
-            switch( instr.getType() ) {
-                case Local:
-                    // merge local.set, local.get --> local.tee 
-                    if( i == 0 ) {
+        boolean changed;
+        do {
+            changed = false;
+            for( Rule rule : rules ) {
+                int hits = rule.apply( instructions );
+                if( hits > 0 ) {
+                    rule.hits.addAndGet( hits );
+                    changed = true;
+                }
+            }
+        } while( changed );
+    }
+
+    /**
+     * Get how often a rule was applied.
+     *
+     * @param name
+     *            the name of the rule
+     * @return the count or -1 if there is no such rule
+     */
+    int getHits( @Nonnull String name ) {
+        for( Rule rule : rules ) {
+            if( rule.name.equals( name ) ) {
+                return rule.hits.get();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Log the count of applied rules.
+     */
+    void logStatistics() {
+        StringBuilder builder = new StringBuilder( "optimizer rules applied:" );
+        for( Rule rule : rules ) {
+            builder.append( ' ' ).append( rule.name ).append( '=' ).append( rule.hits.get() );
+        }
+        JWebAssembly.LOGGER.fine( builder.toString() );
+    }
+
+    /**
+     * Calculate a unary operation.
+     *
+     * @param op
+     *            the operation
+     * @param type
+     *            the type of the operand
+     * @param a
+     *            the operand
+     * @return the result or null if it can not be calculated
+     */
+    @Nullable
+    static Number calculate( NumericOperator op, ValueType type, Number a ) {
+        switch( op ) {
+            case eqz:
+                return type == ValueType.i32 || type == ValueType.i64 ? (Number)(a.longValue() == 0 ? 1 : 0) : null;
+            case neg:
+                return type == ValueType.f32 ? (Number)(-a.floatValue()) : type == ValueType.f64 ? (Number)(-a.doubleValue()) : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Calculate a binary operation with the semantics of WebAssembly.
+     *
+     * @param op
+     *            the operation
+     * @param type
+     *            the type of the operands
+     * @param a
+     *            the first operand
+     * @param b
+     *            the second operand
+     * @return the result or null if it can not be calculated
+     */
+    @Nullable
+    static Number calculate( NumericOperator op, ValueType type, Number a, Number b ) {
+        switch( type ) {
+            case i32: {
+                int x = a.intValue();
+                int y = b.intValue();
+                switch( op ) {
+                    case add:
+                        return x + y;
+                    case sub:
+                        return x - y;
+                    case mul:
+                        return x * y;
+                    case div:
+                        // a division by zero or the overflow of MIN_VALUE / -1 must trap at runtime
+                        return y == 0 || y == -1 ? null : x / y;
+                    case rem:
+                        return y == 0 || y == -1 ? null : x % y;
+                    case and:
+                        return x & y;
+                    case or:
+                        return x | y;
+                    case xor:
+                        return x ^ y;
+                    case shl:
+                        return x << y;
+                    case shr_s:
+                        return x >> y;
+                    case shr_u:
+                        return x >>> y;
+                    default:
+                        return compare( op, Integer.compare( x, y ) );
+                }
+            }
+            case i64: {
+                long x = a.longValue();
+                long y = b.longValue();
+                switch( op ) {
+                    case add:
+                        return x + y;
+                    case sub:
+                        return x - y;
+                    case mul:
+                        return x * y;
+                    case div:
+                        return y == 0 || y == -1 ? null : x / y;
+                    case rem:
+                        return y == 0 || y == -1 ? null : x % y;
+                    case and:
+                        return x & y;
+                    case or:
+                        return x | y;
+                    case xor:
+                        return x ^ y;
+                    case shl:
+                        return x << y;
+                    case shr_s:
+                        return x >> y;
+                    case shr_u:
+                        return x >>> y;
+                    default:
+                        return compare( op, Long.compare( x, y ) );
+                }
+            }
+            case f32: {
+                float x = a.floatValue();
+                float y = b.floatValue();
+                switch( op ) {
+                    case add:
+                        return x + y;
+                    case sub:
+                        return x - y;
+                    case mul:
+                        return x * y;
+                    case div:
+                        return x / y;
+                    case eq:
+                        return x == y ? 1 : 0;
+                    case ne:
+                        return x != y ? 1 : 0;
+                    case lt:
+                        return x < y ? 1 : 0;
+                    case le:
+                        return x <= y ? 1 : 0;
+                    case gt:
+                        return x > y ? 1 : 0;
+                    case ge:
+                        return x >= y ? 1 : 0;
+                    default:
+                        return null;
+                }
+            }
+            case f64: {
+                double x = a.doubleValue();
+                double y = b.doubleValue();
+                switch( op ) {
+                    case add:
+                        return x + y;
+                    case sub:
+                        return x - y;
+                    case mul:
+                        return x * y;
+                    case div:
+                        return x / y;
+                    case eq:
+                        return x == y ? 1 : 0;
+                    case ne:
+                        return x != y ? 1 : 0;
+                    case lt:
+                        return x < y ? 1 : 0;
+                    case le:
+                        return x <= y ? 1 : 0;
+                    case gt:
+                        return x > y ? 1 : 0;
+                    case ge:
+                        return x >= y ? 1 : 0;
+                    default:
+                        return null;
+                }
+            }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Calculate the result of a signed integer comparison.
+     *
+     * @param op
+     *            the operation
+     * @param comp
+     *            the result of the compare of the operands
+     * @return the i32 result or null if it is not a comparison
+     */
+    @Nullable
+    private static Integer compare( NumericOperator op, int comp ) {
+        boolean result;
+        switch( op ) {
+            case eq:
+                result = comp == 0;
+                break;
+            case ne:
+                result = comp != 0;
+                break;
+            case lt:
+                result = comp < 0;
+                break;
+            case le:
+                result = comp <= 0;
+                break;
+            case gt:
+                result = comp > 0;
+                break;
+            case ge:
+                result = comp >= 0;
+                break;
+            default:
+                return null;
+        }
+        return result ? 1 : 0;
+    }
+
+    /**
+     * Check if the instruction is a block instruction with the given operator.
+     *
+     * @param instr
+     *            the instruction
+     * @param op
+     *            the operator
+     * @return true, if it match
+     */
+    private static boolean isBlock( @Nonnull WasmInstruction instr, @Nonnull WasmBlockOperator op ) {
+        return instr.getType() == Type.Block && ((WasmBlockInstruction)instr).getOperation() == op;
+    }
+
+    /**
+     * A rule of the optimizer.
+     */
+    abstract static class Rule {
+
+        private final String        name;
+
+        private final AtomicInteger hits = new AtomicInteger();
+
+        /**
+         * Create a new instance.
+         *
+         * @param name
+         *            the name of the rule for the statistics
+         */
+        Rule( @Nonnull String name ) {
+            this.name = name;
+        }
+
+        /**
+         * Apply the rule to the instructions of a single function.
+         *
+         * @param instructions
+         *            the list of instructions
+         * @return the count of changes
+         */
+        abstract int apply( @Nonnull List<WasmInstruction> instructions );
+    }
+
+    /**
+     * Calculate numeric operations with constant operands.
+     */
+    private static class ConstantFolding extends Rule {
+
+        ConstantFolding() {
+            super( "constant folding" );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        int apply( @Nonnull List<WasmInstruction> instructions ) {
+            int hits = 0;
+            for( int i = 1; i < instructions.size(); i++ ) {
+                WasmInstruction instr = instructions.get( i );
+                if( instr.getType() != Type.Numeric || instructions.get( i - 1 ).getType() != Type.Const ) {
+                    continue;
+                }
+                WasmNumericInstruction numeric = (WasmNumericInstruction)instr;
+                ValueType type = numeric.getValueType();
+                WasmConstNumberInstruction b = (WasmConstNumberInstruction)instructions.get( i - 1 );
+                if( type == null || b.getPushValueType() != type ) {
+                    continue;
+                }
+                Number value;
+                int start;
+                if( numeric.getPopCount() == 1 ) {
+                    value = calculate( numeric.numOp, type, b.getValue() );
+                    start = i - 1;
+                } else {
+                    if( i < 2 || instructions.get( i - 2 ).getType() != Type.Const ) {
+                        continue;
+                    }
+                    WasmConstNumberInstruction a = (WasmConstNumberInstruction)instructions.get( i - 2 );
+                    if( a.getPushValueType() != type ) {
                         continue;
                     }
-                    if(  instructions.get( i-1 ).getType() != Type.Local ) {
+                    value = calculate( numeric.numOp, type, a.getValue(), b.getValue() );
+                    start = i - 2;
+                }
+                if( value == null ) {
+                    continue;
+                }
+                WasmInstruction first = instructions.get( start );
+                instructions.subList( start + 1, i + 1 ).clear();
+                instructions.set( start, new WasmConstNumberInstruction( value, first.getCodePosition(), first.getLineNumber() ) );
+                i = start;
+                hits++;
+            }
+            return hits;
+        }
+    }
+
+    /**
+     * Replace a compare with the constant zero: const 0, eq --> eqz
+     */
+    private static class CompareWithZero extends Rule {
+
+        CompareWithZero() {
+            super( "eqz" );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        int apply( @Nonnull List<WasmInstruction> instructions ) {
+            int hits = 0;
+            for( int i = instructions.size() - 1; i >= 1; i-- ) {
+                WasmInstruction instr = instructions.get( i );
+                WasmInstruction prev = instructions.get( i - 1 );
+                if( instr.getType() != Type.Numeric || prev.getType() != Type.Const ) {
+                    continue;
+                }
+                WasmNumericInstruction numeric = (WasmNumericInstruction)instr;
+                ValueType type = numeric.getValueType();
+                if( numeric.numOp != NumericOperator.eq || (type != ValueType.i32 && type != ValueType.i64) ) {
+                    continue;
+                }
+                WasmConstNumberInstruction zero = (WasmConstNumberInstruction)prev;
+                if( zero.getPushValueType() != type || zero.getValue().longValue() != 0 ) {
+                    continue;
+                }
+                numeric.numOp = NumericOperator.eqz;
+                instructions.remove( --i );
+                hits++;
+            }
+            return hits;
+        }
+    }
+
+    /**
+     * Remove a pair of conversions that result in the original value like i2l, l2i
+     */
+    private static class RedundantConversion extends Rule {
+
+        RedundantConversion() {
+            super( "redundant conversion" );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        int apply( @Nonnull List<WasmInstruction> instructions ) {
+            int hits = 0;
+            for( int i = instructions.size() - 1; i >= 1; i-- ) {
+                WasmInstruction instr = instructions.get( i );
+                WasmInstruction prev = instructions.get( i - 1 );
+                if( instr.getType() != Type.Convert || prev.getType() != Type.Convert ) {
+                    continue;
+                }
+                ValueTypeConvertion first = ((WasmConvertInstruction)prev).getConversion();
+                ValueTypeConvertion second = ((WasmConvertInstruction)instr).getConversion();
+                if( first == second && (first == ValueTypeConvertion.i2b || first == ValueTypeConvertion.i2c || first == ValueTypeConvertion.i2s) ) {
+                    // the second sign extension or mask does not change the value
+                    instructions.remove( i );
+                    hits++;
+                } else if( isIdentity( first, second ) ) {
+                    instructions.subList( i - 1, i + 1 ).clear();
+                    i--;
+                    hits++;
+                }
+            }
+            return hits;
+        }
+
+        /**
+         * If the second conversion restore every value of the first conversion.
+         *
+         * @param first
+         *            the first conversion
+         * @param second
+         *            the second conversion
+         * @return true, if both can be removed
+         */
+        private static boolean isIdentity( ValueTypeConvertion first, ValueTypeConvertion second ) {
+            switch( first ) {
+                case i2l:
+                    return second == ValueTypeConvertion.l2i;
+                case i2d:
+                    return second == ValueTypeConvertion.d2i;
+                case f2d:
+                    return second == ValueTypeConvertion.d2f;
+                case f2i_re:
+                    return second == ValueTypeConvertion.i2f_re;
+                case i2f_re:
+                    return second == ValueTypeConvertion.f2i_re;
+                case d2l_re:
+                    return second == ValueTypeConvertion.l2d_re;
+                case l2d_re:
+                    return second == ValueTypeConvertion.d2l_re;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * Remove the code after return, br, br_table, unreachable, throw and tail calls until the end of the current block.
+     */
+    private static class UnreachableCode extends Rule {
+
+        UnreachableCode() {
+            super( "unreachable code" );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        int apply( @Nonnull List<WasmInstruction> instructions ) {
+            int hits = 0;
+            for( int i = 0; i < instructions.size(); i++ ) {
+                WasmInstruction instr = instructions.get( i );
+                if( instr instanceof WasmCallInstruction ) {
+                    if( !((WasmCallInstruction)instr).isTailCall() ) {
                         continue;
                     }
-                    WasmLocalInstruction local1 = (WasmLocalInstruction)instructions.get( i-1 );
-                    WasmLocalInstruction local2 = (WasmLocalInstruction)instr;
-                    if( local1.getIndex() != local2.getIndex() ) {
+                } else if( instr.getType() != Type.Block ) {
+                    continue;
+                } else {
+                    switch( ((WasmBlockInstruction)instr).getOperation() ) {
+                        case RETURN:
+                        case BR:
+                        case BR_TABLE:
+                        case UNREACHABLE:
+                        case THROW:
+                        case RETHROW:
+                            break;
+                        default:
+                            continue;
+                    }
+                }
+                int end = i + 1;
+                int depth = 0;
+                LOOP: for( ; end < instructions.size(); end++ ) {
+                    WasmInstruction next = instructions.get( end );
+                    if( next.getType() != Type.Block ) {
                         continue;
                     }
-                    if( local1.getOperator() == VariableOperator.set && local2.getOperator() == VariableOperator.get ) {
-                        local1.setOperator( VariableOperator.tee );
-                        instructions.remove( i );
+                    switch( ((WasmBlockInstruction)next).getOperation() ) {
+                        case BLOCK:
+                        case LOOP:
+                        case IF:
+                        case TRY:
+                            depth++;
+                            break;
+                        case ELSE:
+                        case CATCH:
+                            if( depth == 0 ) {
+                                break LOOP;
+                            }
+                            break;
+                        case END:
+                            if( depth-- == 0 ) {
+                                break LOOP;
+                            }
+                            break;
+                        default:
+                    }
+                }
+                if( end > i + 1 ) {
+                    instructions.subList( i + 1, end ).clear();
+                    hits++;
+                }
+            }
+            return hits;
+        }
+    }
+
+    /**
+     * Replace the assignment of a local variable that is never read with a drop.
+     */
+    private static class DeadLocalSet extends Rule {
+
+        DeadLocalSet() {
+            super( "dead local.set" );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        int apply( @Nonnull List<WasmInstruction> instructions ) {
+            BitSet written = new BitSet();
+            for( WasmInstruction instr : instructions ) {
+                if( instr.getType() == Type.Local && ((WasmLocalInstruction)instr).getOperator() != VariableOperator.get ) {
+                    written.set( ((WasmLocalInstruction)instr).getIndex() );
+                }
+            }
+            // every instruction type can read a local variable, not only local.get
+            for( WasmInstruction instr : instructions ) {
+                for( int idx = written.nextSetBit( 0 ); idx >= 0; idx = written.nextSetBit( idx + 1 ) ) {
+                    if( instr.readsLocal( idx ) ) {
+                        written.clear( idx );
+                    }
+                }
+            }
+
+            int hits = 0;
+            for( int i = instructions.size() - 1; i >= 0; i-- ) {
+                WasmInstruction instr = instructions.get( i );
+                if( instr.getType() != Type.Local ) {
+                    continue;
+                }
+                WasmLocalInstruction local = (WasmLocalInstruction)instr;
+                if( local.getOperator() == VariableOperator.get || !written.get( local.getIndex() ) ) {
+                    continue;
+                }
+                if( local.getOperator() == VariableOperator.set ) {
+                    instructions.set( i, new WasmBlockInstruction( WasmBlockOperator.DROP, null, instr.getCodePosition(), instr.getLineNumber() ) );
+                } else {
+                    // the value of local.tee stays on the stack
+                    instructions.remove( i );
+                }
+                hits++;
+            }
+            return hits;
+        }
+    }
+
+    /**
+     * Remove the calculation of a value without side effects with a following drop like: local.get, const, add, drop
+     */
+    private static class DropValue extends Rule {
+
+        DropValue() {
+            super( "drop" );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        int apply( @Nonnull List<WasmInstruction> instructions ) {
+            int hits = 0;
+            for( int i = instructions.size() - 1; i >= 1; i-- ) {
+                if( !isBlock( instructions.get( i ), WasmBlockOperator.DROP ) ) {
+                    continue;
+                }
+                // search the start of the instructions that produce the dropped value
+                int needed = 1;
+                int start = i;
+                while( needed > 0 && start > 0 ) {
+                    WasmInstruction prev = instructions.get( start - 1 );
+                    if( !isSideEffectFree( prev ) ) {
+                        break;
+                    }
+                    needed += prev.getPopCount() - 1;
+                    start--;
+                }
+                if( needed > 0 ) {
+                    continue;
+                }
+                instructions.subList( start, i + 1 ).clear();
+                i = start;
+                hits++;
+            }
+            return hits;
+        }
+
+        /**
+         * If the instruction push exactly one value, has no side effect and can not trap.
+         *
+         * @param instr
+         *            the instruction
+         * @return true, if the instruction can be removed if the value is not used
+         */
+        private static boolean isSideEffectFree( WasmInstruction instr ) {
+            switch( instr.getType() ) {
+                case Const:
+                case Convert:
+                    return true;
+                case Local:
+                    return ((WasmLocalInstruction)instr).getOperator() == VariableOperator.get;
+                case Numeric:
+                    WasmNumericInstruction numeric = (WasmNumericInstruction)instr;
+                    switch( numeric.numOp ) {
+                        case div:
+                        case rem:
+                            // an integer division by zero trap
+                            return numeric.getValueType() == ValueType.f32 || numeric.getValueType() == ValueType.f64;
+                        default:
+                            return true;
                     }
-                    break;
                 default:
+                    return false;
             }
         }
+    }
 
+    /**
+     * Merge local.set, local.get --> local.tee
+     */
+    private static class LocalTee extends Rule {
+
+        LocalTee() {
+            super( "local.tee" );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        int apply( @Nonnull List<WasmInstruction> instructions ) {
+            int hits = 0;
+            for( int i = instructions.size() - 1; i >= 1; i-- ) {
+                WasmInstruction instr = instructions.get( i );
+                if( instr.getType() != Type.Local || instructions.get( i - 1 ).getType() != Type.Local ) {
+                    continue;
+                }
+                WasmLocalInstruction local1 = (WasmLocalInstruction)instructions.get( i - 1 );
+                WasmLocalInstruction local2 = (WasmLocalInstruction)instr;
+                if( local1.getIndex() != local2.getIndex() ) {
+                    continue;
+                }
+                if( local1.getOperator() == VariableOperator.set && local2.getOperator() == VariableOperator.get ) {
+                    local1.setOperator( VariableOperator.tee );
+                    instructions.remove( i );
+                    hits++;
+                }
+            }
+            return hits;
+        }
     }
 
+    /**
+     * Replace a call that is followed only by the end of blocks and a return with a tail call. A directly following
+     * return is removed. Calls inside a try block are never replaced because the exception handler must stay active.
+     */
+    static class TailCall extends Rule {
+
+        TailCall() {
+            super( "tail call" );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        int apply( @Nonnull List<WasmInstruction> instructions ) {
+            int hits = 0;
+            ArrayList<Boolean> blocks = new ArrayList<>(); // true for a try block
+            int tryCount = 0;
+            for( int i = 0; i < instructions.size(); i++ ) {
+                WasmInstruction instr = instructions.get( i );
+                switch( instr.getType() ) {
+                    case Block:
+                        switch( ((WasmBlockInstruction)instr).getOperation() ) {
+                            case BLOCK:
+                            case LOOP:
+                            case IF:
+                                blocks.add( Boolean.FALSE );
+                                break;
+                            case TRY:
+                                blocks.add( Boolean.TRUE );
+                                tryCount++;
+                                break;
+                            case END:
+                                if( !blocks.isEmpty() && blocks.remove( blocks.size() - 1 ) ) {
+                                    tryCount--;
+                                }
+                                break;
+                            default:
+                        }
+                        continue;
+                    case Call:
+                    case CallVirtual:
+                    case CallInterface:
+                        break;
+                    default:
+                        continue;
+                }
+                WasmCallInstruction call = (WasmCallInstruction)instr;
+                if( tryCount > 0 || call.isTailCall() ) {
+                    continue;
+                }
+                int returnIdx = findReturn( instructions, i + 1 );
+                if( returnIdx < 0 ) {
+                    continue;
+                }
+                // the result of the call must be the returned value, a void call before a value return can not be replaced
+                if( !Objects.equals( call.getPushValueType(), instructions.get( returnIdx ).getPushValueType() ) ) {
+                    continue;
+                }
+                call.setTailCall();
+                if( returnIdx == i + 1 ) {
+                    instructions.remove( returnIdx );
+                }
+                hits++;
+            }
+            return hits;
+        }
+
+        /**
+         * Find the return that is reached from the given position without executing any other instruction. Only the
+         * ends of blocks are passed. An else branch is skipped to the end of the if.
+         *
+         * @param instructions
+         *            the list of instructions
+         * @param idx
+         *            the position after the call
+         * @return the index of the return or -1 if the position is not followed by a return
+         */
+        private static int findReturn( @Nonnull List<WasmInstruction> instructions, int idx ) {
+            for( int i = idx; i < instructions.size(); i++ ) {
+                WasmInstruction instr = instructions.get( i );
+                if( instr.getType() != Type.Block ) {
+                    return -1;
+                }
+                switch( ((WasmBlockInstruction)instr).getOperation() ) {
+                    case RETURN:
+                        return i;
+                    case END:
+                        break;
+                    case ELSE:
+                        // continue on the end of the if
+                        int depth = 0;
+                        LOOP: for( i++; i < instructions.size(); i++ ) {
+                            WasmInstruction next = instructions.get( i );
+                            if( next.getType() != Type.Block ) {
+                                continue;
+                            }
+                            switch( ((WasmBlockInstruction)next).getOperation() ) {
+                                case BLOCK:
+                                case LOOP:
+                                case IF:
+                                case TRY:
+                                    depth++;
+                                    break;
+                                case END:
+                                    if( depth-- == 0 ) {
+                                        break LOOP;
+                                    }
+                                    break;
+                                default:
+                            }
+                        }
+                        break;
+                    default:
+                        return -1;
+                }
+            }
+            return -1;
+        }
+    }
 }
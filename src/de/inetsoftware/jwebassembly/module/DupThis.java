@@ -79,7 +79,7 @@ Type getType() {
     @Override
     void writeTo( ModuleWriter writer ) throws IOException {
         if( virtualCall.isVirtual() ) {
-            writer.writeLocal( VariableOperator.tee, localVariables.get( tempVarSlot, getCodePosition() ) );
+            writer.writeLocal( VariableOperator.tee, localVariables.getWasmIndex( localVariables.get( tempVarSlot, getCodePosition() ) ) );
         }
     }
 
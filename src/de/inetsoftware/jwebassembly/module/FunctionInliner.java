@@ -0,0 +1,290 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.module;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import de.inetsoftware.classparser.ClassFile;
+import de.inetsoftware.classparser.MethodInfo;
+import de.inetsoftware.jwebassembly.JWebAssembly;
+import de.inetsoftware.jwebassembly.module.WasmInstruction.Type;
+import de.inetsoftware.jwebassembly.wasm.AnyType;
+import de.inetsoftware.jwebassembly.wasm.VariableOperator;
+import de.inetsoftware.jwebassembly.wasm.WasmBlockOperator;
+import de.inetsoftware.jwebassembly.watparser.WatParser;
+
+/**
+ * Inline the calls of small static functions with a WasmTextCode annotation like the helpers of the runtime that access
+ * a table or the memory. Only straight-line code is inlined. The code after the first return is unreachable and the
+ * return self is not needed because the result is already on the stack. The parameters are stored in temporary local
+ * variables of the caller if the function does not use them exactly once in the order of the stack.
+ *
+ * @author Volker Berlin
+ */
+class FunctionInliner {
+
+    /**
+     * The maximum count of instructions of an inlined function without parameter access and return.
+     */
+    static final int                   MAX_SIZE       = 4;
+
+    private static final Body          NOT_INLINEABLE = new Body( null, null, null, false );
+
+    private final Map<String, Body>    bodies         = new HashMap<>();
+
+    // the parsers of the functions that are currently checked, the calls of such function are never inlined
+    private final Set<WasmCodeBuilder> parsers        = new HashSet<>();
+
+    /**
+     * If the code builder parse a function to check if it can be inlined. The calls of such function must not be
+     * inlined, that prevent a recursion of the parser, and the called functions are not needed.
+     *
+     * @param codeBuilder
+     *            the code builder
+     * @return true, if parsing for a check
+     */
+    boolean isParsing( @Nonnull WasmCodeBuilder codeBuilder ) {
+        return parsers.contains( codeBuilder );
+    }
+
+    /**
+     * Add the code of the function instead of a call to the instructions of the code builder.
+     *
+     * @param codeBuilder
+     *            the code builder of the caller
+     * @param name
+     *            the called function
+     * @param classFileLoader
+     *            for loading the class files
+     * @param javaCodePos
+     *            the code position/offset of the call in the Java method
+     * @param lineNumber
+     *            the line number of the call in the Java source code
+     * @return the method of the inlined code or null if the call was not inlined
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    @Nullable
+    MethodInfo inline( @Nonnull WasmCodeBuilder codeBuilder, @Nonnull FunctionName name, @Nonnull ClassFileLoader classFileLoader, int javaCodePos, int lineNumber ) throws IOException {
+        Body body = bodies.get( name.signatureName );
+        // while recording the parse is repeated that its manager calls are part of every recording
+        if( body == null || codeBuilder.getOptions().functions.journal.isRecording() || !isValid( body, name, codeBuilder.getOptions().functions ) ) {
+            body = parse( codeBuilder.getOptions(), name, classFileLoader );
+            bodies.put( name.signatureName, body );
+        }
+        if( body == NOT_INLINEABLE ) {
+            return null;
+        }
+
+        List<WasmInstruction> instructions = codeBuilder.getInstructions();
+        LocaleVariableManager localVariables = codeBuilder.getLocalVariables();
+        int[] slots = null;
+        if( !body.direct ) {
+            // move the parameters from the stack into temporary variables
+            int count = body.params.length;
+            slots = new int[count];
+            for( int i = count - 1; i >= 0; i-- ) {
+                slots[i] = codeBuilder.getTempVariable( body.params[i], javaCodePos, javaCodePos + 1 );
+                instructions.add( new WasmLoadStoreInstruction( VariableOperator.set, slots[i], localVariables, javaCodePos, lineNumber ) );
+            }
+        }
+        for( WasmInstruction instr : body.code ) {
+            if( instr.getType() == Type.Local ) {
+                int slot = slots[((WasmLocalInstruction)instr).getIndex()];
+                instructions.add( new WasmLoadStoreInstruction( VariableOperator.get, slot, localVariables, javaCodePos, lineNumber ) );
+            } else {
+                instructions.add( instr.copy( javaCodePos, lineNumber ) );
+            }
+        }
+        return body.method;
+    }
+
+    /**
+     * Check if the body is still the code of the function. A replacement, an import or an alias of the function can be
+     * found after the function was parsed.
+     *
+     * @param body
+     *            the parsed body
+     * @param name
+     *            the function
+     * @param functions
+     *            the function manager
+     * @return true, if valid
+     */
+    private static boolean isValid( @Nonnull Body body, @Nonnull FunctionName name, @Nonnull FunctionManager functions ) {
+        if( body == NOT_INLINEABLE ) {
+            return true; // a not inlineable function is never inlined
+        }
+        return functions.replace( name, body.method ) == body.method && functions.getImportAnannotation( name ) == null && functions.getAlias( name ) == null;
+    }
+
+    /**
+     * Parse the function and check if it can be inlined.
+     *
+     * @param options
+     *            compiler properties
+     * @param name
+     *            the called function
+     * @param classFileLoader
+     *            for loading the class files
+     * @return the body or NOT_INLINEABLE
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    @Nonnull
+    private Body parse( @Nonnull WasmOptions options, @Nonnull FunctionName name, @Nonnull ClassFileLoader classFileLoader ) throws IOException {
+        FunctionManager functions = options.functions;
+        if( functions.getImportAnannotation( name ) != null ) {
+            return NOT_INLINEABLE;
+        }
+        ClassFile classFile = classFileLoader.get( name.className );
+        MethodInfo method = classFile == null ? null : classFile.getMethod( name.methodName, name.signature );
+        method = functions.replace( name, method );
+        if( method == null || !method.isStatic() || method.getAnnotation( JWebAssembly.IMPORT_ANNOTATION ) != null ) {
+            return NOT_INLINEABLE;
+        }
+        Map<String, Object> wat = method.getAnnotation( JWebAssembly.TEXTCODE_ANNOTATION );
+        if( wat == null || wat.get( "signature" ) != null ) {
+            return NOT_INLINEABLE;
+        }
+        String watCode = (String)wat.get( "value" );
+
+        WatParser watParser = new WatParser();
+        ((WasmCodeBuilder)watParser).init( options, classFileLoader );
+        parsers.add( watParser );
+        try {
+            watParser.parse( watCode, method, null, -1 );
+        } finally {
+            parsers.remove( watParser );
+        }
+
+        List<AnyType> params = new ArrayList<>();
+        for( Iterator<AnyType> it = name.getSignature( options.types ); ; ) {
+            AnyType type = it.next();
+            if( type == null ) {
+                break;
+            }
+            params.add( type );
+        }
+        int paramCount = params.size();
+
+        List<WasmInstruction> code = new ArrayList<>();
+        int getCount = 0;
+        boolean direct = true;
+        for( WasmInstruction instr : ((WasmCodeBuilder)watParser).getInstructions() ) {
+            switch( instr.getType() ) {
+                case Local:
+                    WasmLocalInstruction local = (WasmLocalInstruction)instr;
+                    if( local.getOperator() != VariableOperator.get || local.getIndex() >= paramCount ) {
+                        return NOT_INLINEABLE;
+                    }
+                    // the parameters are already on the stack if they are loaded once in order before any other instruction
+                    direct &= local.getIndex() == getCount && code.size() == getCount;
+                    getCount++;
+                    break;
+                case Call:
+                case CallVirtual:
+                case CallInterface:
+                    // a function with calls is not small
+                    return NOT_INLINEABLE;
+                case Block:
+                    if( ((WasmBlockInstruction)instr).getOperation() != WasmBlockOperator.RETURN ) {
+                        return NOT_INLINEABLE;
+                    }
+                    return createBody( method, params, code, direct && getCount == paramCount );
+                default:
+                    if( instr.copy( instr.getCodePosition(), instr.getLineNumber() ) == null ) {
+                        return NOT_INLINEABLE;
+                    }
+            }
+            code.add( instr );
+        }
+        return createBody( method, params, code, direct && getCount == paramCount );
+    }
+
+    /**
+     * Create the body if the cost is small enough.
+     *
+     * @param method
+     *            the inlined method
+     * @param params
+     *            the types of the parameters
+     * @param code
+     *            the instructions without return
+     * @param direct
+     *            true, if the parameters can be used directly from the stack
+     * @return the body or NOT_INLINEABLE
+     */
+    @Nonnull
+    private static Body createBody( @Nonnull MethodInfo method, @Nonnull List<AnyType> params, @Nonnull List<WasmInstruction> code, boolean direct ) {
+        if( direct ) {
+            code = code.subList( params.size(), code.size() );
+        }
+        int size = 0;
+        for( WasmInstruction instr : code ) {
+            if( instr.getType() != Type.Local ) {
+                size++;
+            }
+        }
+        if( size > MAX_SIZE ) {
+            return NOT_INLINEABLE;
+        }
+        return new Body( method, params.toArray( new AnyType[params.size()] ), code.toArray( new WasmInstruction[code.size()] ), direct );
+    }
+
+    /**
+     * The code of an inlineable function.
+     */
+    private static class Body {
+
+        private final MethodInfo        method;
+
+        private final AnyType[]         params;
+
+        private final WasmInstruction[] code;
+
+        private final boolean           direct;
+
+        /**
+         * Create a new instance.
+         *
+         * @param method
+         *            the inlined method, can be a replacement
+         * @param params
+         *            the types of the parameters
+         * @param code
+         *            the instructions without parameter access if direct
+         * @param direct
+         *            true, if the parameters can be used directly from the stack
+         */
+        private Body( @Nullable MethodInfo method, @Nullable AnyType[] params, @Nullable WasmInstruction[] code, boolean direct ) {
+            this.method = method;
+            this.params = params;
+            this.code = code;
+            this.direct = direct;
+        }
+    }
+}
@@ -17,19 +17,25 @@
 
 import static de.inetsoftware.jwebassembly.module.WasmCodeBuilder.CLASS_INIT;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import de.inetsoftware.classparser.ClassFile;
 import de.inetsoftware.classparser.MethodInfo;
 import de.inetsoftware.jwebassembly.JWebAssembly;
 import de.inetsoftware.jwebassembly.WasmException;
@@ -45,10 +51,43 @@ class FunctionManager {
 
     private final Set<String>                      usedClasses = new LinkedHashSet<>();
 
+    /** the functions with state Needed in the order of the states map, the work list of the scan */
+    private final TreeSet<FunctionState>           needed      = new TreeSet<>();
+
+    /** the functions with state Needed or Scanned in the order of the states map */
+    private final TreeSet<FunctionState>           writeLater  = new TreeSet<>();
+
+    /** the functions with state Abstract in the order of the states map */
+    private final TreeSet<FunctionState>           abstracts   = new TreeSet<>();
+
+    private int                                    stateCounter;
+
     private int                                    neededCount;
 
     private boolean                                isFinish;
 
+    /** the counter of changes, every change of a state that the code builders can read get a new version */
+    private int                                    version;
+
+    /** the versions of the read states while the instructions of a method are created */
+    private Dependencies                           recording;
+
+    /** the replayable calls while the instructions of a method are created */
+    final ScanJournal                              journal     = new ScanJournal();
+
+    /** for loading the replacement methods that are registered by name */
+    private ClassFileLoader                        classFileLoader;
+
+    /**
+     * Initialize the function manager.
+     * 
+     * @param classFileLoader
+     *            for loading the class files of the replacement methods
+     */
+    void init( ClassFileLoader classFileLoader ) {
+        this.classFileLoader = classFileLoader;
+    }
+
     /**
      * Finish the prepare. Now no new function should be added.
      */
@@ -65,11 +104,188 @@ void prepareFinish() {
      */
     @Nonnull
     private FunctionState getOrCreate( @Nonnull FunctionName name ) {
-        FunctionState state = states.get( name );
-        if( state == null ) {
-            states.put( name, state = new FunctionState() );
+        synchronized( states ) {
+            FunctionState state = states.get( name );
+            if( state == null ) {
+                states.put( name, state = new FunctionState( name, stateCounter++ ) );
+            }
+            return state;
+        }
+    }
+
+    /**
+     * Get an existing state. The access to the states is synchronized because the functions are written in worker
+     * threads and the code builders can query a function name that is unknown yet.
+     * 
+     * @param name
+     *            the FunctionName
+     * @return the state or null
+     */
+    @Nullable
+    private FunctionState get( @Nonnull FunctionName name ) {
+        synchronized( states ) {
+            return states.get( name );
+        }
+    }
+
+    /**
+     * Change the state of a function and update the state indexes.
+     * 
+     * @param state
+     *            the function state
+     * @param newState
+     *            the new state value
+     */
+    private void setState( @Nonnull FunctionState state, @Nonnull State newState ) {
+        if( state.state == State.None ) {
+            changed( state ); // the function is now used
+        }
+        updateIndex( state, false );
+        state.state = newState;
+        updateIndex( state, true );
+    }
+
+    /**
+     * Set a new version to a state after a change that the code builders can read. The progress from needed to scanned,
+     * abstract and written and a new order does not change the created instructions and does not need a new version.
+     * 
+     * @param state
+     *            the function state
+     */
+    private void changed( @Nonnull FunctionState state ) {
+        state.version = ++version;
+        if( recording != null ) {
+            // the change was done from the currently created method self
+            recording.versions.replace( state.name, state.version );
+        }
+    }
+
+    /**
+     * Set a new version to the vtable and itable index of a state. The indexes are set from the scan of the type
+     * hierarchy for all virtual functions and have its own version that a call does not depend on it.
+     * 
+     * @param state
+     *            the function state
+     */
+    private void changedTable( @Nonnull FunctionState state ) {
+        state.tableVersion = ++version;
+        if( recording != null ) {
+            recording.tableVersions.replace( state.name, state.tableVersion );
+        }
+    }
+
+    /**
+     * Record the version of a read state if the instructions of a method are currently created.
+     * 
+     * @param name
+     *            the function name
+     * @param state
+     *            the state or null if the function is unknown
+     */
+    private void read( @Nonnull FunctionName name, @Nullable FunctionState state ) {
+        if( recording != null ) {
+            recording.versions.putIfAbsent( name, state == null ? 0 : state.version );
+        }
+    }
+
+    /**
+     * Record the version of the read vtable or itable index if the instructions of a method are currently created.
+     * 
+     * @param state
+     *            the function state
+     */
+    private void readTable( @Nonnull FunctionState state ) {
+        if( recording != null ) {
+            recording.tableVersions.putIfAbsent( state.name, state.tableVersion );
+        }
+    }
+
+    /**
+     * Start the recording of all read function states while the instructions of a method are created.
+     */
+    void startRecording() {
+        recording = new Dependencies();
+    }
+
+    /**
+     * Stop the recording of the read function states.
+     * 
+     * @return the recorded dependencies or null if the instructions contain a value that is only known after the scan
+     *         phase
+     */
+    @Nullable
+    Dependencies stopRecording() {
+        Dependencies dependencies = recording;
+        recording = null;
+        return dependencies == null || dependencies.unknownValue ? null : dependencies;
+    }
+
+    /**
+     * Mark the currently created instructions as not reusable because they contain a value that is only known after
+     * the scan phase.
+     */
+    void recordUnknownValue() {
+        if( recording != null ) {
+            recording.unknownValue = true;
+        }
+    }
+
+    /**
+     * Check if all recorded function states are unchanged. Then the instructions would be the same if they are created
+     * again.
+     * 
+     * @param dependencies
+     *            the recorded dependencies
+     * @return true, if unchanged
+     */
+    boolean isUnchanged( @Nonnull Dependencies dependencies ) {
+        for( Entry<FunctionName, Integer> entry : dependencies.versions.entrySet() ) {
+            FunctionState state = get( entry.getKey() );
+            if( (state == null ? 0 : state.version) != entry.getValue() ) {
+                return false;
+            }
+        }
+        for( Entry<FunctionName, Integer> entry : dependencies.tableVersions.entrySet() ) {
+            if( get( entry.getKey() ).tableVersion != entry.getValue() ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add or remove the state to the index of its current state value.
+     * 
+     * @param state
+     *            the function state
+     * @param add
+     *            true, add; false, remove
+     */
+    private void updateIndex( @Nonnull FunctionState state, boolean add ) {
+        switch( state.state ) {
+            case Needed:
+                if( add ) {
+                    needed.add( state );
+                } else {
+                    needed.remove( state );
+                }
+                //$FALL-THROUGH$
+            case Scanned:
+                if( add ) {
+                    writeLater.add( state );
+                } else {
+                    writeLater.remove( state );
+                }
+                break;
+            case Abstract:
+                if( add ) {
+                    abstracts.add( state );
+                } else {
+                    abstracts.remove( state );
+                }
+                break;
+            default:
         }
-        return state;
     }
 
     /**
@@ -89,7 +305,10 @@ int getNeededCount() {
      * @return true, if known
      */
     boolean isKnown( @Nonnull FunctionName name ) {
-        return states.get( name ) != null;
+        int entry = journal.enter( ScanJournal.Op.KNOWN, name );
+        FunctionState state = get( name );
+        read( name, state );
+        return journal.exit( entry, state != null );
     }
 
     /**
@@ -99,9 +318,11 @@ boolean isKnown( @Nonnull FunctionName name ) {
      *            the name of the class like "java/lang/Object"
      */
     void markClassAsUsed( String className ) {
+        int entry = journal.enter( ScanJournal.Op.USED_CLASS, className );
         if( usedClasses.add( className ) ) {
             JWebAssembly.LOGGER.fine( "\t\tused: " + className );
         }
+        journal.exit( entry, null );
     }
 
     /**
@@ -127,7 +348,25 @@ void markAsImport( @Nonnull FunctionName name, @Nonnull Map<String, Object> impo
      *            the annotation of the import
      */
     void markAsImport( @Nonnull FunctionName name, Function<String, Object> importAnannotation ) {
-        getOrCreate( name ).importAnannotation = importAnannotation;
+        journal.unsupported();
+        FunctionState state = getOrCreate( name );
+        if( state.importAnannotation == null ) {
+            // the synthetic functions are registered again on every use with the same annotation values
+            changed( state );
+        }
+        state.importAnannotation = importAnannotation;
+    }
+
+    /**
+     * Mark the a synthetic function as a import function with the annotation of the function self.
+     * 
+     * @param name
+     *            the function name
+     */
+    void markAsImport( @Nonnull SyntheticFunctionName name ) {
+        int entry = journal.enter( ScanJournal.Op.IMPORT, name );
+        markAsImport( name, name.getAnnotation() );
+        journal.exit( entry, null );
     }
 
     /**
@@ -139,8 +378,13 @@ void markAsImport( @Nonnull FunctionName name, Function<String, Object> importAn
      *            the annotation of the export
      */
     void markAsExport( @Nonnull FunctionName name, @Nonnull Map<String, Object> exportAnannotation ) {
+        journal.unsupported();
         markAsNeeded( name, false );
-        getOrCreate( name ).exportAnannotation = exportAnannotation;
+        FunctionState state = getOrCreate( name );
+        if( state.exportAnannotation == null ) {
+            changed( state );
+        }
+        state.exportAnannotation = exportAnannotation;
     }
 
     /**
@@ -150,10 +394,18 @@ void markAsExport( @Nonnull FunctionName name, @Nonnull Map<String, Object> expo
      *            the function name
      */
     void markAsNeededAndReplaceIfExists( @Nonnull SyntheticFunctionName name ) {
-        FunctionState state = states.get( name );
+        journal.unsupported();
+        FunctionState state = get( name );
         if( state != null ) {
-            states.remove( name );
-            states.put( name, state );
+            synchronized( states ) {
+                states.remove( name );
+                states.put( name, state );
+            }
+            // move it to the end of the order
+            updateIndex( state, false );
+            state.name = name;
+            state.order = stateCounter++;
+            updateIndex( state, true );
         }
         markAsNeeded( name, !name.istStatic() );
     }
@@ -168,6 +420,7 @@ void markAsNeededAndReplaceIfExists( @Nonnull SyntheticFunctionName name ) {
      * @return the real function name
      */
     FunctionName markAsNeeded( @Nonnull FunctionName name, boolean needThisParameter ) {
+        int entry = journal.enter( ScanJournal.Op.NEEDED, name, needThisParameter );
         FunctionState state = getOrCreate( name );
         if( state.state == State.None ) {
             switch( name.className ) {
@@ -175,13 +428,13 @@ FunctionName markAsNeeded( @Nonnull FunctionName name, boolean needThisParameter
                 case UnsafeManager.UNSAFE_11:
                 case UnsafeManager.VARHANDLE:
                     // Unsafe method call will be replaces by the UnsafeManager
-                    return name;
+                    return journal.exit( entry, name );
             }
             if( isFinish ) {
                 throw new WasmException( "Prepare was already finish: " + name.signatureName, -1 );
             }
             neededCount++;
-            state.state = State.Needed;
+            setState( state, State.Needed );
             state.needThisParameter = needThisParameter;
             JWebAssembly.LOGGER.fine( "\t\tcall: " + name.signatureName );
             usedClasses.add( name.className );
@@ -198,7 +451,8 @@ FunctionName markAsNeeded( @Nonnull FunctionName name, boolean needThisParameter
 
             }
         }
-        return state.alias == null ? name : state.alias;
+        read( name, state );
+        return journal.exit( entry, state.alias == null ? name : state.alias );
     }
 
     /**
@@ -220,7 +474,7 @@ void markAsScanned( @Nonnull FunctionName name ) {
         switch( state.state ) {
             case None:
             case Needed:
-                state.state = State.Scanned;
+                setState( state, State.Scanned );
                 break;
         }
     }
@@ -232,7 +486,7 @@ void markAsScanned( @Nonnull FunctionName name ) {
      *            the function name
      */
     void markAsWritten( @Nonnull FunctionName name ) {
-        getOrCreate( name ).state = State.Written;
+        setState( getOrCreate( name ), State.Written );
     }
 
     /**
@@ -242,7 +496,8 @@ void markAsWritten( @Nonnull FunctionName name ) {
      *            the function name
      */
     void markAsAbstract( @Nonnull FunctionName name ) {
-        getOrCreate( name ).state = State.Abstract;
+        journal.unsupported();
+        setState( getOrCreate( name ), State.Abstract );
     }
 
     /**
@@ -251,8 +506,7 @@ void markAsAbstract( @Nonnull FunctionName name ) {
      * @return an iterator
      */
     Iterator<FunctionName> getNeededImports() {
-        return states.entrySet().stream().filter( entry -> {
-            FunctionState state = entry.getValue();
+        return iterator( writeLater, state -> {
             switch( state.state ) {
                 case Needed:
                 case Scanned:
@@ -260,7 +514,7 @@ Iterator<FunctionName> getNeededImports() {
                 default:
             }
             return false;
-        } ).map( entry -> entry.getKey() ).iterator();
+        } );
     }
 
     /**
@@ -271,7 +525,10 @@ Iterator<FunctionName> getNeededImports() {
      * @return the annotation or null
      */
     Function<String, Object> getImportAnannotation( FunctionName name ) {
-        return getOrCreate( name ).importAnannotation;
+        int entry = journal.enter( ScanJournal.Op.IMPORT_ANNOTATION, name );
+        FunctionState state = getOrCreate( name );
+        read( name, state );
+        return journal.exit( entry, state.importAnannotation );
     }
 
     /**
@@ -282,7 +539,10 @@ Function<String, Object> getImportAnannotation( FunctionName name ) {
      * @return the annotation or null
      */
     Map<String, Object> getExportAnannotation( FunctionName name ) {
-        return getOrCreate( name ).exportAnannotation;
+        int entry = journal.enter( ScanJournal.Op.EXPORT_ANNOTATION, name );
+        FunctionState state = getOrCreate( name );
+        read( name, state );
+        return journal.exit( entry, state.exportAnannotation );
     }
 
     /**
@@ -292,12 +552,7 @@ Map<String, Object> getExportAnannotation( FunctionName name ) {
      */
     @Nullable
     FunctionName nextScannLater() {
-        for( Entry<FunctionName, FunctionState> entry : states.entrySet() ) {
-            if( entry.getValue().state == State.Needed ) {
-                return entry.getKey();
-            }
-        }
-        return null;
+        return needed.isEmpty() ? null : needed.first().name;
     }
 
     /**
@@ -317,7 +572,7 @@ Iterator<String> getUsedClasses() {
      */
     @Nonnull
     Iterator<FunctionName> getWriteLaterClinit() {
-        return iterator( entry -> entry.getKey().methodName.equals( CLASS_INIT ) && entry.getValue().state != State.None );
+        return iterator( states.values(), state -> state.name.methodName.equals( CLASS_INIT ) && state.state != State.None );
     }
 
     /**
@@ -327,8 +582,8 @@ Iterator<FunctionName> getWriteLaterClinit() {
      */
     @Nonnull
     Iterator<FunctionName> getWriteLater() {
-        return iterator( entry -> {
-            switch( entry.getValue().state ) {
+        return iterator( writeLater, state -> {
+            switch( state.state ) {
                 case Needed:
                 case Scanned:
                     return true;
@@ -344,8 +599,8 @@ Iterator<FunctionName> getWriteLater() {
      * @return an iterator
      */
     Iterator<FunctionName> getAbstractedFunctions() {
-        return iterator( entry -> {
-            switch( entry.getValue().state ) {
+        return iterator( abstracts, state -> {
+            switch( state.state ) {
                 case Abstract:
                     return true;
                 default:
@@ -355,15 +610,18 @@ Iterator<FunctionName> getAbstractedFunctions() {
     }
 
     /**
-     * get a iterator for function names
+     * get a iterator for function names. The iterator use a copy of the states that the states can be changed while
+     * iterating. The filter is evaluated lazy with the current state value.
      * 
+     * @param index
+     *            the states to iterate
      * @param filter
      *            the filter
      * @return the iterator
      */
     @Nonnull
-    private Iterator<FunctionName> iterator( Predicate<Entry<FunctionName, FunctionState>> filter ) {
-        return states.entrySet().stream().filter( filter ).map( entry -> entry.getKey() ).iterator();
+    private Iterator<FunctionName> iterator( Collection<FunctionState> index, Predicate<FunctionState> filter ) {
+        return new ArrayList<>( index ).stream().filter( filter ).map( state -> state.name ).iterator();
     }
 
     /**
@@ -407,8 +665,10 @@ boolean needToWrite( @Nonnull FunctionName name ) {
      * @return true, if used
      */
     boolean isUsed( @Nonnull FunctionName name ) {
-        FunctionState state = states.get( name );
-        return state != null && state.state != State.None;
+        int entry = journal.enter( ScanJournal.Op.USED, name );
+        FunctionState state = get( name );
+        read( name, state );
+        return journal.exit( entry, state != null && state.state != State.None );
     }
 
     /**
@@ -419,7 +679,10 @@ boolean isUsed( @Nonnull FunctionName name ) {
      * @return true, if the function is static
      */
     boolean needThisParameter( @Nonnull FunctionName name ) {
-        return getOrCreate( name ).needThisParameter;
+        int entry = journal.enter( ScanJournal.Op.NEED_THIS, name );
+        FunctionState state = getOrCreate( name );
+        read( name, state );
+        return journal.exit( entry, state.needThisParameter );
     }
 
     /**
@@ -431,9 +694,29 @@ boolean needThisParameter( @Nonnull FunctionName name ) {
      *            the new implementation
      */
     void addReplacement( @Nonnull FunctionName name, MethodInfo method ) {
+        journal.unsupported();
         FunctionState state = getOrCreate( name );
-        if( state.method == null ) { // ignore redefinition replacements and use the first instance in the library path
+        if( state.method == null && state.replacement == null ) { // ignore redefinition replacements and use the first instance in the library path
             state.method = method;
+            changed( state );
+        }
+    }
+
+    /**
+     * Add a replacement for a method from the annotations of a library index. The class of the replacement method is
+     * loaded on the first use of the replacement.
+     * 
+     * @param name
+     *            the name of the method which should be replaced
+     * @param method
+     *            the name of the new implementation
+     */
+    void replaceLater( @Nonnull FunctionName name, @Nonnull FunctionName method ) {
+        journal.unsupported();
+        FunctionState state = getOrCreate( name );
+        if( state.method == null && state.replacement == null ) { // ignore redefinition replacements and use the first instance in the library path
+            state.replacement = method;
+            changed( state );
         }
     }
 
@@ -447,9 +730,26 @@ void addReplacement( @Nonnull FunctionName name, MethodInfo method ) {
      *            the new name.
      */
     void setAlias( @Nonnull FunctionName name, FunctionName alias ) {
+        journal.unsupported();
         FunctionState state = getOrCreate( name );
         state.alias = alias;
-        state.state = State.Written;
+        changed( state );
+        setState( state, State.Written );
+    }
+
+    /**
+     * Get the alias of the method if set.
+     * 
+     * @param name
+     *            the original name
+     * @return the alias or null
+     */
+    @Nullable
+    FunctionName getAlias( @Nonnull FunctionName name ) {
+        int entry = journal.enter( ScanJournal.Op.ALIAS, name );
+        FunctionState state = get( name );
+        read( name, state );
+        return journal.exit( entry, state == null ? null : state.alias );
     }
 
     /**
@@ -463,10 +763,42 @@ void setAlias( @Nonnull FunctionName name, FunctionName alias ) {
      */
     @Nonnull
     MethodInfo replace( @Nonnull FunctionName name, MethodInfo method ) {
-        MethodInfo newMethod = getOrCreate( name ).method;
+        int entry = journal.enter( ScanJournal.Op.REPLACE, name );
+        FunctionState state = getOrCreate( name );
+        read( name, state );
+        if( state.replacement != null ) {
+            resolveReplacement( state );
+        }
+        MethodInfo newMethod = journal.exit( entry, state.method );
         return newMethod != null ? newMethod : method;
     }
 
+    /**
+     * Load the replacement method that was registered by name. The functions are also created in worker threads.
+     * 
+     * @param state
+     *            the function state
+     */
+    private void resolveReplacement( @Nonnull FunctionState state ) {
+        synchronized( state ) {
+            FunctionName replacement = state.replacement;
+            if( replacement == null ) {
+                return;
+            }
+            try {
+                ClassFile classFile = classFileLoader.get( replacement.className );
+                MethodInfo method = classFile == null ? null : classFile.getMethod( replacement.methodName, replacement.signature );
+                if( method == null ) {
+                    throw new WasmException( "Missing replacement method: " + replacement.signatureName, -1 );
+                }
+                state.method = method;
+                state.replacement = null;
+            } catch( IOException ex ) {
+                throw WasmException.create( ex, -1 );
+            }
+        }
+    }
+
     /**
      * Set the index of a virtual function in a type.
      * 
@@ -476,7 +808,9 @@ MethodInfo replace( @Nonnull FunctionName name, MethodInfo method ) {
      *            the index in the vtable
      */
     void setVTableIndex( @Nonnull FunctionName name, int vtableIdx ) {
-        getOrCreate( name ).vtableIdx = vtableIdx;
+        FunctionState state = getOrCreate( name );
+        state.vtableIdx = vtableIdx;
+        changedTable( state );
     }
 
     /**
@@ -487,7 +821,10 @@ void setVTableIndex( @Nonnull FunctionName name, int vtableIdx ) {
      * @return the index
      */
     int getVTableIndex( @Nonnull FunctionName name ) {
-        return getOrCreate( name ).vtableIdx;
+        int entry = journal.enter( ScanJournal.Op.VTABLE, name );
+        FunctionState state = getOrCreate( name );
+        readTable( state );
+        return journal.exit( entry, state.vtableIdx );
     }
 
     /**
@@ -499,7 +836,9 @@ int getVTableIndex( @Nonnull FunctionName name ) {
      *            the index in the itable
      */
     void setITableIndex( @Nonnull FunctionName name, int itableIdx ) {
-        getOrCreate( name ).itableIdx = itableIdx;
+        FunctionState state = getOrCreate( name );
+        state.itableIdx = itableIdx;
+        changedTable( state );
     }
 
     /**
@@ -510,18 +849,27 @@ void setITableIndex( @Nonnull FunctionName name, int itableIdx ) {
      * @return the index in the itable
      */
     int getITableIndex( @Nonnull FunctionName name ) {
-        return getOrCreate( name ).itableIdx;
+        int entry = journal.enter( ScanJournal.Op.ITABLE, name );
+        FunctionState state = getOrCreate( name );
+        readTable( state );
+        return journal.exit( entry, state.itableIdx );
     }
 
     /**
      * State of a function/method
      */
-    private static class FunctionState {
+    private static class FunctionState implements Comparable<FunctionState> {
+
+        private FunctionName             name;
+
+        private int                      order;
 
         private State                    state     = State.None;
 
         private MethodInfo               method;
 
+        private FunctionName             replacement;
+
         private FunctionName             alias;
 
         private Function<String, Object> importAnannotation;
@@ -533,6 +881,43 @@ private static class FunctionState {
         private int                      itableIdx = -1;
 
         private boolean                  needThisParameter;
+
+        private int                      version;
+
+        private int                      tableVersion;
+
+        /**
+         * Create a new instance.
+         * 
+         * @param name
+         *            the key of the state
+         * @param order
+         *            the order of insertion
+         */
+        private FunctionState( FunctionName name, int order ) {
+            this.name = name;
+            this.order = order;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int compareTo( FunctionState o ) {
+            return Integer.compare( order, o.order );
+        }
+    }
+
+    /**
+     * The versions of the function states that was read while the instructions of a method was created.
+     */
+    static class Dependencies {
+
+        private final Map<FunctionName, Integer> versions      = new HashMap<>();
+
+        private final Map<FunctionName, Integer> tableVersions = new HashMap<>();
+
+        private boolean                          unknownValue;
     }
 
     private static enum State {
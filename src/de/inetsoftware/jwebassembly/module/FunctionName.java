@@ -16,6 +16,7 @@
 */
 package de.inetsoftware.jwebassembly.module;
 
+import java.io.Serializable;
 import java.util.Iterator;
 
 import javax.annotation.Nonnull;
@@ -31,7 +32,7 @@
  * @author Volker Berlin
  *
  */
-public class FunctionName {
+public class FunctionName implements Serializable {
 
     /**
      * The Java class name like "java/lang/String".
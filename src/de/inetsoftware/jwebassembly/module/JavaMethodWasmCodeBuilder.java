@@ -16,6 +16,7 @@
 package de.inetsoftware.jwebassembly.module;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.annotation.Nonnull;
@@ -48,6 +49,16 @@
  */
 class JavaMethodWasmCodeBuilder extends WasmCodeBuilder {
 
+    /**
+     * The minimum count of cases for a br_table of a lookupswitch.
+     */
+    private static final int MIN_TABLE_SIZE     = 4;
+
+    /**
+     * The maximum count of cases that are compared linear in a lookupswitch.
+     */
+    private static final int MAX_LINEAR_COMPARE = 4;
+
     private BranchManager branchManager;
 
     private UnsafeManager unsafeManager;
@@ -71,6 +82,22 @@ void init( WasmOptions options, ClassFileLoader classFileLoader ) {
         this.unsafeManager = new UnsafeManager( options.functions );
     }
 
+    /**
+     * Initialize the code builder of a single function. It use its own instructions and local variables but share the
+     * state of the Unsafe replacements with the given code builder.
+     *
+     * @param options
+     *            compiler properties
+     * @param classFileLoader
+     *            for loading the class files
+     * @param mainCodeBuilder
+     *            the code builder of the module generator
+     */
+    void init( WasmOptions options, ClassFileLoader classFileLoader, JavaMethodWasmCodeBuilder mainCodeBuilder ) {
+        init( options, classFileLoader );
+        this.unsafeManager = mainCodeBuilder.unsafeManager;
+    }
+
     /**
      * Build the wasm instructions
      * 
@@ -89,7 +116,7 @@ void buildCode( @Nonnull Code code, MethodInfo method ) {
 
             if( CLASS_INIT.equals( method.getName() ) ) {
                 // Add a hook to run the class/static constructor only once
-                FunctionName name = new FunctionName( method.getClassName(), "<class_isInit>", "" );
+                FunctionName name = new FunctionName( method.getClassName(), CLASS_IS_INIT, "" );
                 addGlobalInstruction( true, name, ValueType.i32, null, -1, -1 );
                 addBlockInstruction( WasmBlockOperator.BR_IF, 0, -1, -1 );
                 addConstInstruction( 1, ValueType.i32, -1, -1 );
@@ -647,6 +674,7 @@ private void writeCode( CodeInputStream byteCode, ConstantPool constantPool, Cla
                                 addCallInstruction( funcName, true, codePos, lineNumber );
                                 break;
                             case 184:
+                                addClinitInstruction( funcName, codePos, lineNumber );
                                 addCallInstruction( funcName, false, codePos, lineNumber );
                                 break;
                             case 185:
@@ -667,6 +695,7 @@ private void writeCode( CodeInputStream byteCode, ConstantPool constantPool, Cla
                         break;
                     case 187: // new
                         name = ((ConstantClass)constantPool.get( byteCode.readUnsignedShort() )).getName();
+                        addClinitInstruction( name, codePos, lineNumber );
                         addStructInstruction( StructOperator.NEW_DEFAULT, name, null, codePos, lineNumber );
                         break;
                     case 188: // newarray
@@ -802,39 +831,28 @@ private void writeSwitchCode( CodeInputStream byteCode, boolean isLookupSwitch )
                 keys[i] = byteCode.readInt();
                 positions[i] = startPosition + byteCode.readInt();
             }
-            int tempI32 = getTempVariable( ValueType.i32, codePos, Integer.MAX_VALUE );
-            int block = 0;
-            int defaultBlock = -1;
-            int currentPos = -1;
-            addLoadStoreInstruction( ValueType.i32, false, tempI32, codePos, lineNumber );
-            do {
-                int nextPos = findNext( currentPos, positions );
-                if( nextPos == currentPos ) {
-                    break;
+            if( count >= MIN_TABLE_SIZE && isDense( keys, 0, count ) ) {
+                // the keys are dense enough for a br_table, we handle it like a tableswitch
+                int low = keys[0];
+                int[] tablePositions = new int[keys[count - 1] - low + 1];
+                Arrays.fill( tablePositions, defaultPosition );
+                for( int i = 0; i < count; i++ ) {
+                    tablePositions[keys[i] - low] = positions[i];
                 }
-                currentPos = nextPos;
-                if( defaultBlock < 0 ) {
-                    if( defaultPosition <= currentPos ) {
-                        defaultBlock = block;
-                        if( defaultPosition < currentPos ) {
-                            block++;
-                        }
-                    }
+                keys = null;
+                positions = tablePositions;
+                if( low != 0 ) {
+                    addConstInstruction( low, ValueType.i32, codePos, lineNumber );
+                    addNumericInstruction( NumericOperator.sub, ValueType.i32, codePos, lineNumber );
                 }
-                for( int i = 0; i < positions.length; i++ ) {
-                    if( positions[i] == currentPos ) {
-                        addLoadStoreInstruction( ValueType.i32, true, tempI32, codePos, lineNumber );
-                        addConstInstruction( keys[i], ValueType.i32, codePos, lineNumber );
-                        addNumericInstruction( NumericOperator.eq, ValueType.i32, codePos, lineNumber );
-                        addBlockInstruction( WasmBlockOperator.BR_IF, block, codePos, lineNumber );
-                    }
-                }
-                block++;
-            } while( true );
-            if( defaultBlock < 0 ) {
-                defaultBlock = block;
+            } else {
+                int[] blocks = new int[count];
+                int defaultBlock = calculateSwitchBlocks( positions, defaultPosition, blocks );
+                int tempI32 = getTempVariable( ValueType.i32, codePos, Integer.MAX_VALUE );
+                addLoadStoreInstruction( ValueType.i32, false, tempI32, codePos, lineNumber );
+                addSwitchTree( keys, blocks, 0, count, defaultBlock, 0, tempI32, codePos, lineNumber );
+                addBlockInstruction( WasmBlockOperator.BR, defaultBlock, codePos, lineNumber );
             }
-            addBlockInstruction( WasmBlockOperator.BR, defaultBlock, codePos, lineNumber );
         } else {
             int low = byteCode.readInt();
             keys = null;
@@ -852,24 +870,115 @@ private void writeSwitchCode( CodeInputStream byteCode, boolean isLookupSwitch )
     }
 
     /**
-     * Find the next higher value.
+     * Calculate the block number of every case of a lookupswitch. The blocks are ordered by the code position of the
+     * cases like the BranchManager nested it.
+     * 
+     * @param positions
+     *            the code positions of the cases
+     * @param defaultPosition
+     *            the code position of the default block
+     * @param blocks
+     *            receive the block number of every case
+     * @return the block number of the default case
+     */
+    private static int calculateSwitchBlocks( int[] positions, int defaultPosition, int[] blocks ) {
+        int[] sorted = positions.clone();
+        Arrays.sort( sorted );
+        int block = 0;
+        int defaultBlock = -1;
+        int[] sortedBlocks = new int[sorted.length];
+        for( int i = 0; i < sorted.length; i++ ) {
+            int currentPos = sorted[i];
+            if( i > 0 && currentPos == sorted[i - 1] ) {
+                sortedBlocks[i] = sortedBlocks[i - 1];
+                continue;
+            }
+            if( defaultBlock < 0 && defaultPosition <= currentPos ) {
+                defaultBlock = block;
+                if( defaultPosition < currentPos ) {
+                    block++;
+                }
+            }
+            sortedBlocks[i] = block++;
+        }
+        for( int i = 0; i < positions.length; i++ ) {
+            blocks[i] = sortedBlocks[Arrays.binarySearch( sorted, positions[i] )];
+        }
+        return defaultBlock < 0 ? block : defaultBlock;
+    }
+
+    /**
+     * Write the jumps of a lookupswitch as balanced binary decision tree. A cluster of dense keys is handled with a
+     * br_table and few keys with a linear compare. If no key match then the code falls through to the end of the tree.
      * 
-     * @param current
-     *            the current value
-     * @param values
-     *            the unordered list of values
-     * @return the next value or current value if not found.
+     * @param keys
+     *            the sorted keys of the cases
+     * @param blocks
+     *            the block number of every case
+     * @param from
+     *            the first index of the key range (inclusive)
+     * @param to
+     *            the last index of the key range (exclusive)
+     * @param defaultBlock
+     *            the block number of the default case
+     * @param deep
+     *            the count of IF blocks around the current code
+     * @param tempI32
+     *            the slot of the local variable with the switch value
+     * @param codePos
+     *            the code position/offset in the Java method
+     * @param lineNumber
+     *            the line number in the Java source code
      */
-    private static int findNext( int current, int[] values ) {
-        boolean find = false;
-        int next = Integer.MAX_VALUE;
-        for( int val : values ) {
-            if( val > current && val <= next ) {
-                next = val;
-                find = true;
+    private void addSwitchTree( int[] keys, int[] blocks, int from, int to, int defaultBlock, int deep, int tempI32, int codePos, int lineNumber ) {
+        int count = to - from;
+        if( count >= MIN_TABLE_SIZE && isDense( keys, from, to ) ) {
+            int low = keys[from];
+            int[] targets = new int[keys[to - 1] - low + 2];
+            Arrays.fill( targets, defaultBlock + deep ); // the gaps and the last entry for out of range
+            for( int i = from; i < to; i++ ) {
+                targets[keys[i] - low] = blocks[i] + deep;
             }
+            addLoadStoreInstruction( ValueType.i32, true, tempI32, codePos, lineNumber );
+            if( low != 0 ) {
+                addConstInstruction( low, ValueType.i32, codePos, lineNumber );
+                addNumericInstruction( NumericOperator.sub, ValueType.i32, codePos, lineNumber );
+            }
+            addBlockInstruction( WasmBlockOperator.BR_TABLE, targets, codePos, lineNumber );
+        } else if( count <= MAX_LINEAR_COMPARE ) {
+            for( int i = from; i < to; i++ ) {
+                addLoadStoreInstruction( ValueType.i32, true, tempI32, codePos, lineNumber );
+                addConstInstruction( keys[i], ValueType.i32, codePos, lineNumber );
+                addNumericInstruction( NumericOperator.eq, ValueType.i32, codePos, lineNumber );
+                addBlockInstruction( WasmBlockOperator.BR_IF, blocks[i] + deep, codePos, lineNumber );
+            }
+        } else {
+            int middle = (from + to) >>> 1;
+            addLoadStoreInstruction( ValueType.i32, true, tempI32, codePos, lineNumber );
+            addConstInstruction( keys[middle], ValueType.i32, codePos, lineNumber );
+            addNumericInstruction( NumericOperator.lt, ValueType.i32, codePos, lineNumber );
+            addBlockInstruction( WasmBlockOperator.IF, ValueType.empty, codePos, lineNumber );
+            addSwitchTree( keys, blocks, from, middle, defaultBlock, deep + 1, tempI32, codePos, lineNumber );
+            addBlockInstruction( WasmBlockOperator.ELSE, null, codePos, lineNumber );
+            addSwitchTree( keys, blocks, middle, to, defaultBlock, deep + 1, tempI32, codePos, lineNumber );
+            addBlockInstruction( WasmBlockOperator.END, null, codePos, lineNumber );
         }
-        return find ? next : current;
+    }
+
+    /**
+     * If the keys are dense enough that a br_table is smaller as the compares.
+     * 
+     * @param keys
+     *            the sorted keys
+     * @param from
+     *            the first index (inclusive)
+     * @param to
+     *            the last index (exclusive)
+     * @return true, if a br_table should be used
+     */
+    private static boolean isDense( int[] keys, int from, int to ) {
+        long range = (long)keys[to - 1] - keys[from] + 1;
+        return range <= 2L * (to - from);
     }
 
     /**
@@ -0,0 +1,553 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.module;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import de.inetsoftware.classparser.ClassFile;
+import de.inetsoftware.classparser.MethodInfo;
+import de.inetsoftware.jwebassembly.JWebAssembly;
+
+/**
+ * A prebuilt index of the class files in a library. The index contains the annotations of the compiler that the prescan
+ * needs with its values. With an index the prescan of the library does not parse any class file, the replacements,
+ * imports and exports are registered from the annotation records and all class files are loaded on first use. The
+ * index can be saved next to the library with {@link #create(File)} or inside the library as entry {@link #ENTRY_NAME}
+ * with {@link #write(File, OutputStream)}. An index next to the library is ignored if the library was changed after
+ * creating the index. An index is only used for archive files, a directory is always scanned.
+ *
+ * @author Volker Berlin
+ */
+public class LibraryIndex {
+
+    /**
+     * The name of the index inside of a library.
+     */
+    public static final String                  ENTRY_NAME         = "META-INF/jwebassembly.index";
+
+    /**
+     * The suffix of the index file next to a library.
+     */
+    public static final String                  SUFFIX             = ".index";
+
+    private static final int                    MAGIC              = 0x4A574958; // JWIX
+
+    private static final int                    VERSION            = 2;
+
+    /**
+     * The annotations of classes that the prescan handles.
+     */
+    private static final String[]               CLASS_ANNOTATIONS  = { JWebAssembly.REPLACE_ANNOTATION, JWebAssembly.PARTIAL_ANNOTATION };
+
+    /**
+     * The annotations of methods that the prescan handles.
+     */
+    private static final String[]               METHOD_ANNOTATIONS = { JWebAssembly.REPLACE_ANNOTATION, JWebAssembly.IMPORT_ANNOTATION, JWebAssembly.EXPORT_ANNOTATION };
+
+    private final List<String>                  classes;
+
+    private final List<String>                  parsed;
+
+    private final Map<String, List<Annotation>> annotations;
+
+    /**
+     * Create an instance.
+     *
+     * @param classes
+     *            the class names of the library like "java/lang/Object"
+     * @param parsed
+     *            the subset of the class names that must be parsed in the prescan
+     * @param annotations
+     *            the annotation records of the classes
+     */
+    private LibraryIndex( @Nonnull List<String> classes, @Nonnull List<String> parsed, @Nonnull Map<String, List<Annotation>> annotations ) {
+        this.classes = classes;
+        this.parsed = parsed;
+        this.annotations = annotations;
+    }
+
+    /**
+     * Create the index file next to the library with the name of the library and the suffix {@link #SUFFIX}.
+     *
+     * @param library
+     *            an archive file
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    public static void create( @Nonnull File library ) throws IOException {
+        if( !library.isFile() ) {
+            throw new IOException( "Not an archive file: " + library );
+        }
+        try (OutputStream output = new BufferedOutputStream( new FileOutputStream( library.getPath() + SUFFIX ) )) {
+            write( library, output, library.length(), library.lastModified() );
+        }
+    }
+
+    /**
+     * Write the index of a library without a time stamp. This can be used to add the index as entry
+     * {@link #ENTRY_NAME} into the library.
+     *
+     * @param library
+     *            a directory or an archive file
+     * @param output
+     *            the target, is not closed
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    public static void write( @Nonnull File library, @Nonnull OutputStream output ) throws IOException {
+        write( library, output, 0, 0 );
+    }
+
+    /**
+     * Write the index of a library.
+     *
+     * @param library
+     *            a directory or an archive file
+     * @param output
+     *            the target, is not closed
+     * @param length
+     *            the size of the library or 0
+     * @param lastModified
+     *            the time stamp of the library or 0
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    private static void write( @Nonnull File library, @Nonnull OutputStream output, long length, long lastModified ) throws IOException {
+        List<String> classes = new ArrayList<>();
+        List<String> parsed = new ArrayList<>();
+        List<Annotation> annotations = new ArrayList<>();
+        if( library.isDirectory() ) {
+            Path root = library.toPath();
+            List<Path> paths;
+            try (Stream<Path> walk = Files.walk( root )) {
+                paths = walk.filter( path -> path.toString().endsWith( ".class" ) ).sorted().collect( Collectors.toList() );
+            }
+            for( Path path : paths ) {
+                String name = root.relativize( path ).toString().replace( File.separatorChar, '/' );
+                try (InputStream input = Files.newInputStream( path )) {
+                    add( name, input, classes, parsed, annotations );
+                }
+            }
+        } else {
+            try (ZipFile zip = new ZipFile( library )) {
+                for( Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+                    ZipEntry entry = entries.nextElement();
+                    if( entry.getName().endsWith( ".class" ) ) {
+                        try (InputStream input = zip.getInputStream( entry )) {
+                            add( entry.getName(), input, classes, parsed, annotations );
+                        }
+                    }
+                }
+            }
+        }
+
+        DataOutputStream data = new DataOutputStream( output );
+        data.writeInt( MAGIC );
+        data.writeShort( VERSION );
+        data.writeLong( length );
+        data.writeLong( lastModified );
+        data.flush();
+        GZIPOutputStream gzip = new GZIPOutputStream( output );
+        data = new DataOutputStream( gzip );
+        data.writeInt( classes.size() );
+        for( String name : classes ) {
+            data.writeUTF( name );
+        }
+        data.writeInt( parsed.size() );
+        for( String name : parsed ) {
+            data.writeUTF( name );
+        }
+        data.writeInt( annotations.size() );
+        for( Annotation annotation : annotations ) {
+            annotation.write( data );
+        }
+        data.flush();
+        gzip.finish();
+    }
+
+    /**
+     * Add a single class file to the index. The annotations of a class file that can contain annotations of the compiler
+     * are recorded. A class file that can not be parsed or that is not a class of the library like the entries of
+     * "META-INF" is parsed in the prescan.
+     *
+     * @param name
+     *            the path of the entry like "java/lang/Object.class"
+     * @param input
+     *            the content of the class file
+     * @param classes
+     *            the list of all classes
+     * @param parsed
+     *            the list of classes that must be parsed in the prescan
+     * @param annotations
+     *            the list of the annotation records
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    private static void add( @Nonnull String name, @Nonnull InputStream input, @Nonnull List<String> classes, @Nonnull List<String> parsed, @Nonnull List<Annotation> annotations ) throws IOException {
+        String className = name.substring( 0, name.length() - 6 );
+        classes.add( className );
+        byte[] bytes = LibraryScanner.readAllBytes( input );
+        if( !LibraryScanner.needParse( name, bytes ) ) {
+            return;
+        }
+        if( name.startsWith( "META-INF/" ) ) {
+            parsed.add( className );
+            return;
+        }
+        List<Annotation> records = new ArrayList<>();
+        try {
+            ClassFile classFile = new ClassFile( ByteBuffer.wrap( bytes ) );
+            for( String type : CLASS_ANNOTATIONS ) {
+                Map<String, Object> values = classFile.getAnnotation( type );
+                if( values != null ) {
+                    records.add( new Annotation( className, null, null, false, type, values ) );
+                }
+            }
+            for( MethodInfo method : classFile.getMethods() ) {
+                for( String type : METHOD_ANNOTATIONS ) {
+                    Map<String, Object> values = method.getAnnotation( type );
+                    if( values != null ) {
+                        records.add( new Annotation( className, method.getName(), method.getType(), method.isStatic(), type, values ) );
+                    }
+                }
+            }
+        } catch( Exception ex ) {
+            // the prescan report the error
+            parsed.add( className );
+            return;
+        }
+        annotations.addAll( records );
+    }
+
+    /**
+     * Read the index of a library if there is a valid index.
+     *
+     * @param library
+     *            an archive file
+     * @return the index or null
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    @Nullable
+    static LibraryIndex read( @Nonnull File library ) throws IOException {
+        File file = new File( library.getPath() + SUFFIX );
+        if( file.isFile() ) {
+            try (InputStream input = new BufferedInputStream( new FileInputStream( file ) )) {
+                LibraryIndex index = read( input, library );
+                if( index != null ) {
+                    return index;
+                }
+            }
+        }
+        try (ZipFile zip = new ZipFile( library )) {
+            ZipEntry entry = zip.getEntry( ENTRY_NAME );
+            if( entry != null ) {
+                try (InputStream input = new BufferedInputStream( zip.getInputStream( entry ) )) {
+                    return read( input, null );
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read an index.
+     *
+     * @param input
+     *            the stream of the index
+     * @param library
+     *            the library to check the time stamp or null if the index is part of the library
+     * @return the index or null if the index is outdated or has an unknown format
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    @Nullable
+    private static LibraryIndex read( @Nonnull InputStream input, @Nullable File library ) throws IOException {
+        DataInputStream data = new DataInputStream( input );
+        if( data.readInt() != MAGIC || data.readUnsignedShort() != VERSION ) {
+            return null;
+        }
+        long length = data.readLong();
+        long lastModified = data.readLong();
+        if( library != null && (length != library.length() || lastModified != library.lastModified()) ) {
+            return null;
+        }
+        data = new DataInputStream( new BufferedInputStream( new GZIPInputStream( input ) ) );
+        List<String> classes = readNames( data );
+        List<String> parsed = readNames( data );
+        Map<String, List<Annotation>> annotations = new HashMap<>();
+        int count = data.readInt();
+        for( int i = 0; i < count; i++ ) {
+            Annotation annotation = new Annotation( data );
+            annotations.computeIfAbsent( annotation.className, k -> new ArrayList<>() ).add( annotation );
+        }
+        return new LibraryIndex( classes, parsed, annotations );
+    }
+
+    /**
+     * Read a list of names.
+     *
+     * @param data
+     *            the stream of the index
+     * @return the names
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    @Nonnull
+    private static List<String> readNames( @Nonnull DataInputStream data ) throws IOException {
+        int count = data.readInt();
+        List<String> names = new ArrayList<>( count );
+        for( int i = 0; i < count; i++ ) {
+            names.add( data.readUTF() );
+        }
+        return names;
+    }
+
+    /**
+     * Get the names of all classes in the library in the order of the library.
+     *
+     * @return the class names like "java/lang/Object"
+     */
+    @Nonnull
+    List<String> getClasses() {
+        return Collections.unmodifiableList( classes );
+    }
+
+    /**
+     * Get the names of the classes that must be parsed in the prescan.
+     *
+     * @return the class names like "java/lang/Object"
+     */
+    @Nonnull
+    List<String> getParsedClasses() {
+        return Collections.unmodifiableList( parsed );
+    }
+
+    /**
+     * Get the annotations of the compiler on a class and its methods.
+     *
+     * @param className
+     *            the class name like "java/lang/Object"
+     * @return the annotation records in the order of the class file
+     */
+    @Nonnull
+    List<Annotation> getAnnotations( @Nonnull String className ) {
+        List<Annotation> list = annotations.get( className );
+        return list == null ? Collections.emptyList() : Collections.unmodifiableList( list );
+    }
+
+    /**
+     * Write an annotation value.
+     *
+     * @param data
+     *            the target
+     * @param value
+     *            the value from the class file
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    private static void writeValue( @Nonnull DataOutputStream data, Object value ) throws IOException {
+        if( value instanceof String ) {
+            data.writeByte( 's' );
+            data.writeUTF( (String)value );
+        } else if( value instanceof Integer ) {
+            data.writeByte( 'I' );
+            data.writeInt( (Integer)value );
+        } else if( value instanceof Long ) {
+            data.writeByte( 'J' );
+            data.writeLong( (Long)value );
+        } else if( value instanceof Float ) {
+            data.writeByte( 'F' );
+            data.writeFloat( (Float)value );
+        } else if( value instanceof Double ) {
+            data.writeByte( 'D' );
+            data.writeDouble( (Double)value );
+        } else if( value instanceof Object[] ) {
+            Object[] values = (Object[])value;
+            data.writeByte( '[' );
+            data.writeShort( values.length );
+            for( Object element : values ) {
+                writeValue( data, element );
+            }
+        } else if( value instanceof Map ) {
+            // a nested annotation or the values of an annotation
+            Map<?, ?> map = (Map<?, ?>)value;
+            data.writeByte( '@' );
+            data.writeShort( map.size() );
+            for( Map.Entry<?, ?> entry : map.entrySet() ) {
+                data.writeUTF( (String)entry.getKey() );
+                writeValue( data, entry.getValue() );
+            }
+        } else {
+            throw new IOException( "Unsupported annotation value: " + value );
+        }
+    }
+
+    /**
+     * Read an annotation value.
+     *
+     * @param data
+     *            the stream of the index
+     * @return the value
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    private static Object readValue( @Nonnull DataInputStream data ) throws IOException {
+        int type = data.readUnsignedByte();
+        switch( type ) {
+            case 's':
+                return data.readUTF();
+            case 'I':
+                return data.readInt();
+            case 'J':
+                return data.readLong();
+            case 'F':
+                return data.readFloat();
+            case 'D':
+                return data.readDouble();
+            case '[':
+                Object[] values = new Object[data.readUnsignedShort()];
+                for( int i = 0; i < values.length; i++ ) {
+                    values[i] = readValue( data );
+                }
+                return values;
+            case '@':
+                int count = data.readUnsignedShort();
+                Map<String, Object> map = new HashMap<>();
+                for( int i = 0; i < count; i++ ) {
+                    String key = data.readUTF();
+                    map.put( key, readValue( data ) );
+                }
+                return map;
+            default:
+                throw new IOException( "Unknown annotation value type: " + type );
+        }
+    }
+
+    /**
+     * An annotation of the compiler on a class or on a method of the library.
+     */
+    static class Annotation {
+
+        final String              className;
+
+        @Nullable
+        final String              methodName;
+
+        @Nullable
+        final String              signature;
+
+        final boolean             isStatic;
+
+        final String              type;
+
+        final Map<String, Object> values;
+
+        /**
+         * Create an instance.
+         *
+         * @param className
+         *            the class name like "java/lang/Object"
+         * @param methodName
+         *            the method name or null for an annotation of the class
+         * @param signature
+         *            the signature of the method like "()V" or null for an annotation of the class
+         * @param isStatic
+         *            if the method is static
+         * @param type
+         *            the name of the annotation like {@link JWebAssembly#REPLACE_ANNOTATION}
+         * @param values
+         *            the values of the annotation
+         */
+        private Annotation( @Nonnull String className, @Nullable String methodName, @Nullable String signature, boolean isStatic, @Nonnull String type, @Nonnull Map<String, Object> values ) {
+            this.className = className;
+            this.methodName = methodName;
+            this.signature = signature;
+            this.isStatic = isStatic;
+            this.type = type;
+            this.values = values;
+        }
+
+        /**
+         * Read an instance from the index.
+         *
+         * @param data
+         *            the stream of the index
+         * @throws IOException
+         *             if any I/O error occur
+         */
+        @SuppressWarnings( "unchecked" )
+        private Annotation( @Nonnull DataInputStream data ) throws IOException {
+            className = data.readUTF();
+            String name = data.readUTF();
+            methodName = name.isEmpty() ? null : name;
+            signature = methodName == null ? null : data.readUTF();
+            isStatic = data.readBoolean();
+            type = data.readUTF();
+            Object map = readValue( data );
+            if( !(map instanceof Map) ) {
+                throw new IOException( "Invalid annotation values of " + className );
+            }
+            values = (Map<String, Object>)map;
+        }
+
+        /**
+         * Write this record to the index.
+         *
+         * @param data
+         *            the target
+         * @throws IOException
+         *             if any I/O error occur
+         */
+        private void write( @Nonnull DataOutputStream data ) throws IOException {
+            data.writeUTF( className );
+            data.writeUTF( methodName == null ? "" : methodName );
+            if( methodName != null ) {
+                data.writeUTF( signature );
+            }
+            data.writeBoolean( isStatic );
+            data.writeUTF( type );
+            writeValue( data, values );
+        }
+    }
+}
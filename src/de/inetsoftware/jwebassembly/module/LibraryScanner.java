@@ -0,0 +1,455 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.module;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import de.inetsoftware.classparser.ClassFile;
+import de.inetsoftware.jwebassembly.JWebAssembly;
+
+/**
+ * Scan the class files of the libraries for the annotations of the compiler. The class files are read and parsed in
+ * parallel. A class file which does not contain the package name of the annotations in its bytes can not have an
+ * annotation of the compiler and is not parsed. Only its location is registered in the ClassFileLoader. The prepare
+ * handler is called in the order of the entries in the library. If there is a {@link LibraryIndex} for an archive then
+ * no class file is read, the annotation records of the index are passed to the handler.
+ *
+ * @author Volker Berlin
+ */
+class LibraryScanner {
+
+    /**
+     * The common part of the descriptors of all annotations of the compiler in the constant pool of a class file.
+     */
+    private static final byte[]   ANNOTATION_PREFIX = "Lde/inetsoftware/jwebassembly/api/annotation/".getBytes( StandardCharsets.UTF_8 );
+
+    /**
+     * The count of entries per thread that are read ahead of the handler.
+     */
+    private static final int      READ_AHEAD        = 4;
+
+    private final ClassFileLoader classFileLoader;
+
+    @Nullable
+    private final ForkJoinPool    pool;
+
+    private int                   parsed;
+
+    private int                   skipped;
+
+    /**
+     * Create a new instance.
+     *
+     * @param classFileLoader
+     *            the loader for registering the locations of the not parsed class files
+     * @param threads
+     *            the count of threads, 1 for a sequential scan
+     */
+    LibraryScanner( @Nonnull ClassFileLoader classFileLoader, int threads ) {
+        this.classFileLoader = classFileLoader;
+        this.pool = threads > 1 ? new ForkJoinPool( threads ) : null;
+    }
+
+    /**
+     * Scan all class files of a library.
+     *
+     * @param url
+     *            a directory or an archive file
+     * @param handler
+     *            the handler for the class files with annotations of the compiler
+     */
+    void scan( @Nonnull URL url, @Nonnull ClassFileHandler handler ) {
+        try {
+            File file = "file".equals( url.getProtocol() ) ? new File( url.toURI() ) : null;
+            if( file != null && file.isDirectory() ) {
+                Path root = file.toPath();
+                try (Stream<Path> walk = Files.walk( root )) {
+                    scan( walk.filter( path -> path.toString().endsWith( ".class" ) ), path -> {
+                        String name = root.relativize( path ).toString().replace( File.separatorChar, '/' );
+                        try (InputStream input = Files.newInputStream( path )) {
+                            return read( name, path.toUri().toURL(), input );
+                        }
+                    }, url, handler );
+                }
+            } else if( file != null && file.isFile() ) {
+                LibraryIndex index = LibraryIndex.read( file );
+                if( index != null ) {
+                    JWebAssembly.LOGGER.fine( "use library index for " + url );
+                    scan( index, file, url, handler );
+                    return;
+                }
+                try (ZipFile zip = new ZipFile( file )) {
+                    scan( zip.stream().filter( entry -> entry.getName().endsWith( ".class" ) ), entry -> {
+                        try (InputStream input = zip.getInputStream( entry )) {
+                            return read( entry.getName(), new URL( "jar:" + url + "!/" + entry.getName() ), input );
+                        }
+                    }, url, handler );
+                }
+            } else {
+                scanStream( url, handler );
+            }
+        } catch( IOException | URISyntaxException ex ) {
+            JWebAssembly.LOGGER.log( Level.SEVERE, "Scanning of " + url + " failed", ex );
+        }
+    }
+
+    /**
+     * Scan an archive with a prebuilt index. Only the class files that the index marks are read, for all other classes
+     * the annotation records of the index are used.
+     *
+     * @param index
+     *            the index of the library
+     * @param file
+     *            the archive
+     * @param url
+     *            the library
+     * @param handler
+     *            the handler for the class files
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    private void scan( @Nonnull LibraryIndex index, @Nonnull File file, @Nonnull URL url, @Nonnull ClassFileHandler handler ) throws IOException {
+        HashSet<String> parse = new HashSet<>( index.getParsedClasses() );
+        try (ZipFile zip = new ZipFile( file )) {
+            scan( index.getClasses().stream().map( className -> className + ".class" ), name -> {
+                Entry entry = new Entry( name, new URL( "jar:" + url + "!/" + name ) );
+                if( parse.contains( entry.className ) ) {
+                    ZipEntry zipEntry = zip.getEntry( name );
+                    if( zipEntry == null ) {
+                        throw new FileNotFoundException( name );
+                    }
+                    try (InputStream input = zip.getInputStream( zipEntry )) {
+                        entry.classFile = new ClassFile( input );
+                    }
+                } else {
+                    entry.annotations = index.getAnnotations( entry.className );
+                }
+                return entry;
+            }, url, handler );
+        }
+    }
+
+    /**
+     * Read and parse the entries of a library and call the handler in the order of the entries. The entries are submitted
+     * to the pool while they are enumerated. Only a limited count of entries is read ahead of the handler, the results
+     * are not collected for the complete library.
+     *
+     * @param entries
+     *            the entries of the library
+     * @param reader
+     *            read a single entry, can be called in parallel
+     * @param url
+     *            the library for error messages
+     * @param handler
+     *            the handler for the class files
+     */
+    private <T> void scan( @Nonnull Stream<T> entries, @Nonnull EntryReader<T> reader, @Nonnull URL url, @Nonnull ClassFileHandler handler ) {
+        Function<T, Entry> read = entry -> {
+            try {
+                return reader.read( entry );
+            } catch( Throwable th ) {
+                Entry result = new Entry( entry.toString(), null );
+                result.error = th;
+                return result;
+            }
+        };
+        if( pool == null ) {
+            entries.forEachOrdered( entry -> handle( read.apply( entry ), url, handler ) );
+            return;
+        }
+        int window = pool.getParallelism() * READ_AHEAD;
+        ArrayDeque<Future<Entry>> pending = new ArrayDeque<>();
+        try {
+            for( Iterator<T> iterator = entries.iterator(); iterator.hasNext(); ) {
+                T entry = iterator.next();
+                pending.add( pool.submit( () -> read.apply( entry ) ) );
+                if( pending.size() >= window ) {
+                    handle( pending.poll().get(), url, handler );
+                }
+            }
+            while( !pending.isEmpty() ) {
+                handle( pending.poll().get(), url, handler );
+            }
+        } catch( InterruptedException | ExecutionException ex ) {
+            pending.forEach( future -> future.cancel( false ) );
+            JWebAssembly.LOGGER.log( Level.SEVERE, "Scanning of " + url + " failed", ex );
+        }
+    }
+
+    /**
+     * Scan a library sequential from a stream if there is no random access to the entries.
+     *
+     * @param url
+     *            an archive
+     * @param handler
+     *            the handler for the class files
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    private void scanStream( @Nonnull URL url, @Nonnull ClassFileHandler handler ) throws IOException {
+        try (ZipInputStream input = new ZipInputStream( url.openStream() )) {
+            for( ZipEntry zipEntry; (zipEntry = input.getNextEntry()) != null; ) {
+                if( zipEntry.getName().endsWith( ".class" ) ) {
+                    Entry entry;
+                    try {
+                        URL location;
+                        try {
+                            location = new URL( "jar:" + url + "!/" + zipEntry.getName() );
+                        } catch( MalformedURLException ex ) {
+                            // for example a nested archive, the class file can not be loaded later
+                            location = null;
+                        }
+                        entry = read( zipEntry.getName(), location, input );
+                    } catch( Throwable th ) {
+                        entry = new Entry( zipEntry.getName(), null );
+                        entry.error = th;
+                    }
+                    handle( entry, url, handler );
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a single class file. The class file is only parsed if it can contain annotations of the compiler or it can not
+     * be loaded later. A class that also exists in the JVM self is detected by the ClassFileLoader on its first use.
+     *
+     * @param name
+     *            the path of the entry like "java/lang/String.class"
+     * @param location
+     *            the URL of the class file to load it later or null if it can not be loaded later
+     * @param input
+     *            the content, is not closed
+     * @return the result
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    @Nonnull
+    private Entry read( @Nonnull String name, @Nullable URL location, @Nonnull InputStream input ) throws IOException {
+        byte[] bytes = readAllBytes( input );
+        Entry entry = new Entry( name, location );
+        if( location == null || needParse( name, bytes ) ) {
+            entry.classFile = new ClassFile( ByteBuffer.wrap( bytes ) );
+        }
+        return entry;
+    }
+
+    /**
+     * Read the complete content of a stream.
+     *
+     * @param input
+     *            the stream, is not closed
+     * @return the content
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    @Nonnull
+    static byte[] readAllBytes( @Nonnull InputStream input ) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] bytes = new byte[8192];
+        for( int count; (count = input.read( bytes )) > 0; ) {
+            buffer.write( bytes, 0, count );
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Check if a class file of a library can contain annotations of the compiler and must be parsed in the prescan.
+     *
+     * @param name
+     *            the path of the entry like "java/lang/String.class"
+     * @param bytes
+     *            the content of the class file
+     * @return true, if the class file must be parsed
+     */
+    static boolean needParse( @Nonnull String name, @Nonnull byte[] bytes ) {
+        return name.startsWith( "META-INF/" ) || indexOf( bytes, ANNOTATION_PREFIX ) >= 0;
+    }
+
+    /**
+     * Pass the result of a single entry to the handler or register it in the loader.
+     *
+     * @param entry
+     *            the result of reading
+     * @param url
+     *            the library for error messages
+     * @param handler
+     *            the handler for the class files
+     */
+    private void handle( @Nonnull Entry entry, @Nonnull URL url, @Nonnull ClassFileHandler handler ) {
+        try {
+            if( entry.error != null ) {
+                throw entry.error;
+            }
+            if( entry.classFile != null ) {
+                parsed++;
+                handler.prepare( entry.classFile );
+            } else {
+                skipped++;
+                classFileLoader.cacheLater( entry.className, entry.location );
+                if( entry.annotations != null && !entry.annotations.isEmpty() ) {
+                    handler.prepare( entry.className, entry.annotations );
+                }
+            }
+        } catch( Throwable th ) {
+            JWebAssembly.LOGGER.log( Level.SEVERE, "Parsing error with " + entry.name + " in " + url, th );
+        }
+    }
+
+    /**
+     * Search a byte sequence.
+     *
+     * @param bytes
+     *            the data
+     * @param pattern
+     *            the sequence to search
+     * @return the offset of the sequence or -1 if not found
+     */
+    static int indexOf( @Nonnull byte[] bytes, @Nonnull byte[] pattern ) {
+        byte first = pattern[0];
+        int last = bytes.length - pattern.length;
+        NEXT: for( int i = 0; i <= last; i++ ) {
+            if( bytes[i] != first ) {
+                continue;
+            }
+            for( int k = 1; k < pattern.length; k++ ) {
+                if( bytes[i + k] != pattern[k] ) {
+                    continue NEXT;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Release the threads.
+     */
+    void close() {
+        if( pool != null ) {
+            pool.shutdown();
+        }
+        JWebAssembly.LOGGER.fine( "library classes parsed: " + parsed + ", skipped: " + skipped );
+    }
+
+    /**
+     * The handler for the parsed class files and the annotation records of a library index.
+     */
+    static interface ClassFileHandler {
+
+        /**
+         * Handle a class file.
+         *
+         * @param classFile
+         *            the class file
+         * @throws IOException
+         *             if any I/O error occur
+         */
+        void prepare( @Nonnull ClassFile classFile ) throws IOException;
+
+        /**
+         * Handle the annotations of a class from a library index. The class file is not parsed.
+         *
+         * @param className
+         *            the class name like "java/lang/Object"
+         * @param annotations
+         *            the annotation records of the class and its methods
+         * @throws IOException
+         *             if any I/O error occur
+         */
+        void prepare( @Nonnull String className, @Nonnull List<LibraryIndex.Annotation> annotations ) throws IOException;
+    }
+
+    /**
+     * Reader for a single entry of a library.
+     *
+     * @param <T>
+     *            the type of the entry
+     */
+    @FunctionalInterface
+    private static interface EntryReader<T> {
+
+        /**
+         * Read the entry
+         *
+         * @param entry
+         *            the entry
+         * @return the result
+         * @throws IOException
+         *             if any I/O error occur
+         */
+        Entry read( T entry ) throws IOException;
+    }
+
+    /**
+     * The result of reading a single entry.
+     */
+    private static class Entry {
+
+        private final String                  name;
+
+        private final String                  className;
+
+        private final URL                     location;
+
+        private ClassFile                     classFile;
+
+        private List<LibraryIndex.Annotation> annotations;
+
+        private Throwable                     error;
+
+        /**
+         * Create a new instance.
+         *
+         * @param name
+         *            the path of the entry
+         * @param location
+         *            the URL of the class file
+         */
+        private Entry( @Nonnull String name, @Nullable URL location ) {
+            this.name = name;
+            this.className = name.endsWith( ".class" ) ? name.substring( 0, name.length() - 6 ) : name;
+            this.location = location;
+        }
+    }
+}
@@ -16,11 +16,13 @@
 */
 package de.inetsoftware.jwebassembly.module;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 import javax.annotation.Nonnull;
@@ -33,6 +35,7 @@
 import de.inetsoftware.jwebassembly.wasm.AnyType;
 import de.inetsoftware.jwebassembly.wasm.ValueType;
 import de.inetsoftware.jwebassembly.wasm.ValueTypeParser;
+import de.inetsoftware.jwebassembly.wasm.VariableOperator;
 
 /**
  * This manager monitor the locale variables of a method to create a translation from the slot based index in Java to
@@ -42,7 +45,7 @@
  * @author Volker Berlin
  *
  */
-class LocaleVariableManager {
+class LocaleVariableManager implements Serializable {
 
     private TypeManager              types;
 
@@ -54,6 +57,17 @@ class LocaleVariableManager {
 
     private final HashSet<String>    names      = new HashSet<>();
 
+    private boolean                  typeConflict;
+
+    /**
+     * The mapping from the variable index to the index in the written function after coalescing or null.
+     */
+    private int[]                    coalesced;
+
+    private final ArrayList<AnyType> coalescedTypes = new ArrayList<>();
+
+    private final ArrayList<String>  coalescedNames = new ArrayList<>();
+
     /**
      * Create a new instance.
      */
@@ -87,6 +101,8 @@ void init( TypeManager types ) {
      */
     void reset( LocalVariableTable variableTable, MethodInfo method, Iterator<AnyType> signature ) {
         size = 0;
+        typeConflict = false;
+        coalesced = null;
 
         int maxLocals;
         if( variableTable == null ) {
@@ -273,6 +289,7 @@ private void useImpl( AnyType valueType, int idx, int javaCodePos ) {
                 throw new WasmException( "Redefine local variable '" + var.name + "' type from " + var.valueType + " to " + valueType + " in slot " + var.idx
                                 + ". Compile the Java code with debug information to correct this problem.", -1 );
             } else {
+                typeConflict = true;
                 return; // in the scan phase not all types are known
             }
         }
@@ -290,6 +307,7 @@ void useIndex(  AnyType valueType, int wasmIdx ) {
      * Calculate the WebAssembly index position on the consumed data.
      */
     void calculate() {
+        coalesced = null;
         for( int i = 0; i < size; i++ ) {
             Variable var = variables[i];
             if( var.valueType == null ) {
@@ -301,6 +319,15 @@ void calculate() {
         }
     }
 
+    /**
+     * If there was a type conflict in the scan phase that was ignored because not all types are known.
+     * 
+     * @return true, if the variables must be calculated again after the scan phase
+     */
+    boolean hasTypeConflict() {
+        return typeConflict;
+    }
+
     /**
      * Get the data types of the local variables. The value is only valid until the next call.
      * 
@@ -310,6 +337,10 @@ void calculate() {
      */
     List<AnyType> getLocalTypes( int paramCount ) {
         localTypes.clear();
+        if( coalesced != null ) {
+            localTypes.addAll( coalescedTypes.subList( paramCount, coalescedTypes.size() ) );
+            return localTypes;
+        }
         for( int i = paramCount; i < size; i++ ) {
             Variable var = variables[i];
             localTypes.add( var.valueType );
@@ -326,9 +357,169 @@ List<AnyType> getLocalTypes( int paramCount ) {
      */
     @Nullable
     String getLocalName( int idx ) {
+        if( coalesced != null ) {
+            return coalescedNames.get( idx );
+        }
         return variables[idx].name;
     }
 
+    /**
+     * Get the index of the variable in the written function. This differs from the variable index only if the
+     * variables was coalesced.
+     * 
+     * @param idx
+     *            the variable index
+     * @return the index in the written function
+     */
+    int getWasmIndex( int idx ) {
+        return coalesced == null ? idx : coalesced[idx];
+    }
+
+    /**
+     * Coalesce the local variables of the same type whose live ranges do not overlap and group the local variables by
+     * type for a compact declaration. The live range of a variable is the range of instructions from the first to the
+     * last access. It starts at the begin of the function if the variable is read before it is written. Because a value
+     * can flow over the back edge of a loop, a live range that overlaps a loop is expanded over the complete loop. The
+     * parameters are never moved. Variables without any access are removed.
+     * 
+     * @param instructions
+     *            the final instructions of the function
+     * @param paramCount
+     *            the count of method parameters including THIS
+     */
+    void coalesce( @Nonnull List<WasmInstruction> instructions, int paramCount ) {
+        coalesced = null;
+        if( paramCount > size ) {
+            return;
+        }
+        int[] starts = new int[size];
+        int[] ends = new int[size];
+        Arrays.fill( starts, -1 );
+        ArrayList<int[]> loops = new ArrayList<>();
+        int[] blocks = new int[instructions.size()];
+        int depth = 0;
+        for( int i = 0; i < instructions.size(); i++ ) {
+            WasmInstruction instr = instructions.get( i );
+            int idx;
+            boolean write;
+            switch( instr.getType() ) {
+                case Local:
+                    WasmLocalInstruction local = (WasmLocalInstruction)instr;
+                    idx = local.getIndex();
+                    write = local.getOperator() != VariableOperator.get;
+                    break;
+                case DupThis:
+                    idx = ((DupThis)instr).getValue().getVariableIndexOfThis();
+                    write = true;
+                    break;
+                case CallVirtual:
+                case CallInterface:
+                    idx = ((WasmCallIndirectInstruction)instr).getVariableIndexOfThis();
+                    write = false;
+                    break;
+                case Block:
+                    switch( ((WasmBlockInstruction)instr).getOperation() ) {
+                        case LOOP:
+                            blocks[depth++] = -1 - i;
+                            break;
+                        case BLOCK:
+                        case IF:
+                        case TRY:
+                            blocks[depth++] = i;
+                            break;
+                        case END:
+                            if( depth == 0 ) {
+                                return; // unbalanced block structure, nothing is changed
+                            }
+                            int start = blocks[--depth];
+                            if( start < 0 ) {
+                                loops.add( new int[] { -1 - start, i } );
+                            }
+                            break;
+                        default:
+                    }
+                    continue;
+                default:
+                    continue;
+            }
+            if( idx < 0 || idx >= size ) {
+                return;
+            }
+            if( starts[idx] < 0 ) {
+                starts[idx] = write ? i : 0;
+            }
+            ends[idx] = i;
+        }
+
+        // the value of a variable that is live in a loop can be needed in the next iteration
+        for( int[] loop : loops ) {
+            for( int idx = paramCount; idx < size; idx++ ) {
+                if( starts[idx] >= 0 && starts[idx] <= loop[1] && ends[idx] >= loop[0] ) {
+                    starts[idx] = Math.min( starts[idx], loop[0] );
+                    ends[idx] = Math.max( ends[idx], loop[1] );
+                }
+            }
+        }
+
+        // sort the accessed variables by the start of the live range
+        Integer[] order = new Integer[size - paramCount];
+        int count = 0;
+        for( int idx = paramCount; idx < size; idx++ ) {
+            if( starts[idx] >= 0 ) {
+                order[count++] = idx;
+            }
+        }
+        Arrays.sort( order, 0, count, Comparator.comparingInt( idx -> starts[idx] ) );
+
+        // assign every variable to the first slot of its type that is free
+        LinkedHashMap<AnyType, ArrayList<int[]>> slotsByType = new LinkedHashMap<>();
+        for( int idx = paramCount; idx < size; idx++ ) {
+            if( starts[idx] >= 0 ) {
+                slotsByType.computeIfAbsent( variables[idx].valueType, type -> new ArrayList<>() );
+            }
+        }
+        int[] slotOf = new int[size];
+        for( int i = 0; i < count; i++ ) {
+            int idx = order[i];
+            ArrayList<int[]> slots = slotsByType.get( variables[idx].valueType );
+            int s = 0;
+            for( ; s < slots.size(); s++ ) {
+                int[] slot = slots.get( s );
+                if( slot[0] < starts[idx] ) {
+                    slot[0] = ends[idx];
+                    break;
+                }
+            }
+            if( s == slots.size() ) {
+                slots.add( new int[] { ends[idx], idx } ); // end of the live range and the first variable
+            }
+            slotOf[idx] = s;
+        }
+
+        // the new order: parameters, then the slots grouped by type
+        int[] mapping = new int[size];
+        coalescedTypes.clear();
+        coalescedNames.clear();
+        for( int idx = 0; idx < paramCount; idx++ ) {
+            mapping[idx] = idx;
+            coalescedTypes.add( variables[idx].valueType );
+            coalescedNames.add( variables[idx].name );
+        }
+        for( ArrayList<int[]> slots : slotsByType.values() ) {
+            int first = coalescedTypes.size();
+            for( int[] slot : slots ) {
+                coalescedTypes.add( variables[slot[1]].valueType );
+                coalescedNames.add( variables[slot[1]].name );
+            }
+            for( int idx = paramCount; idx < size; idx++ ) {
+                if( starts[idx] >= 0 && slots == slotsByType.get( variables[idx].valueType ) ) {
+                    mapping[idx] = first + slotOf[idx];
+                }
+            }
+        }
+        coalesced = mapping;
+    }
+
     /**
      * Get the slot of the temporary variable.
      * 
@@ -462,6 +653,7 @@ Variable[] getCopy() {
      */
     void setCopy( @Nonnull Variable[] copy ) {
         size = copy.length;
+        coalesced = null;
         ensureCapacity( size );
         System.arraycopy( copy, 0, variables, 0, size );
     }
@@ -485,7 +677,7 @@ private void ensureCapacity( int slot ) {
     /**
      * The state of a single local variable slot.
      */
-    static class Variable implements Comparable<Variable> {
+    static class Variable implements Comparable<Variable>, Serializable {
 
         private AnyType valueType;
 
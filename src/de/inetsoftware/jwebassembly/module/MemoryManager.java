@@ -0,0 +1,1274 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.module;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.Nonnull;
+
+import de.inetsoftware.jwebassembly.JWebAssembly;
+import de.inetsoftware.jwebassembly.WasmException;
+import de.inetsoftware.jwebassembly.module.TypeManager.StructType;
+import de.inetsoftware.jwebassembly.wasm.AnyType;
+import de.inetsoftware.jwebassembly.wasm.ArrayType;
+import de.inetsoftware.jwebassembly.wasm.LittleEndianOutputStream;
+import de.inetsoftware.jwebassembly.wasm.MemoryOperator;
+import de.inetsoftware.jwebassembly.wasm.NamedStorageType;
+import de.inetsoftware.jwebassembly.wasm.NumericOperator;
+import de.inetsoftware.jwebassembly.wasm.ValueType;
+import de.inetsoftware.jwebassembly.wasm.WasmBlockOperator;
+import de.inetsoftware.jwebassembly.watparser.WatParser;
+
+/**
+ * Handle the objects and arrays in the linear memory if the non GC mode should not use the JavaScript host for it. All
+ * references are then i32 addresses in the linear memory and the address 0 is null.
+ *
+ * <pre>
+   The memory has the follow content:
+    ┌──────────────────────────────────┐
+    | Type/Class descriptions (vtable) |
+    ├──────────────────────────────────┤
+    | Type/Class table                 |
+    ├──────────────────────────────────┤
+    | String data                      |
+    ├──────────────────────────────────┤
+    | Arrays of evaluated static code  |
+    ├──────────────────────────────────┤
+    | reference offsets of the classes |
+    ├──────────────────────────────────┤
+    | heap cells                       |
+    ├──────────────────────────────────┤
+    | String instances (table 1)       |
+    ├──────────────────────────────────┤
+    | Class instances (table 2)        |
+    ├──────────────────────────────────┤
+    | free space of the last page      |
+    ├──────────────────────────────────┤
+    | heap (objects and arrays)        |
+    ├──────────────────────────────────┤
+    | mark stack of the collector      |
+    └──────────────────────────────────┘
+
+   Every block of the heap starts with a header of 8 bytes with the size of the block and the flags marked and free.
+   An object has the vtable and the hashcode on the offsets 0 and 4 after the header. The fields follow with its natural
+   alignment. An array has the vtable, the hashcode, the length and the elements on the offset 16.
+ * </pre>
+ *
+ * The heap starts after the initial pages of the memory and grows the memory if needed. A block is allocated first fit
+ * from the free list and else from the end of the heap. The references in the local variables and on the stack of the
+ * WASM functions can not be scanned for roots. Therefore every exported function is wrapped and the mark and sweep
+ * collector is called when the outermost exported function returns. Then there are no references in local variables.
+ * The roots are the static fields and the tables with the String and Class instances. A free block at the end of the
+ * heap shrinks the heap. A long running exported function can not free memory and after a trap or an exception in an
+ * exported function the collector is not called anymore. Objects and arrays can not be passed to or from the host
+ * because the collector does not know the references of the host. The code builder checks the field and array accesses
+ * inline for null and for the bounds of the array.
+ *
+ * @author Volker Berlin
+ */
+class MemoryManager {
+
+    /**
+     * The offset of the length of an array.
+     */
+    static final int                                       ARRAY_LENGTH = 8;
+
+    /**
+     * The offset of the first element of an array.
+     */
+    static final int                                       ARRAY_DATA   = 16;
+
+    /**
+     * The size of the block header with the size and the flags before every object and array.
+     */
+    private static final int                               BLOCK_HEADER = 8;
+
+    /**
+     * Flag in the block header for a reachable block while the collector is running.
+     */
+    private static final int                               MARKED       = 1;
+
+    /**
+     * Flag in the block header for a block in the free list. The next free block follows the header.
+     */
+    private static final int                               FREE         = 2;
+
+    /**
+     * Heap cell with the end of the heap. It is 0 until the first allocation.
+     */
+    private static final int                               HEAP_END     = 0;
+
+    /**
+     * Heap cell with the start of the heap.
+     */
+    private static final int                               HEAP_START   = 4;
+
+    /**
+     * Heap cell with the first block of the free list.
+     */
+    private static final int                               FREE_LIST    = 8;
+
+    /**
+     * Heap cell with the depth of the running exported functions.
+     */
+    private static final int                               EXPORT_DEPTH = 12;
+
+    /**
+     * Heap cell with the top of the mark stack while the collector is running.
+     */
+    private static final int                               MARK_STACK   = 16;
+
+    /**
+     * The count of bytes of the heap cells.
+     */
+    private static final int                               HEAP_CELLS   = 20;
+
+    private final WasmOptions                              options;
+
+    private final WatCodeSyntheticFunctionName             allocate;
+
+    private final WatCodeSyntheticFunctionName             mark;
+
+    private final SyntheticFunctionName                    markRoots;
+
+    private final WatCodeSyntheticFunctionName             collect;
+
+    private final Map<FunctionName, AnyType>               roots        = new LinkedHashMap<>();
+
+    private final Map<FunctionName, SyntheticFunctionName> exports      = new HashMap<>();
+
+    private boolean                                        isFinish;
+
+    private int                                            heapCells;
+
+    private int                                            referenceTable;
+
+    private final int[]                                    tableOffsets = new int[ModuleWriter.TABLE_COUNT];
+
+    /**
+     * Create a new instance.
+     *
+     * @param options
+     *            compiler properties and shared managers
+     */
+    MemoryManager( WasmOptions options ) {
+        this.options = options;
+        /*
+        static int allocate( int size, int vtable ) {
+            int need = (size + BLOCK_HEADER + 7) & -8;
+            int block;
+            int blockSize;
+            found: {
+                for( int prev = FREE_LIST; (block = i32_load[prev]) != 0; prev = block + 4 ) {
+                    blockSize = i32_load[block] & -8;
+                    if( blockSize >= need ) {
+                        if( blockSize - need >= 16 ) {
+                            // split the block, the rest stays in the free list
+                            i32_store[block + need] = (blockSize - need) | FREE;
+                            i32_store[block + need + 4] = i32_load[block + 4];
+                            i32_store[prev] = block + need;
+                            blockSize = need;
+                        } else {
+                            i32_store[prev] = i32_load[block + 4];
+                        }
+                        break found;
+                    }
+                }
+                block = i32_load[HEAP_END];
+                if( block == 0 ) {
+                    // first call, the heap starts after the initial pages
+                    block = i32_store[HEAP_START] = memory.size << 16;
+                }
+                int end = block + need;
+                if( end > memory.size << 16 ) {
+                    if( memory.grow( ((end + 0xFFFF) >>> 16) - memory.size ) == -1 ) {
+                        unreachable; // out of memory
+                    }
+                }
+                i32_store[HEAP_END] = end;
+                blockSize = need;
+            }
+            i32_store[block] = blockSize;
+            memory.fill( block + BLOCK_HEADER, 0, blockSize - BLOCK_HEADER );
+            i32_store[block + BLOCK_HEADER] = vtable;
+            return block + BLOCK_HEADER;
+        }
+         */
+        allocate = new WatCodeSyntheticFunctionName( "allocate", "", ValueType.i32, ValueType.i32, null, ValueType.i32 ) { // size, vtable, returns the object
+            @Override
+            protected String getCode() {
+                return "local.get 0 " // $size
+                                + "i32.const " + (BLOCK_HEADER + 7) + " " //
+                                + "i32.add " //
+                                + "i32.const -8 " // align the next block to 8 bytes
+                                + "i32.and " //
+                                + "local.set 3 " // $need
+                                + cell( FREE_LIST ) //
+                                + "local.set 4 " // $prev, the address of the link to the next free block
+                                + "block " // found
+                                + "block " //
+                                + "loop " //
+                                + "  local.get 4 " //
+                                + "  i32.load offset=0 align=4 " //
+                                + "  local.tee 2 " // $block
+                                + "  i32.eqz " //
+                                + "  br_if 1 " // end of the free list
+                                + "  local.get 2 " //
+                                + "  i32.load offset=0 align=4 " //
+                                + "  i32.const -8 " //
+                                + "  i32.and " //
+                                + "  local.tee 5 " // $blockSize
+                                + "  local.get 3 " //
+                                + "  i32.ge_s " //
+                                + "  if " //
+                                + "    local.get 5 " //
+                                + "    local.get 3 " //
+                                + "    i32.sub " //
+                                + "    i32.const 16 " //
+                                + "    i32.ge_s " //
+                                + "    if " // split the block, the rest stays in the free list
+                                + "      local.get 2 " //
+                                + "      local.get 3 " //
+                                + "      i32.add " //
+                                + "      local.get 5 " //
+                                + "      local.get 3 " //
+                                + "      i32.sub " //
+                                + "      i32.const " + FREE + " " //
+                                + "      i32.or " //
+                                + "      i32.store offset=0 align=4 " //
+                                + "      local.get 2 " //
+                                + "      local.get 3 " //
+                                + "      i32.add " //
+                                + "      local.get 2 " //
+                                + "      i32.load offset=4 align=4 " //
+                                + "      i32.store offset=4 align=4 " //
+                                + "      local.get 4 " //
+                                + "      local.get 2 " //
+                                + "      local.get 3 " //
+                                + "      i32.add " //
+                                + "      i32.store offset=0 align=4 " //
+                                + "      local.get 3 " //
+                                + "      local.set 5 " //
+                                + "    else " //
+                                + "      local.get 4 " //
+                                + "      local.get 2 " //
+                                + "      i32.load offset=4 align=4 " //
+                                + "      i32.store offset=0 align=4 " //
+                                + "    end " //
+                                + "    br 3 " // found
+                                + "  end " //
+                                + "  local.get 2 " //
+                                + "  i32.const 4 " //
+                                + "  i32.add " //
+                                + "  local.set 4 " //
+                                + "  br 0 " //
+                                + "end " //
+                                + "end " //
+                                + cell( HEAP_END ) //
+                                + "i32.load offset=0 align=4 " //
+                                + "local.tee 2 " //
+                                + "i32.eqz " //
+                                + "if " // first call, the heap starts after the initial pages
+                                + "  " + cell( HEAP_START ) //
+                                + "  memory.size " //
+                                + "  i32.const 16 " //
+                                + "  i32.shl " //
+                                + "  local.tee 2 " //
+                                + "  i32.store offset=0 align=4 " //
+                                + "end " //
+                                + "local.get 2 " //
+                                + "local.get 3 " //
+                                + "i32.add " //
+                                + "local.tee 5 " // $end
+                                + "memory.size " //
+                                + "i32.const 16 " //
+                                + "i32.shl " //
+                                + "i32.gt_s " //
+                                + "if " //
+                                + "  local.get 5 " //
+                                + "  i32.const 65535 " //
+                                + "  i32.add " //
+                                + "  i32.const 16 " //
+                                + "  i32.shr_u " //
+                                + "  memory.size " //
+                                + "  i32.sub " //
+                                + "  memory.grow " //
+                                + "  i32.const -1 " //
+                                + "  i32.eq " //
+                                + "  if unreachable end " // out of memory
+                                + "end " //
+                                + cell( HEAP_END ) //
+                                + "local.get 5 " //
+                                + "i32.store offset=0 align=4 " //
+                                + "local.get 3 " //
+                                + "local.set 5 " //
+                                + "end " //
+                                + "local.get 2 " //
+                                + "local.get 5 " //
+                                + "i32.store offset=0 align=4 " // the header with the size and without flags
+                                + "local.get 2 " //
+                                + "i32.const " + BLOCK_HEADER + " " //
+                                + "i32.add " //
+                                + "i32.const 0 " //
+                                + "local.get 5 " //
+                                + "i32.const " + BLOCK_HEADER + " " //
+                                + "i32.sub " //
+                                + "memory.fill " // a reused block and the end of the heap after a collect are not empty
+                                + "local.get 2 " //
+                                + "local.get 1 " // $vtable
+                                + "i32.store offset=" + BLOCK_HEADER + " align=4 " //
+                                + "local.get 2 " //
+                                + "i32.const " + BLOCK_HEADER + " " //
+                                + "i32.add " //
+                                + "return";
+            }
+        };
+
+        /*
+        static void mark( int object ) {
+            if( object < i32_load[HEAP_START] + BLOCK_HEADER || object >= i32_load[HEAP_END] ) {
+                return; // null or static data
+            }
+            int block = object - BLOCK_HEADER;
+            int header = i32_load[block];
+            if( (header & MARKED) != 0 ) {
+                return;
+            }
+            i32_store[block] = header | MARKED;
+            int top = i32_load[MARK_STACK];
+            if( top + 4 > memory.size << 16 ) {
+                if( memory.grow( 1 ) == -1 ) {
+                    unreachable; // out of memory
+                }
+            }
+            i32_store[top] = object;
+            i32_store[MARK_STACK] = top + 4;
+        }
+         */
+        mark = new WatCodeSyntheticFunctionName( "gc_mark", "", ValueType.i32, null, null ) { // object
+            @Override
+            protected String getCode() {
+                return "local.get 0 " // $object
+                                + cell( HEAP_START ) //
+                                + "i32.load offset=0 align=4 " //
+                                + "i32.const " + BLOCK_HEADER + " " //
+                                + "i32.add " //
+                                + "i32.lt_s " //
+                                + "local.get 0 " //
+                                + cell( HEAP_END ) //
+                                + "i32.load offset=0 align=4 " //
+                                + "i32.ge_s " //
+                                + "i32.or " //
+                                + "if return end " // null or static data
+                                + "local.get 0 " //
+                                + "i32.const " + BLOCK_HEADER + " " //
+                                + "i32.sub " //
+                                + "local.tee 1 " // $block
+                                + "i32.load offset=0 align=4 " //
+                                + "local.tee 2 " // $header
+                                + "i32.const " + MARKED + " " //
+                                + "i32.and " //
+                                + "if return end " //
+                                + "local.get 1 " //
+                                + "local.get 2 " //
+                                + "i32.const " + MARKED + " " //
+                                + "i32.or " //
+                                + "i32.store offset=0 align=4 " //
+                                + cell( MARK_STACK ) //
+                                + "i32.load offset=0 align=4 " //
+                                + "local.tee 3 " // $top
+                                + "i32.const 4 " //
+                                + "i32.add " //
+                                + "memory.size " //
+                                + "i32.const 16 " //
+                                + "i32.shl " //
+                                + "i32.gt_s " //
+                                + "if " //
+                                + "  i32.const 1 " //
+                                + "  memory.grow " //
+                                + "  i32.const -1 " //
+                                + "  i32.eq " //
+                                + "  if unreachable end " // out of memory
+                                + "end " //
+                                + "local.get 3 " //
+                                + "local.get 0 " //
+                                + "i32.store offset=0 align=4 " //
+                                + cell( MARK_STACK ) //
+                                + "local.get 3 " //
+                                + "i32.const 4 " //
+                                + "i32.add " //
+                                + "i32.store offset=0 align=4 " //
+                                + "return";
+            }
+        };
+
+        markRoots = new ArraySyntheticFunctionName( "", "gc_roots", (AnyType)null ) {
+            @Override
+            protected boolean hasWasmCode() {
+                return true;
+            }
+
+            @Override
+            protected WasmCodeBuilder getCodeBuilder( WatParser watParser ) {
+                WasmCodeBuilder codebuilder = watParser;
+                watParser.reset( null, null, getSignature( null ) );
+                synchronized( roots ) {
+                    for( Entry<FunctionName, AnyType> root : roots.entrySet() ) {
+                        codebuilder.addGlobalInstruction( true, root.getKey(), root.getValue(), null, 0, -1 );
+                        codebuilder.addCallInstruction( mark, false, 0, -1 );
+                    }
+                }
+                codebuilder.addBlockInstruction( WasmBlockOperator.RETURN, null, 0, -1 );
+                return watParser;
+            }
+        };
+
+        /*
+        static void collect() {
+            int heapEnd = i32_load[HEAP_END];
+            if( heapEnd == 0 ) {
+                return; // nothing allocated
+            }
+            i32_store[MARK_STACK] = heapEnd;
+            gc_roots();
+            for( int entry = tables; entry < tablesEnd; entry += 4 ) {
+                mark( i32_load[entry] );
+            }
+            // trace the references of the marked objects
+            int top;
+            while( (top = i32_load[MARK_STACK]) > heapEnd ) {
+                i32_store[MARK_STACK] = top -= 4;
+                int object = i32_load[top];
+                int vtable = i32_load[object];
+                int classIndex = i32_load[vtable + i32_load[vtable + TYPE_DESCRIPTION_INSTANCEOF_OFFSET] + 4];
+                int references = i32_load[referenceTable + classIndex * 4];
+                if( references == -1 ) {
+                    for( int i = i32_load[object + ARRAY_LENGTH]; i-- != 0; ) {
+                        mark( i32_load[object + i * 4 + ARRAY_DATA] );
+                    }
+                } else if( references != 0 ) {
+                    for( int i = i32_load[references]; i != 0; i-- ) {
+                        mark( i32_load[object + i32_load[references + i * 4]] );
+                    }
+                }
+            }
+            // sweep the not marked blocks into the free list
+            int freeList = 0;
+            int lastFree = 0;
+            for( int block = i32_load[HEAP_START]; block < heapEnd; block += size ) {
+                int header = i32_load[block];
+                int size = header & -8;
+                if( (header & MARKED) != 0 ) {
+                    i32_store[block] = size;
+                    lastFree = 0;
+                } else if( lastFree != 0 ) {
+                    i32_store[lastFree] = i32_load[lastFree] + size; // join with the previous free block
+                } else {
+                    i32_store[block] = size | FREE;
+                    i32_store[block + 4] = freeList;
+                    freeList = lastFree = block;
+                }
+            }
+            if( lastFree != 0 ) {
+                // the free block at the end is given back to the end of the heap
+                i32_store[HEAP_END] = lastFree;
+                freeList = i32_load[lastFree + 4];
+            }
+            i32_store[FREE_LIST] = freeList;
+        }
+         */
+        collect = new WatCodeSyntheticFunctionName( "gc_collect", "", (AnyType)null ) {
+            @Override
+            protected String getCode() {
+                return cell( HEAP_END ) //
+                                + "i32.load offset=0 align=4 " //
+                                + "local.tee 3 " // $heapEnd
+                                + "i32.eqz " //
+                                + "if return end " // nothing allocated
+                                + cell( MARK_STACK ) //
+                                + "local.get 3 " //
+                                + "i32.store offset=0 align=4 " //
+                                + "call $" + markRoots.signatureName + " " //
+                                + "i32.const " + tableOffsets[ModuleWriter.STRING_TABLE] + " " //
+                                + "local.set 4 " //
+                                + "block loop " // the String and Class instances
+                                + "  local.get 4 " //
+                                + "  i32.const " + (tableOffsets[ModuleWriter.CLASS_TABLE] + options.types.size() * 4) + " " //
+                                + "  i32.ge_s " //
+                                + "  br_if 1 " //
+                                + "  local.get 4 " //
+                                + "  i32.load offset=0 align=4 " //
+                                + "  call $" + mark.signatureName + " " //
+                                + "  local.get 4 " //
+                                + "  i32.const 4 " //
+                                + "  i32.add " //
+                                + "  local.set 4 " //
+                                + "  br 0 " //
+                                + "end end " //
+                                + "block loop " // trace the references of the marked objects
+                                + "  " + cell( MARK_STACK ) //
+                                + "  i32.load offset=0 align=4 " //
+                                + "  local.tee 4 " // $top
+                                + "  local.get 3 " //
+                                + "  i32.le_s " //
+                                + "  br_if 1 " //
+                                + "  " + cell( MARK_STACK ) //
+                                + "  local.get 4 " //
+                                + "  i32.const 4 " //
+                                + "  i32.sub " //
+                                + "  local.tee 4 " //
+                                + "  i32.store offset=0 align=4 " //
+                                + "  local.get 4 " //
+                                + "  i32.load offset=0 align=4 " //
+                                + "  local.tee 0 " // $object
+                                + "  i32.load offset=0 align=4 " //
+                                + "  local.tee 1 " // $vtable
+                                + "  local.get 1 " //
+                                + "  i32.load offset=" + TypeManager.TYPE_DESCRIPTION_INSTANCEOF_OFFSET + " align=4 " //
+                                + "  i32.add " //
+                                + "  i32.load offset=4 align=4 " // the class index is the first entry of the instanceof list
+                                + "  i32.const 2 " //
+                                + "  i32.shl " //
+                                + "  i32.load offset=" + referenceTable + " align=4 " //
+                                + "  local.tee 1 " // $references
+                                + "  i32.const -1 " //
+                                + "  i32.eq " //
+                                + "  if " // array of references
+                                + "    local.get 0 " //
+                                + "    i32.load offset=" + ARRAY_LENGTH + " align=4 " //
+                                + "    local.set 2 " //
+                                + "    block loop " //
+                                + "      local.get 2 " //
+                                + "      i32.eqz " //
+                                + "      br_if 1 " //
+                                + "      local.get 2 " //
+                                + "      i32.const 1 " //
+                                + "      i32.sub " //
+                                + "      local.tee 2 " //
+                                + "      i32.const 2 " //
+                                + "      i32.shl " //
+                                + "      local.get 0 " //
+                                + "      i32.add " //
+                                + "      i32.load offset=" + ARRAY_DATA + " align=4 " //
+                                + "      call $" + mark.signatureName + " " //
+                                + "      br 0 " //
+                                + "    end end " //
+                                + "  else " //
+                                + "    local.get 1 " //
+                                + "    if " // object with reference fields
+                                + "      local.get 1 " //
+                                + "      i32.load offset=0 align=4 " //
+                                + "      local.set 2 " //
+                                + "      block loop " //
+                                + "        local.get 2 " //
+                                + "        i32.eqz " //
+                                + "        br_if 1 " //
+                                + "        local.get 0 " //
+                                + "        local.get 1 " //
+                                + "        local.get 2 " //
+                                + "        i32.const 2 " //
+                                + "        i32.shl " //
+                                + "        i32.add " //
+                                + "        i32.load offset=0 align=4 " // the offset of the field
+                                + "        i32.add " //
+                                + "        i32.load offset=0 align=4 " //
+                                + "        call $" + mark.signatureName + " " //
+                                + "        local.get 2 " //
+                                + "        i32.const 1 " //
+                                + "        i32.sub " //
+                                + "        local.set 2 " //
+                                + "        br 0 " //
+                                + "      end end " //
+                                + "    end " //
+                                + "  end " //
+                                + "  br 0 " //
+                                + "end end " //
+                                + "i32.const 0 " //
+                                + "local.set 6 " // $freeList
+                                + "i32.const 0 " //
+                                + "local.set 7 " // $lastFree
+                                + cell( HEAP_START ) //
+                                + "i32.load offset=0 align=4 " //
+                                + "local.set 4 " // $block
+                                + "block loop " // sweep the not marked blocks into the free list
+                                + "  local.get 4 " //
+                                + "  local.get 3 " //
+                                + "  i32.ge_s " //
+                                + "  br_if 1 " //
+                                + "  local.get 4 " //
+                                + "  i32.load offset=0 align=4 " //
+                                + "  local.tee 8 " // $header
+                                + "  i32.const -8 " //
+                                + "  i32.and " //
+                                + "  local.set 5 " // $size
+                                + "  local.get 8 " //
+                                + "  i32.const " + MARKED + " " //
+                                + "  i32.and " //
+                                + "  if " //
+                                + "    local.get 4 " //
+                                + "    local.get 5 " //
+                                + "    i32.store offset=0 align=4 " //
+                                + "    i32.const 0 " //
+                                + "    local.set 7 " //
+                                + "  else " //
+                                + "    local.get 7 " //
+                                + "    if " // join with the previous free block
+                                + "      local.get 7 " //
+                                + "      local.get 7 " //
+                                + "      i32.load offset=0 align=4 " //
+                                + "      local.get 5 " //
+                                + "      i32.add " //
+                                + "      i32.store offset=0 align=4 " //
+                                + "    else " //
+                                + "      local.get 4 " //
+                                + "      local.get 5 " //
+                                + "      i32.const " + FREE + " " //
+                                + "      i32.or " //
+                                + "      i32.store offset=0 align=4 " //
+                                + "      local.get 4 " //
+                                + "      local.get 6 " //
+                                + "      i32.store offset=4 align=4 " //
+                                + "      local.get 4 " //
+                                + "      local.tee 6 " //
+                                + "      local.set 7 " //
+                                + "    end " //
+                                + "  end " //
+                                + "  local.get 4 " //
+                                + "  local.get 5 " //
+                                + "  i32.add " //
+                                + "  local.set 4 " //
+                                + "  br 0 " //
+                                + "end end " //
+                                + "local.get 7 " //
+                                + "if " // the free block at the end is given back to the end of the heap
+                                + "  " + cell( HEAP_END ) //
+                                + "  local.get 7 " //
+                                + "  i32.store offset=0 align=4 " //
+                                + "  local.get 7 " //
+                                + "  i32.load offset=4 align=4 " //
+                                + "  local.set 6 " //
+                                + "end " //
+                                + cell( FREE_LIST ) //
+                                + "local.get 6 " //
+                                + "i32.store offset=0 align=4 " //
+                                + "return";
+            }
+        };
+    }
+
+    /**
+     * Get the function that allocate the memory of an object. The function has 2 parameters (size, vtable) and returns
+     * the new object with zero values.
+     *
+     * @return the name
+     */
+    @Nonnull
+    SyntheticFunctionName getAllocate() {
+        return allocate;
+    }
+
+    /**
+     * Register a static field with a reference as root of the collector. Must be called for every write of such a field
+     * while scanning.
+     *
+     * @param name
+     *            the name of the static field
+     * @param type
+     *            the type of the static field
+     */
+    void addRoot( @Nonnull FunctionName name, @Nonnull AnyType type ) {
+        if( isFinish ) {
+            // the instructions of a function are created again after the scan
+            return;
+        }
+        ScanJournal journal = options.functions.journal;
+        int entry = journal.enter( ScanJournal.Op.ROOT, name, type );
+        synchronized( roots ) {
+            roots.putIfAbsent( name, type );
+        }
+        journal.exit( entry, null );
+    }
+
+    /**
+     * Mark the wrapper of an exported function as needed. The wrapper calls the collector if the outermost exported
+     * function returns.
+     *
+     * @param name
+     *            the exported function
+     * @throws WasmException
+     *             if the exported function has objects or arrays as parameter or result
+     */
+    void markExport( @Nonnull FunctionName name ) {
+        checkHostSignature( name, "Export" );
+        if( exports.containsKey( name ) ) {
+            return;
+        }
+        int paramCount = 0;
+        int resultCount = 0;
+        boolean isParam = true;
+        for( Iterator<AnyType> it = name.getSignature( options.types ); it.hasNext(); ) {
+            AnyType type = it.next();
+            if( type == null ) {
+                isParam = false;
+            } else if( isParam ) {
+                paramCount++;
+            } else {
+                resultCount++;
+            }
+        }
+        int params = paramCount;
+        boolean hasResult = resultCount > 0;
+        int depth = hasResult ? params + 1 : params;
+        /*
+        result export( params ) {
+            i32_store[EXPORT_DEPTH] = i32_load[EXPORT_DEPTH] + 1;
+            result = function( params );
+            if( (i32_store[EXPORT_DEPTH] = i32_load[EXPORT_DEPTH] - 1) == 0 ) {
+                collect();
+            }
+            return result;
+        }
+         */
+        SyntheticFunctionName wrapper = new WatCodeSyntheticFunctionName( name.className, name.methodName + "<export>", name.signature, "", (AnyType[])null ) {
+            @Override
+            protected String getCode() {
+                StringBuilder code = new StringBuilder();
+                code.append( cell( EXPORT_DEPTH ) ) //
+                                .append( cell( EXPORT_DEPTH ) ) //
+                                .append( "i32.load offset=0 align=4 " ) //
+                                .append( "i32.const 1 " ) //
+                                .append( "i32.add " ) //
+                                .append( "i32.store offset=0 align=4 " );
+                for( int i = 0; i < params; i++ ) {
+                    code.append( "local.get " ).append( i ).append( ' ' );
+                }
+                code.append( "call $" ).append( name.signatureName ).append( ' ' );
+                if( hasResult ) {
+                    code.append( "local.set " ).append( params ).append( ' ' ); // $result
+                }
+                code.append( cell( EXPORT_DEPTH ) ) //
+                                .append( cell( EXPORT_DEPTH ) ) //
+                                .append( "i32.load offset=0 align=4 " ) //
+                                .append( "i32.const 1 " ) //
+                                .append( "i32.sub " ) //
+                                .append( "local.tee " ).append( depth ).append( ' ' ) // $depth
+                                .append( "i32.store offset=0 align=4 " ) //
+                                .append( "local.get " ).append( depth ).append( ' ' ) //
+                                .append( "i32.eqz " ) //
+                                .append( "if call $" ).append( collect.signatureName ).append( " end " );
+                if( hasResult ) {
+                    code.append( "local.get " ).append( params ).append( ' ' );
+                }
+                return code.append( "return" ).toString();
+            }
+        };
+        exports.put( name, wrapper );
+        FunctionManager functions = options.functions;
+        functions.markAsNeeded( collect, false );
+        functions.markAsNeeded( markRoots, false );
+        functions.markAsNeeded( mark, false );
+        functions.markAsNeeded( wrapper, false );
+    }
+
+    /**
+     * Get the function that is exported for an exported function.
+     *
+     * @param name
+     *            the exported function
+     * @return the wrapper that calls the collector or the function self if there is no wrapper
+     */
+    @Nonnull
+    FunctionName getExport( @Nonnull FunctionName name ) {
+        FunctionName wrapper = exports.get( name );
+        return wrapper != null ? wrapper : name;
+    }
+
+    /**
+     * Check that a function of the host does not pass objects or arrays because the collector does not know the
+     * references of the host.
+     *
+     * @param name
+     *            the imported or exported function
+     * @param kind
+     *            "Import" or "Export" for the error message
+     * @throws WasmException
+     *             if the function has objects or arrays as parameter or result
+     */
+    void checkHostSignature( @Nonnull FunctionName name, @Nonnull String kind ) {
+        for( Iterator<AnyType> it = name.getSignature( options.types ); it.hasNext(); ) {
+            AnyType type = it.next();
+            if( type != null && type.isRefType() && !(type instanceof ValueType) ) {
+                throw new WasmException( kind + " function " + name.fullName + " has the object type " + type + " in its signature. Objects of the linear memory can not be passed between WASM and the host. Use primitive values or disable the option " + JWebAssembly.WASM_USE_LINEAR_MEMORY + ".", -1 );
+            }
+        }
+    }
+
+    /**
+     * Create the function that allocate an array. The function has the length as parameter and returns the new array.
+     *
+     * @param arrayType
+     *            the type of the array
+     * @return the name
+     */
+    @Nonnull
+    SyntheticFunctionName createArrayNew( @Nonnull ArrayType arrayType ) {
+        options.functions.markAsNeeded( allocate, false );
+        AnyType elementType = arrayType.getArrayType();
+        String name = arrayType.getName().replace( '[', '_' ).replace( '/', '_' ).replace( '.', '_' ).replace( ";", "" );
+        return new WatCodeSyntheticFunctionName( "array_new" + name, "", ValueType.i32, null, arrayType ) {
+            @Override
+            protected String getCode() {
+                return "local.get 0 " // $length
+                                + "i32.const 0 " //
+                                + "i32.lt_s " //
+                                + "if unreachable end " // negative array size
+                                + "local.get 0 " //
+                                + shift( elementType ) //
+                                + "i32.const " + ARRAY_DATA + " " //
+                                + "i32.add " //
+                                + "i32.const " + arrayType.getVTable() + " " //
+                                + "call $.allocate()V " // the synthetic signature of ArraySyntheticFunctionName
+                                + "local.tee 1 " //
+                                + "local.get 0 " //
+                                + "i32.store offset=" + ARRAY_LENGTH + " align=4 " //
+                                + "local.get 1 " //
+                                + "return";
+            }
+        };
+    }
+
+    /**
+     * Create the function that copy a range of elements between arrays of the same type. The function has 5 parameters
+     * (destination, destination position, source, source position, length). Overlapping ranges are handled like
+     * System.arraycopy() because memory.copy works like memmove.
+     *
+     * @param elementType
+     *            the type of the elements
+     * @return the name
+     */
+    @Nonnull
+    SyntheticFunctionName createArrayCopy( @Nonnull AnyType elementType ) {
+        AnyType objectType = options.types.valueOf( "java/lang/Object" );
+        return new WatCodeSyntheticFunctionName( "array_copy_" + getName( elementType ), "local.get 0 " // $dest
+                        + "i32.eqz " //
+                        + "local.get 2 " // $src
+                        + "i32.eqz " //
+                        + "i32.or " //
+                        + "if unreachable end " // null pointer
+                        + "local.get 1 " // $destPos
+                        + "local.get 3 " // $srcPos
+                        + "i32.or " //
+                        + "local.get 4 " // $length
+                        + "i32.or " //
+                        + "i32.const 0 " //
+                        + "i32.lt_s " // any negative value
+                        + "local.get 1 " //
+                        + "local.get 0 " // $dest
+                        + "i32.load offset=" + ARRAY_LENGTH + " align=4 " //
+                        + "local.get 4 " //
+                        + "i32.sub " //
+                        + "i32.gt_s " // destPos > dest.length - length
+                        + "i32.or " //
+                        + "local.get 3 " //
+                        + "local.get 2 " // $src
+                        + "i32.load offset=" + ARRAY_LENGTH + " align=4 " //
+                        + "local.get 4 " //
+                        + "i32.sub " //
+                        + "i32.gt_s " // srcPos > src.length - length
+                        + "i32.or " //
+                        + "if unreachable end " // index out of bounds
+                        + "local.get 0 " //
+                        + "local.get 1 " //
+                        + shift( elementType ) //
+                        + "i32.add " //
+                        + "i32.const " + ARRAY_DATA + " " //
+                        + "i32.add " //
+                        + "local.get 2 " //
+                        + "local.get 3 " //
+                        + shift( elementType ) //
+                        + "i32.add " //
+                        + "i32.const " + ARRAY_DATA + " " //
+                        + "i32.add " //
+                        + "local.get 4 " //
+                        + shift( elementType ) //
+                        + "memory.copy " //
+                        + "return", objectType, ValueType.i32, objectType, ValueType.i32, ValueType.i32, null, null );
+    }
+
+    /**
+     * Create the function that fill a range of an array with a value. The function has 4 parameters (array, from index,
+     * to index, value).
+     *
+     * @param elementType
+     *            the type of the elements
+     * @return the name
+     */
+    @Nonnull
+    SyntheticFunctionName createArrayFill( @Nonnull AnyType elementType ) {
+        AnyType objectType = options.types.valueOf( "java/lang/Object" );
+        AnyType functionType = elementType.isRefType() ? objectType : getSize( elementType ) < 4 ? ValueType.i32 : elementType;
+        String fill;
+        if( getSize( elementType ) == 1 ) {
+            fill = "local.get 0 " // $array
+                            + "local.get 1 " //
+                            + "i32.add " //
+                            + "i32.const " + ARRAY_DATA + " " //
+                            + "i32.add " //
+                            + "local.get 3 " // $value
+                            + "local.get 2 " //
+                            + "local.get 1 " //
+                            + "i32.sub " //
+                            + "memory.fill ";
+        } else {
+            fill = "block loop " //
+                            + "local.get 1 " //
+                            + "local.get 2 " //
+                            + "i32.ge_s " //
+                            + "br_if 1 " //
+                            + "local.get 0 " // $array
+                            + "local.get 1 " //
+                            + shift( elementType ) //
+                            + "i32.add " //
+                            + "local.get 3 " // $value
+                            + getStoreCode( elementType, ARRAY_DATA ) //
+                            + "local.get 1 " //
+                            + "i32.const 1 " //
+                            + "i32.add " //
+                            + "local.set 1 " //
+                            + "br 0 " //
+                            + "end end ";
+        }
+        return new WatCodeSyntheticFunctionName( "array_fill_" + getName( elementType ), "local.get 0 " // $array
+                        + "i32.eqz " //
+                        + "if unreachable end " // null pointer
+                        + "local.get 1 " // $fromIndex
+                        + "i32.const 0 " //
+                        + "i32.lt_s " //
+                        + "local.get 1 " //
+                        + "local.get 2 " // $toIndex
+                        + "i32.gt_s " //
+                        + "i32.or " //
+                        + "local.get 2 " //
+                        + "local.get 0 " // $array
+                        + "i32.load offset=" + ARRAY_LENGTH + " align=4 " //
+                        + "i32.gt_s " //
+                        + "i32.or " //
+                        + "if unreachable end " // index out of bounds or illegal argument
+                        + fill //
+                        + "return", objectType, ValueType.i32, ValueType.i32, functionType, null, null );
+    }
+
+    /**
+     * Create the function that set an element of the table with the String or Class instances. The function has 2
+     * parameters (index, value).
+     *
+     * @param tableIdx
+     *            the index of the table
+     * @return the name
+     */
+    @Nonnull
+    SyntheticFunctionName createTableSet( int tableIdx ) {
+        AnyType objectType = options.types.valueOf( "java/lang/Object" );
+        return new WatCodeSyntheticFunctionName( "table_set_" + tableIdx, "", ValueType.i32, objectType, null, null ) {
+            @Override
+            protected String getCode() {
+                return "local.get 0 " // $index
+                                + "i32.const 2 " //
+                                + "i32.shl " //
+                                + "local.get 1 " // $value
+                                + getStoreCode( objectType, getTableOffset( tableIdx ) ) //
+                                + "return";
+            }
+        };
+    }
+
+    /**
+     * Write the code that get an element of the table with the String or Class instances. The index must be on the
+     * stack.
+     *
+     * @param writer
+     *            the target
+     * @param tableIdx
+     *            the index of the table
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    void writeTableGet( @Nonnull ModuleWriter writer, int tableIdx ) throws IOException {
+        writer.writeConst( 2, ValueType.i32 );
+        writer.writeNumericOperator( NumericOperator.shl, ValueType.i32 );
+        writer.writeMemoryOperator( MemoryOperator.load, ValueType.i32, getTableOffset( tableIdx ), 2 );
+    }
+
+    /**
+     * Get the memory offset of a table.
+     *
+     * @param tableIdx
+     *            the index of the table
+     * @return the offset
+     */
+    private int getTableOffset( int tableIdx ) {
+        if( tableIdx == ModuleWriter.FUNCTION_TABLE || tableIdx >= tableOffsets.length ) {
+            throw new WasmException( "Table is not supported with linear memory: " + tableIdx, -1 );
+        }
+        return tableOffsets[tableIdx];
+    }
+
+    /**
+     * Write the reference offsets of the classes and reserve the memory for the heap cells and the tables of the String
+     * and Class instances. Must be called after all other constant data was written.
+     *
+     * @param writer
+     *            the targets for the data
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    void prepareFinish( @Nonnull ModuleWriter writer ) throws IOException {
+        isFinish = true;
+        ByteArrayOutputStream dataStream = writer.dataStream;
+        while( (dataStream.size() & 3) != 0 ) {
+            dataStream.write( 0 );
+        }
+
+        // the offsets of the reference fields for every class index, -1 for an array of references
+        int classCount = 0;
+        for( StructType type : options.types.getTypes() ) {
+            classCount = Math.max( classCount, type.getClassIndex() + 1 );
+        }
+        referenceTable = dataStream.size();
+        int[] table = new int[classCount];
+        LittleEndianOutputStream references = new LittleEndianOutputStream();
+        for( StructType type : options.types.getTypes() ) {
+            int classIndex = type.getClassIndex();
+            if( type instanceof ArrayType ) {
+                if( ((ArrayType)type).getArrayType().isRefType() ) {
+                    table[classIndex] = -1;
+                }
+            } else if( classIndex >= 0 ) {
+                List<NamedStorageType> fields = type.getFields();
+                int[] offsets = type.getFieldOffsets();
+                int count = 0;
+                for( NamedStorageType field : fields ) {
+                    if( field.getType().isRefType() ) {
+                        count++;
+                    }
+                }
+                if( count > 0 ) {
+                    table[classIndex] = referenceTable + classCount * 4 + references.size();
+                    references.writeInt32( count );
+                    for( int i = 0; i < fields.size(); i++ ) {
+                        if( fields.get( i ).getType().isRefType() ) {
+                            references.writeInt32( offsets[i] );
+                        }
+                    }
+                }
+            }
+        }
+        LittleEndianOutputStream data = new LittleEndianOutputStream( dataStream );
+        for( int entry : table ) {
+            data.writeInt32( entry );
+        }
+        references.writeTo( dataStream );
+
+        heapCells = dataStream.size();
+        dataStream.write( new byte[HEAP_CELLS] );
+        tableOffsets[ModuleWriter.STRING_TABLE] = dataStream.size();
+        dataStream.write( new byte[options.strings.size() * 4] );
+        tableOffsets[ModuleWriter.CLASS_TABLE] = dataStream.size();
+        dataStream.write( new byte[options.types.size() * 4] );
+    }
+
+    /**
+     * Get the WAT code that push the address of a heap cell.
+     *
+     * @param offset
+     *            the offset of the cell
+     * @return the code
+     */
+    private String cell( int offset ) {
+        return "i32.const " + (heapCells + offset) + " ";
+    }
+
+    /**
+     * Write a load instruction for a value in the memory. The address must be on the stack.
+     *
+     * @param writer
+     *            the target
+     * @param type
+     *            the type of the value in the memory
+     * @param signed
+     *            true, if a value with 8 or 16 bits is signed extended
+     * @param offset
+     *            the offset to the address on the stack
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    static void writeLoad( @Nonnull ModuleWriter writer, @Nonnull AnyType type, boolean signed, int offset ) throws IOException {
+        writer.writeMemoryOperator( getLoadOperator( type, signed ), getMemoryType( type ), offset, getAlignment( type ) );
+    }
+
+    /**
+     * Write a store instruction for a value in the memory. The address and the value must be on the stack.
+     *
+     * @param writer
+     *            the target
+     * @param type
+     *            the type of the value in the memory
+     * @param offset
+     *            the offset to the address on the stack
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    static void writeStore( @Nonnull ModuleWriter writer, @Nonnull AnyType type, int offset ) throws IOException {
+        writer.writeMemoryOperator( getStoreOperator( type ), getMemoryType( type ), offset, getAlignment( type ) );
+    }
+
+    /**
+     * Get the WAT code of a store instruction.
+     *
+     * @param type
+     *            the type of the value in the memory
+     * @param offset
+     *            the offset to the address on the stack
+     * @return the code
+     */
+    private static String getStoreCode( @Nonnull AnyType type, int offset ) {
+        return getMemoryType( type ) + "." + getStoreOperator( type ) + " offset=" + offset + " align=" + getSize( type ) + " ";
+    }
+
+    /**
+     * Get the WAT code to calculate the offset of an array element from the index on the stack.
+     *
+     * @param elementType
+     *            the type of the elements
+     * @return the code
+     */
+    private static String shift( @Nonnull AnyType elementType ) {
+        int alignment = getAlignment( elementType );
+        return alignment == 0 ? "" : "i32.const " + alignment + " i32.shl ";
+    }
+
+    /**
+     * Get the load operation for the size of the type.
+     *
+     * @param type
+     *            the type of the value in the memory
+     * @param signed
+     *            true, if a value with 8 or 16 bits is signed extended
+     * @return the operation
+     */
+    private static MemoryOperator getLoadOperator( @Nonnull AnyType type, boolean signed ) {
+        switch( getSize( type ) ) {
+            case 1:
+                return signed ? MemoryOperator.load8_s : MemoryOperator.load8_u;
+            case 2:
+                return signed && type != ValueType.u16 ? MemoryOperator.load16_s : MemoryOperator.load16_u;
+            default:
+                return MemoryOperator.load;
+        }
+    }
+
+    /**
+     * Get the store operation for the size of the type.
+     *
+     * @param type
+     *            the type of the value in the memory
+     * @return the operation
+     */
+    private static MemoryOperator getStoreOperator( @Nonnull AnyType type ) {
+        switch( getSize( type ) ) {
+            case 1:
+                return MemoryOperator.store8;
+            case 2:
+                return MemoryOperator.store16;
+            default:
+                return MemoryOperator.store;
+        }
+    }
+
+    /**
+     * Get the type of the value on the stack for a value in the memory.
+     *
+     * @param type
+     *            the type of the value in the memory
+     * @return the type on the stack
+     */
+    private static ValueType getMemoryType( @Nonnull AnyType type ) {
+        if( type instanceof ValueType ) {
+            switch( (ValueType)type ) {
+                case i64:
+                case f32:
+                case f64:
+                    return (ValueType)type;
+                default:
+            }
+        }
+        return ValueType.i32;
+    }
+
+    /**
+     * Get the size of a value in the memory.
+     *
+     * @param type
+     *            the type
+     * @return the count of bytes
+     */
+    static int getSize( @Nonnull AnyType type ) {
+        return 1 << getAlignment( type );
+    }
+
+    /**
+     * Get the natural alignment of a value in the memory.
+     *
+     * @param type
+     *            the type
+     * @return the alignment (0: 8 Bit; 1: 16 Bit; 2: 32 Bit; 3: 64 Bit)
+     */
+    private static int getAlignment( @Nonnull AnyType type ) {
+        if( type instanceof ValueType ) {
+            switch( (ValueType)type ) {
+                case bool:
+                case i8:
+                    return 0;
+                case i16:
+                case u16:
+                    return 1;
+                case i64:
+                case f64:
+                    return 3;
+                default:
+            }
+        }
+        return 2;
+    }
+
+    /**
+     * Get a valid name part for the type.
+     *
+     * @param type
+     *            the type
+     * @return the name
+     */
+    private static String getName( @Nonnull AnyType type ) {
+        return type.isRefType() ? "ref" : type.toString();
+    }
+}
@@ -0,0 +1,782 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.module;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import de.inetsoftware.classparser.ClassFile;
+import de.inetsoftware.jwebassembly.JWebAssembly;
+
+/**
+ * A persistent cache for the compiled output. The key is a hash of the bytes of all class files and libraries, the
+ * compiler properties, the compiler self and the Java runtime which provides the boot classes. If nothing was changed
+ * then the output of a previous compile is written to the target without compiling.
+ * <p>
+ * If the module was changed then the instructions of the methods are reused per class from the {@link ClassCache}. The
+ * indices of functions, types and strings are assigned on writing the module and are not part of the cached
+ * instructions. A library that can't be read is not hashable, then nothing is cached.
+ * <p>
+ * The content hash of a file is saved in the cache directory. It is used again without reading the file if the size,
+ * the modification time and the change time of the file system are not changed. The least recently used entries are
+ * removed if the size of the cache directory exceeds the {@link JWebAssembly#CACHE_LIMIT}.
+ *
+ * @author Volker Berlin
+ */
+public class ModuleCache {
+
+    private static final String       MODULE      = ".module";
+
+    private static final String       JAVA_SCRIPT = ".wasm.js";
+
+    private static final String       SOURCE_MAP  = ".wasm.map";
+
+    private static final String       FILE_HASHES = "files.index";
+
+    private final Path                dir;
+
+    private final String              key;
+
+    private final String              environment;
+
+    private final Map<String, String> identities = new HashMap<>();
+
+    private final Map<String, String> classHashes;
+
+    private final boolean             binary;
+
+    private final WasmTarget          target;
+
+    private final long                limit;
+
+    private RecordTarget              record;
+
+    private ClassCache                classCache;
+
+    /**
+     * Create a new instance.
+     *
+     * @param dir
+     *            the cache directory
+     * @param key
+     *            the hash of the input
+     * @param environment
+     *            the hash of the input without the class files
+     * @param classHashes
+     *            the content hashes of the class files
+     * @param binary
+     *            true, for the binary format; false, for the text format
+     * @param target
+     *            the final target of the output
+     * @param limit
+     *            the maximum size of the cache directory in bytes
+     */
+    private ModuleCache( @Nonnull Path dir, @Nonnull String key, @Nonnull String environment, @Nonnull Map<String, String> classHashes, boolean binary, @Nonnull WasmTarget target, long limit ) {
+        this.dir = dir;
+        this.key = key;
+        this.environment = environment;
+        this.classHashes = classHashes;
+        this.binary = binary;
+        this.target = target;
+        this.limit = limit;
+    }
+
+    /**
+     * Create a cache for a compile if the property {@link JWebAssembly#CACHE_DIR} is set.
+     *
+     * @param properties
+     *            the compiler properties
+     * @param binary
+     *            true, for the binary format; false, for the text format
+     * @param classFiles
+     *            the class files to compile
+     * @param libraries
+     *            the libraries of the compile
+     * @param target
+     *            the final target of the output
+     * @return the cache or null if there is no cache directory or a library can't be hashed
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    @Nullable
+    public static ModuleCache create( @Nonnull Map<String, String> properties, boolean binary, @Nonnull List<URL> classFiles, @Nonnull List<URL> libraries, @Nonnull WasmTarget target ) throws IOException {
+        String cacheDir = properties.get( JWebAssembly.CACHE_DIR );
+        if( cacheDir == null || cacheDir.trim().isEmpty() ) {
+            return null;
+        }
+        Path dir = new File( cacheDir.trim() ).toPath();
+        long limit = (long)(Double.parseDouble( properties.getOrDefault( JWebAssembly.CACHE_LIMIT, "100" ).trim() ) * 1024 * 1024);
+        FileHashes hashes = new FileHashes( dir.resolve( FILE_HASHES ) );
+
+        // the environment of the classes: the compiler, the Java runtime, the properties and the libraries
+        MessageDigest digest = createDigest();
+
+        // the compiler self, the version is not changed on a rebuild of the compiler or if it does not run from a jar
+        Package pack = ModuleCache.class.getPackage();
+        update( digest, String.valueOf( pack == null ? null : pack.getImplementationVersion() ) );
+        CodeSource codeSource = ModuleCache.class.getProtectionDomain().getCodeSource();
+        URL compiler = codeSource == null ? null : codeSource.getLocation();
+        update( digest, String.valueOf( compiler ) );
+        if( compiler != null && !update( digest, compiler, hashes ) ) {
+            return null;
+        }
+
+        // the Java runtime, the boot classes are used if a class is not in the libraries
+        for( String name : new String[] { "java.home", "java.vendor", "java.runtime.version", "sun.boot.class.path" } ) {
+            update( digest, name + '=' + System.getProperty( name ) );
+        }
+
+        for( Map.Entry<String, String> entry : new TreeMap<>( properties ).entrySet() ) {
+            if( !JWebAssembly.CACHE_DIR.equals( entry.getKey() ) && !JWebAssembly.CACHE_LIMIT.equals( entry.getKey() ) ) {
+                update( digest, entry.getKey() + '=' + entry.getValue() );
+            }
+        }
+        for( URL url : libraries ) {
+            update( digest, url.toString() );
+            if( !update( digest, url, hashes ) ) {
+                return null;
+            }
+        }
+        String environment = toHex( digest.digest() );
+
+        // the module: the environment, the output format and the class files
+        digest = createDigest();
+        update( digest, environment );
+        update( digest, binary ? "binary" : "text" );
+        update( digest, String.valueOf( target.getSourceMappingURL() ) );
+        Map<String, String> classHashes = new HashMap<>();
+        for( URL url : classFiles ) {
+            update( digest, url.toString() );
+            String hash;
+            try {
+                if( "file".equals( url.getProtocol() ) ) {
+                    hash = hashes.get( toFile( url ).toPath() );
+                } else {
+                    MessageDigest classDigest = createDigest();
+                    try (InputStream input = url.openStream()) {
+                        update( classDigest, input );
+                    }
+                    hash = toHex( classDigest.digest() );
+                }
+                classHashes.put( url.toString(), hash );
+            } catch( IOException ex ) {
+                // the compiler ignore missing resources that are not class files
+                hash = ex.toString();
+            }
+            update( digest, hash );
+        }
+        hashes.save();
+
+        return new ModuleCache( dir, toHex( digest.digest() ), environment, classHashes, binary, target, limit );
+    }
+
+    /**
+     * Create the hash function of the cache.
+     *
+     * @return the hash function
+     * @throws IOException
+     *             if the algorithm is not available
+     */
+    @Nonnull
+    private static MessageDigest createDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance( "SHA-256" );
+        } catch( NoSuchAlgorithmException ex ) {
+            throw new IOException( ex );
+        }
+    }
+
+    /**
+     * Convert a hash to a string.
+     *
+     * @param hash
+     *            the bytes of the hash
+     * @return the hex string
+     */
+    @Nonnull
+    private static String toHex( @Nonnull byte[] hash ) {
+        StringBuilder str = new StringBuilder();
+        for( byte b : hash ) {
+            str.append( Character.forDigit( (b >> 4) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+        }
+        return str.toString();
+    }
+
+    /**
+     * Create the hash of some strings.
+     *
+     * @param values
+     *            the strings
+     * @return the hex string of the hash
+     * @throws IOException
+     *             if the algorithm is not available
+     */
+    @Nonnull
+    static String hash( @Nonnull String... values ) throws IOException {
+        MessageDigest digest = createDigest();
+        for( String value : values ) {
+            update( digest, value );
+        }
+        return toHex( digest.digest() );
+    }
+
+    /**
+     * Convert a file URL to a file.
+     *
+     * @param url
+     *            the URL with the file protocol
+     * @return the file
+     * @throws IOException
+     *             if the URL is not valid
+     */
+    @Nonnull
+    private static File toFile( @Nonnull URL url ) throws IOException {
+        try {
+            return new File( url.toURI() );
+        } catch( URISyntaxException | IllegalArgumentException ex ) {
+            throw new IOException( ex );
+        }
+    }
+
+    /**
+     * Add a string to the hash.
+     *
+     * @param digest
+     *            the hash
+     * @param str
+     *            the string
+     */
+    private static void update( @Nonnull MessageDigest digest, @Nonnull String str ) {
+        digest.update( str.getBytes( StandardCharsets.UTF_8 ) );
+        digest.update( (byte)0 );
+    }
+
+    /**
+     * Add the content of a stream to the hash.
+     *
+     * @param digest
+     *            the hash
+     * @param input
+     *            the stream
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    private static void update( @Nonnull MessageDigest digest, @Nonnull InputStream input ) throws IOException {
+        byte[] buffer = new byte[8192];
+        for( int count; (count = input.read( buffer )) > 0; ) {
+            digest.update( buffer, 0, count );
+        }
+    }
+
+    /**
+     * Add the content of a library or the compiler to the hash. A file is hashed with its saved content hash, any other
+     * URL like "jar:" or "http:" with the bytes of the resource.
+     *
+     * @param digest
+     *            the hash
+     * @param url
+     *            the location
+     * @param hashes
+     *            the saved content hashes
+     * @return false, if the content can't be read and the cache can't be used
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    private static boolean update( @Nonnull MessageDigest digest, @Nonnull URL url, @Nonnull FileHashes hashes ) throws IOException {
+        if( "file".equals( url.getProtocol() ) ) {
+            update( digest, toFile( url ), hashes );
+            return true;
+        }
+        try (InputStream input = url.openStream()) {
+            update( digest, input );
+            return true;
+        } catch( IOException ex ) {
+            JWebAssembly.LOGGER.warning( "Compile without cache, the content of the library can't be hashed: " + url + " " + ex );
+            return false;
+        }
+    }
+
+    /**
+     * Add the content of a library file to the hash. For a directory all files are added. The content hash of a single
+     * file is taken from the saved hashes if the file was not changed.
+     *
+     * @param digest
+     *            the hash
+     * @param file
+     *            the library
+     * @param hashes
+     *            the saved content hashes
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    private static void update( @Nonnull MessageDigest digest, @Nonnull File file, @Nonnull FileHashes hashes ) throws IOException {
+        File[] files = file.listFiles();
+        if( files != null ) {
+            Arrays.sort( files );
+            for( File child : files ) {
+                update( digest, child.getName() );
+                update( digest, child, hashes );
+            }
+        } else if( file.isFile() ) {
+            update( digest, hashes.get( file.toPath() ) );
+        } else {
+            update( digest, "missing" );
+        }
+    }
+
+    /**
+     * Register a parsed class file of the compile. The instructions of its methods are cached with the content hash of
+     * the class file.
+     *
+     * @param classFile
+     *            the class file
+     * @param url
+     *            the location of the class file
+     */
+    public void addClass( @Nonnull ClassFile classFile, @Nonnull URL url ) {
+        String hash = classHashes.get( url.toString() );
+        if( hash != null ) {
+            identities.putIfAbsent( classFile.getThisClass().getName(), hash );
+        }
+    }
+
+    /**
+     * Get the cache for the instructions of the methods per class.
+     *
+     * @param options
+     *            the compiler options with the managers that the cached instructions reference
+     * @return the class cache
+     */
+    @Nonnull
+    ClassCache getClassCache( @Nonnull WasmOptions options ) {
+        if( classCache == null ) {
+            classCache = new ClassCache( dir, environment, identities, options );
+        }
+        return classCache;
+    }
+
+    /**
+     * Write the output of a previous compile with the same input to the target.
+     *
+     * @return true, if the cache contains the output; false, the module must be compiled
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    public boolean restore() throws IOException {
+        Path module = dir.resolve( key + MODULE );
+        if( !Files.isRegularFile( module ) ) {
+            JWebAssembly.LOGGER.fine( "module cache miss: " + key );
+            return false;
+        }
+        JWebAssembly.LOGGER.fine( "module cache hit: " + key );
+        byte[] data = Files.readAllBytes( module );
+        String javaScript = read( JAVA_SCRIPT );
+        String sourceMap = read( SOURCE_MAP );
+        try {
+            // the modification time of the module is the last use for the eviction
+            Files.setLastModifiedTime( module, FileTime.fromMillis( System.currentTimeMillis() ) );
+        } catch( IOException ex ) {
+            // a read only cache
+        }
+        write( data, javaScript, sourceMap );
+        return true;
+    }
+
+    /**
+     * Get the target for the compiler which record the output.
+     *
+     * @return the target
+     */
+    @Nonnull
+    public WasmTarget getTarget() {
+        if( record == null ) {
+            record = new RecordTarget( target.getSourceMappingURL() );
+        }
+        return record;
+    }
+
+    /**
+     * Save the recorded output in the cache and write it to the final target. Must be called after the module writer
+     * was closed.
+     *
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    public void save() throws IOException {
+        byte[] module = binary ? record.wasm.toByteArray() : record.text.toString().getBytes( StandardCharsets.UTF_8 );
+        String javaScript = record.javaScript == null ? null : record.javaScript.toString();
+        String sourceMap = record.sourceMap == null ? null : record.sourceMap.toString();
+
+        Files.createDirectories( dir );
+        if( classCache != null ) {
+            classCache.save();
+        }
+        save( JAVA_SCRIPT, javaScript == null ? null : javaScript.getBytes( StandardCharsets.UTF_8 ) );
+        save( SOURCE_MAP, sourceMap == null ? null : sourceMap.getBytes( StandardCharsets.UTF_8 ) );
+        save( MODULE, module ); // the module as last, it mark a complete entry
+        evict();
+
+        write( module, javaScript, sourceMap );
+    }
+
+    /**
+     * Remove the least recently used entries if the size of all entries exceeds the limit. An entry is a module with its
+     * JavaScript and source map or the cached instructions of a class. The current module is never removed.
+     *
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    private void evict() throws IOException {
+        List<Path> entries;
+        try (Stream<Path> list = Files.list( dir )) {
+            entries = list.filter( path -> {
+                String name = path.getFileName().toString();
+                return name.endsWith( MODULE ) || name.endsWith( ClassCache.SUFFIX );
+            } ).collect( Collectors.toList() );
+        }
+        Map<Path, FileTime> lastUse = new HashMap<>();
+        for( Path entry : entries ) {
+            try {
+                lastUse.put( entry, Files.getLastModifiedTime( entry ) );
+            } catch( NoSuchFileException ex ) {
+                // removed from a parallel running compile
+            }
+        }
+        entries = new ArrayList<>( lastUse.keySet() );
+        entries.sort( ( a, b ) -> lastUse.get( b ).compareTo( lastUse.get( a ) ) );
+
+        long size = 0;
+        for( Path entry : entries ) {
+            String name = entry.getFileName().toString();
+            Path[] files;
+            boolean current = false;
+            if( name.endsWith( MODULE ) ) {
+                name = name.substring( 0, name.length() - MODULE.length() );
+                files = new Path[] { entry, dir.resolve( name + JAVA_SCRIPT ), dir.resolve( name + SOURCE_MAP ) };
+                current = name.equals( key );
+            } else {
+                files = new Path[] { entry };
+            }
+            for( Path file : files ) {
+                size += Files.isRegularFile( file ) ? Files.size( file ) : 0;
+            }
+            if( size > limit && !current ) {
+                JWebAssembly.LOGGER.fine( "module cache evict: " + name );
+                for( Path file : files ) { // the module as first, it mark a complete entry
+                    Files.deleteIfExists( file );
+                }
+            }
+        }
+    }
+
+    /**
+     * Save a single file of the cache entry. The file is written to a temporary file first that a parallel running
+     * compile can never read a partial file.
+     *
+     * @param suffix
+     *            the suffix of the file
+     * @param data
+     *            the content or null if there is no such output
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    private void save( @Nonnull String suffix, @Nullable byte[] data ) throws IOException {
+        if( data == null ) {
+            return;
+        }
+        Path temp = Files.createTempFile( dir, key, ".tmp" );
+        try {
+            Files.write( temp, data );
+            Files.move( temp, dir.resolve( key + suffix ), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        } finally {
+            Files.deleteIfExists( temp );
+        }
+    }
+
+    /**
+     * Read a single file of the cache entry.
+     *
+     * @param suffix
+     *            the suffix of the file
+     * @return the content or null if not exists
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    @Nullable
+    private String read( @Nonnull String suffix ) throws IOException {
+        Path path = dir.resolve( key + suffix );
+        return Files.isRegularFile( path ) ? new String( Files.readAllBytes( path ), StandardCharsets.UTF_8 ) : null;
+    }
+
+    /**
+     * Write the output to the final target.
+     *
+     * @param module
+     *            the wasm or wat data
+     * @param javaScript
+     *            the JavaScript glue code or null
+     * @param sourceMap
+     *            the source map or null
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    private void write( @Nonnull byte[] module, @Nullable String javaScript, @Nullable String sourceMap ) throws IOException {
+        if( binary ) {
+            OutputStream output = target.getWasmOutput();
+            output.write( module );
+            output.close(); // like the BinaryModuleWriter
+        } else {
+            target.getTextOutput().append( new String( module, StandardCharsets.UTF_8 ) );
+        }
+        if( javaScript != null ) {
+            Writer output = target.getJavaScriptOutput();
+            if( output != null ) {
+                output.write( javaScript );
+            }
+        }
+        if( sourceMap != null ) {
+            Writer output = target.getSourceMapOutput();
+            if( output != null ) {
+                output.write( sourceMap );
+            }
+        }
+    }
+
+    /**
+     * The content hashes of the input files from previous compiles. A saved hash is only used if the file system can
+     * report the change time of the file. The change time is set on every write and can not be restored from a build
+     * tool like the modification time. Without it every file is read.
+     */
+    private static class FileHashes {
+
+        private static final String         VIEW    = "unix:size,lastModifiedTime,ctime,ino";
+
+        private final Path                  file;
+
+        private final Map<String, String[]> entries = new HashMap<>();
+
+        private final Map<String, String[]> used    = new HashMap<>();
+
+        private boolean                     changed;
+
+        /**
+         * Load the saved hashes.
+         *
+         * @param file
+         *            the file with the hashes in the cache directory
+         */
+        private FileHashes( @Nonnull Path file ) {
+            this.file = file;
+            try {
+                for( String line : Files.readAllLines( file, StandardCharsets.UTF_8 ) ) {
+                    String[] entry = line.split( "\t" );
+                    if( entry.length == 3 ) {
+                        entries.put( entry[0], entry );
+                    }
+                }
+            } catch( IOException ex ) {
+                // the first compile or a damaged file, the hashes are calculated again
+            }
+        }
+
+        /**
+         * Get the content hash of a file. The file is only read if it was changed since a previous compile.
+         *
+         * @param path
+         *            the file
+         * @return the hash
+         * @throws IOException
+         *             if any I/O error occur
+         */
+        @Nonnull
+        private String get( @Nonnull Path path ) throws IOException {
+            String name = path.toAbsolutePath().toString();
+            String stamp = stamp( path );
+            String[] entry = entries.get( name );
+            if( stamp == null || entry == null || !entry[1].equals( stamp ) ) {
+                MessageDigest digest = createDigest();
+                try (InputStream input = Files.newInputStream( path )) {
+                    update( digest, input );
+                }
+                entry = new String[] { name, stamp, toHex( digest.digest() ) };
+                changed |= stamp != null;
+            }
+            if( stamp != null ) {
+                used.put( name, entry );
+            }
+            return entry[2];
+        }
+
+        /**
+         * Get a time stamp of the file that is changed on every write.
+         *
+         * @param path
+         *            the file
+         * @return the stamp or null if the file system can not report the change time
+         * @throws IOException
+         *             if any I/O error occur
+         */
+        @Nullable
+        private static String stamp( @Nonnull Path path ) throws IOException {
+            Map<String, Object> attributes;
+            try {
+                attributes = Files.readAttributes( path, VIEW );
+            } catch( UnsupportedOperationException | IllegalArgumentException ex ) {
+                return null;
+            }
+            return attributes.get( "size" ) + "/" + attributes.get( "lastModifiedTime" ) + "/" + attributes.get( "ctime" ) + "/" + attributes.get( "ino" );
+        }
+
+        /**
+         * Save the hashes of the files of the current compile if there are new hashes. The hashes of other files are
+         * kept that the same cache directory can be used from multiple projects.
+         *
+         * @throws IOException
+         *             if any I/O error occur
+         */
+        private void save() throws IOException {
+            if( !changed ) {
+                return;
+            }
+            if( entries.size() > 10000 ) {
+                // the files of old projects
+                entries.clear();
+            }
+            entries.putAll( used );
+            StringBuilder data = new StringBuilder();
+            for( String[] entry : entries.values() ) {
+                data.append( entry[0] ).append( '\t' ).append( entry[1] ).append( '\t' ).append( entry[2] ).append( '\n' );
+            }
+            Path dir = file.getParent();
+            Files.createDirectories( dir );
+            Path temp = Files.createTempFile( dir, FILE_HASHES, ".tmp" );
+            try {
+                Files.write( temp, data.toString().getBytes( StandardCharsets.UTF_8 ) );
+                Files.move( temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            } finally {
+                Files.deleteIfExists( temp );
+            }
+        }
+    }
+
+    /**
+     * A target that hold the output in memory.
+     */
+    private static class RecordTarget extends WasmTarget {
+
+        private final String                sourceMappingURL;
+
+        private final ByteArrayOutputStream wasm = new ByteArrayOutputStream();
+
+        private final StringBuilder         text = new StringBuilder();
+
+        private StringWriter                sourceMap;
+
+        private StringWriter                javaScript;
+
+        /**
+         * Create a new instance.
+         *
+         * @param sourceMappingURL
+         *            the URL of the final target, the additional outputs are only created if there is an URL
+         */
+        private RecordTarget( @Nullable String sourceMappingURL ) {
+            super( (File)null );
+            this.sourceMappingURL = sourceMappingURL;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public OutputStream getWasmOutput() {
+            return wasm;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Appendable getTextOutput() {
+            return text;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getSourceMappingURL() {
+            return sourceMappingURL;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Writer getSourceMapOutput() {
+            if( sourceMap == null && sourceMappingURL != null ) {
+                sourceMap = new StringWriter();
+            }
+            return sourceMap;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Writer getJavaScriptOutput() {
+            if( javaScript == null && sourceMappingURL != null ) {
+                javaScript = new StringWriter();
+            }
+            return javaScript;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() {
+            // nothing to close, the data are used after the writer is closed
+        }
+    }
+}
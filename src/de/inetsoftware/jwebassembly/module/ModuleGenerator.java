@@ -17,29 +17,30 @@
 
 import static de.inetsoftware.jwebassembly.module.WasmCodeBuilder.CLASS_INIT;
 
-import java.io.BufferedInputStream;
-import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.logging.Level;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import de.inetsoftware.classparser.ClassFile;
 import de.inetsoftware.classparser.Code;
-import de.inetsoftware.classparser.ConstantClass;
 import de.inetsoftware.classparser.MethodInfo;
 import de.inetsoftware.jwebassembly.JWebAssembly;
 import de.inetsoftware.jwebassembly.WasmException;
@@ -85,6 +86,10 @@ public class ModuleGenerator {
 
     private final StaticCodeBuilder         staticCodeBuilder;
 
+    private final ScannedCodeCache          scannedCode;
+
+    private final ClassCache                classCache;
+
     private final HashSet<String>           exportNames = new HashSet<>();
 
     /**
@@ -98,12 +103,28 @@ public class ModuleGenerator {
      *            libraries 
      */
     public ModuleGenerator( @Nonnull ModuleWriter writer, WasmTarget target, @Nonnull List<URL> libraries ) {
+        this( writer, target, libraries, null );
+    }
+
+    /**
+     * Create a new generator.
+     * 
+     * @param writer
+     *            the target writer
+     * @param target
+     *            the target for the module data
+     * @param libraries
+     *            libraries 
+     * @param cache
+     *            the persistent cache for the instructions of the classes or null
+     */
+    public ModuleGenerator( @Nonnull ModuleWriter writer, WasmTarget target, @Nonnull List<URL> libraries, @Nullable ModuleCache cache ) {
         this.watParser = new WatParser();
         this.javaCodeBuilder = new JavaMethodWasmCodeBuilder( watParser );
         this.writer = writer;
         this.javaScript = new JavaScriptWriter( target );
-        this.classFileLoader = new ClassFileLoader( new URLClassLoader( libraries.toArray( new URL[libraries.size()] ) ) );
         WasmOptions options = writer.options;
+        this.classFileLoader = new ClassFileLoader( new URLClassLoader( libraries.toArray( new URL[libraries.size()] ) ), options.classCacheLimit() );
         functions = options.functions;
         types = options.types;
         strings = options.strings;
@@ -111,7 +132,13 @@ public ModuleGenerator( @Nonnull ModuleWriter writer, WasmTarget target, @Nonnul
         javaCodeBuilder.init( options, classFileLoader );
         ((WasmCodeBuilder)watParser).init( options, classFileLoader );
         types.init( classFileLoader );
+        functions.init( classFileLoader );
         staticCodeBuilder = new StaticCodeBuilder( writer.options, classFileLoader, javaCodeBuilder );
+        classCache = cache == null ? null : cache.getClassCache( options );
+        if( classCache != null ) {
+            classFileLoader.setJournal( functions.journal );
+        }
+        scannedCode = new ScannedCodeCache( options, classCache );
 
         scanLibraries( libraries );
 
@@ -127,44 +154,24 @@ public ModuleGenerator( @Nonnull ModuleWriter writer, WasmTarget target, @Nonnul
      */
     private void scanLibraries( @Nonnull List<URL> libraries ) {
         // search for replacement methods in the libraries
-        for( URL url : libraries ) {
-            try {
-                File file = new File(url.toURI());
-                if( file.isDirectory() ) {
-                    for( Iterator<Path> iterator = Files.walk( file.toPath() ).iterator(); iterator.hasNext(); ) {
-                        Path path = iterator.next();
-                        if( path.toString().endsWith( ".class" ) ) {
-                            ClassFile classFile = new ClassFile( new BufferedInputStream( Files.newInputStream( path ) ) );
-                            prepare( classFile );
-                        }
-                    }
-                }
-            } catch( Exception e ) {
-                e.printStackTrace();
+        LibraryScanner scanner = new LibraryScanner( classFileLoader, writer.options.parallelThreads() );
+        LibraryScanner.ClassFileHandler handler = new LibraryScanner.ClassFileHandler() {
+            @Override
+            public void prepare( @Nonnull ClassFile classFile ) throws IOException {
+                ModuleGenerator.this.prepare( classFile );
             }
 
-            try (ZipInputStream input = new ZipInputStream( url.openStream() )) {
-                do {
-                    ZipEntry entry = input.getNextEntry();
-                    if( entry == null ) {
-                        break;
-                    }
-                    if( entry.getName().endsWith( ".class" ) ) {
-                        try {
-                            ClassFile classFile = new ClassFile( new BufferedInputStream( input ) {
-                                @Override
-                                public void close() {
-                                } // does not close the zip stream
-                            } );
-                            prepare( classFile );
-                        } catch( Throwable th ) {
-                            JWebAssembly.LOGGER.log( Level.SEVERE, "Parsing error with " + entry.getName() + " in " + url, th );
-                        }
-                    }
-                } while( true );
-            } catch( IOException e ) {
-                e.printStackTrace();
+            @Override
+            public void prepare( @Nonnull String className, @Nonnull List<LibraryIndex.Annotation> annotations ) {
+                prepareAnnotations( className, annotations );
+            }
+        };
+        try {
+            for( URL url : libraries ) {
+                scanner.scan( url, handler );
             }
+        } finally {
+            scanner.close();
         }
     }
 
@@ -186,6 +193,9 @@ public void prepare( @Nonnull ClassFile classFile ) throws IOException {
             String signatureName = (String)annotationValues.get( "value" );
             if( signatureName != null ) {
                 classFileLoader.replace( signatureName, classFile );
+                if( classCache != null ) {
+                    classCache.addEnvironment( classFile.getThisClass().getName() );
+                }
             }
         }
 
@@ -194,6 +204,9 @@ public void prepare( @Nonnull ClassFile classFile ) throws IOException {
             String signatureName = (String)annotationValues.get( "value" );
             if( signatureName != null ) {
                 classFileLoader.partial( signatureName, classFile );
+                if( classCache != null ) {
+                    classCache.addEnvironment( classFile.getThisClass().getName() );
+                }
             }
         }
 
@@ -209,7 +222,6 @@ public void prepare( @Nonnull ClassFile classFile ) throws IOException {
      */
     private void scanFunctions() throws IOException {
         FunctionName next;
-        NEXT:
         while( (next = functions.nextScannLater()) != null ) {
             className = next.className;
             methodName = next.methodName;
@@ -219,7 +231,7 @@ private void scanFunctions() throws IOException {
                 if( synth.hasWasmCode() ) {
                     synth.getCodeBuilder( watParser );
                 } else {
-                    functions.markAsImport( synth, synth.getAnnotation() );
+                    functions.markAsImport( synth );
                 }
                 functions.markAsScanned( next );
                 continue;
@@ -246,11 +258,25 @@ private void scanFunctions() throws IOException {
                 method = functions.replace( next, null );
             }
             if( method != null ) {
-                createInstructions( functions.replace( next, method ) );
+                method = functions.replace( next, method );
+                scannedCode.start();
+                WasmCodeBuilder restored = scannedCode.restore( method );
+                if( restored != null ) {
+                    scannedCode.put( method, restored, true );
+                } else if( writer.options.parallelThreads() > 1 ) {
+                    // the instructions are optimized and written in a worker thread and need its own local variables
+                    WatParser watParser = new WatParser();
+                    scannedCode.put( method, createInstructions( method, watParser, createCodeBuilder( watParser ), sourceFile, className, methodName ), true );
+                } else {
+                    scannedCode.put( method, createInstructions( method ), false );
+                }
                 functions.markAsScanned( next );
                 if( functions.needThisParameter( next ) ) {
                     types.valueOf( next.className ); // for the case that the type unknown yet
                 }
+                if( writer.options.useLinearMemory() && functions.getExportAnannotation( next ) != null ) {
+                    writer.options.memory.markExport( next );
+                }
                 continue;
             }
 
@@ -260,64 +286,20 @@ private void scanFunctions() throws IOException {
             }
 
             // search if there is a super class with the same signature
-            ClassFile superClassFile = classFile;
-            while( superClassFile != null ) {
-                method = superClassFile.getMethod( next.methodName, next.signature );
-                if( method != null ) {
-                    FunctionName name = new FunctionName( method );
-                    functions.markAsNeeded( name, !method.isStatic() );
-                    functions.setAlias( next, name );
-                    continue NEXT; // we have found a super method
-                }
-                ConstantClass superClass = superClassFile.getSuperClass();
-                superClassFile = superClass == null ? null : classFileLoader.get( superClass.getName() );
-            }
-
-            // search if there is a default implementation in an interface
-            superClassFile = classFile;
-            while( superClassFile != null ) {
-                if( scanFunctionInterfaces( superClassFile, next ) ) {
-                    continue NEXT; // we have found a super method
-                }
-                ConstantClass superClass = superClassFile.getSuperClass();
-                superClassFile = superClass == null ? null : classFileLoader.get( superClass.getName() );
+            method = classFileLoader.resolveMethod( classFile, next.methodName, next.signature );
+            if( method == null ) {
+                // search if there is a default implementation in an interface
+                method = classFileLoader.resolveInterfaceMethod( classFile, next.methodName, next.signature );
             }
-
-            throw new WasmException( "Missing function: " + next.signatureName, -1 );
-        }
-    }
-
-    /**
-     * Search if there is a default implementation in an interface for the given method.
-     * 
-     * @param classFile
-     *            the class to scan
-     * @param next
-     *            the method to scan
-     * @return true, if method was found
-     * @throws IOException
-     *             if any I/O error occur
-     */
-    private boolean scanFunctionInterfaces( ClassFile classFile, FunctionName next ) throws IOException {
-        // first scan direct interfaces
-        for( ConstantClass iface : classFile.getInterfaces() ) {
-            ClassFile iClassFile = classFileLoader.get( iface.getName() );
-            MethodInfo method = iClassFile.getMethod( next.methodName, next.signature );
             if( method != null ) {
                 FunctionName name = new FunctionName( method );
                 functions.markAsNeeded( name, !method.isStatic() );
                 functions.setAlias( next, name );
-                return true; // we have found a super method
-            }
-        }
-        // then possible super interfaces
-        for( ConstantClass iface : classFile.getInterfaces() ) {
-            ClassFile iClassFile = classFileLoader.get( iface.getName() );
-            if( scanFunctionInterfaces( iClassFile, next ) ) {
-                return true; // we have found a super method
+                continue; // we have found a super method
             }
+
+            throw new WasmException( "Missing function: " + next.signatureName, -1 );
         }
-        return false;
     }
 
     /**
@@ -351,6 +333,9 @@ public void prepareFinish() throws IOException {
                 // use method name as function if not set
                 importName = name.methodName;
             }
+            if( writer.options.useLinearMemory() ) {
+                writer.options.memory.checkHostSignature( name, "Import" );
+            }
             writer.prepareImport( name, importModule, importName );
             writeMethodSignature( name, FunctionType.Import, null );
             javaScript.addImport( importModule, importName, importAnannotation );
@@ -379,6 +364,10 @@ public void prepareFinish() throws IOException {
         types.prepareFinish( writer );
         functions.prepareFinish();
         strings.prepareFinish( writer );
+        staticCodeBuilder.prepareFinish( writer );
+        if( writer.options.useLinearMemory() ) {
+            writer.options.memory.prepareFinish( writer );
+        }
     }
 
     /**
@@ -412,8 +401,10 @@ private void prepareStartFunction() throws IOException {
         Iterator<FunctionName> writeLaterClinit = functions.getWriteLaterClinit();
         if( writeLaterClinit.hasNext() ) {
             FunctionName start = staticCodeBuilder.createStartFunction( writeLaterClinit );
-            functions.markAsNeeded( start, false );
-            writeMethodSignature( start, FunctionType.Start, null );
+            if( start != null ) {
+                functions.markAsNeeded( start, false );
+                writeMethodSignature( start, FunctionType.Start, null );
+            }
         }
     }
 
@@ -424,6 +415,25 @@ private void prepareStartFunction() throws IOException {
      *             if any I/O error occur
      */
     public void finish() throws IOException {
+        int threads = writer.options.parallelThreads();
+        if( threads > 1 ) {
+            finishWithOptimizerThreads( threads );
+        } else {
+            finishSequential();
+        }
+        scannedCode.clear();
+        optimizer.logStatistics();
+        logClassFileStatistics();
+        javaScript.finish();
+    }
+
+    /**
+     * Create, optimize and write the functions one after the other.
+     * 
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    private void finishSequential() throws IOException {
         for( Iterator<FunctionName> it = functions.getWriteLater(); it.hasNext(); ) {
             FunctionName next = it.next();
             sourceFile = null; // clear previous value for the case an IO exception occur
@@ -465,7 +475,156 @@ public void finish() throws IOException {
                 }
             }
         }
-        javaScript.finish();
+    }
+
+    /**
+     * Log the statistics of the class file cache.
+     */
+    private void logClassFileStatistics() {
+        JWebAssembly.LOGGER.fine( "class files from cache: " + classFileLoader.getHitCount() + ", parsed: " + classFileLoader.getMissCount() + ", evicted: " + classFileLoader.getEvictionCount() );
+    }
+
+    /**
+     * Finish the code generation with worker threads. The main thread resolves the functions in the order of the
+     * sequential mode. The worker threads create the instructions of the functions, optimize it and write the code of
+     * every function with its own function writer. Then the main thread appends the functions in the original order to
+     * the module writer. Every index that depends on the order of the writing is assigned on appending, that the output
+     * is identical to the sequential mode.
+     * 
+     * @param threads
+     *            the count of worker threads
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    private void finishWithOptimizerThreads( int threads ) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool( threads, runnable -> {
+            Thread thread = new Thread( runnable, "JWebAssembly function writer" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        try {
+            // limit the count of pending functions that not all written functions are hold in memory
+            int maxPending = threads * 4;
+            ArrayDeque<FunctionTask> pending = new ArrayDeque<>();
+            for( Iterator<FunctionName> it = functions.getWriteLater(); it.hasNext(); ) {
+                FunctionTask task = createFunctionTask( it.next() );
+                if( task != null ) {
+                    task.future = executor.submit( task );
+                    pending.add( task );
+                    if( pending.size() >= maxPending ) {
+                        appendFunction( pending.poll() );
+                    }
+                }
+            }
+            while( !pending.isEmpty() ) {
+                appendFunction( pending.poll() );
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Resolve the method of a function that should be written. This run in the main thread because it read the state of
+     * the function in the order of the sequential mode.
+     * 
+     * @param next
+     *            the function name
+     * @return the task or null if there is nothing to write
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    @Nullable
+    private FunctionTask createFunctionTask( FunctionName next ) throws IOException {
+        sourceFile = null; // clear previous value for the case an IO exception occur
+        className = next.className;
+        methodName = next.methodName;
+        if( !functions.needToWrite( next ) ) {
+            return null;
+        }
+        if( next instanceof SyntheticFunctionName ) {
+            return new FunctionTask( next, null, getParamCount( next ), sourceFile, className, methodName );
+        }
+        ClassFile classFile = classFileLoader.get( next.className );
+        if( classFile == null ) {
+            throw new WasmException( "Missing function: " + next.signatureName, -1 );
+        }
+        sourceFile = classFile.getSourceFile();
+        className = classFile.getThisClass().getName();
+        MethodInfo method = classFile.getMethod( next.methodName, next.signature );
+        if( method == null ) {
+            throw new WasmException( "Missing function: " + next.signatureName, -1 );
+        }
+        try {
+            Map<String, Object> wat = method.getAnnotation( JWebAssembly.TEXTCODE_ANNOTATION );
+            if( wat != null ) {
+                String signature = (String)wat.get( "signature" );
+                if( signature == null ) {
+                    signature = method.getType();
+                }
+                next = new FunctionName( method, signature );
+            } else {
+                method = functions.replace( next, method );
+            }
+            if( !functions.needToWrite( next ) ) {
+                return null;
+            }
+            return new FunctionTask( next, method, getParamCount( next ), sourceFile, className, methodName );
+        } catch( Throwable ex ) {
+            throw WasmException.create( ex, sourceFile, className, methodName, -1 );
+        }
+    }
+
+    /**
+     * Create new code builders for a single function. They share the state of the Unsafe replacements with the code
+     * builders of the main thread.
+     * 
+     * @param watParser
+     *            a new WatParser which is initialized and share its instructions and local variables with the returned
+     *            code builder
+     * @return the code builder for Java byte code
+     */
+    @Nonnull
+    private JavaMethodWasmCodeBuilder createCodeBuilder( @Nonnull WatParser watParser ) {
+        JavaMethodWasmCodeBuilder javaCodeBuilder = new JavaMethodWasmCodeBuilder( watParser );
+        WasmOptions options = writer.options;
+        javaCodeBuilder.init( options, classFileLoader, this.javaCodeBuilder );
+        ((WasmCodeBuilder)watParser).init( options, classFileLoader );
+        return javaCodeBuilder;
+    }
+
+    /**
+     * Wait for the function writer of the task and append it to the module writer. This run in the main thread.
+     * 
+     * @param task
+     *            the task
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    private void appendFunction( FunctionTask task ) throws IOException {
+        ModuleWriter functionWriter;
+        try {
+            functionWriter = task.future.get();
+        } catch( ExecutionException ex ) {
+            throw WasmException.create( ex.getCause(), task.sourceFile, task.className, task.methodName, -1 );
+        } catch( InterruptedException ex ) {
+            throw WasmException.create( ex, task.sourceFile, task.className, task.methodName, -1 );
+        }
+        sourceFile = task.sourceFile;
+        className = task.className;
+        methodName = task.methodName;
+        if( functionWriter == null || !functions.needToWrite( task.name ) ) {
+            return;
+        }
+        try {
+            if( task.method != null ) {
+                writeExport( task.name, task.method );
+            }
+            functions.markAsWritten( task.name );
+            writer.appendFunction( functionWriter );
+        } catch( Throwable ex ) {
+            throw WasmException.create( ex, sourceFile, className, methodName, -1 );
+        }
     }
 
     /**
@@ -493,6 +652,58 @@ private void iterateMethods( ClassFile classFile, Consumer<MethodInfo> handler )
         }
     }
 
+    /**
+     * Prepare the annotations of a class from a library index like {@link #prepare(ClassFile)} but without parsing the
+     * class file. The replaced and partial classes and the replacement methods are loaded on first use.
+     * 
+     * @param className
+     *            the class name like "java/lang/Object"
+     * @param annotations
+     *            the annotation records of the class and its methods
+     * @throws WasmException
+     *             if some Java code can't converted
+     */
+    private void prepareAnnotations( @Nonnull String className, @Nonnull List<LibraryIndex.Annotation> annotations ) throws WasmException {
+        sourceFile = null;
+        this.className = className;
+        methodName = null;
+        // the annotations of the methods in the order of the class file
+        Map<String, List<LibraryIndex.Annotation>> methods = new LinkedHashMap<>();
+        for( LibraryIndex.Annotation annotation : annotations ) {
+            if( annotation.methodName != null ) {
+                methods.computeIfAbsent( annotation.methodName + annotation.signature, k -> new ArrayList<>() ).add( annotation );
+                continue;
+            }
+            String signatureName = (String)annotation.values.get( "value" );
+            if( signatureName == null ) {
+                continue;
+            }
+            if( JWebAssembly.REPLACE_ANNOTATION.equals( annotation.type ) ) {
+                // check if this class replace another class
+                classFileLoader.replaceLater( signatureName, className );
+            } else {
+                // check if this class extends another class with partial code
+                classFileLoader.partialLater( signatureName, className );
+            }
+            if( classCache != null ) {
+                classCache.addEnvironment( className );
+            }
+        }
+        for( List<LibraryIndex.Annotation> records : methods.values() ) {
+            LibraryIndex.Annotation method = records.get( 0 );
+            methodName = method.methodName;
+            HashMap<String, Map<String, Object>> values = new HashMap<>();
+            for( LibraryIndex.Annotation record : records ) {
+                values.put( record.type, record.values );
+            }
+            try {
+                prepareMethod( new FunctionName( className, method.methodName, method.signature ), method.isStatic, values::get, null );
+            } catch( Throwable ioex ) {
+                throw WasmException.create( ioex, sourceFile, className, methodName, -1 );
+            }
+        }
+    }
+
     /**
      * Prepare the method.
      * 
@@ -505,32 +716,57 @@ private void prepareMethod( MethodInfo method ) throws WasmException {
         try {
             FunctionName name = new FunctionName( method );
             methodName = name.methodName;
-            if( functions.isKnown( name ) ) {
-                return;
+            HashMap<String, Map<String, Object>> annotations = new HashMap<>();
+            for( String annotation : new String[] { JWebAssembly.REPLACE_ANNOTATION, JWebAssembly.IMPORT_ANNOTATION, JWebAssembly.EXPORT_ANNOTATION } ) {
+                annotations.put( annotation, method.getAnnotation( annotation ) );
             }
-            Map<String,Object> annotationValues;
-            if( (annotationValues = method.getAnnotation( JWebAssembly.REPLACE_ANNOTATION )) != null ) {
-                functions.needThisParameter( name); // register this class that process the annotation of this replacement function not a second time. iSKnown() returns true now.
-                String signatureName = (String)annotationValues.get( "value" );
-                name = new FunctionName( signatureName );
-                functions.addReplacement( name, method );
+            prepareMethod( name, method.isStatic(), annotations::get, method );
+        } catch( Throwable ioex ) {
+            throw WasmException.create( ioex, sourceFile, className, methodName, -1 );
+        }
+    }
+
+    /**
+     * Register the replacement, import and export annotations of a method.
+     * 
+     * @param name
+     *            the name of the method
+     * @param isStatic
+     *            if the method is static
+     * @param annotations
+     *            the values of an annotation of the method or null if the method has not the annotation
+     * @param method
+     *            the parsed method or null if the method is loaded on first use
+     */
+    private void prepareMethod( @Nonnull FunctionName name, boolean isStatic, @Nonnull Function<String, Map<String, Object>> annotations, @Nullable MethodInfo method ) {
+        if( functions.isKnown( name ) ) {
+            return;
+        }
+        Map<String,Object> annotationValues;
+        if( (annotationValues = annotations.apply( JWebAssembly.REPLACE_ANNOTATION )) != null ) {
+            functions.needThisParameter( name ); // register this class that process the annotation of this replacement function not a second time. iSKnown() returns true now.
+            String signatureName = (String)annotationValues.get( "value" );
+            FunctionName replaced = new FunctionName( signatureName );
+            if( method != null ) {
+                functions.addReplacement( replaced, method );
+            } else {
+                functions.replaceLater( replaced, name );
             }
-            if( (annotationValues = method.getAnnotation( JWebAssembly.IMPORT_ANNOTATION )) != null ) {
-                if( !method.isStatic() ) {
-                    throw new WasmException( "Import method must be static: " + name.fullName, -1 );
-                }
-                functions.markAsImport( name, annotationValues );
-                return;
+            name = replaced;
+        }
+        if( (annotationValues = annotations.apply( JWebAssembly.IMPORT_ANNOTATION )) != null ) {
+            if( !isStatic ) {
+                throw new WasmException( "Import method must be static: " + name.fullName, -1 );
             }
-            if( (annotationValues = method.getAnnotation( JWebAssembly.EXPORT_ANNOTATION )) != null ) {
-                if( !method.isStatic() ) {
-                    throw new WasmException( "Export method must be static: " + name.fullName, -1 );
-                }
-                functions.markAsExport( name, annotationValues );
-                return;
+            functions.markAsImport( name, annotationValues );
+            return;
+        }
+        if( (annotationValues = annotations.apply( JWebAssembly.EXPORT_ANNOTATION )) != null ) {
+            if( !isStatic ) {
+                throw new WasmException( "Export method must be static: " + name.fullName, -1 );
             }
-        } catch( Throwable ioex ) {
-            throw WasmException.create( ioex, sourceFile, className, methodName, -1 );
+            functions.markAsExport( name, annotationValues );
+            return;
         }
     }
 
@@ -547,7 +783,10 @@ private void prepareMethod( MethodInfo method ) throws WasmException {
      *             if any I/O error occur
      */
     private void writeMethod( FunctionName name, MethodInfo method ) throws WasmException, IOException {
-        WasmCodeBuilder codeBuilder = createInstructions( method );
+        WasmCodeBuilder codeBuilder = scannedCode.get( method, javaCodeBuilder );
+        if( codeBuilder == null ) {
+            codeBuilder = createInstructions( method );
+        }
         if( codeBuilder == null ) {
             return;
         }
@@ -566,6 +805,30 @@ private void writeMethod( FunctionName name, MethodInfo method ) throws WasmExce
      */
     @Nullable
     private WasmCodeBuilder createInstructions( MethodInfo method ) throws IOException {
+        return createInstructions( method, watParser, javaCodeBuilder, sourceFile, className, methodName );
+    }
+
+    /**
+     * Create the instructions in the given code builders
+     * 
+     * @param method
+     *            the method to parse
+     * @param watParser
+     *            the code builder for methods with WasmTextCode annotation
+     * @param javaCodeBuilder
+     *            the code builder for Java byte code
+     * @param sourceFile
+     *            the source file for a possible error message
+     * @param className
+     *            the class name for a possible error message
+     * @param methodName
+     *            the method name for a possible error message
+     * @return the CodeBuilder or null if it is an import function
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    @Nullable
+    private WasmCodeBuilder createInstructions( MethodInfo method, WatParser watParser, JavaMethodWasmCodeBuilder javaCodeBuilder, String sourceFile, String className, String methodName ) throws IOException {
         Code code = null;
         try {
             Map<String,Object> annotationValues;
@@ -626,12 +889,33 @@ private WasmCodeBuilder createInstructions( MethodInfo method ) throws IOExcepti
      *             if an i/O error occur
      */
     private void writeMethodImpl( FunctionName name, WasmCodeBuilder codeBuilder ) throws WasmException, IOException {
-        writer.writeMethodStart( name, sourceFile );
+        optimize( name, codeBuilder );
         functions.markAsWritten( name );
-        writeMethodSignature( name, FunctionType.Code, codeBuilder );
+        writeFunctionBody( writer, name, sourceFile, codeBuilder );
+    }
+
+    /**
+     * Write the signature and the instructions of a function. This does not change the state of the function and can
+     * run with a function writer in a worker thread.
+     * 
+     * @param writer
+     *            the module writer or a function writer
+     * @param name
+     *            the name of the function
+     * @param sourceFile
+     *            the name of the source file
+     * @param codeBuilder
+     *            the code builder with instructions
+     * @throws WasmException
+     *             if some Java code can't converted
+     * @throws IOException
+     *             if an i/O error occur
+     */
+    private void writeFunctionBody( ModuleWriter writer, FunctionName name, String sourceFile, WasmCodeBuilder codeBuilder ) throws WasmException, IOException {
+        writer.writeMethodStart( name, sourceFile );
+        writeMethodSignature( writer, name, FunctionType.Code, codeBuilder );
 
         List<WasmInstruction> instructions = codeBuilder.getInstructions();
-        optimizer.optimize( instructions );
 
         int lastJavaSourceLine = -1;
         for( WasmInstruction instruction : instructions ) {
@@ -668,6 +952,53 @@ private void writeMethodImpl( FunctionName name, WasmCodeBuilder codeBuilder ) t
         writer.writeMethodFinish();
     }
 
+    /**
+     * Optimize the instructions of a function and coalesce its local variables. With debug names every Java variable
+     * keeps its own local variable.
+     * 
+     * @param name
+     *            the name of the function
+     * @param codeBuilder
+     *            the code builder with instructions
+     */
+    private void optimize( @Nonnull FunctionName name, @Nonnull WasmCodeBuilder codeBuilder ) {
+        staticCodeBuilder.removeRedundantClinitCalls( name, codeBuilder.getInstructions() );
+        optimize( codeBuilder, getParamCount( name ) );
+    }
+
+    /**
+     * Apply the rules of the optimizer and coalesce the local variables. This use only the instructions and local
+     * variables of the function and reads the type manager after the types are finished. It does not read or change the
+     * state of other functions that it can run in a worker thread.
+     * 
+     * @param codeBuilder
+     *            the code builder with instructions
+     * @param paramCount
+     *            the count of parameters of the function including THIS
+     */
+    private void optimize( @Nonnull WasmCodeBuilder codeBuilder, int paramCount ) {
+        List<WasmInstruction> instructions = codeBuilder.getInstructions();
+        optimizer.optimize( instructions );
+        if( !writer.options.debugNames() ) {
+            codeBuilder.getLocalVariables().coalesce( instructions, paramCount );
+        }
+    }
+
+    /**
+     * Get the count of parameters of the function including THIS. This is the index of the first local variable.
+     * 
+     * @param name
+     *            the name of the function
+     * @return the count
+     */
+    private int getParamCount( @Nonnull FunctionName name ) {
+        int paramCount = functions.needThisParameter( name ) ? 1 : 0;
+        for( Iterator<AnyType> parser = name.getSignature( types ); parser.hasNext() && parser.next() != null; ) {
+            paramCount++;
+        }
+        return paramCount;
+    }
+
     /**
      * Look for a Export annotation and if there write an export directive.
      * 
@@ -690,7 +1021,7 @@ private void writeExport( FunctionName name, MethodInfo method ) throws IOExcept
             if( !exportNames.add( exportName ) ) {
                 throw new WasmException( "Duplicate export name '" + exportName + "' for " + name.fullName + ". Rename the method or use the 'name' attribute of the @Export annotation to create a unique export name.", -1 );
             }
-            writer.writeExport( name, exportName );
+            writer.writeExport( writer.options.useLinearMemory() ? writer.options.memory.getExport( name ) : name, exportName );
         }
     }
 
@@ -709,6 +1040,26 @@ private void writeExport( FunctionName name, MethodInfo method ) throws IOExcept
      *             if some Java code can't converted
      */
     private void writeMethodSignature( @Nonnull FunctionName name, @Nonnull FunctionType funcType, @Nullable WasmCodeBuilder codeBuilder ) throws IOException, WasmException {
+        writeMethodSignature( writer, name, funcType, codeBuilder );
+    }
+
+    /**
+     * Write the parameter and return signatures
+     * 
+     * @param writer
+     *            the module writer or a function writer
+     * @param name
+     *            the Java signature, typical method.getType();
+     * @param funcType
+     *            the type of function
+     * @param codeBuilder
+     *            the calculated variables 
+     * @throws IOException
+     *             if any I/O error occur
+     * @throws WasmException
+     *             if some Java code can't converted
+     */
+    private void writeMethodSignature( @Nonnull ModuleWriter writer, @Nonnull FunctionName name, @Nonnull FunctionType funcType, @Nullable WasmCodeBuilder codeBuilder ) throws IOException, WasmException {
         writer.writeMethodParamStart( name, funcType );
         int paramCount = 0;
         if( functions.needThisParameter( name ) ) {
@@ -744,4 +1095,75 @@ private void writeMethodSignature( @Nonnull FunctionName name, @Nonnull Function
         writer.writeMethodParamFinish( name );
     }
 
+    /**
+     * The creating, optimizing and writing of a single function in a worker thread.
+     */
+    private class FunctionTask implements Callable<ModuleWriter> {
+
+        private final FunctionName            name;
+
+        private final MethodInfo              method;
+
+        private final int                     paramCount;
+
+        private final String                  sourceFile;
+
+        private final String                  className;
+
+        private final String                  methodName;
+
+        private Future<ModuleWriter>          future;
+
+        /**
+         * Create a new task.
+         * 
+         * @param name
+         *            the function name that should be written
+         * @param method
+         *            the method or null for a synthetic function
+         * @param paramCount
+         *            the count of parameters of the function including THIS
+         * @param sourceFile
+         *            the source file for a possible error message
+         * @param className
+         *            the class name for a possible error message
+         * @param methodName
+         *            the method name for a possible error message
+         */
+        FunctionTask( FunctionName name, MethodInfo method, int paramCount, String sourceFile, String className, String methodName ) {
+            this.name = name;
+            this.method = method;
+            this.paramCount = paramCount;
+            this.sourceFile = sourceFile;
+            this.className = className;
+            this.methodName = methodName;
+        }
+
+        /**
+         * Create the instructions or restore it from the scan, optimize it and write it to a function writer.
+         * 
+         * {@inheritDoc}
+         */
+        @Override
+        public ModuleWriter call() throws Exception {
+            WasmCodeBuilder codeBuilder = method == null ? null : scannedCode.get( method, null );
+            if( codeBuilder == null ) {
+                WatParser watParser = new WatParser();
+                JavaMethodWasmCodeBuilder javaCodeBuilder = createCodeBuilder( watParser );
+                if( method == null ) {
+                    codeBuilder = ((SyntheticFunctionName)name).getCodeBuilder( watParser );
+                } else {
+                    codeBuilder = createInstructions( method, watParser, javaCodeBuilder, sourceFile, className, methodName );
+                }
+                if( codeBuilder == null ) {
+                    return null;
+                }
+            }
+            staticCodeBuilder.removeRedundantClinitCalls( name, codeBuilder.getInstructions() );
+            optimize( codeBuilder, paramCount );
+            ModuleWriter functionWriter = writer.createFunctionWriter();
+            writeFunctionBody( functionWriter, name, sourceFile, codeBuilder );
+            return functionWriter;
+        }
+    }
 }
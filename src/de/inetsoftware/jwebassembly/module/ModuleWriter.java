@@ -25,6 +25,7 @@
 
 import de.inetsoftware.jwebassembly.module.TypeManager.BlockType;
 import de.inetsoftware.jwebassembly.module.TypeManager.StructType;
+import de.inetsoftware.jwebassembly.module.TypeManager.VTableType;
 import de.inetsoftware.jwebassembly.wasm.AnyType;
 import de.inetsoftware.jwebassembly.wasm.ArrayOperator;
 import de.inetsoftware.jwebassembly.wasm.ArrayType;
@@ -44,6 +45,27 @@
  */
 public abstract class ModuleWriter implements Closeable {
 
+    /**
+     * The index of the table with the functions for call_indirect. The writers declare the tables in the order of the
+     * indices.
+     */
+    public static final int               FUNCTION_TABLE = 0;
+
+    /**
+     * The index of the table with the instances of the constant strings.
+     */
+    public static final int               STRING_TABLE   = FUNCTION_TABLE + 1;
+
+    /**
+     * The index of the table with the Class instances.
+     */
+    public static final int               CLASS_TABLE    = STRING_TABLE + 1;
+
+    /**
+     * The count of the tables if all tables are declared.
+     */
+    protected static final int            TABLE_COUNT    = CLASS_TABLE + 1;
+
     /**
      * The compiler options.
      */
@@ -81,6 +103,18 @@ protected ModuleWriter( WasmOptions options ) {
      */
     protected abstract int writeStructType( @Nonnull StructType type ) throws IOException;
 
+    /**
+     * Write the immutable struct type of a vtable with typed function references. If the vtable has an instance then
+     * also the global variable with the instance is declared.
+     * 
+     * @param type
+     *            the vtable type to declare/write
+     * @return type ID
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    protected abstract int writeVTableType( @Nonnull VTableType type ) throws IOException;
+
     /**
      * Write a block type.
      * 
@@ -192,6 +226,30 @@ protected ModuleWriter( WasmOptions options ) {
      */
     protected abstract void writeMethodFinish( ) throws IOException;
 
+    /**
+     * Create a writer for the code of a single function that can run in a worker thread. The function writer support
+     * only the calls to write the code of a function from writeMethodStart to writeMethodFinish. It does not change the
+     * state of this module writer. The values that depends on the order of the writing like the index of a global
+     * variable are resolved if the function is appended.
+     *
+     * @return the function writer
+     * @throws IOException
+     *             if any I/O error occur
+     * @see #appendFunction(ModuleWriter)
+     */
+    protected abstract ModuleWriter createFunctionWriter() throws IOException;
+
+    /**
+     * Append the code of a function that was written with a function writer. The functions must be appended in the
+     * order in which they would be written directly, then the output is identical.
+     *
+     * @param functionWriter
+     *            a finished function writer from {@link #createFunctionWriter()}
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    protected abstract void appendFunction( ModuleWriter functionWriter ) throws IOException;
+
     /**
      * Write a constant number value
      * 
@@ -230,6 +288,20 @@ protected ModuleWriter( WasmOptions options ) {
      */
     protected abstract void writeGlobalAccess( boolean load, FunctionName name, AnyType type ) throws IOException;
 
+    /**
+     * Declare a global variable with an initial value that was calculated at compile time.
+     * 
+     * @param name
+     *            the variable name
+     * @param type
+     *            the type of the variable
+     * @param value
+     *            the initial value, for references in the linear memory the address
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    protected abstract void prepareGlobal( FunctionName name, AnyType type, Number value ) throws IOException;
+
     /**
      * Write a table operation.
      * @param load
@@ -299,6 +371,52 @@ protected ModuleWriter( WasmOptions options ) {
      */
     protected abstract void writeVirtualFunctionCall( FunctionName name, AnyType type ) throws IOException;
 
+    /**
+     * Write a call of a typed function reference. On the stack there must be the parameters and the function
+     * reference.
+     * 
+     * @param name
+     *            the function name
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    protected abstract void writeFunctionCallRef( FunctionName name ) throws IOException;
+
+    /**
+     * Write a tail call to a function. The function returns with the result of the called function.
+     * 
+     * @param name
+     *            the function name
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    protected abstract void writeReturnFunctionCall( FunctionName name ) throws IOException;
+
+    /**
+     * Write a tail call to an instance function. On the stack there must be the object and the function index.
+     * 
+     * @param name
+     *            the function name
+     * @param type
+     *            the base type that should be called
+     * @throws IOException
+     *             if any I/O error occur
+     * @see #writeVirtualFunctionCall(FunctionName, AnyType)
+     */
+    protected abstract void writeReturnVirtualFunctionCall( FunctionName name, AnyType type ) throws IOException;
+
+    /**
+     * Write a tail call of a typed function reference. On the stack there must be the parameters and the function
+     * reference.
+     * 
+     * @param name
+     *            the function name
+     * @throws IOException
+     *             if any I/O error occur
+     * @see #writeFunctionCallRef(FunctionName)
+     */
+    protected abstract void writeReturnFunctionCallRef( FunctionName name ) throws IOException;
+
     /**
      * Write a block/branch code
      * 
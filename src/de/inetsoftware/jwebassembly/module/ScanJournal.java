@@ -0,0 +1,356 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.module;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import de.inetsoftware.classparser.MethodInfo;
+import de.inetsoftware.jwebassembly.module.TypeManager.StructType;
+import de.inetsoftware.jwebassembly.wasm.AnyType;
+import de.inetsoftware.jwebassembly.wasm.NamedStorageType;
+
+/**
+ * Record the calls of the managers while the instructions of a method are created. The lowering of a method is
+ * deterministic for the same byte code, the same read classes and the same results of the manager calls. If the calls
+ * are replayed in the same order with the same results then the created instructions are the same and the side effects
+ * of the lowering like needed functions, types and strings are registered in the same order. Only the outermost calls
+ * are recorded, the nested calls are part of the replayed call. A call that can't be replayed invalidate the recording.
+ * <p>
+ * Only the thread that has started the recording is recorded. The functions are created in worker threads only after
+ * the scan.
+ *
+ * @author Volker Berlin
+ */
+class ScanJournal {
+
+    /**
+     * Result of {@link #enter(Op, Object...)} if nothing is recorded.
+     */
+    static final int INACTIVE = -2;
+
+    /**
+     * Result of {@link #enter(Op, Object...)} for a nested or repeated call.
+     */
+    static final int NESTED   = -1;
+
+    /**
+     * The replayable calls of the managers.
+     */
+    static enum Op {
+        KNOWN, USED_CLASS, IMPORT, NEEDED, IMPORT_ANNOTATION, EXPORT_ANNOTATION, USED, NEED_THIS, ALIAS, REPLACE, VTABLE, ITABLE, //
+        VALUE_OF( true ), ARRAY_TYPE( true ), BLOCK_TYPE( true ), FIELD( true ), ROOT( true ), //
+        STRING( true ), STRING_FUNCTION, //
+        CALL_VIRTUAL, CALL_INTERFACE, INSTANCE_OF, CAST, GET_I32, REF_EQ;
+
+        /**
+         * A repeated call with the same arguments has no side effect and the same result.
+         */
+        private final boolean idempotent;
+
+        Op() {
+            this( false );
+        }
+
+        Op( boolean idempotent ) {
+            this.idempotent = idempotent;
+        }
+    }
+
+    private ArrayList<Entry>      entries;
+
+    private final HashSet<Object> repeated = new HashSet<>();
+
+    private final Set<String>     classes  = new LinkedHashSet<>();
+
+    private Thread                owner;
+
+    private int                   depth;
+
+    private boolean               valid;
+
+    /**
+     * Start the recording of a method.
+     */
+    void start() {
+        entries = new ArrayList<>();
+        repeated.clear();
+        classes.clear();
+        owner = Thread.currentThread();
+        depth = 0;
+        valid = true;
+    }
+
+    /**
+     * Stop the recording.
+     *
+     * @return the recorded calls or null if the recording can't be replayed
+     */
+    @Nullable
+    List<Entry> stop() {
+        List<Entry> result = valid ? entries : null;
+        entries = null;
+        owner = null;
+        return result;
+    }
+
+    /**
+     * The names of the classes that was read while recording. The created instructions depend on its content.
+     *
+     * @return the class names
+     */
+    @Nonnull
+    Set<String> getClasses() {
+        return classes;
+    }
+
+    /**
+     * If the calls of the current thread are recorded.
+     *
+     * @return true, if recording
+     */
+    boolean isRecording() {
+        return entries != null && owner == Thread.currentThread();
+    }
+
+    /**
+     * Enter a manager call. Every call of this method must be followed from a call of {@link #exit(int, Object)}.
+     *
+     * @param op
+     *            the call
+     * @param args
+     *            the arguments to replay the call
+     * @return the index of the entry, {@link #NESTED} or {@link #INACTIVE}
+     */
+    int enter( @Nonnull Op op, Object... args ) {
+        if( !isRecording() ) {
+            return INACTIVE;
+        }
+        if( depth++ > 0 ) {
+            return NESTED;
+        }
+        if( op.idempotent ) {
+            Object[] key = Arrays.copyOf( args, args.length + 1 );
+            key[args.length] = op;
+            if( !repeated.add( Arrays.asList( key ) ) ) {
+                return NESTED;
+            }
+        }
+        entries.add( new Entry( op, args ) );
+        return entries.size() - 1;
+    }
+
+    /**
+     * Exit a manager call and save the fingerprint of the result.
+     *
+     * @param entry
+     *            the result of {@link #enter(Op, Object...)}
+     * @param result
+     *            the result of the call
+     * @param <T>
+     *            the type of the result
+     * @return the result
+     */
+    <T> T exit( int entry, T result ) {
+        if( entry != INACTIVE ) {
+            depth--;
+            if( entry >= 0 ) {
+                entries.get( entry ).result = fingerprint( result );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Mark the current recording as not replayable if the current call is not nested in a recorded call.
+     */
+    void unsupported() {
+        if( isRecording() && depth == 0 ) {
+            valid = false;
+        }
+    }
+
+    /**
+     * Record that the content of a class was read.
+     *
+     * @param className
+     *            the class name like "java/lang/Object"
+     */
+    void readClass( @Nonnull String className ) {
+        if( isRecording() ) {
+            classes.add( className );
+        }
+    }
+
+    /**
+     * Create a comparable value of a result that does not depend on the current compile run.
+     *
+     * @param result
+     *            the result of a manager call
+     * @return the fingerprint
+     */
+    @Nullable
+    private Object fingerprint( @Nullable Object result ) {
+        if( result == null || result instanceof Boolean || result instanceof Integer || result instanceof String ) {
+            return result;
+        }
+        if( result instanceof FunctionName ) {
+            return ((FunctionName)result).signatureName;
+        }
+        if( result instanceof MethodInfo ) {
+            MethodInfo method = (MethodInfo)result;
+            String className = method.getClassName();
+            readClass( className );
+            return className + '.' + method.getName() + method.getType();
+        }
+        if( result instanceof Function || result instanceof Map ) {
+            // annotation values, the instructions depends only on the existing
+            return Boolean.TRUE;
+        }
+        return null;
+    }
+
+    /**
+     * Replay a recorded call with the current managers. The journal must not record.
+     *
+     * @param options
+     *            the compiler options with the managers
+     * @param entry
+     *            the recorded call
+     * @return true, if the result is the same as while recording
+     */
+    @SuppressWarnings( "unchecked" )
+    boolean replay( @Nonnull WasmOptions options, @Nonnull Entry entry ) {
+        FunctionManager functions = options.functions;
+        Object[] args = entry.args;
+        Object result = null;
+        switch( entry.op ) {
+            case KNOWN:
+                result = functions.isKnown( (FunctionName)args[0] );
+                break;
+            case USED_CLASS:
+                functions.markClassAsUsed( (String)args[0] );
+                break;
+            case IMPORT:
+                functions.markAsImport( (SyntheticFunctionName)args[0] );
+                break;
+            case NEEDED:
+                result = functions.markAsNeeded( (FunctionName)args[0], (Boolean)args[1] );
+                break;
+            case IMPORT_ANNOTATION:
+                result = functions.getImportAnannotation( (FunctionName)args[0] );
+                break;
+            case EXPORT_ANNOTATION:
+                result = functions.getExportAnannotation( (FunctionName)args[0] );
+                break;
+            case USED:
+                result = functions.isUsed( (FunctionName)args[0] );
+                break;
+            case NEED_THIS:
+                result = functions.needThisParameter( (FunctionName)args[0] );
+                break;
+            case ALIAS:
+                result = functions.getAlias( (FunctionName)args[0] );
+                break;
+            case REPLACE:
+                result = functions.replace( (FunctionName)args[0], null );
+                break;
+            case VTABLE:
+                result = functions.getVTableIndex( (FunctionName)args[0] );
+                break;
+            case ITABLE:
+                result = functions.getITableIndex( (FunctionName)args[0] );
+                break;
+            case VALUE_OF:
+                options.types.valueOf( (String)args[0] );
+                break;
+            case ARRAY_TYPE:
+                options.types.arrayType( (AnyType)args[0] );
+                break;
+            case BLOCK_TYPE:
+                options.types.blockType( (List<AnyType>)args[0], (List<AnyType>)args[1] );
+                break;
+            case FIELD:
+                ((StructType)args[0]).useFieldName( (NamedStorageType)args[1] );
+                break;
+            case ROOT:
+                options.memory.addRoot( (FunctionName)args[0], (AnyType)args[1] );
+                break;
+            case STRING:
+                result = options.strings.get( args[0] );
+                break;
+            case STRING_FUNCTION:
+                result = options.strings.getStringConstantFunction();
+                break;
+            case CALL_VIRTUAL:
+                result = options.getCallVirtual();
+                break;
+            case CALL_INTERFACE:
+                result = options.getCallInterface();
+                break;
+            case INSTANCE_OF:
+                result = options.getInstanceOf();
+                break;
+            case CAST:
+                result = options.getCast();
+                break;
+            case GET_I32:
+                options.registerGet_i32();
+                break;
+            case REF_EQ:
+                options.registerRefEq( (FunctionName)args[0] );
+                break;
+            default:
+                return false;
+        }
+        return Objects.equals( fingerprint( result ), entry.result );
+    }
+
+    /**
+     * A recorded manager call.
+     */
+    static class Entry {
+
+        final Op       op;
+
+        final Object[] args;
+
+        Object         result;
+
+        /**
+         * Create an entry.
+         *
+         * @param op
+         *            the call
+         * @param args
+         *            the arguments
+         */
+        Entry( @Nonnull Op op, Object[] args ) {
+            this.op = op;
+            this.args = args;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.module;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import de.inetsoftware.classparser.MethodInfo;
+import de.inetsoftware.jwebassembly.JWebAssembly;
+import de.inetsoftware.jwebassembly.module.FunctionManager.Dependencies;
+import de.inetsoftware.jwebassembly.module.LocaleVariableManager.Variable;
+
+/**
+ * Hold the instructions of the methods from the scan phase that the write phase does not need to parse the byte code a
+ * second time. The entries are soft referenced and can be released by the garbage collector on memory pressure. Then
+ * the instructions are created again. An entry is only valid if no function state, that was read while creating the
+ * instructions, was changed later. For example the scan phase can find an alias for a called function or a replacement
+ * for an inlined function.
+ * <p>
+ * With a {@link ClassCache} the instructions are also saved persistent for the next compile.
+ *
+ * @author Volker Berlin
+ */
+class ScannedCodeCache {
+
+    private final HashMap<FunctionName, SoftReference<ScannedCode>> cache = new HashMap<>();
+
+    private final FunctionManager                                   functions;
+
+    private final ClassCache                                        classCache;
+
+    private int                                                     hits;
+
+    private int                                                     misses;
+
+    /**
+     * Create a new instance.
+     *
+     * @param options
+     *            compiler properties with the function manager that records the read function states
+     * @param classCache
+     *            the persistent cache or null
+     */
+    ScannedCodeCache( @Nonnull WasmOptions options, @Nullable ClassCache classCache ) {
+        this.functions = options.functions;
+        this.classCache = classCache;
+    }
+
+    /**
+     * Start the recording of the function states that are read while the instructions of a method are created. Must be
+     * called before the instructions are created and put into the cache.
+     */
+    void start() {
+        functions.startRecording();
+        if( classCache != null ) {
+            functions.journal.start();
+        }
+    }
+
+    /**
+     * Restore the instructions of a method from the persistent cache. Must be called after {@link #start()}. The
+     * returned code builder must be put into this cache.
+     *
+     * @param method
+     *            the method
+     * @return the code builder with its own local variables or null if the instructions must be created
+     */
+    @Nullable
+    WasmCodeBuilder restore( @Nonnull MethodInfo method ) {
+        if( classCache == null ) {
+            return null;
+        }
+        // the replayed calls are not recorded a second time
+        functions.journal.stop();
+        WasmCodeBuilder codeBuilder = classCache.restore( method );
+        if( codeBuilder == null ) {
+            functions.journal.start();
+        }
+        return codeBuilder;
+    }
+
+    /**
+     * Save the current state of the code builder. The instructions are saved only if they does not depend on values
+     * that are known only after the scan phase. The optimizer can change local and call instructions, such
+     * instructions are saved as independent copy.
+     *
+     * @param method
+     *            the method of the instructions
+     * @param codeBuilder
+     *            the code builder after the instructions are created or null if the method has no code
+     * @param own
+     *            true, if the code builder was created only for this method and can be restored without a shared code
+     *            builder
+     */
+    void put( @Nonnull MethodInfo method, @Nullable WasmCodeBuilder codeBuilder, boolean own ) {
+        Dependencies dependencies = functions.stopRecording();
+        List<ScanJournal.Entry> entries = classCache == null ? null : functions.journal.stop();
+        if( codeBuilder == null || dependencies == null ) {
+            return;
+        }
+        LocaleVariableManager localVariables = codeBuilder.getLocalVariables();
+        if( localVariables.hasTypeConflict() ) {
+            // the variable types must be calculated with the final type hierarchy
+            return;
+        }
+        if( entries != null ) {
+            classCache.store( method, entries, functions.journal.getClasses(), codeBuilder );
+        }
+        ScannedCode scanned = new ScannedCode();
+        List<WasmInstruction> instructions = codeBuilder.getInstructions();
+        scanned.instructions = new ArrayList<>( instructions.size() );
+        for( WasmInstruction instr : instructions ) {
+            scanned.instructions.add( instr.snapshot() );
+        }
+        scanned.inlined = new HashMap<>( codeBuilder.getInlinedFunctions() );
+        scanned.localVariables = localVariables.getCopy();
+        scanned.dependencies = dependencies;
+        if( own ) {
+            // the instructions reference the local variables, the code builder self is not needed anymore
+            scanned.ownLocalVariables = localVariables;
+        }
+        synchronized( cache ) {
+            cache.put( new FunctionName( method ), new SoftReference<>( scanned ) );
+        }
+    }
+
+    /**
+     * Restore the instructions of the method into the code builder if available and still valid. The entry is removed
+     * from the cache because the instructions can be changed from the optimizer. This can be called from worker
+     * threads.
+     *
+     * @param method
+     *            the method to write
+     * @param codeBuilder
+     *            the code builder which share the local variables with the code builder of the scan phase or null if
+     *            the local variables of the scan phase was saved with the instructions. It is not used if the
+     *            instructions have its own local variables.
+     * @return the code builder or null if there is no valid cache entry
+     */
+    @Nullable
+    WasmCodeBuilder get( @Nonnull MethodInfo method, @Nullable WasmCodeBuilder codeBuilder ) {
+        SoftReference<ScannedCode> ref;
+        synchronized( cache ) {
+            ref = cache.remove( new FunctionName( method ) );
+        }
+        ScannedCode scanned = ref == null ? null : ref.get();
+        if( scanned != null && scanned.ownLocalVariables != null ) {
+            codeBuilder = new WasmCodeBuilder( scanned.ownLocalVariables ) {};
+        }
+        boolean valid = scanned != null && codeBuilder != null && functions.isUnchanged( scanned.dependencies );
+        synchronized( cache ) {
+            if( !valid ) {
+                misses++;
+                return null;
+            }
+            hits++;
+        }
+        codeBuilder.reset( null, null, null );
+        codeBuilder.getLocalVariables().setCopy( scanned.localVariables );
+        codeBuilder.getInstructions().addAll( scanned.instructions );
+        codeBuilder.getInlinedFunctions().putAll( scanned.inlined );
+        return codeBuilder;
+    }
+
+    /**
+     * Release all entries.
+     */
+    void clear() {
+        JWebAssembly.LOGGER.fine( "scanned code reused: " + hits + ", created again: " + misses );
+        synchronized( cache ) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * The saved state of a single method.
+     */
+    private static class ScannedCode {
+
+        private List<WasmInstruction>        instructions;
+
+        private Map<FunctionName, MethodInfo> inlined;
+
+        private Variable[]                   localVariables;
+
+        private Dependencies                 dependencies;
+
+        private LocaleVariableManager        ownLocalVariables;
+    }
+}
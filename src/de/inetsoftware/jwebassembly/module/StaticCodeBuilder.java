@@ -15,6 +15,8 @@
  */
 package de.inetsoftware.jwebassembly.module;
 
+import static de.inetsoftware.jwebassembly.module.WasmCodeBuilder.CLASS_INIT;
+
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -24,10 +26,12 @@
 import java.util.Map.Entry;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import de.inetsoftware.classparser.ClassFile;
 import de.inetsoftware.classparser.Code;
 import de.inetsoftware.classparser.MethodInfo;
+import de.inetsoftware.jwebassembly.JWebAssembly;
 import de.inetsoftware.jwebassembly.WasmException;
 import de.inetsoftware.jwebassembly.module.LocaleVariableManager.Variable;
 import de.inetsoftware.jwebassembly.watparser.WatParser;
@@ -44,6 +48,10 @@ class StaticCodeBuilder {
 
     private JavaMethodWasmCodeBuilder      javaCodeBuilder;
 
+    private final ArrayList<StaticInitEvaluator> evaluated = new ArrayList<>();
+
+    private final HashSet<String>          evaluatedClasses = new HashSet<>();
+
     /**
      * Create a instance with a snapshot of all static class initializer.
      * 
@@ -66,9 +74,9 @@ class StaticCodeBuilder {
      * @param writeLaterClinit iterator of all needed static constructors
      * @throws IOException
      *             if any I/O error occur
-     * @return the synthetic function name
+     * @return the synthetic function name or null if the static constructors are called lazy on the first access
      */
-    @Nonnull
+    @Nullable
     FunctionName createStartFunction( Iterator<FunctionName> writeLaterClinit ) throws IOException {
         // list all static constructors (class constructors)
         LinkedHashMap<String,FunctionName> constructors = new LinkedHashMap<>();
@@ -77,6 +85,18 @@ FunctionName createStartFunction( Iterator<FunctionName> writeLaterClinit ) thro
             constructors.put( name.className, name );
         }
 
+        // evaluate the static constructors without side effects at compile time
+        if( options.evaluateClinit() ) {
+            for( Iterator<FunctionName> it = constructors.values().iterator(); it.hasNext(); ) {
+                if( evaluate( it.next() ) ) {
+                    it.remove();
+                }
+            }
+        }
+        if( options.lazyClinit() ) {
+            return null;
+        }
+
         // scan for recursions between the classes
         ArrayList<FunctionName> clinits = new ArrayList<>();
         LinkedHashMap<String,ScanState> scans = new LinkedHashMap<>();
@@ -141,6 +161,183 @@ protected WasmCodeBuilder getCodeBuilder( WatParser watParser ) {
         };
     }
 
+    /**
+     * Evaluate a static constructor (class initializer) at compile time. If this is possible then it is replaced with an
+     * empty function and not called from the start function. If strings, arrays or objects must be created at runtime
+     * then it is replaced with the residual code of the evaluation and called like before.
+     * 
+     * @param name
+     *            the name of the static constructor (class initializer)
+     * @return true, if evaluated and not needed at runtime
+     */
+    private boolean evaluate( FunctionName name ) {
+        String className = name.className;
+        String sourceFile = null;
+        final StaticInitEvaluator evaluator;
+        final boolean residual;
+        try {
+            ClassFile classFile = classFileLoader.get( className );
+            sourceFile = classFile.getSourceFile();
+            MethodInfo method = classFile.getMethod( name.methodName, name.signature );
+            method = options.functions.replace( name, method );
+            Code code = method == null ? null : method.getCode();
+            if( code == null ) {
+                return false;
+            }
+            javaCodeBuilder.buildCode( code, method );
+
+            evaluator = new StaticInitEvaluator( options, classFileLoader, javaCodeBuilder );
+            if( !evaluator.evaluate( className, javaCodeBuilder.getInstructions(), javaCodeBuilder.getLocalVariables() ) ) {
+                return false;
+            }
+            evaluated.add( evaluator );
+            residual = evaluator.hasResidual();
+            if( !residual ) {
+                evaluatedClasses.add( className );
+            }
+        } catch( Throwable ex ) {
+            throw WasmException.create( ex, sourceFile, className, name.methodName, -1 );
+        }
+
+        // the calls before the access of the static fields must be valid
+        SyntheticFunctionName replacement = new SyntheticFunctionName( className, name.methodName, name.signature ) {
+            @Override
+            protected boolean hasWasmCode() {
+                return true;
+            }
+
+            @Override
+            protected WasmCodeBuilder getCodeBuilder( WatParser watParser ) {
+                watParser.reset( null, null, getSignature( null ) );
+                if( residual ) {
+                    evaluator.writeResidual( watParser );
+                }
+                return watParser;
+            }
+        };
+        if( residual ) {
+            // register the used strings, types and functions before the scan is finished
+            WatParser watParser = new WatParser();
+            ((WasmCodeBuilder)watParser).init( options, classFileLoader );
+            replacement.getCodeBuilder( watParser );
+        }
+        options.functions.markAsNeededAndReplaceIfExists( replacement );
+        JWebAssembly.LOGGER.fine( (residual ? "evaluate static constructor with residual code: " : "evaluate static constructor: ") + className );
+        return !residual;
+    }
+
+    /**
+     * Write the values of the evaluated static constructors. This must be called after the vtables are known.
+     * 
+     * @param writer
+     *            the target
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    void prepareFinish( ModuleWriter writer ) throws IOException {
+        for( StaticInitEvaluator evaluator : evaluated ) {
+            evaluator.prepareFinish( writer );
+        }
+    }
+
+    /**
+     * Remove the calls of the static constructors before the access of static fields, static method calls and the
+     * creation of instances that are not needed. This are the calls after a previous call on every path, because a
+     * static constructor marks its class as initialized before it execute any other code, and the calls of static
+     * constructors that was evaluated at compile time.
+     * 
+     * @param name
+     *            the name of the function
+     * @param instructions
+     *            the instructions of the function
+     */
+    void removeRedundantClinitCalls( @Nonnull FunctionName name, @Nonnull List<WasmInstruction> instructions ) {
+        // the classes that are initialized in the current block and its parent blocks
+        ArrayList<HashSet<String>> blocks = new ArrayList<>();
+        HashSet<String> current = new HashSet<>();
+        blocks.add( current );
+        if( CLASS_INIT.equals( name.methodName ) ) {
+            current.add( name.className );
+        }
+        for( int i = 0; i < instructions.size(); i++ ) {
+            WasmInstruction instr = instructions.get( i );
+            switch( instr.getType() ) {
+                case Block:
+                    switch( ((WasmBlockInstruction)instr).getOperation() ) {
+                        case BLOCK:
+                        case LOOP:
+                        case IF:
+                        case TRY:
+                            current = new HashSet<>();
+                            blocks.add( current );
+                            break;
+                        case ELSE:
+                        case CATCH:
+                            // the other branch is not executed on this path
+                            current.clear();
+                            break;
+                        case END:
+                            if( blocks.size() > 1 ) {
+                                blocks.remove( blocks.size() - 1 );
+                                current = blocks.get( blocks.size() - 1 );
+                            }
+                            break;
+                        default:
+                    }
+                    break;
+                case Call:
+                    FunctionName called = ((WasmCallInstruction)instr).getFunctionName();
+                    if( !CLASS_INIT.equals( called.methodName ) ) {
+                        break;
+                    }
+                    if( instr instanceof WasmClinitInstruction ) {
+                        // a lazy initialization before a static method call or the creation of an instance
+                        if( isInitialized( called.className, blocks ) || !options.functions.isUsed( called ) ) {
+                            instructions.set( i, new WasmNopInstruction( instr.getCodePosition(), instr.getLineNumber() ) );
+                            break;
+                        }
+                    }
+                    current.add( called.className );
+                    break;
+                case Global:
+                    WasmGlobalInstruction global = (WasmGlobalInstruction)instr;
+                    FunctionName clinit = global.getClinit();
+                    if( clinit == null ) {
+                        break;
+                    }
+                    String className = clinit.className;
+                    if( isInitialized( className, blocks ) ) {
+                        instructions.set( i, new WasmGlobalInstruction( global.isLoad(), global.getFieldName(), global.getFieldType(), null, global.getCodePosition(), global.getLineNumber() ) );
+                    } else {
+                        current.add( className );
+                    }
+                    break;
+                default:
+            }
+        }
+    }
+
+    /**
+     * If a class is already initialized on the current path.
+     * 
+     * @param className
+     *            the class name
+     * @param blocks
+     *            the classes that are initialized in the current block and its parent blocks
+     * @return true, if initialized
+     */
+    private boolean isInitialized( String className, List<HashSet<String>> blocks ) {
+        if( evaluatedClasses.contains( className ) ) {
+            return true;
+        }
+        for( HashSet<String> block : blocks ) {
+            if( block.contains( className ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Scan for for references to other classes
      * 
@@ -0,0 +1,1106 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.module;
+
+import static de.inetsoftware.jwebassembly.module.WasmCodeBuilder.CONSTRUCTOR;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import de.inetsoftware.classparser.ClassFile;
+import de.inetsoftware.classparser.Code;
+import de.inetsoftware.classparser.MethodInfo;
+import de.inetsoftware.jwebassembly.JWebAssembly;
+import de.inetsoftware.jwebassembly.module.TypeManager.BlockType;
+import de.inetsoftware.jwebassembly.module.TypeManager.StructType;
+import de.inetsoftware.jwebassembly.wasm.AnyType;
+import de.inetsoftware.jwebassembly.wasm.ArrayOperator;
+import de.inetsoftware.jwebassembly.wasm.ArrayType;
+import de.inetsoftware.jwebassembly.wasm.MemoryOperator;
+import de.inetsoftware.jwebassembly.wasm.NamedStorageType;
+import de.inetsoftware.jwebassembly.wasm.StructOperator;
+import de.inetsoftware.jwebassembly.wasm.ValueType;
+import de.inetsoftware.jwebassembly.wasm.VariableOperator;
+import de.inetsoftware.jwebassembly.wasm.WasmBlockOperator;
+import de.inetsoftware.jwebassembly.watparser.WatParser;
+
+/**
+ * Evaluate a static class initializer (class constructor) at compile time. This is possible if the code only calculate
+ * primitive values, strings, arrays and objects and assign it to the static fields of its own class. Constructors and
+ * the static methods of the own class are evaluated. Any access to a static field of another class, the static class
+ * initializer of another class, a virtual call or a call of any other method make it not evaluable. The evaluation is
+ * all-or-nothing.
+ * <p>
+ * The primitive values are written as initial values of the globals and the arrays of primitive values as data of the
+ * linear memory. Strings, objects and the arrays that can not be written as data are created with a residual static
+ * class initializer. It contains only the straight-line code that creates the evaluated values and assigns it to the
+ * static fields. It replaces the original static class initializer and is called like it.
+ *
+ * @author Volker Berlin
+ */
+class StaticInitEvaluator {
+
+    /**
+     * The maximum count of executed instructions.
+     */
+    static final int                                    MAX_STEPS  = 1000000;
+
+    /**
+     * The maximum count of array elements and objects of a class.
+     */
+    static final int                                    MAX_LENGTH = 0x10000;
+
+    /**
+     * The maximum depth of evaluated calls.
+     */
+    static final int                                    MAX_DEPTH  = 32;
+
+    private final WasmOptions                           options;
+
+    private final ClassFileLoader                       classFileLoader;
+
+    private final JavaMethodWasmCodeBuilder             mainCodeBuilder;
+
+    private final boolean                               useLinearMemory;
+
+    private String                                      className;
+
+    private final LinkedHashMap<FunctionName, Object>   fields     = new LinkedHashMap<>();
+
+    private final HashMap<FunctionName, AnyType>        fieldTypes = new HashMap<>();
+
+    private final HashMap<FunctionName, WasmCodeBuilder> callees   = new HashMap<>();
+
+    private final Set<Object>                           residual   = Collections.newSetFromMap( new IdentityHashMap<>() );
+
+    private ArrayList<Object>                           stack      = new ArrayList<>();
+
+    private ArrayDeque<Label>                           labels     = new ArrayDeque<>();
+
+    private HashMap<Integer, Object>                    locals     = new HashMap<>();
+
+    private int                                         steps;
+
+    private int                                         depth;
+
+    private int                                         length;
+
+    private int                                         codePos;
+
+    /**
+     * Create a new instance.
+     *
+     * @param options
+     *            the compiler options
+     * @param classFileLoader
+     *            for loading the class files of the called methods
+     * @param mainCodeBuilder
+     *            the code builder of the module generator
+     */
+    StaticInitEvaluator( @Nonnull WasmOptions options, @Nonnull ClassFileLoader classFileLoader, @Nonnull JavaMethodWasmCodeBuilder mainCodeBuilder ) {
+        this.options = options;
+        this.classFileLoader = classFileLoader;
+        this.mainCodeBuilder = mainCodeBuilder;
+        this.useLinearMemory = options.useLinearMemory();
+    }
+
+    /**
+     * Evaluate the instructions of a static class initializer.
+     *
+     * @param className
+     *            the name of the class
+     * @param instructions
+     *            the instructions of the static class initializer
+     * @param localVariables
+     *            the local variables of the static class initializer
+     * @return true, if the code was evaluated
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    boolean evaluate( @Nonnull String className, @Nonnull List<WasmInstruction> instructions, @Nonnull LocaleVariableManager localVariables ) throws IOException {
+        this.className = className;
+        if( !execute( instructions, localVariables ) ) {
+            return false;
+        }
+
+        // the values that must be created at runtime, the arrays of primitive values are written as data of the linear memory
+        for( Object value : fields.values() ) {
+            if( value instanceof ObjectValue || (value instanceof ArrayValue && (!useLinearMemory || !((ArrayValue)value).isPrimitive())) ) {
+                addResidual( value );
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Execute the instructions of a function. The parameters are in the local variables and the results are on the stack
+     * after the execution.
+     *
+     * @param instructions
+     *            the instructions of the function
+     * @param localVariables
+     *            the local variables of the function
+     * @return false, if the code is not supported
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    private boolean execute( @Nonnull List<WasmInstruction> instructions, @Nonnull LocaleVariableManager localVariables ) throws IOException {
+        int size = instructions.size();
+        int[] ends = new int[size];
+        int[] elses = new int[size];
+        ArrayDeque<Integer> blocks = new ArrayDeque<>();
+        for( int i = 0; i < size; i++ ) {
+            WasmInstruction instr = instructions.get( i );
+            if( instr.getType() != WasmInstruction.Type.Block ) {
+                continue;
+            }
+            switch( ((WasmBlockInstruction)instr).getOperation() ) {
+                case BLOCK:
+                case LOOP:
+                case IF:
+                case TRY:
+                    blocks.push( i );
+                    break;
+                case ELSE:
+                case CATCH:
+                    if( blocks.isEmpty() ) {
+                        return false;
+                    }
+                    elses[blocks.peek()] = i;
+                    break;
+                case END:
+                    if( blocks.isEmpty() ) {
+                        return false;
+                    }
+                    ends[blocks.pop()] = i;
+                    break;
+                default:
+            }
+        }
+        if( !blocks.isEmpty() ) {
+            return false;
+        }
+
+        for( int pc = 0; pc < size; pc++ ) {
+            if( ++steps > MAX_STEPS ) {
+                return false;
+            }
+            WasmInstruction instr = instructions.get( pc );
+            try {
+                switch( instr.getType() ) {
+                    case Const:
+                        if( !(instr instanceof WasmConstNumberInstruction) ) {
+                            return false;
+                        }
+                        stack.add( ((WasmConstNumberInstruction)instr).getValue() );
+                        break;
+                    case String:
+                        stack.add( ((WasmConstStringInstruction)instr).getValue() );
+                        break;
+                    case Local:
+                        WasmLocalInstruction local = (WasmLocalInstruction)instr;
+                        int idx = local.getIndex();
+                        switch( local.getOperator() ) {
+                            case get:
+                                Object value = locals.get( idx );
+                                stack.add( value != null || locals.containsKey( idx ) ? value : defaultValue( localVariables.getValueType( idx ) ) );
+                                break;
+                            case set:
+                                locals.put( idx, pop() );
+                                break;
+                            default:
+                                locals.put( idx, stack.get( stack.size() - 1 ) );
+                        }
+                        break;
+                    case Global:
+                        WasmGlobalInstruction global = (WasmGlobalInstruction)instr;
+                        FunctionName field = global.getFieldName();
+                        if( !className.equals( field.className ) ) {
+                            return false;
+                        }
+                        if( global.isLoad() ) {
+                            Object value = fields.get( field );
+                            stack.add( value != null || fields.containsKey( field ) ? value : defaultValue( global.getFieldType() ) );
+                        } else {
+                            fields.put( field, pop() );
+                            fieldTypes.put( field, global.getFieldType() );
+                        }
+                        break;
+                    case Numeric:
+                        WasmNumericInstruction numeric = (WasmNumericInstruction)instr;
+                        if( !(stack.get( stack.size() - numeric.getPopCount() ) instanceof Number) ) {
+                            if( !reference( numeric ) ) {
+                                return false;
+                            }
+                            break;
+                        }
+                        Number result;
+                        if( numeric.getPopCount() == 1 ) {
+                            result = CodeOptimizer.calculate( numeric.numOp, numeric.getValueType(), (Number)pop() );
+                        } else {
+                            Number b = (Number)pop();
+                            Number a = (Number)pop();
+                            result = CodeOptimizer.calculate( numeric.numOp, numeric.getValueType(), a, b );
+                        }
+                        if( result == null ) {
+                            return false;
+                        }
+                        stack.add( result );
+                        break;
+                    case Convert:
+                        stack.add( convert( ((WasmConvertInstruction)instr).getConversion(), (Number)pop() ) );
+                        break;
+                    case Array:
+                        if( !array( (WasmArrayInstruction)instr ) ) {
+                            return false;
+                        }
+                        break;
+                    case Struct:
+                        if( !struct( (WasmStructInstruction)instr ) ) {
+                            return false;
+                        }
+                        break;
+                    case Call:
+                        if( !call( (WasmCallInstruction)instr ) ) {
+                            return false;
+                        }
+                        break;
+                    case Memory:
+                        // the length of an array that the inline bounds check reads with linear memory
+                        WasmMemoryInstruction memory = (WasmMemoryInstruction)instr;
+                        if( memory.getOperator() != MemoryOperator.load || memory.getOffset() != MemoryManager.ARRAY_LENGTH ) {
+                            return false;
+                        }
+                        stack.add( ((ArrayValue)pop()).values.length );
+                        break;
+                    case Block:
+                        WasmBlockInstruction block = (WasmBlockInstruction)instr;
+                        switch( block.getOperation() ) {
+                            case BLOCK:
+                            case LOOP:
+                            case TRY:
+                                enter( block, pc, ends[pc] );
+                                break;
+                            case IF:
+                                boolean cond = ((Number)pop()).intValue() != 0;
+                                enter( block, pc, ends[pc] );
+                                if( !cond ) {
+                                    // jump to the else branch or to the end
+                                    pc = elses[pc] > 0 ? elses[pc] : ends[pc] - 1;
+                                }
+                                break;
+                            case ELSE:
+                            case CATCH:
+                                // end of the then branch or the try body
+                                pc = labels.peek().end - 1;
+                                break;
+                            case END:
+                                Label label = labels.pop();
+                                if( stack.size() != label.height + label.results ) {
+                                    return false;
+                                }
+                                break;
+                            case BR:
+                                pc = branch( (Integer)block.getData() );
+                                break;
+                            case BR_IF:
+                                if( ((Number)pop()).intValue() != 0 ) {
+                                    pc = branch( (Integer)block.getData() );
+                                }
+                                break;
+                            case BR_TABLE:
+                                int[] targets = (int[])block.getData();
+                                int key = ((Number)pop()).intValue();
+                                pc = branch( key >= 0 && key < targets.length - 1 ? targets[key] : targets[targets.length - 1] );
+                                break;
+                            case RETURN:
+                                pc = size;
+                                break;
+                            case DROP:
+                                pop();
+                                break;
+                            default:
+                                return false;
+                        }
+                        break;
+                    case Nop:
+                    case Jump:
+                        break;
+                    default:
+                        return false;
+                }
+            } catch( RuntimeException ex ) {
+                // a type mismatch or a stack underflow, this code is not supported
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Enter a block structure.
+     *
+     * @param block
+     *            the block instruction
+     * @param start
+     *            the index of the block instruction
+     * @param end
+     *            the index of the END instruction of the block
+     */
+    private void enter( @Nonnull WasmBlockInstruction block, int start, int end ) {
+        Object data = block.getData();
+        int params = 0;
+        int results = 0;
+        if( data instanceof BlockType ) {
+            params = ((BlockType)data).getParams().size();
+            results = ((BlockType)data).getResults().size();
+        } else if( data != null && data != ValueType.empty ) {
+            results = 1;
+        }
+        labels.push( new Label( start, end, block.getOperation() == WasmBlockOperator.LOOP, stack.size() - params, params, results ) );
+    }
+
+    /**
+     * Branch to the label with the given depth.
+     *
+     * @param depth
+     *            the relative depth of the label
+     * @return the index of the instruction before the next executed instruction
+     */
+    private int branch( int depth ) {
+        if( depth >= labels.size() ) {
+            // branch to the function body is like a return
+            return Integer.MAX_VALUE - 1;
+        }
+        Label label = null;
+        for( int i = 0; i <= depth; i++ ) {
+            label = labels.pop();
+        }
+        int arity = label.loop ? label.params : label.results;
+        List<Object> values = stack.subList( stack.size() - arity, stack.size() );
+        ArrayList<Object> kept = new ArrayList<>( values );
+        stack.subList( label.height, stack.size() ).clear();
+        stack.addAll( kept );
+        if( label.loop ) {
+            labels.push( label );
+            return label.start;
+        }
+        return label.end;
+    }
+
+    /**
+     * Evaluate an array instruction.
+     *
+     * @param instr
+     *            the instruction
+     * @return false, if the operation is not supported
+     */
+    private boolean array( @Nonnull WasmArrayInstruction instr ) {
+        ArrayType arrayType = instr.getArrayType();
+        AnyType elementType = arrayType.getArrayType();
+        switch( instr.getOperation() ) {
+            case NEW:
+                int count = ((Number)pop()).intValue();
+                length += count;
+                if( count < 0 || length > MAX_LENGTH ) {
+                    return false;
+                }
+                stack.add( new ArrayValue( arrayType, count ) );
+                return true;
+            case SET:
+                Object value = pop();
+                int idx;
+                ArrayValue array;
+                if( useLinearMemory ) {
+                    ElementAddress address = (ElementAddress)pop();
+                    idx = address.index;
+                    array = address.array;
+                } else {
+                    idx = ((Number)pop()).intValue();
+                    array = (ArrayValue)pop();
+                }
+                if( elementType instanceof ValueType ) {
+                    // castore uses the type i16 also for char arrays, the array self decides how the value is stored
+                    AnyType storageType = array.type.getArrayType();
+                    value = truncate( (ValueType)(storageType instanceof ValueType ? storageType : elementType), (Number)value );
+                }
+                array.values[idx] = value;
+                return true;
+            case GET:
+            case GET_S:
+            case GET_U:
+                if( useLinearMemory ) {
+                    ElementAddress address = (ElementAddress)pop();
+                    idx = address.index;
+                    array = address.array;
+                } else {
+                    idx = ((Number)pop()).intValue();
+                    array = (ArrayValue)pop();
+                }
+                value = array.values[idx];
+                if( elementType == ValueType.u16 || (instr.getOperation() == ArrayOperator.GET_U && (elementType == ValueType.i8 || elementType == ValueType.i16)) ) {
+                    value = ((Number)value).intValue() & (elementType == ValueType.i8 ? 0xFF : 0xFFFF);
+                }
+                stack.add( value );
+                return true;
+            case LEN:
+                stack.add( ((ArrayValue)pop()).values.length );
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Evaluate a struct instruction. The vtable of an object is given by its type. With GC the native array of an array
+     * object is the array self.
+     *
+     * @param instr
+     *            the instruction
+     * @return false, if the operation is not supported
+     */
+    private boolean struct( @Nonnull WasmStructInstruction instr ) {
+        NamedStorageType field = instr.getFieldName();
+        switch( instr.getOperator() ) {
+            case NEW_DEFAULT:
+                if( ++length > MAX_LENGTH ) {
+                    return false;
+                }
+                stack.add( new ObjectValue( instr.getStructType() ) );
+                return true;
+            case NULL:
+                stack.add( null );
+                return true;
+            case SET:
+                Object value = pop();
+                ObjectValue object = (ObjectValue)pop();
+                String name = field.getName();
+                if( name != TypeManager.FIELD_VTABLE && name != TypeManager.FIELD_VTABLE_REF ) {
+                    object.values.put( field, value );
+                }
+                return true;
+            case GET:
+                Object ref = pop();
+                if( ref instanceof ArrayValue && field.getName().equals( ((ArrayValue)ref).type.getNativeFieldName().getName() ) ) {
+                    // the native array of the array object, the element type can be different for byte and boolean
+                    stack.add( ref );
+                    return true;
+                }
+                object = (ObjectValue)ref;
+                value = object.values.get( field );
+                stack.add( value != null || object.values.containsKey( field ) ? value : defaultValue( field.getType() ) );
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Evaluate a function call. Only constructors and the static methods of the own class are evaluated. The lazy
+     * initialization of the own class is not needed.
+     *
+     * @param instr
+     *            the instruction
+     * @return false, if the call is not supported
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    private boolean call( @Nonnull WasmCallInstruction instr ) throws IOException {
+        FunctionName name = instr.getFunctionName();
+        if( instr instanceof WasmClinitInstruction ) {
+            return className.equals( name.className );
+        }
+        boolean isConstructor = CONSTRUCTOR.equals( name.methodName );
+        if( name instanceof SyntheticFunctionName || depth >= MAX_DEPTH || !(isConstructor || className.equals( name.className )) ) {
+            return false;
+        }
+        int paramCount = instr.getPopCount();
+        if( isConstructor && !(stack.get( stack.size() - paramCount ) instanceof ObjectValue) ) {
+            // the constructor of a string or of an array
+            return false;
+        }
+        WasmCodeBuilder codeBuilder = callees.get( name );
+        if( codeBuilder == null ) {
+            ClassFile classFile = classFileLoader.get( name.className );
+            MethodInfo method = classFile == null ? null : classFile.getMethod( name.methodName, name.signature );
+            method = options.functions.replace( name, method );
+            Code code = method == null ? null : method.getCode();
+            if( code == null || method.getAnnotation( JWebAssembly.TEXTCODE_ANNOTATION ) != null || method.getAnnotation( JWebAssembly.IMPORT_ANNOTATION ) != null ) {
+                return false;
+            }
+            WatParser watParser = new WatParser();
+            JavaMethodWasmCodeBuilder javaCodeBuilder = new JavaMethodWasmCodeBuilder( watParser );
+            javaCodeBuilder.init( options, classFileLoader, mainCodeBuilder );
+            ((WasmCodeBuilder)watParser).init( options, classFileLoader );
+            javaCodeBuilder.buildCode( code, method );
+            callees.put( name, codeBuilder = javaCodeBuilder );
+        }
+
+        // the parameters are the first local variables of the called function
+        HashMap<Integer, Object> params = new HashMap<>();
+        for( int i = paramCount - 1; i >= 0; i-- ) {
+            params.put( i, pop() );
+        }
+        ArrayList<Object> callerStack = stack;
+        ArrayDeque<Label> callerLabels = labels;
+        HashMap<Integer, Object> callerLocals = locals;
+        stack = new ArrayList<>();
+        labels = new ArrayDeque<>();
+        locals = params;
+        depth++;
+        try {
+            if( !execute( codeBuilder.getInstructions(), codeBuilder.getLocalVariables() ) ) {
+                return false;
+            }
+            if( instr.getPushValueType() != null ) {
+                callerStack.add( pop() );
+            }
+        } finally {
+            depth--;
+            stack = callerStack;
+            labels = callerLabels;
+            locals = callerLocals;
+        }
+        return true;
+    }
+
+    /**
+     * Calculate a numeric operation with a reference. The code builder check an array or an object for null with eqz
+     * and add the offset of an element to the array before the element is accessed in the linear memory.
+     *
+     * @param numeric
+     *            the instruction
+     * @return false, if the operation is not supported
+     */
+    private boolean reference( @Nonnull WasmNumericInstruction numeric ) {
+        switch( numeric.numOp ) {
+            case eqz:
+                stack.add( pop() == null ? 1 : 0 );
+                return true;
+            case add:
+                int offset = ((Number)pop()).intValue();
+                ArrayValue array = (ArrayValue)pop();
+                int size = MemoryManager.getSize( array.type.getArrayType() );
+                if( offset % size != 0 ) {
+                    return false;
+                }
+                stack.add( new ElementAddress( array, offset / size ) );
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Add a value and all values that are reachable from it to the values that are created at runtime.
+     *
+     * @param value
+     *            an array or object
+     */
+    private void addResidual( @Nonnull Object value ) {
+        if( !residual.add( value ) ) {
+            return;
+        }
+        Iterable<Object> children = value instanceof ArrayValue ? Arrays.asList( ((ArrayValue)value).values ) : ((ObjectValue)value).values.values();
+        for( Object child : children ) {
+            if( child instanceof ArrayValue || child instanceof ObjectValue ) {
+                addResidual( child );
+            }
+        }
+    }
+
+    /**
+     * If the value of a static field must be assigned at runtime.
+     *
+     * @param value
+     *            the evaluated value
+     * @return true, if the residual static class initializer assign the value
+     */
+    private boolean isResidual( @Nullable Object value ) {
+        return value instanceof String || residual.contains( value );
+    }
+
+    /**
+     * If a residual static class initializer is needed. Then the static class initializer is replaced with it and not
+     * removed.
+     *
+     * @return true, if there are values that are created at runtime
+     */
+    boolean hasResidual() {
+        for( Object value : fields.values() ) {
+            if( isResidual( value ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Write the residual static class initializer. It marks the class as initialized, creates the strings, arrays and
+     * objects and assign it to the static fields. Every array and object is saved in a local variable that references
+     * between the values are possible.
+     *
+     * @param codeBuilder
+     *            the target, the signature must be set
+     */
+    void writeResidual( @Nonnull WasmCodeBuilder codeBuilder ) {
+        codePos = 0;
+        FunctionName isInit = new FunctionName( className, WasmCodeBuilder.CLASS_IS_INIT, "" );
+        codeBuilder.addGlobalInstruction( true, isInit, ValueType.i32, null, codePos, -1 );
+        codeBuilder.addBlockInstruction( WasmBlockOperator.BR_IF, 0, codePos, -1 );
+        codeBuilder.addConstInstruction( 1, ValueType.i32, codePos, -1 );
+        codeBuilder.addGlobalInstruction( false, isInit, ValueType.i32, null, codePos, -1 );
+
+        IdentityHashMap<Object, Integer> slots = new IdentityHashMap<>();
+        for( Entry<FunctionName, Object> entry : fields.entrySet() ) {
+            Object value = entry.getValue();
+            if( isResidual( value ) ) {
+                FunctionName field = entry.getKey();
+                AnyType type = fieldTypes.get( field );
+                create( codeBuilder, value, slots );
+                codePos++;
+                writeValue( codeBuilder, value, type, slots );
+                codeBuilder.addGlobalInstruction( false, field, type, null, codePos, -1 );
+            }
+        }
+    }
+
+    /**
+     * Write the code that creates an array or object and all values that are reachable from it. Every value is created
+     * only once and saved in a local variable before its elements or fields are assigned.
+     *
+     * @param codeBuilder
+     *            the target
+     * @param value
+     *            the evaluated value
+     * @param slots
+     *            the slots of the local variables of the created values
+     */
+    private void create( @Nonnull WasmCodeBuilder codeBuilder, @Nullable Object value, @Nonnull IdentityHashMap<Object, Integer> slots ) {
+        if( !(value instanceof ArrayValue || value instanceof ObjectValue) || slots.containsKey( value ) ) {
+            return;
+        }
+        codePos++;
+        List<WasmInstruction> instructions = codeBuilder.getInstructions();
+        LocaleVariableManager localVariables = codeBuilder.getLocalVariables();
+        AnyType type;
+        if( value instanceof ArrayValue ) {
+            ArrayValue array = (ArrayValue)value;
+            type = array.type;
+            codeBuilder.addConstInstruction( array.values.length, ValueType.i32, codePos, -1 );
+            codeBuilder.addArrayInstruction( ArrayOperator.NEW, array.type.getArrayType(), codePos, -1 );
+        } else {
+            type = ((ObjectValue)value).type;
+            codeBuilder.addStructInstruction( StructOperator.NEW_DEFAULT, ((ObjectValue)value).type.getName(), null, codePos, -1 );
+        }
+        // the variable is never reused for another value
+        int slot = codeBuilder.getTempVariable( type, 0, Integer.MAX_VALUE );
+        instructions.add( new WasmLoadStoreInstruction( VariableOperator.set, slot, localVariables, codePos, -1 ) );
+        slots.put( value, slot );
+
+        if( value instanceof ArrayValue ) {
+            ArrayValue array = (ArrayValue)value;
+            AnyType elementType = array.type.getArrayType();
+            Object zero = defaultValue( elementType );
+            for( Object element : array.values ) {
+                create( codeBuilder, element, slots );
+            }
+            for( int i = 0; i < array.values.length; i++ ) {
+                Object element = array.values[i];
+                if( Objects.equals( element, zero ) ) {
+                    continue;
+                }
+                codePos++;
+                instructions.add( new WasmLoadStoreInstruction( VariableOperator.get, slot, localVariables, codePos, -1 ) );
+                codeBuilder.addConstInstruction( i, ValueType.i32, codePos, -1 );
+                writeValue( codeBuilder, element, elementType, slots );
+                codeBuilder.addArrayInstruction( ArrayOperator.SET, elementType, codePos, -1 );
+            }
+        } else {
+            ObjectValue object = (ObjectValue)value;
+            for( Object fieldValue : object.values.values() ) {
+                create( codeBuilder, fieldValue, slots );
+            }
+            for( Entry<NamedStorageType, Object> entry : object.values.entrySet() ) {
+                NamedStorageType field = entry.getKey();
+                Object fieldValue = entry.getValue();
+                if( Objects.equals( fieldValue, defaultValue( field.getType() ) ) ) {
+                    continue;
+                }
+                codePos++;
+                instructions.add( new WasmLoadStoreInstruction( VariableOperator.get, slot, localVariables, codePos, -1 ) );
+                writeValue( codeBuilder, fieldValue, field.getType(), slots );
+                codeBuilder.addStructInstruction( StructOperator.SET, object.type.getName(), field, codePos, -1 );
+            }
+        }
+    }
+
+    /**
+     * Write the code that push an evaluated value. Arrays and objects must be created before.
+     *
+     * @param codeBuilder
+     *            the target
+     * @param value
+     *            the evaluated value, not null
+     * @param type
+     *            the type of the variable, field or element
+     * @param slots
+     *            the slots of the local variables of the created values
+     */
+    private void writeValue( @Nonnull WasmCodeBuilder codeBuilder, @Nonnull Object value, @Nonnull AnyType type, @Nonnull IdentityHashMap<Object, Integer> slots ) {
+        if( value instanceof Number ) {
+            ValueType valueType = type == ValueType.i64 || type == ValueType.f32 || type == ValueType.f64 ? (ValueType)type : ValueType.i32;
+            codeBuilder.addConstInstruction( (Number)value, valueType, codePos, -1 );
+        } else if( value instanceof String ) {
+            codeBuilder.addConstInstruction( value, codePos, -1 );
+        } else {
+            codeBuilder.getInstructions().add( new WasmLoadStoreInstruction( VariableOperator.get, slots.get( value ), codeBuilder.getLocalVariables(), codePos, -1 ) );
+        }
+    }
+
+    /**
+     * Write the evaluated primitive values of the static fields as initial values of the globals and the arrays of
+     * primitive values into the data of the linear memory. This must be called after the vtables are known.
+     *
+     * @param writer
+     *            the target
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    void prepareFinish( @Nonnull ModuleWriter writer ) throws IOException {
+        for( Entry<FunctionName, Object> entry : fields.entrySet() ) {
+            FunctionName field = entry.getKey();
+            if( WasmCodeBuilder.CLASS_IS_INIT.equals( field.methodName ) ) {
+                // the static class initializer is not called at runtime or the residual static class initializer mark it
+                continue;
+            }
+            Object value = entry.getValue();
+            if( value == null || isResidual( value ) ) {
+                // null is the default value of the global
+                continue;
+            }
+            if( value instanceof ArrayValue ) {
+                value = ((ArrayValue)value).write( writer.dataStream );
+            }
+            writer.prepareGlobal( field, fieldTypes.get( field ), (Number)value );
+        }
+    }
+
+    /**
+     * Pop a value from the stack.
+     *
+     * @return the value
+     */
+    private Object pop() {
+        return stack.remove( stack.size() - 1 );
+    }
+
+    /**
+     * The default value of a variable.
+     *
+     * @param type
+     *            the type of the variable
+     * @return the value or null for references
+     */
+    @Nullable
+    private static Number defaultValue( @Nonnull AnyType type ) {
+        if( type instanceof ValueType ) {
+            switch( (ValueType)type ) {
+                case i64:
+                    return 0L;
+                case f32:
+                    return 0F;
+                case f64:
+                    return 0D;
+                case externref:
+                case anyref:
+                case eqref:
+                    return null;
+                default:
+                    return 0;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Truncate a value to the size of an array element.
+     *
+     * @param type
+     *            the element type
+     * @param value
+     *            the value
+     * @return the stored value
+     */
+    @Nonnull
+    private static Number truncate( @Nonnull ValueType type, @Nonnull Number value ) {
+        switch( type ) {
+            case bool:
+            case i8:
+                return (int)value.byteValue();
+            case i16:
+                return (int)value.shortValue();
+            case u16:
+                return value.intValue() & 0xFFFF;
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Convert a value with the semantics of the conversion instructions.
+     *
+     * @param conversion
+     *            the conversion
+     * @param value
+     *            the value
+     * @return the converted value
+     */
+    @Nonnull
+    private static Number convert( @Nonnull ValueTypeConvertion conversion, @Nonnull Number value ) {
+        switch( conversion ) {
+            case i2l:
+                return (long)value.intValue();
+            case i2f:
+                return (float)value.intValue();
+            case i2d:
+                return (double)value.intValue();
+            case l2i:
+                return (int)value.longValue();
+            case l2f:
+                return (float)value.longValue();
+            case l2d:
+                return (double)value.longValue();
+            case f2i:
+                return (int)value.floatValue();
+            case f2l:
+                return (long)value.floatValue();
+            case f2d:
+                return (double)value.floatValue();
+            case d2i:
+                return (int)value.doubleValue();
+            case d2l:
+                return (long)value.doubleValue();
+            case d2f:
+                return (float)value.doubleValue();
+            case i2b:
+                return (int)(byte)value.intValue();
+            case i2c:
+                return (int)(char)value.intValue();
+            case i2s:
+                return (int)(short)value.intValue();
+            case f2i_re:
+                return Float.floatToRawIntBits( value.floatValue() );
+            case i2f_re:
+                return Float.intBitsToFloat( value.intValue() );
+            case d2l_re:
+                return Double.doubleToRawLongBits( value.doubleValue() );
+            case l2d_re:
+                return Double.longBitsToDouble( value.longValue() );
+            default:
+                throw new IllegalStateException( conversion.toString() );
+        }
+    }
+
+    /**
+     * A block structure in the evaluated code.
+     */
+    private static class Label {
+
+        private final int     start;
+
+        private final int     end;
+
+        private final boolean loop;
+
+        private final int     height;
+
+        private final int     params;
+
+        private final int     results;
+
+        /**
+         * Create a new instance.
+         *
+         * @param start
+         *            the index of the block instruction
+         * @param end
+         *            the index of the END instruction
+         * @param loop
+         *            true, if a branch jump to the start
+         * @param height
+         *            the height of the stack without the parameters of the block
+         * @param params
+         *            the count of parameters
+         * @param results
+         *            the count of results
+         */
+        private Label( int start, int end, boolean loop, int height, int params, int results ) {
+            this.start = start;
+            this.end = end;
+            this.loop = loop;
+            this.height = height;
+            this.params = params;
+            this.results = results;
+        }
+    }
+
+    /**
+     * The address of an array element in the linear memory.
+     */
+    private static class ElementAddress {
+
+        private final ArrayValue array;
+
+        private final int        index;
+
+        /**
+         * Create a new instance.
+         *
+         * @param array
+         *            the array
+         * @param index
+         *            the index of the element
+         */
+        private ElementAddress( @Nonnull ArrayValue array, int index ) {
+            this.array = array;
+            this.index = index;
+        }
+    }
+
+    /**
+     * An object that was created in the evaluated code.
+     */
+    private static class ObjectValue {
+
+        private final StructType                              type;
+
+        private final LinkedHashMap<NamedStorageType, Object> values = new LinkedHashMap<>();
+
+        /**
+         * Create a new instance with default values.
+         *
+         * @param type
+         *            the type of the object
+         */
+        private ObjectValue( @Nonnull StructType type ) {
+            this.type = type;
+        }
+    }
+
+    /**
+     * An array that was created in the evaluated code.
+     */
+    private static class ArrayValue {
+
+        private final ArrayType type;
+
+        private final Object[]  values;
+
+        private int             address = -1;
+
+        /**
+         * Create a new instance with default values.
+         *
+         * @param type
+         *            the array type
+         * @param length
+         *            the length of the array
+         */
+        private ArrayValue( @Nonnull ArrayType type, int length ) {
+            this.type = type;
+            this.values = new Object[length];
+            Number zero = defaultValue( type.getArrayType() );
+            for( int i = 0; i < length; i++ ) {
+                values[i] = zero;
+            }
+        }
+
+        /**
+         * If the elements are primitive values.
+         *
+         * @return true, if the array can be written as data
+         */
+        private boolean isPrimitive() {
+            return type.getArrayType() instanceof ValueType;
+        }
+
+        /**
+         * Write the array with the layout of the MemoryManager into the data of the linear memory.
+         *
+         * @param dataStream
+         *            the data of the linear memory
+         * @return the address of the array
+         */
+        private int write( @Nonnull ByteArrayOutputStream dataStream ) {
+            if( address >= 0 ) {
+                return address;
+            }
+            while( (dataStream.size() & 7) != 0 ) {
+                dataStream.write( 0 );
+            }
+            address = dataStream.size();
+            writeInt( dataStream, type.getVTable() );
+            writeInt( dataStream, 0 ); // hashcode
+            writeInt( dataStream, values.length );
+            writeInt( dataStream, 0 );
+            int size = MemoryManager.getSize( type.getArrayType() );
+            for( Object element : values ) {
+                Number value = (Number)element;
+                long bits;
+                if( value instanceof Float ) {
+                    bits = Float.floatToRawIntBits( value.floatValue() );
+                } else if( value instanceof Double ) {
+                    bits = Double.doubleToRawLongBits( value.doubleValue() );
+                } else {
+                    bits = value.longValue();
+                }
+                for( int i = 0; i < size; i++ ) {
+                    dataStream.write( (int)(bits >>> (i * 8)) );
+                }
+            }
+            return address;
+        }
+
+        /**
+         * Write a little-endian 32 bit value.
+         *
+         * @param dataStream
+         *            the target
+         * @param value
+         *            the value
+         */
+        private static void writeInt( @Nonnull ByteArrayOutputStream dataStream, int value ) {
+            for( int i = 0; i < 4; i++ ) {
+                dataStream.write( value >>> (i * 8) );
+            }
+        }
+    }
+}
@@ -57,11 +57,13 @@ public class StringManager extends LinkedHashMap<String, Integer> {
      *            the string
      * @return the id
      */
-    public Integer get( @Nonnull Object str ) {
+    public synchronized Integer get( @Nonnull Object str ) {
+        int entry = functions.journal.enter( ScanJournal.Op.STRING, str );
         Integer id = super.get( str );
         if( id == null ) {
             put( (String)str, id = size() );
         }
+        functions.journal.exit( entry, null ); // the id depends on the order of all strings
         return id;
     }
 
@@ -73,6 +75,7 @@ public Integer get( @Nonnull Object str ) {
      */
     @Nonnull
     FunctionName getStringConstantFunction() {
+        int entry = functions.journal.enter( ScanJournal.Op.STRING_FUNCTION );
         if( stringConstantFunction == null ) {
             stringConstantFunction = new FunctionName( "de/inetsoftware/jwebassembly/module/nativecode/StringTable.stringConstant(I)Ljava/lang/String;" );
             // register the function stringsMemoryOffset() as synthetic function
@@ -86,7 +89,7 @@ protected String getCode() {
             functions.markAsNeeded( stringConstantFunction, false );
         }
 
-        return stringConstantFunction;
+        return functions.journal.exit( entry, stringConstantFunction );
     }
 
     /**
@@ -22,6 +22,11 @@
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -33,6 +38,7 @@
 import java.util.function.ToIntFunction;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import de.inetsoftware.classparser.BootstrapMethod;
 import de.inetsoftware.classparser.ClassFile;
@@ -50,6 +56,7 @@
 import de.inetsoftware.jwebassembly.wasm.StructOperator;
 import de.inetsoftware.jwebassembly.wasm.ValueType;
 import de.inetsoftware.jwebassembly.wasm.ValueTypeParser;
+import de.inetsoftware.jwebassembly.wasm.WasmBlockOperator;
 import de.inetsoftware.jwebassembly.watparser.WatParser;
 
 /**
@@ -67,18 +74,31 @@ public class TypeManager {
      */
     static final String                     FIELD_HASHCODE                     = ".hashcode";
 
+    /**
+     * Name of field with the reference to the immutable vtable struct if call_ref is used, start with a point for an
+     * invalid Java identifier.
+     */
+    static final String                     FIELD_VTABLE_REF                   = ".vtable_ref";
+
+    /**
+     * The field index of FIELD_VTABLE_REF in every struct, after the vtable and the hashcode.
+     */
+    static final int                        FIELD_VTABLE_REF_INDEX             = 2;
+
     /**
      * Name of field with array value.
      */
     public static final String              FIELD_VALUE                        = ".array";
 
     /**
-     * Byte position in the type description that contains the offset to the interfaces. Length 4 bytes.
+     * Byte position in the type description that contains the offset to the interface table. The interface table is
+     * indexed with the slot of the interface and contains the offsets of the itables. Length 4 bytes.
      */
     public static final int                 TYPE_DESCRIPTION_INTERFACE_OFFSET  = 0;
 
     /**
-     * Byte position in the type description that contains the offset to the instanceof list. Length 4 bytes.
+     * Byte position in the type description that contains the offset to the instanceof list. The list starts with the
+     * count of entries, the own class index and then the type test entries. Length 4 bytes.
      */
     public static final int                 TYPE_DESCRIPTION_INSTANCEOF_OFFSET = 4;
 
@@ -178,6 +198,15 @@ public class TypeManager {
 
     private ClassFileLoader                 classFileLoader;
 
+    // cache of the class hierarchy analysis for virtual and interface calls, a value of null means a real virtual call
+    private final Map<FunctionName, FunctionName> singleImplementations = new HashMap<>();
+
+    // count of entries in the class display of every type, the maximum depth of the class hierarchy + 1
+    private int                             displaySize;
+
+    // the empty vtable struct that is the super type of all vtable structs, the type of the field FIELD_VTABLE_REF
+    private VTableType                      vtableBaseType;
+
     /**
      * Initialize the type manager.
      * 
@@ -207,6 +236,16 @@ public int size() {
         return structTypes.size();
     }
 
+    /**
+     * Get all used types.
+     * 
+     * @return the types
+     */
+    @Nonnull
+    Collection<StructType> getTypes() {
+        return structTypes.values();
+    }
+
     /**
      * If the scan phase is finish
      * 
@@ -238,6 +277,18 @@ void scanTypeHierarchy() throws IOException {
      */
     void prepareFinish( ModuleWriter writer ) throws IOException {
         isFinish = true;
+        assignInterfaceSlots();
+        assignTypeTests();
+        if( options.useCallRef() ) {
+            VTableType baseType = getVTableBaseType();
+            baseType.code = writer.writeVTableType( baseType );
+            for( StructType type : structTypes.values() ) {
+                VTableType vtableType = type.getVTableType();
+                if( vtableType != null ) {
+                    vtableType.code = writer.writeVTableType( vtableType );
+                }
+            }
+        }
         for( StructType type : structTypes.values() ) {
             type.writeStructType( writer );
         }
@@ -255,6 +306,126 @@ void prepareFinish( ModuleWriter writer ) throws IOException {
         }
     }
 
+    /**
+     * Get the empty vtable struct that is the super type of all vtable structs. It is the type of the header field with
+     * the vtable reference.
+     * 
+     * @return the type
+     */
+    @Nonnull
+    VTableType getVTableBaseType() {
+        VTableType type = vtableBaseType;
+        if( type == null ) {
+            vtableBaseType = type = new VTableType( null );
+        }
+        return type;
+    }
+
+    /**
+     * Assign a slot in the interface table to every implemented interface. Interfaces that are implemented from the same
+     * type need different slots. This is a greedy coloring of the interfaces. The count of slots is near the maximum
+     * count of interfaces of a single type and not the count of all interfaces.
+     */
+    private void assignInterfaceSlots() {
+        Map<StructType, Set<StructType>> conflicts = new LinkedHashMap<>();
+        for( StructType type : structTypes.values() ) {
+            if( type.interfaceMethods == null ) {
+                continue;
+            }
+            Set<StructType> interfaces = type.interfaceMethods.keySet();
+            for( StructType iType : interfaces ) {
+                conflicts.computeIfAbsent( iType, k -> new HashSet<>() ).addAll( interfaces );
+            }
+        }
+
+        BitSet usedSlots = new BitSet();
+        for( Entry<StructType, Set<StructType>> entry : conflicts.entrySet() ) {
+            usedSlots.clear();
+            for( StructType other : entry.getValue() ) {
+                if( other.interfaceSlot >= 0 ) {
+                    usedSlots.set( other.interfaceSlot );
+                }
+            }
+            entry.getKey().interfaceSlot = usedSlots.nextClearBit( 0 );
+        }
+    }
+
+    /**
+     * Assign the depth in the class hierarchy to every class and a bit number to every interface. With this the
+     * instanceof list of a type can be a class display followed from a bitset of the interfaces. An instanceof check
+     * is then a single compare of one entry and does not depend on the count of super types.
+     */
+    private void assignTypeTests() {
+        int interfaceCount = 0;
+        for( StructType type : structTypes.values() ) {
+            if( type.instanceOFs == null ) {
+                continue;
+            }
+            if( type.isInterface ) {
+                type.typeTestBit = interfaceCount++;
+            } else {
+                int depth = -1;
+                for( StructType superType : type.instanceOFs ) {
+                    if( !superType.isInterface ) {
+                        depth++;
+                    }
+                }
+                type.typeTestDepth = depth;
+                displaySize = Math.max( displaySize, depth + 1 );
+            }
+        }
+    }
+
+    /**
+     * Get the only implementation of a virtual or interface function over all types that can have instances. Because
+     * all types are known after the scan phase, the call of such function can be replaced with a direct call. The
+     * decision is made when the call is written and not when it is scanned, so an override that is found later in the
+     * scan is considered.
+     * <p>
+     * With GC the implementation must be the called function self. An override declares the THIS parameter with the
+     * struct type of its sub class, but the reference on the stack has only the type of the called class. Without a
+     * cast the direct call would not validate, so such calls stay virtual also if there is only one implementation.
+     * <p>
+     * The results are cached. The method is synchronized because the calls are also written in worker threads.
+     * 
+     * @param name
+     *            the called virtual or interface function
+     * @param isInterface
+     *            true, if it is an interface call
+     * @return the implementation or null if there are multiple implementations or the scan is not finish
+     */
+    @Nullable
+    synchronized FunctionName getSingleImplementation( @Nonnull FunctionName name, boolean isInterface ) {
+        if( !isFinish ) {
+            return null;
+        }
+        if( singleImplementations.containsKey( name ) ) {
+            return singleImplementations.get( name );
+        }
+        FunctionName impl = null;
+        StructType declaringType = structTypes.get( name.className );
+        if( declaringType != null ) {
+            int vtableIdx = options.functions.getVTableIndex( name ) - VTABLE_FIRST_FUNCTION_INDEX;
+            for( StructType type : structTypes.values() ) {
+                if( type.isAbstract || type.instanceOFs == null || !type.instanceOFs.contains( declaringType ) ) {
+                    continue;
+                }
+                FunctionName func = isInterface ? type.getInterfaceMethod( declaringType, name ) : vtableIdx >= 0 && vtableIdx < type.vtable.size() ? type.vtable.get( vtableIdx ) : null;
+                if( func == null || (impl != null && !impl.equals( func )) ) {
+                    impl = null;
+                    break;
+                }
+                impl = func;
+            }
+            if( impl != null && options.useGC() && !impl.equals( name ) ) {
+                // the type of the THIS parameter of the implementation does not match the type on the stack
+                impl = null;
+            }
+        }
+        singleImplementations.put( name, impl );
+        return impl;
+    }
+
     /**
      * Create an accessor for typeTableOffset and mark it.
      * 
@@ -309,10 +480,12 @@ private void checkStructTypesState( Object newType ) {
      */
     @Nonnull
     public StructType valueOf( String name ) {
+        int entry = options.functions.journal.enter( ScanJournal.Op.VALUE_OF, name );
         StructType type = structTypes.get( name );
         if( type == null ) {
             if( name.startsWith( "[" ) ) {
-                return (StructType)new ValueTypeParser( name, options.types ).next();
+                type = (StructType)new ValueTypeParser( name, options.types ).next();
+                return options.functions.journal.exit( entry, type );
             } else {
                 checkStructTypesState( name );
                 type = new StructType( name, StructTypeKind.normal, this );
@@ -320,7 +493,31 @@ public StructType valueOf( String name ) {
 
             structTypes.put( name, type );
         }
-        return type;
+        return options.functions.journal.exit( entry, type );
+    }
+
+    /**
+     * Get an existing type without creating it.
+     * 
+     * @param key
+     *            the type name or the component type of an array
+     * @return the type or null
+     */
+    @Nullable
+    StructType getStructType( @Nonnull Object key ) {
+        return structTypes.get( key );
+    }
+
+    /**
+     * Get an existing block type without creating it.
+     * 
+     * @param blockType
+     *            an equal block type
+     * @return the type or null
+     */
+    @Nullable
+    BlockType getBlockType( @Nonnull BlockType blockType ) {
+        return blockTypes.get( blockType );
     }
 
     /**
@@ -332,6 +529,7 @@ public StructType valueOf( String name ) {
      */
     @Nonnull
     public ArrayType arrayType( AnyType arrayType ) {
+        int entry = options.functions.journal.enter( ScanJournal.Op.ARRAY_TYPE, arrayType );
         ArrayType type = (ArrayType)structTypes.get( arrayType );
         if( type == null ) {
             checkStructTypesState( arrayType );
@@ -382,7 +580,7 @@ public ArrayType arrayType( AnyType arrayType ) {
             }
             structTypes.put( arrayType, type );
         }
-        return type;
+        return options.functions.journal.exit( entry, type );
     }
 
     /**
@@ -400,6 +598,7 @@ public ArrayType arrayType( AnyType arrayType ) {
      * @return the type
      */
     LambdaType lambdaType( @Nonnull BootstrapMethod method, String factorySignature, String interfaceMethodName, int lineNumber ) {
+        options.functions.journal.unsupported();
         ConstantRef implMethod = method.getImplMethod();
         FunctionName syntheticLambdaFunctionName = new FunctionName( implMethod );
 
@@ -436,13 +635,13 @@ LambdaType lambdaType( @Nonnull BootstrapMethod method, String factorySignature,
      */
     @Nonnull
     BlockType blockType( List<AnyType> params, List<AnyType> results ) {
+        int entry = options.functions.journal.enter( ScanJournal.Op.BLOCK_TYPE, params, results );
         BlockType blockType = new BlockType( params, results );
         BlockType type = blockTypes.get( blockType );
-        if( type != null ) {
-            return type;
+        if( type == null ) {
+            blockTypes.put( blockType, type = blockType );
         }
-        blockTypes.put( blockType, blockType );
-        return blockType;
+        return options.functions.journal.exit( entry, type );
     }
 
     /**
@@ -464,132 +663,108 @@ WatCodeSyntheticFunctionName createCallVirtual() {
     }
 
     /**
-     * Create the FunctionName for a interface call. The function has 3 parameters (THIS,classIndex,
-     * virtualfunctionIndex) and returns the index of the function.
+     * Create the FunctionName for a interface call. The function has 3 parameters (THIS, interfaceSlot,
+     * virtualfunctionIndex) and returns the index of the function. The lookup has a constant time and does not depend on
+     * the count of interfaces of the type.
      * 
      * @return the name
      */
     @Nonnull
     WatCodeSyntheticFunctionName createCallInterface() {
         /*
-        static int callInterface( OBJECT THIS, int classIndex, int virtualfunctionIndex ) {
+        static int callInterface( OBJECT THIS, int interfaceSlot, int virtualfunctionIndex ) {
             int table = THIS.vtable;
-            table += i32_load[table];
-        
-            do {
-                int nextClass = i32_load[table];
-                if( nextClass == classIndex ) {
-                    return i32_load[table + virtualfunctionIndex];
-                }
-                if( nextClass == 0 ) {
-                    return -1;//throw new NoSuchMethodError();
-                }
-                table += i32_load[table + 4];
-            } while( true );
+            int itable = table + i32_load[table + i32_load[table] + interfaceSlot];
+            return i32_load[itable + virtualfunctionIndex];
         }
          */
         return new WatCodeSyntheticFunctionName( //
                         "callInterface", "local.get 0 " // $THIS
                                         + "struct.get java/lang/Object .vtable " // vtable is on index 0
                                         + "local.tee 3 " // save $table
-                                        + "i32.load offset=" + TYPE_DESCRIPTION_INTERFACE_OFFSET + " align=4 " // get offset of itable (int position 0, byte position 0)
-                                        + "local.get 3 " // save $table
-                                        + "i32.add " // $table += i32_load[$table]
-                                        + "local.set 3 " // save $table, the itable start location
-                                        + "loop" //
-                                        + "  local.get 3" // get $table
-                                        + "  i32.load offset=0 align=4" + "  local.tee 4" // save $nextClass
-                                        + "  local.get 1" // get $classIndex
-                                        + "  i32.eq" //
-                                        + "  if" // $nextClass == $classIndex
-                                        + "    local.get 3" // get $table
-                                        + "    local.get 2" // get $virtualfunctionIndex
-                                        + "    i32.add" // $table + $virtualfunctionIndex
-                                        + "    i32.load offset=0 align=4" // get the functionIndex
-                                        + "    return" //
-                                        + "  end" //
-                                        + "  local.get 4" // save $nextClass
-                                        + "  i32.eqz" //
-                                        + "  if" // current offset == end offset
-                                        + "    unreachable" // TODO throw a ClassCastException if exception handling is supported
-                                        + "  end" //
-                                        + "  local.get 3" // get $table
-                                        + "  i32.const 4" //
-                                        + "  i32.add" // $table + 4
-                                        + "  i32.load offset=0 align=4" // get the functionIndex
-                                        + "  local.get 3" // $table
-                                        + "  i32.add" // $table += i32_load[table + 4];
-                                        + "  local.set 3" // set $table
-                                        + "  br 0 " //
-                                        + "end " //
-                                        + "unreachable" // should never reach
-                        , valueOf( "java/lang/Object" ), ValueType.i32, ValueType.i32, null, ValueType.i32 ); // THIS, classIndex, virtualfunctionIndex, returns functionIndex
+                                        + "local.get 3 " // get $table
+                                        + "i32.load offset=" + TYPE_DESCRIPTION_INTERFACE_OFFSET + " align=4 " // get offset of the interface table (int position 0, byte position 0)
+                                        + "i32.add " //
+                                        + "local.get 1 " // get $interfaceSlot
+                                        + "i32.add " //
+                                        + "i32.load offset=0 align=4 " // get offset of the itable
+                                        + "local.get 3 " // get $table
+                                        + "i32.add " // $itable
+                                        + "local.get 2 " // get $virtualfunctionIndex
+                                        + "i32.add " // $itable + $virtualfunctionIndex
+                                        + "i32.load offset=0 align=4 " // get the functionIndex
+                                        + "return " //
+                        , valueOf( "java/lang/Object" ), ValueType.i32, ValueType.i32, null, ValueType.i32 ); // THIS, interfaceSlot, virtualfunctionIndex, returns functionIndex
     }
 
     /**
-     * Create the FunctionName for the INSTANCEOF operation and mark it as used. The function has 2 parameters (THIS,
-     * classIndex) and returns true if there is a match.
+     * Create the FunctionName for the INSTANCEOF operation and mark it as used. The function has 4 parameters (THIS,
+     * entry, mask, value) and returns true if there is a match. The parameters are the type test of the searched type.
      * 
      * @return the name
+     * @see StructType#writeTypeTest(ModuleWriter)
      */
     WatCodeSyntheticFunctionName createInstanceOf() {
+        /*
+        static boolean instanceof( OBJECT THIS, int entry, int mask, int value ) {
+            int list = THIS.vtable;
+            list += i32_load[list + TYPE_DESCRIPTION_INSTANCEOF_OFFSET];
+            if( i32_load[list] <= entry ) {
+                return false;
+            }
+            return (i32_load[list + 4 + entry * 4] & mask) == value;
+        }
+         */
         return new WatCodeSyntheticFunctionName( //
                         "instanceof", "local.get 0 " // THIS
                                         + "ref.is_null if i32.const 0 return end " // NULL check
                                         + "local.get 0 " // THIS
                                         + "struct.get java/lang/Object .vtable " // vtable is on index 0
-                                        + "local.tee 2 " // save the vtable location
+                                        + "local.tee 4 " // save the vtable location
                                         + "i32.load offset=" + TYPE_DESCRIPTION_INSTANCEOF_OFFSET + " align=4 " // get offset of instanceof inside vtable (int position 1, byte position 4)
-                                        + "local.get 2 " // get the vtable location
+                                        + "local.get 4 " // get the vtable location
                                         + "i32.add " //
-                                        + "local.tee 2 " // save the instanceof location
+                                        + "local.tee 4 " // save the instanceof location
                                         + "i32.load offset=0 align=4 " // count of instanceof entries
+                                        + "local.get 1 " // the entry of the type test
+                                        + "i32.le_s " //
+                                        + "if i32.const 0 return end " // the list is to short, not found
+                                        + "local.get 1 " // the entry of the type test
                                         + "i32.const 4 " //
                                         + "i32.mul " //
-                                        + "local.get 2 " // get the instanceof location
+                                        + "local.get 4 " // get the instanceof location
                                         + "i32.add " //
-                                        + "local.set 3 " // save end position
-                                        + "loop" //
-                                        + "  local.get 2 " // get the instanceof location pointer
-                                        + "  local.get 3 " // get the end location
-                                        + "  i32.eq" //
-                                        + "  if" // current offset == end offset
-                                        + "    i32.const 0" // not found
-                                        + "    return" //
-                                        + "  end" //
-                                        + "  local.get 2" // get the instanceof location pointer
-                                        + "  i32.const 4" //
-                                        + "  i32.add" // increment offset
-                                        + "  local.tee 2" // save the instanceof location pointer
-                                        + "  i32.load offset=0 align=4" //
-                                        + "  local.get 1" // the class index that we search
-                                        + "  i32.ne" //
-                                        + "  br_if 0 " //
-                                        + "end " //
-                                        + "i32.const 1 " // class/interface found
+                                        + "i32.load offset=4 align=4 " // the entry after the count
+                                        + "local.get 2 " // the mask of the type test
+                                        + "i32.and " //
+                                        + "local.get 3 " // the value of the type test
+                                        + "i32.eq " //
                                         + "return " //
-                        , valueOf( "java/lang/Object" ), ValueType.i32, null, ValueType.i32 ); // THIS, classIndex, returns boolean
+                        , valueOf( "java/lang/Object" ), ValueType.i32, ValueType.i32, ValueType.i32, null, ValueType.i32 ); // THIS, entry, mask, value, returns boolean
     }
 
     /**
-     * Create the FunctionName for the CAST operation and mark it as used. The function has 2 parameters (THIS,
-     * classIndex) and returns this if the type match else it throw an exception.
+     * Create the FunctionName for the CAST operation and mark it as used. The function has 4 parameters (THIS, entry,
+     * mask, value) and returns this if the type match else it throw an exception.
      * 
      * @return the name
+     * @see #createInstanceOf()
      */
     WatCodeSyntheticFunctionName createCast() {
         return new WatCodeSyntheticFunctionName( //
                         "cast", "local.get 0 " // THIS
                                         + "ref.is_null if local.get 0 return end " // NULL check
                                         + "local.get 0 " // THIS
-                                        + "local.get 1 " // the class index that we search
+                                        + "local.get 1 " // the type test of the searched type
+                                        + "local.get 2 " //
+                                        + "local.get 3 " //
                                         + "call $.instanceof()V " // the synthetic signature of ArraySyntheticFunctionName
                                         + "if " //
                                         + "  local.get 0 " // THIS
                                         + "  return " //
                                         + "end " //
                                         + "unreachable " // TODO throw a ClassCastException if exception handling is supported
-                        , valueOf( "java/lang/Object" ), ValueType.i32, null, valueOf( "java/lang/Object" ) );
+                        , valueOf( "java/lang/Object" ), ValueType.i32, ValueType.i32, ValueType.i32, null, valueOf( "java/lang/Object" ) );
     }
 
     /**
@@ -624,15 +799,35 @@ public static class StructType implements AnyType {
 
         private List<FunctionName>                  vtable;
 
+        private List<FunctionName>                  vtableDeclarations;
+
+        private List<StructType>                    classHierarchy;
+
+        private List<FunctionName>                  vtableFunctions;
+
         private Set<StructType>                     instanceOFs;
 
         private Map<StructType, List<FunctionName>> interfaceMethods;
 
+        private boolean                             isAbstract;
+
+        private int                                 interfaceSlot = -1;
+
+        private boolean                             isInterface;
+
+        private int                                 typeTestDepth = -1;
+
+        private int                                 typeTestBit   = -1;
+
+        private int[]                               fieldOffsets;
+
         /**
          * The offset to the vtable in the data section.
          */
         private int                                 vtableOffset;
 
+        private VTableType                          vtableType;
+
         /**
          * Create a reference to type
          * 
@@ -663,7 +858,10 @@ protected StructType( @Nonnull String name, @Nonnull StructTypeKind kind, @Nonnu
          *            the name of the field
          */
         void useFieldName( NamedStorageType fieldName ) {
+            ScanJournal journal = manager.options.functions.journal;
+            int entry = journal.enter( ScanJournal.Op.FIELD, this, fieldName );
             neededFields.add( fieldName.getName() );
+            journal.exit( entry, null );
         }
 
         /**
@@ -682,6 +880,9 @@ private void scanTypeHierarchy( FunctionManager functions, TypeManager types, Cl
             JWebAssembly.LOGGER.fine( "scan type hierachy: " + name );
             fields = new ArrayList<>();
             vtable = new ArrayList<>();
+            vtableDeclarations = new ArrayList<>();
+            classHierarchy = new ArrayList<>();
+            vtableFunctions = null;
             instanceOFs = new LinkedHashSet<>(); // remembers the order from bottom to top class.
             instanceOFs.add( this );
             interfaceMethods = new LinkedHashMap<>();
@@ -693,6 +894,7 @@ private void scanTypeHierarchy( FunctionManager functions, TypeManager types, Cl
                     HashSet<String> allNeededFields = new HashSet<>();
                     listStructFields( "java/lang/Object", functions, types, classFileLoader, allNeededFields );
                     fields.add( ((ArrayType)this).getNativeFieldName() );
+                    classHierarchy.add( this );
                     break;
                 case array_native:
                     fields.add( new NamedStorageType( ((ArrayType)this).getArrayType(), null, null ) );
@@ -702,18 +904,33 @@ private void scanTypeHierarchy( FunctionManager functions, TypeManager types, Cl
                     listStructFields( "java/lang/Object", functions, types, classFileLoader, allNeededFields );
                     LambdaType lambda = (LambdaType)this;
                     fields.addAll( lambda.getParamFields() );
+                    classHierarchy.add( this );
                     List<FunctionName> iMethods = new ArrayList<>();
                     iMethods.add( lambda.getLambdaMethod() );
                     interfaceMethods.put( lambda.getInterfaceType(), iMethods );
-                    functions.setITableIndex( new FunctionName( lambda.getInterfaceType().name, lambda.getInterfaceMethodName(), lambda.getLambdaMethod().signature ), 2 );
+                    functions.setITableIndex( new FunctionName( lambda.getInterfaceType().name, lambda.getInterfaceMethodName(), lambda.getLambdaMethod().signature ), 0 );
                     break;
                 default:
+                    ClassFile classFile = classFileLoader.get( name );
+                    isAbstract = classFile.isAbstract();
+                    isInterface = classFile.getType() == Type.Interface;
+
                     // add all interfaces to the instanceof set
                     listInterfaces( functions, types, classFileLoader );
 
                     allNeededFields = new HashSet<>();
                     listStructFields( name, functions, types, classFileLoader, allNeededFields );
             }
+
+            VTableType vtableType = types.options.useCallRef() ? getVTableType() : null;
+            if( vtableType != null && vtableType.getInstance() != null ) {
+                // the slots of the vtable struct are typed with the declaring method, overrides of subclasses need a cast of THIS
+                for( FunctionName func : vtableType.getFunctions() ) {
+                    if( func instanceof VTableFunctionName ) {
+                        functions.markAsNeeded( func, false );
+                    }
+                }
+            }
         }
 
         /**
@@ -756,16 +973,17 @@ private void listStructFields( String className, FunctionManager functions, Type
                 // to make it possible to cast an interface to java/lang/Object it must have the same fileds also if we never create an instance
                 fields.add( new NamedStorageType( ValueType.i32, className, FIELD_VTABLE ) );
                 fields.add( new NamedStorageType( ValueType.i32, className, FIELD_HASHCODE ) );
+                if( types.options.useCallRef() ) {
+                    fields.add( new NamedStorageType( types.getVTableBaseType(), className, FIELD_VTABLE_REF ) );
+                }
                 return;
             }
 
-            {
-                // list all used fields
-                StructType type = types.structTypes.get( className );
-                if( type != null ) {
-                    allNeededFields.addAll( type.neededFields );
-                    instanceOFs.add( type );
-                }
+            // list all used fields
+            StructType type = types.structTypes.get( className );
+            if( type != null ) {
+                allNeededFields.addAll( type.neededFields );
+                instanceOFs.add( type );
             }
 
             // List stuff of super class
@@ -776,6 +994,9 @@ private void listStructFields( String className, FunctionManager functions, Type
             } else {
                 fields.add( new NamedStorageType( ValueType.i32, className, FIELD_VTABLE ) );
                 fields.add( new NamedStorageType( ValueType.i32, className, FIELD_HASHCODE ) );
+                if( types.options.useCallRef() ) {
+                    fields.add( new NamedStorageType( types.getVTableBaseType(), className, FIELD_VTABLE_REF ) );
+                }
             }
 
             // list all fields
@@ -789,6 +1010,11 @@ private void listStructFields( String className, FunctionManager functions, Type
                 fields.add( new NamedStorageType( className, field, types ) );
             }
 
+            if( type != null ) {
+                // the known types from top to bottom
+                classHierarchy.add( type );
+            }
+
             // calculate the vtable (the function indexes of the virtual methods)
             for( MethodInfo method : classFile.getMethods() ) {
                 if( method.isStatic() || CONSTRUCTOR.equals( method.getName() ) ) {
@@ -838,6 +1064,7 @@ private void addOrUpdateVTable( FunctionManager functions, FunctionName funcName
             if( idx == vtable.size() && functions.isUsed( funcName ) ) {
                 // if a new needed method then add it
                 vtable.add( funcName );
+                vtableDeclarations.add( funcName );
             }
             if( idx < vtable.size() ) {
                 functions.setVTableIndex( funcName, idx + VTABLE_FIRST_FUNCTION_INDEX );
@@ -922,7 +1149,7 @@ private void listInterfaces( FunctionManager functions, TypeManager types, Class
                                 interfaceMethods.put( type, iMethods = new ArrayList<>() );
                             }
                             iMethods.add( methodName );
-                            functions.setITableIndex( iName, iMethods.size() + 1 ); // on the first two place the classIndex and the next position is saved
+                            functions.setITableIndex( iName, iMethods.size() - 1 );
                         } else {
                             throw new WasmException( "No implementation of used interface method " + iName.signatureName + " for type " + name, -1 );
                         }
@@ -931,6 +1158,33 @@ private void listInterfaces( FunctionManager functions, TypeManager types, Class
             }
         }
 
+        /**
+         * Get the implementation of an interface method for this type.
+         * 
+         * @param interfaceType
+         *            the interface
+         * @param iName
+         *            the interface method
+         * @return the implementation or null if not found
+         */
+        @Nullable
+        private FunctionName getInterfaceMethod( @Nonnull StructType interfaceType, @Nonnull FunctionName iName ) {
+            List<FunctionName> iMethods = interfaceMethods.get( interfaceType );
+            if( iMethods == null ) {
+                return null;
+            }
+            if( kind == StructTypeKind.lambda ) {
+                LambdaType lambda = (LambdaType)this;
+                return iName.methodName.equals( lambda.getInterfaceMethodName() ) ? lambda.getLambdaMethod() : null;
+            }
+            for( FunctionName func : iMethods ) {
+                if( func.methodName.equals( iName.methodName ) && func.signature.equals( iName.signature ) ) {
+                    return func;
+                }
+            }
+            return null;
+        }
+
         /**
          * List all interface StrucTypes recursively.
          * 
@@ -1084,6 +1338,49 @@ public int getClassIndex() {
             return classIndex;
         }
 
+        /**
+         * Write the parameters of the instanceof and cast function for this type as constants. For a class the entry is
+         * the depth in the class display and the value the class index. For an interface the entry is the word of the
+         * interface bitset and the mask is the bit of the interface.
+         * 
+         * @param writer
+         *            the targets for the constants
+         * @throws IOException
+         *             if any I/O error occur
+         * @see TypeManager#createInstanceOf()
+         */
+        void writeTypeTest( @Nonnull ModuleWriter writer ) throws IOException {
+            int entry;
+            int mask;
+            int value;
+            if( typeTestDepth >= 0 ) {
+                entry = 1 + typeTestDepth;
+                mask = -1;
+                value = classIndex;
+            } else if( typeTestBit >= 0 ) {
+                entry = 1 + manager.displaySize + typeTestBit / 32;
+                mask = value = 1 << (typeTestBit % 32);
+            } else {
+                // the type was never scanned and can not match
+                entry = 0;
+                mask = 0;
+                value = -1;
+            }
+            writer.writeConst( entry, ValueType.i32 );
+            writer.writeConst( mask, ValueType.i32 );
+            writer.writeConst( value, ValueType.i32 );
+        }
+
+        /**
+         * The slot of this interface in the interface table of the implementing types. Different interfaces can share
+         * the same slot if there is no type that implements both.
+         * 
+         * @return the slot or -1 if there is no type with an instance that implements this interface
+         */
+        int getInterfaceSlot() {
+            return interfaceSlot;
+        }
+
         /**
          * The running index of the component/array class/type for class meta data, instanceof and interface calls.
          * 
@@ -1099,6 +1396,8 @@ protected int getComponentClassIndex() {
          * @return the fields
          */
         public List<NamedStorageType> getFields() {
+            // the fields are set from the scan of the type hierarchy and are not part of a replayable recording
+            manager.options.functions.journal.unsupported();
             return fields;
         }
 
@@ -1134,7 +1433,13 @@ public void writeToStream( ByteArrayOutputStream dataStream, ToIntFunction<Funct
                  ├───────────────────────────────────────┤
                  |     .....                             |
                  ├───────────────────────────────────────┤
-                 | interface calls (itable)              |
+                 | interface table   [4*slots bytes]     |
+                 ├───────────────────────────────────────┤
+                 |     offset of itable of slot 0        |
+                 ├───────────────────────────────────────┤
+                 |     .....                             |
+                 ├───────────────────────────────────────┤
+                 | interface calls (itables)             |
                  ├───────────────────────────────────────┤
                  | list of instanceof    [4*(n+1) bytes] |
                  ├───────────────────────────────────────┤
@@ -1142,7 +1447,9 @@ public void writeToStream( ByteArrayOutputStream dataStream, ToIntFunction<Funct
                  ├───────────────────────────────────────┤
                  |     own class id            [4 bytes] |
                  ├───────────────────────────────────────┤
-                 |     .....             [4*(n-1) bytes] |
+                 |     class display   [4*display bytes] |
+                 ├───────────────────────────────────────┤
+                 |     interface bitset        [4*words] |
                  └───────────────────────────────────────┘
              */
             this.vtableOffset = dataStream.size();
@@ -1155,24 +1462,47 @@ public void writeToStream( ByteArrayOutputStream dataStream, ToIntFunction<Funct
             }
 
             // header position TYPE_DESCRIPTION_INTERFACE_OFFSET
-            header.writeInt32( data.size() + VTABLE_FIRST_FUNCTION_INDEX * 4 ); // offset of interface calls
+            header.writeInt32( data.size() + VTABLE_FIRST_FUNCTION_INDEX * 4 ); // offset of interface table
+            int slotCount = 0;
+            for( StructType iType : interfaceMethods.keySet() ) {
+                slotCount = Math.max( slotCount, iType.interfaceSlot + 1 );
+            }
+            int[] itableOffsets = new int[slotCount];
+            int itableOffset = data.size() + (VTABLE_FIRST_FUNCTION_INDEX + slotCount) * 4;
             for( Entry<StructType, List<FunctionName>> entry : interfaceMethods.entrySet() ) {
-                data.writeInt32( entry.getKey().getClassIndex() );
-                List<FunctionName> iMethods = entry.getValue();
-                int nextClassPosition = 4 * (2 + iMethods.size());
-                data.writeInt32( nextClassPosition );
+                itableOffsets[entry.getKey().interfaceSlot] = itableOffset;
+                itableOffset += 4 * entry.getValue().size();
+            }
+            for( int offset : itableOffsets ) {
+                data.writeInt32( offset );
+            }
+            for( List<FunctionName> iMethods : interfaceMethods.values() ) {
                 for( FunctionName funcName : iMethods ) {
                     int functIdx = getFunctionsID.applyAsInt( funcName );
                     data.writeInt32( functIdx );
                 }
             }
-            data.writeInt32( 0 ); // no more interface in itable
 
             // header position TYPE_DESCRIPTION_INSTANCEOF_OFFSET
             header.writeInt32( data.size() + VTABLE_FIRST_FUNCTION_INDEX * 4 ); // offset of instanceeof list
-            data.writeInt32( instanceOFs.size() );
+            int displaySize = manager.displaySize;
+            int[] typeTests = new int[1 + displaySize];
+            typeTests[0] = getClassIndex();
+            Arrays.fill( typeTests, 1, typeTests.length, -1 );
             for( StructType type : instanceOFs ) {
-                data.writeInt32( type.getClassIndex() );
+                if( type.typeTestDepth >= 0 ) {
+                    typeTests[1 + type.typeTestDepth] = type.getClassIndex();
+                } else if( type.typeTestBit >= 0 ) {
+                    int entry = 1 + displaySize + type.typeTestBit / 32;
+                    if( entry >= typeTests.length ) {
+                        typeTests = Arrays.copyOf( typeTests, entry + 1 );
+                    }
+                    typeTests[entry] |= 1 << (type.typeTestBit % 32);
+                }
+            }
+            data.writeInt32( typeTests.length );
+            for( int typeTest : typeTests ) {
+                data.writeInt32( typeTest );
             }
 
             int nameIdx = options.strings.get( getName().replace( '/', '.' ) );
@@ -1202,9 +1532,59 @@ public void writeToStream( ByteArrayOutputStream dataStream, ToIntFunction<Funct
          * @return the offset
          */
         public int getVTable() {
+            if( !manager.isFinish() ) {
+                // the offset is set on writing the types after the scan phase
+                manager.options.functions.recordUnknownValue();
+            }
             return this.vtableOffset;
         }
 
+        /**
+         * Get the immutable vtable struct with the typed function references of this type. Only used if call_ref is
+         * enabled.
+         * 
+         * @return the vtable type or null if this type has no vtable
+         */
+        @Nullable
+        public VTableType getVTableType() {
+            switch( kind ) {
+                case primitive:
+                case array_native:
+                    return null;
+                default:
+            }
+            VTableType type = vtableType;
+            if( type == null ) {
+                vtableType = type = new VTableType( this );
+            }
+            return type;
+        }
+
+        /**
+         * Get the layout of an instance in the linear memory. The fields are placed in the order of the field list with
+         * its natural alignment. The vtable and the hashcode are ever on the offsets 0 and 4.
+         * 
+         * @return the offsets of the fields and as last entry the size of an instance
+         * @see MemoryManager
+         */
+        int[] getFieldOffsets() {
+            int[] offsets = fieldOffsets;
+            if( offsets == null ) {
+                int count = fields.size();
+                offsets = new int[count + 1];
+                int offset = 0;
+                for( int i = 0; i < count; i++ ) {
+                    int size = MemoryManager.getSize( fields.get( i ).getType() );
+                    offset = (offset + size - 1) & -size;
+                    offsets[i] = offset;
+                    offset += size;
+                }
+                offsets[count] = offset;
+                fieldOffsets = offsets;
+            }
+            return offsets;
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -1227,6 +1607,8 @@ class LambdaType extends StructType {
 
         private String                      interfaceMethodName;
 
+        private FunctionName                instanceFunction;
+
         /**
          * Create a lambda type
          * 
@@ -1345,6 +1727,47 @@ String getInterfaceMethodName() {
             return interfaceMethodName;
         }
 
+        /**
+         * The global variable that hold the single instance of a lambda expression without parameters.
+         * 
+         * @return the name of the global variable
+         */
+        @Nonnull
+        FunctionName getInstanceField() {
+            return new FunctionName( getName(), "<instance>", "" );
+        }
+
+        /**
+         * The function that create the single instance of a lambda expression without parameters and save it in the
+         * global variable.
+         * 
+         * @return the function name
+         */
+        @Nonnull
+        FunctionName getInstanceFunction() {
+            if( instanceFunction == null ) {
+                FunctionName instance = getInstanceField();
+                instanceFunction = new ArraySyntheticFunctionName( getName(), "<createInstance>", new AnyType[] { null, this } ) {
+                    @Override
+                    protected boolean hasWasmCode() {
+                        return true;
+                    }
+
+                    @Override
+                    protected WasmCodeBuilder getCodeBuilder( WatParser watParser ) {
+                        WasmCodeBuilder codebuilder = watParser;
+                        watParser.reset( null, null, getSignature( null ) );
+                        codebuilder.addStructInstruction( StructOperator.NEW_DEFAULT, LambdaType.this.getName(), null, 0, -1 );
+                        codebuilder.addGlobalInstruction( false, instance, LambdaType.this, null, 0, -1 );
+                        codebuilder.addGlobalInstruction( true, instance, LambdaType.this, null, 0, -1 );
+                        codebuilder.addBlockInstruction( WasmBlockOperator.RETURN, null, 0, -1 );
+                        return watParser;
+                    }
+                };
+            }
+            return instanceFunction;
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -1357,6 +1780,160 @@ public boolean isSubTypeOf( AnyType type ) {
         }
     }
 
+    /**
+     * The immutable struct of a vtable with a typed function reference for every virtual method of a class. An instance
+     * is hold in a global variable and referenced from the header of every object.
+     */
+    public static class VTableType implements AnyType {
+
+        @Nullable
+        private final StructType owner;
+
+        private int              code = Integer.MAX_VALUE;
+
+        /**
+         * Create a new instance.
+         * 
+         * @param owner
+         *            the type with the vtable or null for the empty super type of all vtables
+         */
+        private VTableType( @Nullable StructType owner ) {
+            this.owner = owner;
+        }
+
+        /**
+         * Get the name of the type.
+         * 
+         * @return the name
+         */
+        @Nonnull
+        public String getName() {
+            return owner == null ? FIELD_VTABLE : owner.name + FIELD_VTABLE;
+        }
+
+        /**
+         * Get the functions of the vtable in the order of the fields. If the declaring method of a slot is from a super
+         * class then the override is wrapped with a function that cast THIS.
+         * 
+         * @return the functions
+         */
+        @Nonnull
+        public List<FunctionName> getFunctions() {
+            if( owner == null ) {
+                return Collections.emptyList();
+            }
+            List<FunctionName> functions = owner.vtableFunctions;
+            if( functions == null ) {
+                functions = new ArrayList<>();
+                for( int i = 0; i < owner.vtable.size(); i++ ) {
+                    FunctionName impl = owner.vtable.get( i );
+                    FunctionName declaration = owner.vtableDeclarations.get( i );
+                    if( !impl.className.equals( declaration.className ) ) {
+                        impl = new VTableFunctionName( owner, impl, declaration, owner.manager );
+                    }
+                    functions.add( impl );
+                }
+                owner.vtableFunctions = functions;
+            }
+            return functions;
+        }
+
+        /**
+         * Get the methods that declare the slots of the vtable. The type of a field is the function type of the
+         * declaring method. This is equal for the same slot in the vtable of all subclasses.
+         * 
+         * @return the functions
+         */
+        @Nonnull
+        public List<FunctionName> getDeclarations() {
+            return owner == null ? Collections.emptyList() : owner.vtableDeclarations;
+        }
+
+        /**
+         * Get the vtable types of the class hierarchy from the top most to this type. The rtt of a vtable is created as
+         * a sub rtt of the rtt of the super class. This make a cast to the vtable type of a super class possible.
+         * 
+         * @return the types starting with the empty super type of all vtables
+         */
+        @Nonnull
+        public List<VTableType> getHierarchy() {
+            List<VTableType> hierarchy = new ArrayList<>();
+            if( owner != null ) {
+                hierarchy.add( owner.manager.getVTableBaseType() );
+                for( StructType type : owner.classHierarchy ) {
+                    hierarchy.add( type.getVTableType() );
+                }
+            } else {
+                hierarchy.add( this );
+            }
+            return hierarchy;
+        }
+
+        /**
+         * Get the name of the global variable with the instance of this vtable.
+         * 
+         * @return the name or null if there can be no instance of the owner type
+         */
+        @Nullable
+        public FunctionName getInstance() {
+            if( owner == null || owner.isAbstract || owner.isInterface ) {
+                return null;
+            }
+            return new FunctionName( owner.name, "<vtable>", "" );
+        }
+
+        /**
+         * Get the field index of a virtual function.
+         * 
+         * @param vtableIdx
+         *            the index of the function in the vtable of the linear memory
+         * @return the field index in this struct
+         * @see FunctionManager#getVTableIndex(FunctionName)
+         */
+        public int getFieldIndex( int vtableIdx ) {
+            return vtableIdx - VTABLE_FIRST_FUNCTION_INDEX;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getCode() {
+            return code;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isRefType() {
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isSubTypeOf( AnyType type ) {
+            if( type == this ) {
+                return true;
+            }
+            if( !(type instanceof VTableType) ) {
+                return false;
+            }
+            VTableType other = (VTableType)type;
+            return other.owner == null || (owner != null && owner.isSubTypeOf( other.owner ));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return "$" + getName();
+        }
+    }
+
     /**
      * A type that can use for a block
      */
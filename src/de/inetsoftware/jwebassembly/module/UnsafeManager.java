@@ -99,7 +99,7 @@ class UnsafeManager {
      * @param instructions
      *            the instruction list of a function/method
      */
-    void replaceUnsafe( List<WasmInstruction> instructions ) {
+    synchronized void replaceUnsafe( List<WasmInstruction> instructions ) {
         // search for Unsafe function calls
         for( int i = 0; i < instructions.size(); i++ ) {
             WasmInstruction instr = instructions.get( i );
@@ -110,9 +110,11 @@ void replaceUnsafe( List<WasmInstruction> instructions ) {
                     switch( callInst.getFunctionName().className ) {
                         case UNSAFE_8:
                         case UNSAFE_11:
+                            functions.journal.unsupported(); // the state of the Unsafe replacements is shared between the methods
                             patch( instructions, i, callInst );
                             break;
                         case VARHANDLE:
+                            functions.journal.unsupported();
                             patchVarHandle( instructions, i, callInst );
                             break;
                     }
@@ -0,0 +1,116 @@
+/*
+   Copyright 2022 Volker Berlin (i-net software)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+package de.inetsoftware.jwebassembly.module;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import javax.annotation.Nonnull;
+
+import de.inetsoftware.jwebassembly.module.TypeManager.StructType;
+import de.inetsoftware.jwebassembly.wasm.AnyType;
+import de.inetsoftware.jwebassembly.wasm.StructOperator;
+import de.inetsoftware.jwebassembly.wasm.ValueTypeParser;
+import de.inetsoftware.jwebassembly.wasm.VariableOperator;
+import de.inetsoftware.jwebassembly.wasm.WasmBlockOperator;
+import de.inetsoftware.jwebassembly.watparser.WatParser;
+
+/**
+ * Synthetic function for a slot of an immutable vtable struct if call_ref is used. The slot is typed with the signature
+ * of the declaring method. The override of a subclass expects its own class as THIS. This function has the signature
+ * of the declaring method, cast THIS to the class of the instance and call the override.
+ * 
+ * @author Volker Berlin
+ */
+class VTableFunctionName extends ArraySyntheticFunctionName {
+
+    @Nonnull
+    private final StructType   type;
+
+    @Nonnull
+    private final FunctionName impl;
+
+    /**
+     * Create a new instance.
+     * 
+     * @param type
+     *            the type of the instance with the vtable
+     * @param impl
+     *            the override method that should be called
+     * @param declaration
+     *            the method that declares the vtable slot
+     * @param types
+     *            the type manager
+     */
+    VTableFunctionName( @Nonnull StructType type, @Nonnull FunctionName impl, @Nonnull FunctionName declaration, @Nonnull TypeManager types ) {
+        super( type.getName(), impl.methodName + TypeManager.FIELD_VTABLE, declaration.signature, createSignature( declaration, types ) );
+        this.type = type;
+        this.impl = impl;
+    }
+
+    /**
+     * Create the signature of the function with the class of the declaring method as THIS.
+     * 
+     * @param declaration
+     *            the method that declares the vtable slot
+     * @param types
+     *            the type manager
+     * @return the signature
+     */
+    private static AnyType[] createSignature( FunctionName declaration, TypeManager types ) {
+        ArrayList<AnyType> signature = new ArrayList<>();
+        signature.add( types.valueOf( declaration.className ) );
+        for( ValueTypeParser parser = new ValueTypeParser( declaration.signature, types ); parser.hasNext(); ) {
+            signature.add( parser.next() );
+        }
+        return signature.toArray( new AnyType[signature.size()] );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean hasWasmCode() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected WasmCodeBuilder getCodeBuilder( WatParser watParser ) {
+        WasmCodeBuilder codeBuilder = watParser;
+        codeBuilder.reset( null, null, getSignature( null ) );
+        int javaCodePos = 0;
+
+        // THIS is ever an instance of the type because the vtable struct is only referenced from instances of the type
+        codeBuilder.addLocalInstruction( VariableOperator.get, 0, javaCodePos++, -1 );
+        codeBuilder.getInstructions().add( new WasmStructInstruction( StructOperator.CAST, type, null, javaCodePos++, -1, codeBuilder.getTypeManager() ) );
+
+        // the other parameters
+        Iterator<AnyType> signature = getSignature( null );
+        signature.next(); // THIS
+        for( int i = 1; signature.next() != null; i++ ) {
+            codeBuilder.addLocalInstruction( VariableOperator.get, i, javaCodePos++, -1 );
+        }
+
+        codeBuilder.addCallInstruction( impl, true, javaCodePos++, -1 );
+        codeBuilder.addBlockInstruction( WasmBlockOperator.RETURN, null, javaCodePos++, -1 );
+
+        return codeBuilder;
+    }
+}
@@ -26,6 +26,7 @@
 import de.inetsoftware.jwebassembly.wasm.AnyType;
 import de.inetsoftware.jwebassembly.wasm.ArrayOperator;
 import de.inetsoftware.jwebassembly.wasm.ArrayType;
+import de.inetsoftware.jwebassembly.wasm.MemoryOperator;
 import de.inetsoftware.jwebassembly.wasm.ValueType;
 
 /**
@@ -76,6 +77,8 @@ class WasmArrayInstruction extends WasmInstruction {
      * @return the function or null if not needed
      */
     SyntheticFunctionName createNonGcFunction( boolean useGC ) {
+        // i8 and i16 are not valid in function signatures
+        AnyType functionType = type == ValueType.i8 || type == ValueType.i16 || type == ValueType.u16 || type == ValueType.bool ? ValueType.i32 : type;
         if( useGC ) {
             switch( op ) {
                 case NEW:
@@ -92,10 +95,39 @@ protected String getCode() {
                                             + " return";
                         }
                     };
+                    break;
+                case FILL:
+                    String name = arrayType.getName();
+                    functionName = new WatCodeSyntheticFunctionName( "array_fill_" + validJsName( type ), "local.get 1 i32.const 0 i32.lt_s " // fromIndex < 0
+                                    + "local.get 1 local.get 2 i32.gt_s i32.or " // fromIndex > toIndex
+                                    + "local.get 2 local.get 0 array.len " + name + " i32.gt_s i32.or " // toIndex > length
+                                    + "if unreachable end " //
+                                    + "block loop " //
+                                    + "local.get 1 local.get 2 i32.ge_s br_if 1 " //
+                                    + "local.get 0 local.get 1 local.get 3 array.set " + name + " " //
+                                    + "local.get 1 i32.const 1 i32.add local.set 1 " //
+                                    + "br 0 " //
+                                    + "end end " //
+                                    + "return", arrayType, ValueType.i32, ValueType.i32, functionType, null, null );
+                    break;
+                default:
+                    // native array.copy and access to the array elements
+            }
+        } else if( types.options.useLinearMemory() ) {
+            switch( op ) {
+                case NEW:
+                    functionName = types.options.memory.createArrayNew( arrayType );
+                    break;
+                case COPY:
+                    functionName = types.options.memory.createArrayCopy( type );
+                    break;
+                case FILL:
+                    functionName = types.options.memory.createArrayFill( type );
+                    break;
+                default:
+                    // direct access to the linear memory, the code builder has checked the array and calculated the address
             }
         } else {
-            // i8 and i16 are not valid in function signatures
-            AnyType functionType = type == ValueType.i8 || type == ValueType.i16 ? ValueType.i32 : type;
             switch( op ) {
                 case NEW:
                     String cmd;
@@ -104,7 +136,7 @@ protected String getCode() {
                     } else {
                         switch( (ValueType)type ) {
                             case i8:
-                                cmd = "new Uint8Array(l)";
+                                cmd = "new Int8Array(l)";
                                 break;
                             case i16:
                                 cmd = "new Int16Array(l)";
@@ -146,6 +178,18 @@ protected String getCode() {
                 case LEN:
                     functionName = new JavaScriptSyntheticFunctionName( "NonGC", "array_len", () -> "(a)=>a[2].length", ValueType.externref, null, ValueType.i32 );
                     break;
+                case COPY:
+                    // boolean and char arrays are not typed arrays in JavaScript, TypedArray.set() handles overlapping like System.arraycopy()
+                    String copy = type == ValueType.bool || type == ValueType.u16 ? "let t=s[2].slice(sp,sp+l);for(let i=0;i<l;i++)d[2][dp+i]=t[i]" : "d[2].set(s[2].subarray(sp,sp+l),dp)";
+                    functionName = new JavaScriptSyntheticFunctionName( "NonGC", "array_copy_" + validJsName( type ), () -> "(d,dp,s,sp,l)=>{" //
+                                    + "if(dp<0||sp<0||l<0||dp>d[2].length-l||sp>s[2].length-l)throw new RangeError();" //
+                                    + copy + "}", ValueType.externref, ValueType.i32, ValueType.externref, ValueType.i32, ValueType.i32, null, null );
+                    break;
+                case FILL:
+                    functionName = new JavaScriptSyntheticFunctionName( "NonGC", "array_fill_" + validJsName( type ), () -> "(a,f,t,v)=>{" //
+                                    + "if(f<0||f>t||t>a[2].length)throw new RangeError();" //
+                                    + "a[2].fill(v,f,t)}", ValueType.externref, ValueType.i32, ValueType.i32, functionType, null, null );
+                    break;
             }
         }
         return functionName;
@@ -173,6 +217,26 @@ Type getType() {
         return Type.Array;
     }
 
+    /**
+     * Get the array operation.
+     *
+     * @return the operation
+     */
+    @Nonnull
+    ArrayOperator getOperation() {
+        return op;
+    }
+
+    /**
+     * Get the type of the array.
+     *
+     * @return the array type
+     */
+    @Nonnull
+    ArrayType getArrayType() {
+        return arrayType;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -180,6 +244,22 @@ Type getType() {
     public void writeTo( @Nonnull ModuleWriter writer ) throws IOException {
         if( functionName != null ) { // nonGC
             writer.writeFunctionCall( functionName, null );
+        } else if( types.options.useLinearMemory() ) {
+            switch( op ) {
+                case GET:
+                case GET_S:
+                case GET_U:
+                    MemoryManager.writeLoad( writer, type, op != ArrayOperator.GET_U, MemoryManager.ARRAY_DATA );
+                    break;
+                case SET:
+                    MemoryManager.writeStore( writer, type, MemoryManager.ARRAY_DATA );
+                    break;
+                case LEN:
+                    writer.writeMemoryOperator( MemoryOperator.load, ValueType.i32, MemoryManager.ARRAY_LENGTH, 2 );
+                    break;
+                default:
+                    throw new WasmException( "Unsupported array operation with linear memory: " + op, getLineNumber() );
+            }
         } else {
             writer.writeArrayOperator( op, arrayType );
         }
@@ -203,6 +283,8 @@ AnyType getPushValueType() {
                 }
                 return type;
             case SET:
+            case COPY:
+            case FILL:
                 return null;
             case LEN:
                 return ValueType.i32;
@@ -220,13 +302,18 @@ int getPopCount() {
             case GET:
             case GET_S:
             case GET_U:
+                return types.options.useLinearMemory() ? 1 : 2; // with linear memory the address of the element
             case NEW_ARRAY_WITH_RTT:
                 return 2;
             case NEW:
             case LEN:
                 return 1;
             case SET:
-                return 3;
+                return types.options.useLinearMemory() ? 2 : 3;
+            case FILL:
+                return 4;
+            case COPY:
+                return 5;
             default:
                 throw new WasmException( "Unknown array operation: " + op, -1 );
         }
@@ -241,6 +328,9 @@ AnyType[] getPopValueTypes() {
             case GET:
             case GET_S:
             case GET_U:
+                if( types.options.useLinearMemory() ) {
+                    return new AnyType[] { ValueType.i32 }; // address of the element
+                }
                 return new AnyType[] { arrayType, ValueType.i32 };
             case NEW_ARRAY_WITH_RTT:
                 return new AnyType[] { ValueType.i32, ValueType.i32 }; // size, rtt type
@@ -249,7 +339,14 @@ AnyType[] getPopValueTypes() {
             case LEN:
                 return new AnyType[] { arrayType };
             case SET:
+                if( types.options.useLinearMemory() ) {
+                    return new AnyType[] { ValueType.i32, type }; // address of the element, value
+                }
                 return new AnyType[] { arrayType, ValueType.i32, type };
+            case COPY:
+                return new AnyType[] { arrayType, ValueType.i32, arrayType, ValueType.i32, ValueType.i32 }; // destination, destination position, source, source position, length
+            case FILL:
+                return new AnyType[] { arrayType, ValueType.i32, ValueType.i32, type }; // array, from index, to index, value
             default:
                 throw new WasmException( "Unknown array operation: " + op, -1 );
         }
@@ -16,7 +16,16 @@
 */
 package de.inetsoftware.jwebassembly.module;
 
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
 import de.inetsoftware.jwebassembly.module.TypeManager.StructType;
+import de.inetsoftware.jwebassembly.wasm.NumericOperator;
+import de.inetsoftware.jwebassembly.wasm.StructOperator;
+import de.inetsoftware.jwebassembly.wasm.ValueType;
+import de.inetsoftware.jwebassembly.wasm.VariableOperator;
+import de.inetsoftware.jwebassembly.wasm.WasmBlockOperator;
 
 /**
  * WasmInstruction for a function call.
@@ -79,7 +88,50 @@ int getVariableIndexOfThis() {
     }
 
     /**
-     * if this call is executed virtual or if is was optimized.
+     * {@inheritDoc}
+     */
+    @Override
+    boolean readsLocal( int index ) {
+        return localVariables != null && getVariableIndexOfThis() == index;
+    }
+
+    /**
+     * Get the index in the written function of the variable on which this can be found.
+     * 
+     * @return the index after coalescing of the variables
+     */
+    int getWasmIndexOfThis() {
+        return localVariables.getWasmIndex( getVariableIndexOfThis() );
+    }
+
+    /**
+     * Write a null check of THIS before the direct call of a devirtualized method. A null value must trap like the
+     * indirect call which loads the vtable from THIS.
+     * 
+     * @param writer
+     *            the target writer
+     * @param options
+     *            compiler properties
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    void writeNullCheckOfThis( @Nonnull ModuleWriter writer, @Nonnull WasmOptions options ) throws IOException {
+        writer.writeLocal( VariableOperator.get, getWasmIndexOfThis() );
+        if( options.useGC() ) {
+            writer.writeStructOperator( StructOperator.NON_NULL, null, null, -1 );
+            writer.writeBlockCode( WasmBlockOperator.DROP, null );
+        } else {
+            // i32.eqz in the linear memory and ref.is_null for the objects of the JavaScript host
+            writer.writeNumericOperator( NumericOperator.ifnull, ValueType.i32 );
+            writer.writeBlockCode( WasmBlockOperator.IF, ValueType.empty );
+            writer.writeBlockCode( WasmBlockOperator.UNREACHABLE, null );
+            writer.writeBlockCode( WasmBlockOperator.END, null );
+        }
+    }
+
+    /**
+     * if this call is executed virtual or if is was optimized. A devirtualized call is also virtual because THIS is
+     * needed for the null check.
      * 
      * @return true, virtual call
      */
@@ -44,6 +44,8 @@ class WasmCallInstruction extends WasmInstruction {
 
     private final String      comment;
 
+    private boolean           tailCall;
+
     /**
      * Create an instance of a function call instruction
      * 
@@ -112,11 +114,55 @@ TypeManager getTypeManager() {
         return types;
     }
 
+    /**
+     * Mark this call as tail call. The call is in a tail position and the function returns with its result.
+     */
+    void setTailCall() {
+        tailCall = true;
+    }
+
+    /**
+     * If this call should be written as tail call.
+     * 
+     * @return true, if tail call
+     */
+    boolean isTailCall() {
+        return tailCall;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    WasmInstruction snapshot() {
+        return copyFields(); // the optimizer can mark the call as tail call
+    }
+
+    /**
+     * Write a direct call of a function. If this is a tail call then a tail call is written.
+     * 
+     * @param writer
+     *            the target writer
+     * @param name
+     *            the function name
+     * @param comment
+     *            optional comment for the text format
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    void writeFunctionCall( @Nonnull ModuleWriter writer, @Nonnull FunctionName name, String comment ) throws IOException {
+        if( tailCall ) {
+            writer.writeReturnFunctionCall( name );
+        } else {
+            writer.writeFunctionCall( name, comment );
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     public void writeTo( @Nonnull ModuleWriter writer ) throws IOException {
-        writer.writeFunctionCall( name, comment );
+        writeFunctionCall( writer, name, comment );
     }
 
     /**
@@ -183,6 +229,6 @@ private void countParams() {
      */
     @Override
     public String toString() {
-        return getClass().getSimpleName() + ": call $" + name.signatureName + (comment == null ? "" : "  ;; \"" + comment + "\"");
+        return getClass().getSimpleName() + (tailCall ? ": return_call $" : ": call $") + name.signatureName + (comment == null ? "" : "  ;; \"" + comment + "\"");
     }
 }
@@ -74,16 +74,27 @@ boolean isVirtual() {
      */
     public void writeTo( @Nonnull ModuleWriter writer ) throws IOException {
         FunctionName name = getFunctionName();
+        FunctionName impl = options.types.getSingleImplementation( name, true );
+        if( impl != null ) {
+            // there is only one implementation of the interface method
+            writeNullCheckOfThis( writer, options );
+            writeFunctionCall( writer, impl, null );
+            return;
+        }
         StructType type = getThisType();
-        int classIndex = type.getClassIndex();
+        int interfaceSlot = Math.max( type.getInterfaceSlot(), 0 );
         int interfaceFunctionIdx =  options.functions.getITableIndex( name );
 
         // duplicate this on the stack
-        writer.writeLocal( VariableOperator.get, getVariableIndexOfThis() );
-        writer.writeConst( classIndex, ValueType.i32 );
+        writer.writeLocal( VariableOperator.get, getWasmIndexOfThis() );
+        writer.writeConst( interfaceSlot * 4, ValueType.i32 );
         writer.writeConst( interfaceFunctionIdx * 4, ValueType.i32 );
-        writer.writeFunctionCall( options.getCallInterface(), null ); // parameters: this, classIndex, functionIndex
+        writer.writeFunctionCall( options.getCallInterface(), null ); // parameters: this, interfaceSlot, functionIndex
 
-        writer.writeVirtualFunctionCall( name, type );
+        if( isTailCall() ) {
+            writer.writeReturnVirtualFunctionCall( name, type );
+        } else {
+            writer.writeVirtualFunctionCall( name, type );
+        }
     }
 }
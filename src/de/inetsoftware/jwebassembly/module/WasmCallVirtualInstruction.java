@@ -17,10 +17,14 @@
 package de.inetsoftware.jwebassembly.module;
 
 import java.io.IOException;
+import java.util.List;
 
 import javax.annotation.Nonnull;
 
 import de.inetsoftware.jwebassembly.module.TypeManager.StructType;
+import de.inetsoftware.jwebassembly.module.TypeManager.VTableType;
+import de.inetsoftware.jwebassembly.wasm.NamedStorageType;
+import de.inetsoftware.jwebassembly.wasm.StructOperator;
 import de.inetsoftware.jwebassembly.wasm.ValueType;
 import de.inetsoftware.jwebassembly.wasm.VariableOperator;
 
@@ -76,16 +80,43 @@ boolean isVirtual() {
     @Override
     public void writeTo( @Nonnull ModuleWriter writer ) throws IOException {
         int virtualFunctionIdx =  options.functions.getVTableIndex( getFunctionName() );
+        FunctionName impl;
         if( virtualFunctionIdx < 0 ) {
             super.writeTo( writer );
+        } else if( (impl = options.types.getSingleImplementation( getFunctionName(), false )) != null ) {
+            // there is only one implementation in the class hierarchy
+            writeNullCheckOfThis( writer, options );
+            writeFunctionCall( writer, impl, null );
+        } else if( options.useCallRef() ) {
+            // load the typed function reference from the immutable vtable struct of the object
+            StructType type = getThisType();
+            VTableType vtableType = type.getVTableType();
+            writer.writeLocal( VariableOperator.get, getWasmIndexOfThis() );
+            writer.writeStructOperator( StructOperator.GET, type, new NamedStorageType( options.types.getVTableBaseType(), "", TypeManager.FIELD_VTABLE_REF ), TypeManager.FIELD_VTABLE_REF_INDEX );
+            // the rtt of the vtable is a sub rtt of the vtables of the super classes
+            List<VTableType> hierarchy = vtableType.getHierarchy();
+            for( int i = 0; i < hierarchy.size(); i++ ) {
+                writer.writeStructOperator( i == 0 ? StructOperator.RTT_CANON : StructOperator.RTT_SUB, hierarchy.get( i ), null, -1 );
+            }
+            writer.writeStructOperator( StructOperator.CAST, vtableType, null, -1 );
+            writer.writeStructOperator( StructOperator.GET, vtableType, null, vtableType.getFieldIndex( virtualFunctionIdx ) );
+            if( isTailCall() ) {
+                writer.writeReturnFunctionCallRef( getFunctionName() );
+            } else {
+                writer.writeFunctionCallRef( getFunctionName() );
+            }
         } else {
             // duplicate this on the stack
-            writer.writeLocal( VariableOperator.get, getVariableIndexOfThis() );
+            writer.writeLocal( VariableOperator.get, getWasmIndexOfThis() );
 
             writer.writeConst( virtualFunctionIdx * 4, ValueType.i32 );
             writer.writeFunctionCall( options.getCallVirtual(), null );
             StructType type = getThisType();
-            writer.writeVirtualFunctionCall( getFunctionName(), type );
+            if( isTailCall() ) {
+                writer.writeReturnVirtualFunctionCall( getFunctionName(), type );
+            } else {
+                writer.writeVirtualFunctionCall( getFunctionName(), type );
+            }
         }
     }
 }
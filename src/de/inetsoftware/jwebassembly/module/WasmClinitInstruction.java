@@ -0,0 +1,66 @@
+/*
+   Copyright 2022 Volker Berlin (i-net software)
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+package de.inetsoftware.jwebassembly.module;
+
+import static de.inetsoftware.jwebassembly.module.WasmCodeBuilder.CLASS_INIT;
+import static de.inetsoftware.jwebassembly.module.WasmCodeBuilder.CLASS_IS_INIT;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+import de.inetsoftware.jwebassembly.wasm.ValueType;
+import de.inetsoftware.jwebassembly.wasm.WasmBlockOperator;
+
+/**
+ * WasmInstruction for the initialization of a class with lazy static constructors. It is added before a static method
+ * call and before the creation of an instance. The static constructor is only called if the class is not initialized.
+ * The instruction is removed if the class is ever initialized at this position.
+ *
+ * @author Volker Berlin
+ */
+class WasmClinitInstruction extends WasmCallInstruction {
+
+    /**
+     * Create an instance of a class initialization
+     *
+     * @param className
+     *            the class that must be initialized
+     * @param javaCodePos
+     *            the code position/offset in the Java method
+     * @param lineNumber
+     *            the line number in the Java source code
+     * @param types
+     *            the type manager
+     */
+    WasmClinitInstruction( @Nonnull String className, int javaCodePos, int lineNumber, @Nonnull TypeManager types ) {
+        super( new FunctionName( className, CLASS_INIT, "()V" ), javaCodePos, lineNumber, types, false );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeTo( @Nonnull ModuleWriter writer ) throws IOException {
+        FunctionName clinit = getFunctionName();
+        writer.writeBlockCode( WasmBlockOperator.BLOCK, null );
+        writer.writeGlobalAccess( true, new FunctionName( clinit.className, CLASS_IS_INIT, "" ), ValueType.i32 );
+        writer.writeBlockCode( WasmBlockOperator.BR_IF, 0 );
+        writer.writeFunctionCall( clinit, clinit.signatureName );
+        writer.writeBlockCode( WasmBlockOperator.END, null );
+    }
+}
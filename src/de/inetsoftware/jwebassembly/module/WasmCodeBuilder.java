@@ -15,10 +15,13 @@
  */
 package de.inetsoftware.jwebassembly.module;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Function;
 
 import javax.annotation.Nonnegative;
@@ -36,6 +39,7 @@
 import de.inetsoftware.jwebassembly.javascript.NonGC;
 import de.inetsoftware.jwebassembly.module.StackInspector.StackValue;
 import de.inetsoftware.jwebassembly.module.TypeManager.LambdaType;
+import de.inetsoftware.jwebassembly.module.TypeManager.VTableType;
 import de.inetsoftware.jwebassembly.module.WasmInstruction.Type;
 import de.inetsoftware.jwebassembly.wasm.AnyType;
 import de.inetsoftware.jwebassembly.wasm.ArrayOperator;
@@ -62,19 +66,26 @@ public abstract class WasmCodeBuilder {
     /** Java method name of static constructor or initialization method  */ 
     static final String         CLASS_INIT = "<clinit>";
 
-    private final LocaleVariableManager localVariables;
+    /** Name of the global variable that marks a class as initialized */
+    static final String         CLASS_IS_INIT = "<class_isInit>";
 
-    private final List<WasmInstruction> instructions;
+    private final LocaleVariableManager         localVariables;
 
-    private TypeManager                 types;
+    private final List<WasmInstruction>         instructions;
 
-    private FunctionManager             functions;
+    private final Map<FunctionName, MethodInfo> inlined;
 
-    private WasmOptions                 options;
+    private TypeManager                         types;
 
-    private StringManager               strings;
+    private FunctionManager                     functions;
 
-    private ClassFileLoader             classFileLoader;
+    private WasmOptions                         options;
+
+    private StringManager                       strings;
+
+    private ClassFileLoader                     classFileLoader;
+
+    private boolean                             hasThis;
 
     /**
      * Create a new instance of CodeBuilder
@@ -82,6 +93,20 @@ public abstract class WasmCodeBuilder {
     protected WasmCodeBuilder() {
         localVariables = new LocaleVariableManager();
         instructions = new ArrayList<>();
+        inlined = new HashMap<>();
+    }
+
+    /**
+     * Create a new instance that use the given local variables. The instructions of a method reference the local
+     * variables of the code builder which has created it.
+     * 
+     * @param localVariables
+     *            the local variables of the instructions that will be added
+     */
+    WasmCodeBuilder( @Nonnull LocaleVariableManager localVariables ) {
+        this.localVariables = localVariables;
+        instructions = new ArrayList<>();
+        inlined = new HashMap<>();
     }
 
     /**
@@ -93,6 +118,7 @@ protected WasmCodeBuilder() {
     WasmCodeBuilder( @Nonnull WasmCodeBuilder codeBuilder ) {
         localVariables = codeBuilder.localVariables;
         instructions = codeBuilder.instructions;
+        inlined = codeBuilder.inlined;
     }
 
     /**
@@ -122,6 +148,16 @@ List<WasmInstruction> getInstructions() {
         return instructions;
     }
 
+    /**
+     * Get the functions whose calls was replaced with the code of the function and the method of the inlined code.
+     * 
+     * @return the map
+     */
+    @Nonnull
+    Map<FunctionName, MethodInfo> getInlinedFunctions() {
+        return inlined;
+    }
+
     /**
      * Get the manager of local variables
      * @return the manager
@@ -266,7 +302,9 @@ protected TypeManager getTypeManager() {
      */
     protected void reset( LocalVariableTable variableTable, MethodInfo method, Iterator<AnyType> signature ) {
         instructions.clear();
+        inlined.clear();
         localVariables.reset( variableTable, method, signature );
+        hasThis = method != null && !method.isStatic();
     }
 
     /**
@@ -464,7 +502,7 @@ protected void addGlobalInstruction( boolean load, Member ref, int javaCodePos,
         FunctionName name = new FunctionName( ref );
         AnyType type = new ValueTypeParser( ref.getType(), types ).next();
         FunctionName clinit;
-        if( load ) {
+        if( load || options.lazyClinit() ) {
             clinit = new FunctionName( name.className, CLASS_INIT, "()V" );
             if( !functions.isUsed( clinit ) ) {
                 clinit = null;
@@ -494,6 +532,69 @@ protected void addGlobalInstruction( boolean load, Member ref, int javaCodePos,
     protected void addGlobalInstruction( boolean load, FunctionName name, AnyType type, FunctionName clinit, int javaCodePos, int lineNumber ) {
         instructions.add( new WasmGlobalInstruction( load, name, type, clinit, javaCodePos, lineNumber ) );
         functions.markClassAsUsed( name.className );
+        if( !load && type.isRefType() && options.useLinearMemory() ) {
+            // a static field with an object is a root of the collector
+            options.memory.addRoot( name, type );
+        }
+    }
+
+    /**
+     * Add the initialization of the class that declares a static method if the static constructors are called lazy.
+     * 
+     * @param name
+     *            the called static method
+     * @param javaCodePos
+     *            the code position/offset in the Java method
+     * @param lineNumber
+     *            the line number in the Java source code
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    protected void addClinitInstruction( @Nonnull FunctionName name, int javaCodePos, int lineNumber ) throws IOException {
+        if( !options.lazyClinit() ) {
+            return;
+        }
+        String className = name.className;
+        ClassFile classFile = classFileLoader.get( className );
+        if( classFile != null ) {
+            // the method can be declared in a super class, only the declaring class is initialized
+            MethodInfo method = classFileLoader.resolveMethod( classFile, name.methodName, name.signature );
+            if( method != null ) {
+                className = method.getDeclaringClassFile().getThisClass().getName();
+            }
+        }
+        addClinitInstruction( className, javaCodePos, lineNumber );
+    }
+
+    /**
+     * Add the initialization of a class and its super classes if the static constructors are called lazy. This is needed
+     * before a static method call and before the creation of an instance. Not needed initializations are removed later.
+     * 
+     * @param className
+     *            the class name like "java/lang/String"
+     * @param javaCodePos
+     *            the code position/offset in the Java method
+     * @param lineNumber
+     *            the line number in the Java source code
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    protected void addClinitInstruction( @Nonnull String className, int javaCodePos, int lineNumber ) throws IOException {
+        if( !options.lazyClinit() ) {
+            return;
+        }
+        ClassFile classFile = classFileLoader.get( className );
+        if( classFile == null ) {
+            return;
+        }
+        ConstantClass superClass = classFile.getSuperClass();
+        if( superClass != null ) {
+            // the super class is initialized first
+            addClinitInstruction( superClass.getName(), javaCodePos, lineNumber );
+        }
+        if( classFile.getMethod( CLASS_INIT, "()V" ) != null ) {
+            instructions.add( new WasmClinitInstruction( className, javaCodePos, lineNumber, types ) );
+        }
     }
 
     /**
@@ -536,7 +637,12 @@ protected void addGlobalInstruction( boolean load, String fieldName, int javaCod
      *            the line number in the Java source code
      */
     protected void addTableInstruction( boolean load, @Nonnegative int idx, int javaCodePos, int lineNumber ) {
-        instructions.add( new WasmTableInstruction( load, idx, javaCodePos, lineNumber ) );
+        WasmTableInstruction tableInst = new WasmTableInstruction( load, idx, options, javaCodePos, lineNumber );
+        instructions.add( tableInst );
+        SyntheticFunctionName name = tableInst.createLinearMemoryFunction();
+        if( name != null ) {
+            functions.markAsNeeded( name, !name.istStatic() );
+        }
     }
 
     /**
@@ -594,8 +700,8 @@ protected void addConstInstruction( Object value, int javaCodePos, int lineNumbe
     protected WasmNumericInstruction addNumericInstruction( @Nullable NumericOperator numOp, @Nullable ValueType valueType, int javaCodePos, int lineNumber ) {
         WasmNumericInstruction numeric = new WasmNumericInstruction( numOp, valueType, javaCodePos, lineNumber );
         instructions.add( numeric );
-        if( !options.useGC() && options.ref_eq == null && (numOp == NumericOperator.ref_eq || numOp == NumericOperator.ref_ne ) ) {
-            functions.markAsNeeded( options.ref_eq = getNonGC( "ref_eq", lineNumber ), false );
+        if( !options.useGC() && !options.useLinearMemory() && (numOp == NumericOperator.ref_eq || numOp == NumericOperator.ref_ne ) ) {
+            options.registerRefEq( getNonGC( "ref_eq", lineNumber ) );
         }
         return numeric;
     }
@@ -627,6 +733,26 @@ protected void addConvertInstruction( ValueTypeConvertion conversion, int javaCo
      *            the line number in the Java source code
      */
     protected void addCallInstruction( @Nonnull FunctionName name, boolean needThisParameter, int javaCodePos, int lineNumber ) {
+        if( options.inliner.isParsing( this ) ) {
+            // the function is only checked for inlining, the called function is not needed
+            instructions.add( new WasmCallInstruction( name, javaCodePos, lineNumber, types, needThisParameter ) );
+            return;
+        }
+        if( !needThisParameter ) {
+            if( addArrayIntrinsic( name, javaCodePos, lineNumber ) ) {
+                return;
+            }
+            try {
+                MethodInfo inlinedMethod = options.inlineFunctions() ? options.inliner.inline( this, name, classFileLoader, javaCodePos, lineNumber ) : null;
+                if( inlinedMethod != null ) {
+                    inlined.put( name, inlinedMethod );
+                    functions.markClassAsUsed( name.className );
+                    return;
+                }
+            } catch( IOException ex ) {
+                throw WasmException.create( ex, lineNumber );
+            }
+        }
         name = functions.markAsNeeded( name, needThisParameter );
         WasmCallInstruction instruction = new WasmCallInstruction( name, javaCodePos, lineNumber, types, needThisParameter );
 
@@ -674,6 +800,112 @@ protected void addCallInstruction( @Nonnull FunctionName name, boolean needThisP
         functions.markClassAsUsed( name.className );
     }
 
+    /**
+     * Replace the calls of System.arraycopy, Arrays.fill and Arrays.copyOf for primitive arrays with bulk operations
+     * instead of the element by element loops of the JDK. Arrays of objects are not replaced because Java checks the
+     * type of every stored element.
+     * 
+     * @param name
+     *            the function name that should be called
+     * @param javaCodePos
+     *            the code position/offset in the Java method
+     * @param lineNumber
+     *            the line number in the Java source code
+     * @return true, if the call was replaced
+     */
+    private boolean addArrayIntrinsic( @Nonnull FunctionName name, int javaCodePos, int lineNumber ) {
+        ArrayType arrayType;
+        String code;
+        AnyType[] signature;
+        switch( name.className ) {
+            case "java/lang/System":
+                if( !"arraycopy".equals( name.methodName ) ) {
+                    return false;
+                }
+                // the parameters are declared as Object, the static types of the arrays must be equals
+                AnyType type = findValueTypeFromStack( 5, javaCodePos );
+                if( !isPrimitiveArray( type ) || !type.equals( findValueTypeFromStack( 3, javaCodePos ) ) ) {
+                    return false;
+                }
+                arrayType = (ArrayType)type;
+                code = "local.get 2 local.get 3 local.get 0 local.get 1 local.get 4 array.copy " + arrayType.getName() + " return";
+                signature = new AnyType[] { arrayType, ValueType.i32, arrayType, ValueType.i32, ValueType.i32, null, null };
+                break;
+            case "java/util/Arrays":
+                String sig = name.signature;
+                if( sig.length() < 4 || sig.charAt( 1 ) != '[' || "ZBCSIJFD".indexOf( sig.charAt( 2 ) ) < 0 ) {
+                    return false;
+                }
+                String typeName = sig.substring( 1, 3 );
+                char elementType = sig.charAt( 2 );
+                arrayType = (ArrayType)getTypeManager().valueOf( typeName );
+                // i8 and i16 are not valid in function signatures
+                AnyType valueType = "ZBCS".indexOf( elementType ) >= 0 ? ValueType.i32 : arrayType.getArrayType();
+                switch( name.methodName ) {
+                    case "fill":
+                        if( sig.equals( "(" + typeName + "II" + elementType + ")V" ) ) {
+                            addArrayInstruction( ArrayOperator.FILL, arrayType.getArrayType(), javaCodePos, lineNumber );
+                            return true;
+                        }
+                        if( !sig.equals( "(" + typeName + elementType + ")V" ) ) {
+                            return false;
+                        }
+                        code = "local.get 0 i32.const 0 local.get 0 array.len " + typeName + " local.get 1 array.fill " + typeName + " return";
+                        signature = new AnyType[] { arrayType, valueType, null, null };
+                        break;
+                    case "copyOf":
+                        if( !sig.equals( "(" + typeName + "I)" + typeName ) ) {
+                            return false;
+                        }
+                        code = "local.get 1 array.new " + typeName + " local.set 2 " //
+                                        + "local.get 0 array.len " + typeName + " local.tee 3 " // copy the minimum of the old and the new length
+                                        + "local.get 1 i32.gt_s if local.get 1 local.set 3 end " //
+                                        + "local.get 2 i32.const 0 local.get 0 i32.const 0 local.get 3 array.copy " + typeName + " " //
+                                        + "local.get 2 return";
+                        signature = new AnyType[] { arrayType, ValueType.i32, null, arrayType };
+                        break;
+                    default:
+                        return false;
+                }
+                break;
+            default:
+                return false;
+        }
+        String functionName = name.className.substring( name.className.lastIndexOf( '/' ) + 1 ) + '_' + name.methodName + '_' + arrayType.getArrayType();
+        addCallInstruction( new WatCodeSyntheticFunctionName( functionName, code, signature ), false, javaCodePos, lineNumber );
+        return true;
+    }
+
+    /**
+     * If the type is an array with primitive elements.
+     * 
+     * @param type
+     *            the type
+     * @return true, if primitive array
+     */
+    private static boolean isPrimitiveArray( AnyType type ) {
+        if( !(type instanceof ArrayType) ) {
+            return false;
+        }
+        AnyType elementType = ((ArrayType)type).getArrayType();
+        if( !(elementType instanceof ValueType) ) {
+            return false;
+        }
+        switch( (ValueType)elementType ) {
+            case bool:
+            case i8:
+            case u16:
+            case i16:
+            case i32:
+            case i64:
+            case f32:
+            case f64:
+                return true;
+            default:
+                return false;
+        }
+    }
+
     /**
      * Add indirect call to the instruction.
      * 
@@ -841,6 +1073,15 @@ protected void addArrayInstruction( @Nonnull ArrayOperator op, @Nonnull AnyType
                 case LEN:
                     idx = instructions.size();
                     break;
+                case COPY:
+                    // the source array, the destination array follows below
+                    stackValue = StackInspector.findInstructionThatPushValue( instructions, 2, javaCodePos );
+                    ArrayType arrayType = types.arrayType( type );
+                    instructions.add( stackValue.idx, new WasmStructInstruction( StructOperator.GET, arrayType, arrayType.getNativeFieldName(), stackValue.instr.getCodePosition(), lineNumber, types ) );
+                    stackValue = StackInspector.findInstructionThatPushValue( instructions, 4, javaCodePos );
+                    idx = stackValue.idx;
+                    javaPos = stackValue.instr.getCodePosition();
+                    break;
                 default:
                     idx = -1;
             }
@@ -848,6 +1089,23 @@ protected void addArrayInstruction( @Nonnull ArrayOperator op, @Nonnull AnyType
                 ArrayType arrayType = types.arrayType( type );
                 instructions.add( idx, new WasmStructInstruction( StructOperator.GET, arrayType, arrayType.getNativeFieldName(), javaPos, lineNumber, types ) );
             }
+        } else if( options.useLinearMemory() ) {
+            // check the array and the index inline and replace them with the address of the element
+            switch( op ) {
+                case GET:
+                case GET_S:
+                case GET_U:
+                    addElementAddress( instructions.size(), type, javaCodePos, lineNumber );
+                    break;
+                case SET:
+                    StackValue stackValue = StackInspector.findInstructionThatPushValue( instructions, 2, javaCodePos );
+                    addElementAddress( stackValue.idx + 1, type, stackValue.instr.getCodePosition(), lineNumber );
+                    break;
+                case LEN:
+                    addNullCheck( StackInspector.findInstructionThatPushValue( instructions, 1, javaCodePos ), lineNumber );
+                    break;
+                default:
+            }
         }
 
         WasmArrayInstruction arrayInst = new WasmArrayInstruction( op, type, types, javaCodePos, lineNumber );
@@ -855,8 +1113,117 @@ protected void addArrayInstruction( @Nonnull ArrayOperator op, @Nonnull AnyType
         SyntheticFunctionName name = arrayInst.createNonGcFunction( useGC );
         if( name != null ) {
             functions.markAsNeeded( name, !name.istStatic() );
-            functions.markAsImport( name, name.getAnnotation() );
+            functions.markAsImport( name );
+        }
+    }
+
+    /**
+     * Add an inline null check for the address of an object or array in the linear memory after the instruction that
+     * push it. The check is not needed for THIS and for a new object. A local variable is read again, any other value
+     * is saved in a temporary variable.
+     * 
+     * @param stackValue
+     *            the instruction that push the address
+     * @param lineNumber
+     *            the line number in the Java source code
+     */
+    private void addNullCheck( @Nonnull StackValue stackValue, int lineNumber ) {
+        WasmInstruction instr = stackValue.instr;
+        int javaCodePos = instr.getCodePosition();
+        int idx = stackValue.idx + 1;
+        WasmInstruction reload;
+        switch( instr.getType() ) {
+            case Struct:
+                if( ((WasmStructInstruction)instr).getOperator() == StructOperator.NEW_DEFAULT ) {
+                    return; // a new object can not be null
+                }
+                reload = null;
+                break;
+            case Local:
+                WasmLocalInstruction local = (WasmLocalInstruction)instr;
+                if( local.getOperator() != VariableOperator.get ) {
+                    reload = null;
+                } else if( !(local instanceof WasmLoadStoreInstruction) ) {
+                    // the variable of WAT code, there are no temporary variables
+                    reload = new WasmLocalInstruction( VariableOperator.get, local.getIndex(), localVariables, javaCodePos, lineNumber );
+                } else if( hasThis && local.getSlot() == 0 ) {
+                    return; // the Java compiler never assign the slot of THIS
+                } else {
+                    reload = new WasmLoadStoreInstruction( VariableOperator.get, local.getSlot(), localVariables, javaCodePos, lineNumber );
+                }
+                break;
+            default:
+                reload = null;
+        }
+        if( reload == null ) {
+            int slot = getTempVariable( instr.getPushValueType(), javaCodePos, javaCodePos + 1 );
+            instructions.add( idx++, new WasmLoadStoreInstruction( VariableOperator.tee, slot, localVariables, javaCodePos, lineNumber ) );
+            reload = new WasmLoadStoreInstruction( VariableOperator.get, slot, localVariables, javaCodePos, lineNumber );
+        }
+        instructions.add( idx++, new WasmNumericInstruction( NumericOperator.eqz, ValueType.i32, javaCodePos, lineNumber ) );
+        idx = addTrap( idx, javaCodePos, lineNumber );
+        instructions.add( idx, reload );
+    }
+
+    /**
+     * Add the inline code that replace the array and the index on the stack with the address of the element in the
+     * linear memory. It trap if the array is null or if the index is out of the bounds.
+     * 
+     * @param idx
+     *            the position in the instruction list after the instruction that push the index
+     * @param type
+     *            the type of the array elements
+     * @param javaCodePos
+     *            the code position/offset in the Java method
+     * @param lineNumber
+     *            the line number in the Java source code
+     */
+    private void addElementAddress( int idx, @Nonnull AnyType type, int javaCodePos, int lineNumber ) {
+        int arraySlot = getTempVariable( ValueType.i32, javaCodePos, javaCodePos + 1 );
+        int indexSlot = getTempVariable( ValueType.i32, javaCodePos, javaCodePos + 1 );
+        instructions.add( idx++, new WasmLoadStoreInstruction( VariableOperator.set, indexSlot, localVariables, javaCodePos, lineNumber ) );
+        instructions.add( idx++, new WasmLoadStoreInstruction( VariableOperator.tee, arraySlot, localVariables, javaCodePos, lineNumber ) );
+        instructions.add( idx++, new WasmNumericInstruction( NumericOperator.eqz, ValueType.i32, javaCodePos, lineNumber ) );
+        idx = addTrap( idx, javaCodePos, lineNumber ); // null pointer
+
+        // index < 0 | index >= length
+        instructions.add( idx++, new WasmLoadStoreInstruction( VariableOperator.get, indexSlot, localVariables, javaCodePos, lineNumber ) );
+        instructions.add( idx++, new WasmConstNumberInstruction( 0, ValueType.i32, javaCodePos, lineNumber ) );
+        instructions.add( idx++, new WasmNumericInstruction( NumericOperator.lt, ValueType.i32, javaCodePos, lineNumber ) );
+        instructions.add( idx++, new WasmLoadStoreInstruction( VariableOperator.get, indexSlot, localVariables, javaCodePos, lineNumber ) );
+        instructions.add( idx++, new WasmLoadStoreInstruction( VariableOperator.get, arraySlot, localVariables, javaCodePos, lineNumber ) );
+        instructions.add( idx++, new WasmMemoryInstruction( MemoryOperator.load, ValueType.i32, MemoryManager.ARRAY_LENGTH, 2, javaCodePos, lineNumber ) );
+        instructions.add( idx++, new WasmNumericInstruction( NumericOperator.ge, ValueType.i32, javaCodePos, lineNumber ) );
+        instructions.add( idx++, new WasmNumericInstruction( NumericOperator.or, ValueType.i32, javaCodePos, lineNumber ) );
+        idx = addTrap( idx, javaCodePos, lineNumber ); // index out of bounds
+
+        // array + (index << alignment), the offset of the data is part of the load/store instruction
+        instructions.add( idx++, new WasmLoadStoreInstruction( VariableOperator.get, arraySlot, localVariables, javaCodePos, lineNumber ) );
+        instructions.add( idx++, new WasmLoadStoreInstruction( VariableOperator.get, indexSlot, localVariables, javaCodePos, lineNumber ) );
+        int size = MemoryManager.getSize( type );
+        if( size > 1 ) {
+            instructions.add( idx++, new WasmConstNumberInstruction( Integer.numberOfTrailingZeros( size ), ValueType.i32, javaCodePos, lineNumber ) );
+            instructions.add( idx++, new WasmNumericInstruction( NumericOperator.shl, ValueType.i32, javaCodePos, lineNumber ) );
         }
+        instructions.add( idx, new WasmNumericInstruction( NumericOperator.add, ValueType.i32, javaCodePos, lineNumber ) );
+    }
+
+    /**
+     * Add the code that trap with unreachable if the i32 value on the stack is not zero.
+     * 
+     * @param idx
+     *            the position in the instruction list
+     * @param javaCodePos
+     *            the code position/offset in the Java method
+     * @param lineNumber
+     *            the line number in the Java source code
+     * @return the position after the added instructions
+     */
+    private int addTrap( int idx, int javaCodePos, int lineNumber ) {
+        instructions.add( idx++, new WasmBlockInstruction( WasmBlockOperator.IF, ValueType.empty, javaCodePos, lineNumber ) );
+        instructions.add( idx++, new WasmBlockInstruction( WasmBlockOperator.UNREACHABLE, null, javaCodePos, lineNumber ) );
+        instructions.add( idx++, new WasmBlockInstruction( WasmBlockOperator.END, null, javaCodePos, lineNumber ) );
+        return idx;
     }
 
     /**
@@ -908,6 +1275,16 @@ protected void addMultiNewArrayInstruction( int dim, ArrayType type, int javaCod
      *            the line number in the Java source code
      */
     protected void addStructInstruction( StructOperator op, @Nonnull String typeName, @Nullable NamedStorageType fieldName, int javaCodePos, int lineNumber ) {
+        if( options.useLinearMemory() ) {
+            switch( op ) {
+                case GET:
+                case SET:
+                    // the field access use the address of the object, for null it would access the constant data at the start of the memory
+                    addNullCheck( StackInspector.findInstructionThatPushValue( instructions, op == StructOperator.GET ? 1 : 2, javaCodePos ), lineNumber );
+                    break;
+                default:
+            }
+        }
         WasmStructInstruction structInst = new WasmStructInstruction( op, typeName, fieldName, javaCodePos, lineNumber, types );
         instructions.add( structInst );
         switch( op ) {
@@ -920,6 +1297,12 @@ protected void addStructInstruction( StructOperator op, @Nonnull String typeName
                     addDupInstruction( false, javaCodePos, lineNumber );
                     addConstInstruction( structInst.getStructType().getVTable(), javaCodePos, lineNumber );
                     instructions.add( new WasmStructInstruction( StructOperator.SET, typeName, new NamedStorageType( ValueType.i32, "", TypeManager.FIELD_VTABLE ), javaCodePos, lineNumber, types ) );
+                    if( options.useCallRef() ) {
+                        VTableType vtableType = structInst.getStructType().getVTableType();
+                        addDupInstruction( false, javaCodePos, lineNumber );
+                        instructions.add( new WasmGlobalInstruction( true, vtableType.getInstance(), vtableType, null, javaCodePos, lineNumber ) );
+                        instructions.add( new WasmStructInstruction( StructOperator.SET, typeName, new NamedStorageType( types.getVTableBaseType(), "", TypeManager.FIELD_VTABLE_REF ), javaCodePos, lineNumber, types ) );
+                    }
                     break;
                 }
                 //$FALL-THROUGH$
@@ -928,7 +1311,7 @@ protected void addStructInstruction( StructOperator op, @Nonnull String typeName
                     SyntheticFunctionName name = structInst.createNonGcFunction();
                     if( name != null ) {
                         functions.markAsNeeded( name, !name.istStatic() );
-                        functions.markAsImport( name, name.getAnnotation() );
+                        functions.markAsImport( name );
                     }
                 }
         }
@@ -959,7 +1342,8 @@ protected void addInvokeDynamic( BootstrapMethod method, String factorySignature
         ArrayList<NamedStorageType> paramFields = type.getParamFields();
         int paramCount = paramFields.size();
         if( paramCount == 0 ) {
-            addStructInstruction( StructOperator.NEW_DEFAULT, lambdaTypeName, null, javaCodePos, lineNumber );
+            // a lambda without parameters has no state, all calls can use the same instance
+            instructions.add( new WasmConstLambdaInstruction( type, functions, javaCodePos, lineNumber ) );
         } else {
             // Lambda with parameters from the stack
             int idx = StackInspector.findInstructionThatPushValue( instructions, paramCount, javaCodePos ).idx;
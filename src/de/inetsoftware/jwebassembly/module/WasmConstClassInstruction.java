@@ -21,6 +21,7 @@
 import javax.annotation.Nonnull;
 
 import de.inetsoftware.classparser.ConstantClass;
+import de.inetsoftware.jwebassembly.module.TypeManager.StructType;
 import de.inetsoftware.jwebassembly.wasm.AnyType;
 import de.inetsoftware.jwebassembly.wasm.ValueType;
 
@@ -35,7 +36,7 @@ class WasmConstClassInstruction extends WasmInstruction {
     @Nonnull
     private final String       className;
 
-    private final int          id;
+    private final StructType   type;
 
     private final FunctionName function;
 
@@ -56,7 +57,7 @@ class WasmConstClassInstruction extends WasmInstruction {
     WasmConstClassInstruction( @Nonnull ConstantClass value, TypeManager types, int javaCodePos, int lineNumber ) {
         super( javaCodePos, lineNumber );
         this.className = value.getName();
-        id = types.valueOf( className ).getClassIndex();
+        type = types.valueOf( className );
         function = types.getClassConstantFunction();
         types.options.functions.markAsNeeded( function, false );
         valueType = types.valueOf( "java/lang/Class" );
@@ -85,7 +86,7 @@ Type getType() {
      */
     @Override
     void writeTo( @Nonnull ModuleWriter writer ) throws IOException {
-        writer.writeConst( id, ValueType.i32 );
+        writer.writeConst( type.getClassIndex(), ValueType.i32 );
         writer.writeFunctionCall( function, className );
     }
 
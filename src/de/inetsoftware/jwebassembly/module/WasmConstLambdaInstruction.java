@@ -0,0 +1,119 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.module;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+import de.inetsoftware.jwebassembly.module.TypeManager.LambdaType;
+import de.inetsoftware.jwebassembly.wasm.AnyType;
+import de.inetsoftware.jwebassembly.wasm.NumericOperator;
+import de.inetsoftware.jwebassembly.wasm.ValueType;
+import de.inetsoftware.jwebassembly.wasm.WasmBlockOperator;
+
+/**
+ * WasmInstruction for the single instance of a lambda expression without parameters. The instance is saved in a global
+ * variable on the first use.
+ *
+ * @author Volker Berlin
+ *
+ */
+class WasmConstLambdaInstruction extends WasmInstruction {
+
+    @Nonnull
+    private final LambdaType   type;
+
+    private final FunctionName field;
+
+    private final FunctionName function;
+
+    /**
+     * Create an instance of a lambda constant instruction
+     *
+     * @param type
+     *            the lambda type without parameters
+     * @param functions
+     *            the function manager
+     * @param javaCodePos
+     *            the code position/offset in the Java method
+     * @param lineNumber
+     *            the line number in the Java source code
+     */
+    WasmConstLambdaInstruction( @Nonnull LambdaType type, FunctionManager functions, int javaCodePos, int lineNumber ) {
+        super( javaCodePos, lineNumber );
+        this.type = type;
+        field = type.getInstanceField();
+        function = type.getInstanceFunction();
+        functions.markAsNeeded( function, false );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    Type getType() {
+        return Type.Lambda;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The access to the global variable is inlined. Only the first access calls the function that create the instance.
+     */
+    @Override
+    void writeTo( @Nonnull ModuleWriter writer ) throws IOException {
+        writer.writeGlobalAccess( true, field, type );
+        writer.writeNumericOperator( NumericOperator.ifnull, ValueType.i32 );
+        writer.writeBlockCode( WasmBlockOperator.IF, type );
+        writer.writeFunctionCall( function, null );
+        writer.writeBlockCode( WasmBlockOperator.ELSE, null );
+        writer.writeGlobalAccess( true, field, type );
+        writer.writeBlockCode( WasmBlockOperator.END, null );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    AnyType getPushValueType() {
+        return type;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    int getPopCount() {
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    AnyType[] getPopValueTypes() {
+        return null;
+    }
+
+    /**
+     * Only used for debugging
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + ": " + type.getName();
+    }
+}
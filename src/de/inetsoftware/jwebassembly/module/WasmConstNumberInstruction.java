@@ -76,6 +76,16 @@ Type getType() {
         return Type.Const;
     }
 
+    /**
+     * Get the constant value.
+     * 
+     * @return the value
+     */
+    @Nonnull
+    Number getValue() {
+        return value;
+    }
+
     /**
      * Find the matching ValueType for the given value.
      * 
@@ -108,6 +118,14 @@ void writeTo( @Nonnull ModuleWriter writer ) throws IOException {
         writer.writeConst( value, valueType );
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    WasmInstruction copy( int javaCodePos, int lineNumber ) {
+        return new WasmConstNumberInstruction( value, valueType, javaCodePos, lineNumber );
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -21,7 +21,9 @@
 import javax.annotation.Nonnull;
 
 import de.inetsoftware.jwebassembly.wasm.AnyType;
+import de.inetsoftware.jwebassembly.wasm.NumericOperator;
 import de.inetsoftware.jwebassembly.wasm.ValueType;
+import de.inetsoftware.jwebassembly.wasm.WasmBlockOperator;
 
 /**
  * WasmInstruction for constant Strings.
@@ -32,13 +34,15 @@
 class WasmConstStringInstruction extends WasmInstruction {
 
     @Nonnull
-    private final String       value;
+    private final String        value;
 
-    private final Integer      id;
+    private final StringManager strings;
 
-    private final FunctionName function;
+    private final FunctionName  function;
 
-    private final AnyType      valueType;
+    private final AnyType       valueType;
+
+    private final WasmOptions   options;
 
     /**
      * Create an instance of a string constant instruction
@@ -57,9 +61,11 @@ class WasmConstStringInstruction extends WasmInstruction {
     WasmConstStringInstruction( @Nonnull String value, StringManager strings, TypeManager types, int javaCodePos, int lineNumber ) {
         super( javaCodePos, lineNumber );
         this.value = value;
-        id = strings.get( value );
+        strings.get( value ); // register the string
+        this.strings = strings;
         function = strings.getStringConstantFunction();
         valueType = types.valueOf( "java/lang/String" );
+        options = types.options;
     }
 
     /**
@@ -81,12 +87,41 @@ Type getType() {
 
     /**
      * {@inheritDoc}
+     * <p>
+     * The lookup in the string table is inlined. Only the first access of a string calls the function that create the
+     * string from the data section.
      */
     @Override
     void writeTo( @Nonnull ModuleWriter writer ) throws IOException {
+        // the id is requested on writing because it depends on the order of all strings and not on the method self
+        Integer id = strings.get( value );
+        writer.writeConst( id, ValueType.i32 );
+        writeTableGet( writer );
+        writer.writeNumericOperator( NumericOperator.ifnull, ValueType.i32 );
+        writer.writeBlockCode( WasmBlockOperator.IF, valueType );
         writer.writeConst( id, ValueType.i32 );
         String comment = isAscii( value ) ? value : null;
         writer.writeFunctionCall( function, comment );
+        writer.writeBlockCode( WasmBlockOperator.ELSE, null );
+        writer.writeConst( id, ValueType.i32 );
+        writeTableGet( writer );
+        writer.writeBlockCode( WasmBlockOperator.END, null );
+    }
+
+    /**
+     * Write the access to the string table. The index must be on the stack.
+     * 
+     * @param writer
+     *            the target
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    private void writeTableGet( @Nonnull ModuleWriter writer ) throws IOException {
+        if( options.useLinearMemory() ) {
+            options.memory.writeTableGet( writer, ModuleWriter.STRING_TABLE );
+        } else {
+            writer.writeTable( true, ModuleWriter.STRING_TABLE );
+        }
     }
 
     /**
@@ -53,6 +53,15 @@ Type getType() {
         return Type.Convert;
     }
 
+    /**
+     * Get the conversion type.
+     * 
+     * @return the conversion
+     */
+    ValueTypeConvertion getConversion() {
+        return conversion;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -61,6 +70,14 @@ public void writeTo( ModuleWriter writer ) throws IOException {
         writer.writeCast( conversion );
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    WasmInstruction copy( int javaCodePos, int lineNumber ) {
+        return new WasmConvertInstruction( conversion, javaCodePos, lineNumber );
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -72,18 +89,22 @@ AnyType getPushValueType() {
             case i2b:
             case i2c:
             case i2s:
+            case f2i_re:
                 return ValueType.i32;
             case i2l:
             case f2l:
             case d2l:
+            case d2l_re:
                 return ValueType.i64;
             case i2f:
             case l2f:
             case d2f:
+            case i2f_re:
                 return ValueType.f32;
             case i2d:
             case l2d:
             case f2d:
+            case l2d_re:
                 return ValueType.f64;
             default:
                 throw new Error( conversion.toString() );
@@ -110,18 +131,22 @@ AnyType[] getPopValueTypes() {
             case i2l:
             case i2f:
             case i2d:
+            case i2f_re:
                 return new AnyType[] { ValueType.i32 };
             case l2i:
             case l2f:
             case l2d:
+            case l2d_re:
                 return new AnyType[] { ValueType.i64 };
             case f2i:
             case f2l:
             case f2d:
+            case f2i_re:
                 return new AnyType[] { ValueType.f32 };
             case d2i:
             case d2l:
             case d2f:
+            case d2l_re:
                 return new AnyType[] { ValueType.f64 };
             default:
                 throw new Error( conversion.toString() );
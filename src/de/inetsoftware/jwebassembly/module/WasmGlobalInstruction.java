@@ -16,12 +16,16 @@
 */
 package de.inetsoftware.jwebassembly.module;
 
+import static de.inetsoftware.jwebassembly.module.WasmCodeBuilder.CLASS_IS_INIT;
+
 import java.io.IOException;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import de.inetsoftware.jwebassembly.wasm.AnyType;
+import de.inetsoftware.jwebassembly.wasm.ValueType;
+import de.inetsoftware.jwebassembly.wasm.WasmBlockOperator;
 
 /**
  * WasmInstruction for set and get global variables.
@@ -81,13 +85,47 @@ FunctionName getFieldName() {
         return name;
     }
 
+    /**
+     * If it is a load (GET) or a store (SET) operation
+     *
+     * @return true, if load
+     */
+    boolean isLoad() {
+        return load;
+    }
+
+    /**
+     * The type of the field
+     *
+     * @return the type
+     */
+    @Nonnull
+    AnyType getFieldType() {
+        return type;
+    }
+
+    /**
+     * The class/static constructor which is executed before the field access.
+     *
+     * @return the constructor or null
+     */
+    @Nullable
+    FunctionName getClinit() {
+        return clinit;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void writeTo( @Nonnull ModuleWriter writer ) throws IOException {
         if( clinit != null ) {
+            // inline the test of the static constructor, the call is only needed on the first access
+            writer.writeBlockCode( WasmBlockOperator.BLOCK, null );
+            writer.writeGlobalAccess( true, new FunctionName( clinit.className, CLASS_IS_INIT, "" ), ValueType.i32 );
+            writer.writeBlockCode( WasmBlockOperator.BR_IF, 0 );
             writer.writeFunctionCall( clinit, clinit.signatureName );
+            writer.writeBlockCode( WasmBlockOperator.END, null );
         }
         writer.writeGlobalAccess( load, name, type );
     }
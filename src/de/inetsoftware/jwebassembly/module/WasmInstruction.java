@@ -17,6 +17,7 @@
 package de.inetsoftware.jwebassembly.module;
 
 import java.io.IOException;
+import java.io.Serializable;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -29,13 +30,13 @@
  * @author Volker Berlin
  *
  */
-abstract class WasmInstruction {
+abstract class WasmInstruction implements Cloneable, Serializable {
 
     /**
      * Type of instruction to faster differ as with instanceof.
      */
     static enum Type {
-        Const, String, Clazz, Convert, Local, Global, Table, Memory, Block, Numeric, Nop, Jump, Call, CallVirtual, CallInterface, Array, Struct, DupThis;
+        Const, String, Clazz, Convert, Local, Global, Table, Memory, Block, Numeric, Nop, Jump, Call, CallVirtual, CallInterface, Array, Struct, DupThis, Lambda;
     }
 
     private int       javaCodePos;
@@ -73,6 +74,56 @@ static enum Type {
      */
     abstract void writeTo( @Nonnull ModuleWriter writer ) throws IOException;
 
+    /**
+     * Create a copy of this instruction for inlining into another function.
+     * 
+     * @param javaCodePos
+     *            the code position/offset of the call in the Java method
+     * @param lineNumber
+     *            the line number of the call in the Java source code
+     * @return the copy or null if the instruction can not be inlined
+     */
+    @Nullable
+    WasmInstruction copy( int javaCodePos, int lineNumber ) {
+        return null;
+    }
+
+    /**
+     * If this instruction reads the value of the local variable. The most instructions does not access local variables.
+     * 
+     * @param index
+     *            the index of the variable
+     * @return true, if the value of the variable is read
+     */
+    boolean readsLocal( int index ) {
+        return false;
+    }
+
+    /**
+     * Get a snapshot of this instruction that is not changed if the optimizer changes this instruction later. The most
+     * instructions are immutable after the creation and return itself.
+     * 
+     * @return this instruction or a copy
+     */
+    @Nonnull
+    WasmInstruction snapshot() {
+        return this;
+    }
+
+    /**
+     * Create a copy of this instruction with the current values of all fields.
+     * 
+     * @return the copy
+     */
+    @Nonnull
+    final WasmInstruction copyFields() {
+        try {
+            return (WasmInstruction)clone();
+        } catch( CloneNotSupportedException ex ) {
+            throw new IllegalStateException( ex ); // can not occur because it is Cloneable
+        }
+    }
+
     /**
      * Get current code position in Java method.
      * 
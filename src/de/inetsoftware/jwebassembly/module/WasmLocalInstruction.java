@@ -86,6 +86,14 @@ VariableOperator getOperator() {
         return op;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    boolean readsLocal( int index ) {
+        return op == get && getIndex() == index;
+    }
+
     /**
      * Set the operator
      * 
@@ -96,6 +104,14 @@ void setOperator( @Nonnull VariableOperator op ) {
         this.op = op;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    WasmInstruction snapshot() {
+        return copyFields(); // the operator can be changed to tee from the optimizer
+    }
+
     /**
      * Get the slot of the locals
      * 
@@ -121,7 +137,7 @@ int getIndex() {
      */
     @Override
     public void writeTo( @Nonnull ModuleWriter writer ) throws IOException {
-        int index = getIndex();
+        int index = localVariables.getWasmIndex( getIndex() );
         writer.writeLocal( op, index );
     }
 
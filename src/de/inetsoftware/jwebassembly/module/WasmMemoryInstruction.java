@@ -50,7 +50,7 @@ class WasmMemoryInstruction extends WasmInstruction {
      * @param offset
      *            the base offset which will be added to the offset value on the stack
      * @param alignment
-     *            the alignment of the value on the linear memory (0: 8 Bit; 1: 16 Bit; 2: 32 Bit)
+     *            the alignment of the value on the linear memory (0: 8 Bit; 1: 16 Bit; 2: 32 Bit; 3: 64 Bit)
      * @param javaCodePos
      *            the code position/offset in the Java method
      * @param lineNumber
@@ -72,6 +72,24 @@ Type getType() {
         return Type.Memory;
     }
 
+    /**
+     * Get the memory operation.
+     *
+     * @return the operation
+     */
+    MemoryOperator getOperator() {
+        return op;
+    }
+
+    /**
+     * Get the base offset which will be added to the address on the stack.
+     *
+     * @return the offset
+     */
+    int getOffset() {
+        return offset;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -80,12 +98,32 @@ public void writeTo( @Nonnull ModuleWriter writer ) throws IOException {
         writer.writeMemoryOperator( op, type, offset, alignment );
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    WasmInstruction copy( int javaCodePos, int lineNumber ) {
+        return new WasmMemoryInstruction( op, type, offset, alignment, javaCodePos, lineNumber );
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     AnyType getPushValueType() {
-        return op.name().startsWith( "load" ) ? type : null;
+        switch( op ) {
+            case store8:
+            case store16:
+            case store:
+            case copy:
+            case fill:
+                return null;
+            case size:
+            case grow:
+                return ValueType.i32;
+            default:
+                return type;
+        }
     }
 
     /**
@@ -93,7 +131,19 @@ AnyType getPushValueType() {
      */
     @Override
     int getPopCount() {
-        return op.name().startsWith( "load" ) ? 0 : 1;
+        switch( op ) {
+            case store8:
+            case store16:
+            case store:
+                return 2;
+            case copy:
+            case fill:
+                return 3;
+            case size:
+                return 0;
+            default:
+                return 1;
+        }
     }
 
     /**
@@ -101,6 +151,18 @@ int getPopCount() {
      */
     @Override
     AnyType[] getPopValueTypes() {
-        return op.name().startsWith( "load" ) ? null : new AnyType[] { type };
+        switch( op ) {
+            case store8:
+            case store16:
+            case store:
+                return new AnyType[] { ValueType.i32, type };
+            case copy:
+            case fill:
+                return new AnyType[] { ValueType.i32, ValueType.i32, ValueType.i32 };
+            case size:
+                return null;
+            default:
+                return new AnyType[] { ValueType.i32 };
+        }
     }
 }
@@ -63,6 +63,16 @@ Type getType() {
         return Type.Numeric;
     }
 
+    /**
+     * Get the type of the parameters.
+     * 
+     * @return the type
+     */
+    @Nullable
+    ValueType getValueType() {
+        return valueType;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -70,6 +80,14 @@ public void writeTo( @Nonnull ModuleWriter writer ) throws IOException {
         writer.writeNumericOperator( numOp, valueType );
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    WasmInstruction copy( int javaCodePos, int lineNumber ) {
+        return new WasmNumericInstruction( numOp, valueType, javaCodePos, lineNumber );
+    }
+
     /**
      * {@inheritDoc}
      */
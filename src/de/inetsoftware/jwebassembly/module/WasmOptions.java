@@ -42,14 +42,38 @@ public class WasmOptions {
     @Nonnull
     final CodeOptimizer           optimizer = new CodeOptimizer();
 
+    @Nonnull
+    final FunctionInliner         inliner   = new FunctionInliner();
+
+    @Nonnull
+    final MemoryManager           memory    = new MemoryManager( this );
+
     private final boolean         debugNames;
 
     private final boolean         useGC;
 
     private final boolean         useEH;
 
+    private final boolean         useLinearMemory;
+
+    private final boolean         useCallRef;
+
+    private final boolean         useTailCall;
+
     private final boolean         ignoreNative;
 
+    private final int             parallelThreads;
+
+    private final long            classCacheLimit;
+
+    private final long            codeBufferLimit;
+
+    private final boolean         evaluateClinit;
+
+    private final boolean         lazyClinit;
+
+    private final boolean         inlineFunctions;
+
     @Nonnull
     private final String          sourceMapBase;
 
@@ -78,7 +102,20 @@ public WasmOptions( HashMap<String, String> properties ) {
         debugNames = Boolean.parseBoolean( properties.get( JWebAssembly.DEBUG_NAMES ) );
         useGC = Boolean.parseBoolean( properties.getOrDefault( JWebAssembly.WASM_USE_GC, "false" ) );
         useEH = Boolean.parseBoolean( properties.getOrDefault( JWebAssembly.WASM_USE_EH, "false" ) );
+        useLinearMemory = !useGC && Boolean.parseBoolean( properties.getOrDefault( JWebAssembly.WASM_USE_LINEAR_MEMORY, "false" ) );
+        useCallRef = useGC && Boolean.parseBoolean( properties.getOrDefault( JWebAssembly.WASM_USE_CALL_REF, "false" ) );
+        useTailCall = Boolean.parseBoolean( properties.getOrDefault( JWebAssembly.WASM_USE_TAIL_CALL, "false" ) );
+        if( useTailCall ) {
+            optimizer.addRule( new CodeOptimizer.TailCall() );
+        }
         ignoreNative = Boolean.parseBoolean( properties.getOrDefault( JWebAssembly.IGNORE_NATIVE, "false" ) );
+        int threads = Integer.parseInt( properties.getOrDefault( JWebAssembly.PARALLEL_THREADS, "1" ).trim() );
+        parallelThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        classCacheLimit = Long.parseLong( properties.getOrDefault( JWebAssembly.CLASS_CACHE_LIMIT, "0" ).trim() ) * 1024 * 1024;
+        codeBufferLimit = (long)Math.ceil( Double.parseDouble( properties.getOrDefault( JWebAssembly.CODE_BUFFER_LIMIT, "0" ).trim() ) * 1024 * 1024 );
+        evaluateClinit = Boolean.parseBoolean( properties.getOrDefault( JWebAssembly.EVALUATE_CLINIT, "false" ) );
+        lazyClinit = Boolean.parseBoolean( properties.getOrDefault( JWebAssembly.LAZY_CLINIT, "false" ) );
+        inlineFunctions = Boolean.parseBoolean( properties.getOrDefault( JWebAssembly.INLINE_FUNCTIONS, "true" ) );
 
         String base = properties.getOrDefault( JWebAssembly.SOURCE_MAP_BASE, "" );
         if( !base.isEmpty() && !base.endsWith( "/" ) ) {
@@ -105,6 +142,35 @@ public boolean useGC() {
         return useGC;
     }
 
+    /**
+     * If the objects and arrays of the non GC mode are allocated in the linear memory of WASM instead of the JavaScript
+     * host. Is ever false with GC.
+     * 
+     * @return true, use load and store instructions for the fields of objects and the elements of arrays
+     */
+    public boolean useLinearMemory() {
+        return useLinearMemory;
+    }
+
+    /**
+     * If the virtual calls of the GC mode use typed function references from an immutable vtable struct. Is ever false
+     * without GC.
+     * 
+     * @return true, use struct.get and call_ref for virtual calls
+     */
+    public boolean useCallRef() {
+        return useCallRef;
+    }
+
+    /**
+     * If calls in a tail position are written as tail calls.
+     * 
+     * @return true, use return_call and return_call_indirect
+     */
+    public boolean useTailCall() {
+        return useTailCall;
+    }
+
     /**
      * If the exception handling feature of WASM should be use or an unreachable instruction.
      * 
@@ -123,6 +189,60 @@ public boolean ignoreNative() {
         return ignoreNative;
     }
 
+    /**
+     * The count of worker threads for scanning the libraries and optimizing the code of the functions.
+     *
+     * @return the count of threads, 1 for sequential compiling
+     */
+    public int parallelThreads() {
+        return parallelThreads;
+    }
+
+    /**
+     * The memory limit for the class files that are loaded on demand.
+     *
+     * @return the limit in bytes or 0 for no limit
+     */
+    public long classCacheLimit() {
+        return classCacheLimit;
+    }
+
+    /**
+     * The memory limit for the function bodies in the binary output.
+     *
+     * @return the limit in bytes or 0 for no limit
+     */
+    public long codeBufferLimit() {
+        return codeBufferLimit;
+    }
+
+    /**
+     * If the static class initializers should be evaluated at compile time if possible.
+     *
+     * @return true, if evaluate
+     */
+    public boolean evaluateClinit() {
+        return evaluateClinit;
+    }
+
+    /**
+     * If the static class initializers are called on the first use of the class instead of the start function.
+     *
+     * @return true, if lazy
+     */
+    public boolean lazyClinit() {
+        return lazyClinit;
+    }
+
+    /**
+     * If the calls of small static functions with a WasmTextCode annotation are inlined.
+     *
+     * @return true, if inlined
+     */
+    public boolean inlineFunctions() {
+        return inlineFunctions;
+    }
+
     /**
      * Get the relative path between the final wasm file location and the source files location.
      * If not empty it should end with a slash like "../../src/main/java/". 
@@ -137,15 +257,31 @@ public String getSourceMapBase() {
      * Register FunctionName "NonGC.get_i32" for frequently access to vtable with non GC mode.
      */
     void registerGet_i32() {
-        if( useGC ) {
+        if( useGC || useLinearMemory ) {
             return;
         }
+        int entry = functions.journal.enter( ScanJournal.Op.GET_I32 );
         if( get_i32 == null ) {
             SyntheticFunctionName name;
             get_i32 = name = new JavaScriptSyntheticFunctionName( "NonGC", "get_i32", () -> "(a,i) => a[i]", ValueType.externref, ValueType.i32, null, ValueType.i32 );
             functions.markAsNeeded( name, !name.istStatic() );
-            functions.markAsImport( name, name.getAnnotation() );
+            functions.markAsImport( name );
+        }
+        functions.journal.exit( entry, null );
+    }
+
+    /**
+     * Register the NonGC polyfill function for ref_eq if not already done.
+     * 
+     * @param name
+     *            the polyfill function
+     */
+    void registerRefEq( @Nonnull FunctionName name ) {
+        int entry = functions.journal.enter( ScanJournal.Op.REF_EQ, name );
+        if( ref_eq == null ) {
+            functions.markAsNeeded( ref_eq = name, false );
         }
+        functions.journal.exit( entry, null );
     }
 
     /**
@@ -156,13 +292,14 @@ void registerGet_i32() {
      */
     @Nonnull
     FunctionName getCallVirtual() {
+        int entry = functions.journal.enter( ScanJournal.Op.CALL_VIRTUAL );
         FunctionName name = callVirtual;
         if( name == null ) {
             callVirtual = name = types.createCallVirtual();
             functions.markAsNeeded( name, false );
             registerGet_i32();
         }
-        return name;
+        return functions.journal.exit( entry, name );
     }
 
     /**
@@ -173,46 +310,49 @@ FunctionName getCallVirtual() {
      */
     @Nonnull
     FunctionName getCallInterface() {
+        int entry = functions.journal.enter( ScanJournal.Op.CALL_INTERFACE );
         FunctionName name = callInterface;
         if( name == null ) {
             callInterface = name = types.createCallInterface();
             functions.markAsNeeded( name, false );
             registerGet_i32();
         }
-        return name;
+        return functions.journal.exit( entry, name );
     }
 
     /**
-     * Get the FunctionName for an INSTANCEOF check and mark it as used. The function has 2 parameters (THIS,
-     * classIndex) and returns true or false.
+     * Get the FunctionName for an INSTANCEOF check and mark it as used. The function has 4 parameters (THIS and the
+     * type test of the searched type) and returns true or false.
      * 
      * @return the name
      */
     @Nonnull
     SyntheticFunctionName getInstanceOf() {
+        int entry = functions.journal.enter( ScanJournal.Op.INSTANCE_OF );
         SyntheticFunctionName name = instanceOf;
         if( name == null ) {
             instanceOf = name = types.createInstanceOf();
             functions.markAsNeeded( name, !name.istStatic() );
             registerGet_i32();
         }
-        return name;
+        return functions.journal.exit( entry, name );
     }
 
     /**
-     * Get the FunctionName for a CAST operation and mark it as used. The function has 2 parameters (THIS, classIndex)
-     * and returns THIS or throw an exception.
+     * Get the FunctionName for a CAST operation and mark it as used. The function has 4 parameters (THIS and the type
+     * test of the searched type) and returns THIS or throw an exception.
      * 
      * @return the name
      */
     @Nonnull
     SyntheticFunctionName getCast() {
+        int entry = functions.journal.enter( ScanJournal.Op.CAST );
         SyntheticFunctionName name = cast;
         if( name == null ) {
             cast = name = types.createCast();
             functions.markAsNeeded( name, !name.istStatic() );
             getInstanceOf();
         }
-        return name;
+        return functions.journal.exit( entry, name );
     }
 }
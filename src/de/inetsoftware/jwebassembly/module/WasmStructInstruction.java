@@ -103,6 +103,18 @@ class WasmStructInstruction extends WasmInstruction {
      * @return the function or null if not needed
      */
     SyntheticFunctionName createNonGcFunction() {
+        if( options.useLinearMemory() ) {
+            switch( op ) {
+                case NEW:
+                case NEW_DEFAULT:
+                    return functionName = options.memory.getAllocate();
+                case SET:
+                case GET:
+                    // direct access to the linear memory
+                    return null;
+                default:
+            }
+        }
         switch( op ) {
             case NEW:
             case NEW_DEFAULT:
@@ -161,6 +173,24 @@ private static String validJsName( AnyType type ) {
         return type instanceof StructType ? "anyref" : type.toString();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    WasmInstruction copy( int javaCodePos, int lineNumber ) {
+        switch( op ) {
+            case GET:
+            case SET:
+                WasmStructInstruction copy = new WasmStructInstruction( op, type, fieldName, javaCodePos, lineNumber, options.types );
+                if( functionName != null ) {
+                    copy.createNonGcFunction();
+                }
+                return copy;
+            default:
+                return null;
+        }
+    }
+
     /**
      * Get the StructOperator
      * 
@@ -179,6 +209,16 @@ StructType getStructType() {
         return type;
     }
 
+    /**
+     * Get the field of this instruction.
+     *
+     * @return the field or null if the operation has no field
+     */
+    @Nullable
+    NamedStorageType getFieldName() {
+        return fieldName;
+    }
+
     /**
      * Set a new type for NULL const. 
      * @param type the type
@@ -232,10 +272,40 @@ public void writeTo( @Nonnull ModuleWriter writer ) throws IOException {
                 break;
             case INSTANCEOF:
             case CAST:
-                idx = type.getClassIndex();
+                if( functionName != null ) {
+                    type.writeTypeTest( writer );
+                }
                 break;
             default:
         }
+        if( options.useLinearMemory() ) {
+            switch( op ) {
+                case NEW:
+                case NEW_DEFAULT:
+                    int[] offsets = type.getFieldOffsets();
+                    writer.writeConst( offsets[offsets.length - 1], ValueType.i32 ); // size
+                    writer.writeConst( type.getVTable(), ValueType.i32 );
+                    writer.writeFunctionCall( functionName, type.getName() );
+                    return;
+                case GET:
+                case SET:
+                    if( idx < 0 ) {
+                        throw new WasmException( "Missing field " + fieldName.getName() + " in type " + type.getName(), getLineNumber() );
+                    }
+                    AnyType fieldType = type.getFields().get( idx ).getType();
+                    int offset = type.getFieldOffsets()[idx];
+                    if( op == StructOperator.GET ) {
+                        MemoryManager.writeLoad( writer, fieldType, true, offset );
+                    } else {
+                        MemoryManager.writeStore( writer, fieldType, offset );
+                    }
+                    return;
+                case NULL:
+                    writer.writeConst( 0, ValueType.i32 );
+                    return;
+                default:
+            }
+        }
         if( functionName != null ) { // nonGC
             if( idx >= 0 ) {
                 writer.writeConst( idx, ValueType.i32 );
@@ -246,6 +316,10 @@ public void writeTo( @Nonnull ModuleWriter writer ) throws IOException {
                 writer.writeStructOperator( op, type, null, -1 );
             }
         } else {
+            if( op == StructOperator.CAST ) {
+                // cast without a type test, the type of the value is known
+                writer.writeStructOperator( StructOperator.RTT_CANON, type, null, -1 );
+            }
             writer.writeStructOperator( op, type, fieldName, idx );
         }
     }
@@ -1,5 +1,5 @@
 /*
-   Copyright 2019 - 2021 Volker Berlin (i-net software)
+   Copyright 2019 - 2022 Volker Berlin (i-net software)
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -36,6 +36,10 @@ class WasmTableInstruction extends WasmInstruction {
 
     private int     idx;
 
+    private final WasmOptions options;
+
+    private SyntheticFunctionName functionName;
+
     /**
      * Create an instance of a load/store instruction
      * 
@@ -43,15 +47,30 @@ class WasmTableInstruction extends WasmInstruction {
      *            true: if "get" else "set"
      * @param idx
      *            the index of the table
+     * @param options
+     *            compiler properties
      * @param javaCodePos
      *            the code position/offset in the Java method
      * @param lineNumber
      *            the line number in the Java source code
      */
-    WasmTableInstruction( boolean load, @Nonnegative int idx, int javaCodePos, int lineNumber ) {
+    WasmTableInstruction( boolean load, @Nonnegative int idx, WasmOptions options, int javaCodePos, int lineNumber ) {
         super( javaCodePos, lineNumber );
         this.load = load;
         this.idx = idx;
+        this.options = options;
+    }
+
+    /**
+     * Create the synthetic function of this instruction if required for the operation.
+     * 
+     * @return the function or null if not needed
+     */
+    SyntheticFunctionName createLinearMemoryFunction() {
+        if( options.useLinearMemory() && !load ) {
+            functionName = options.memory.createTableSet( idx );
+        }
+        return functionName;
     }
 
     /**
@@ -67,7 +86,23 @@ Type getType() {
      */
     @Override
     public void writeTo( @Nonnull ModuleWriter writer ) throws IOException {
-        writer.writeTable( load, idx );
+        if( functionName != null ) {
+            writer.writeFunctionCall( functionName, null );
+        } else if( options.useLinearMemory() ) {
+            options.memory.writeTableGet( writer, idx );
+        } else {
+            writer.writeTable( load, idx );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    WasmInstruction copy( int javaCodePos, int lineNumber ) {
+        WasmTableInstruction copy = new WasmTableInstruction( load, idx, options, javaCodePos, lineNumber );
+        copy.createLinearMemoryFunction();
+        return copy;
     }
 
     /**
@@ -16,6 +16,7 @@
 */
 package de.inetsoftware.jwebassembly.module.nativecode;
 
+import static de.inetsoftware.jwebassembly.module.ModuleWriter.CLASS_TABLE;
 import static de.inetsoftware.jwebassembly.module.TypeManager.BOOLEAN;
 import static de.inetsoftware.jwebassembly.module.TypeManager.BYTE;
 import static de.inetsoftware.jwebassembly.module.TypeManager.CHAR;
@@ -140,7 +141,7 @@ private static ReplacementForClass<?> classConstant( int classIdx ) {
      * @return the string or null if not already set.
      */
     @WasmTextCode( "local.get 0 " + //
-                    "table.get 2 " + // table 2 is used for classes
+                    "table.get " + CLASS_TABLE + " " + //
                     "return" )
     private static native ReplacementForClass<?> getClassFromTable( int classIdx );
 
@@ -156,7 +157,7 @@ private static ReplacementForClass<?> classConstant( int classIdx ) {
      */
     @WasmTextCode( "local.get 0 " + //
                     "local.get 1 " + //
-                    "table.set 2 " + // table 2 is used for classes
+                    "table.set " + CLASS_TABLE + " " + //
                     "return" )
     private static native void setClassIntoTable( int strIdx, ReplacementForClass<?> clazz );
 
@@ -16,6 +16,8 @@
 */
 package de.inetsoftware.jwebassembly.module.nativecode;
 
+import static de.inetsoftware.jwebassembly.module.ModuleWriter.STRING_TABLE;
+
 import de.inetsoftware.jwebassembly.api.annotation.WasmTextCode;
 
 /**
@@ -71,7 +73,7 @@ static String stringConstant( int strIdx ) {
      * @return the string or null if not already set.
      */
     @WasmTextCode( "local.get 0 " + //
-                    "table.get 1 " + //
+                    "table.get " + STRING_TABLE + " " + //
                     "return" )
     private static native String getStringFromTable( int strIdx );
 
@@ -86,7 +88,7 @@ static String stringConstant( int strIdx ) {
      */
     @WasmTextCode( "local.get 0 " + //
                     "local.get 1 " + //
-                    "table.set 1 " + //
+                    "table.set " + STRING_TABLE + " " + //
                     "return" )
     private static native void setStringIntoTable( int strIdx, String str );
 
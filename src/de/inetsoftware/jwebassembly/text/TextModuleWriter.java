@@ -20,6 +20,7 @@
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -33,6 +34,7 @@
 import de.inetsoftware.jwebassembly.module.ModuleWriter;
 import de.inetsoftware.jwebassembly.module.TypeManager.BlockType;
 import de.inetsoftware.jwebassembly.module.TypeManager.StructType;
+import de.inetsoftware.jwebassembly.module.TypeManager.VTableType;
 import de.inetsoftware.jwebassembly.module.TypeManager.StructTypeKind;
 import de.inetsoftware.jwebassembly.module.ValueTypeConvertion;
 import de.inetsoftware.jwebassembly.module.WasmOptions;
@@ -71,9 +73,9 @@ public class TextModuleWriter extends ModuleWriter {
 
     private final StringBuilder            imports          = new StringBuilder();
 
-    private final Map<String, Function>    functions        = new LinkedHashMap<>();
+    private final Map<String, Function>    functions;
 
-    private final Map<String, Function>    abstracts        = new HashMap<>();
+    private final Map<String, Function>    abstracts;
 
     private final Set<String>              functionNames    = new HashSet<>();
 
@@ -83,6 +85,10 @@ public class TextModuleWriter extends ModuleWriter {
 
     private final HashMap<String, AnyType> globals          = new HashMap<>();
 
+    private final HashMap<String, Number>  globalInits      = new HashMap<>();
+
+    private final HashMap<String, String>  constGlobals     = new HashMap<>();
+
     private boolean                        useExceptions;
 
     private boolean                        callIndirect;
@@ -91,6 +97,14 @@ public class TextModuleWriter extends ModuleWriter {
 
     private boolean                        useTypeClass;
 
+    /** the writer of the module if this is a function writer */
+    private final TextModuleWriter         module;
+
+    private FunctionName                   functionName;
+
+    /** the positions in the code of a function writer which are resolved if the function is appended */
+    private List<CodeMark>                 codeMarks;
+
     /**
      * Create a new instance.
      * 
@@ -104,6 +118,25 @@ public class TextModuleWriter extends ModuleWriter {
     public TextModuleWriter( WasmTarget target, WasmOptions options ) throws IOException {
         super( options );
         this.target = target;
+        functions = new LinkedHashMap<>();
+        abstracts = new HashMap<>();
+        module = null;
+        inset++;
+    }
+
+    /**
+     * Create a writer for the code of a single function. It share the functions of the module read only.
+     * 
+     * @param module
+     *            the writer of the module
+     */
+    private TextModuleWriter( TextModuleWriter module ) {
+        super( module.options );
+        this.target = null;
+        functions = module.functions;
+        abstracts = module.abstracts;
+        this.module = module;
+        codeMarks = new ArrayList<>();
         inset++;
     }
 
@@ -124,10 +157,24 @@ public void close() throws IOException {
 
         for( Entry<String, AnyType> entry : globals.entrySet() ) {
             textOutput.append( "\n  " );
+            String initCode = constGlobals.get( entry.getKey() );
+            if( initCode != null ) {
+                // immutable global with a constant expression
+                textOutput.append( "(global $" ).append( entry.getKey() ).append( ' ' );
+                writeTypeName( textOutput, entry.getValue() );
+                textOutput.append( ' ' ).append( initCode ).append( ')' );
+                continue;
+            }
             textOutput.append( "(global $" ).append( entry.getKey() ).append( " (mut " );
             writeTypeName( textOutput, entry.getValue() );
             textOutput.append( ')' );
-            writeDefaultValue( textOutput, entry.getValue() );
+            Number value = globalInits.get( entry.getKey() );
+            if( value == null ) {
+                writeDefaultValue( textOutput, entry.getValue() );
+            } else {
+                AnyType type = entry.getValue();
+                writeConst( textOutput, value, type == ValueType.i64 || type == ValueType.f32 || type == ValueType.f64 ? (ValueType)type : ValueType.i32 );
+            }
             textOutput.append( ')' );
         }
 
@@ -150,9 +197,11 @@ public void close() throws IOException {
             textOutput.append( ')' );
         }
 
-        // table for string constants
-        int stringCount = options.strings.size();
-        if( stringCount > 0 ) {
+        // table for string constants and classes, with linear memory the instances are saved in the memory
+        // the tables are declared in the order of its indices, see ModuleWriter.STRING_TABLE and ModuleWriter.CLASS_TABLE
+        int stringCount = options.useLinearMemory() ? 0 : options.strings.size();
+        int typeCount = options.useLinearMemory() ? 0 : options.types.size();
+        if( stringCount > 0 || typeCount > 0 ) {
             if( !callIndirect ) {
                 // we need to create a placeholder table with index 0 if not exists
                 newline( textOutput );
@@ -164,7 +213,6 @@ public void close() throws IOException {
         }
 
         // table with classes
-        int typeCount = options.types.size();
         if( typeCount > 0 ) {
             newline( textOutput );
             String tableTypeName = options.useGC() && useTypeClass ? "(ref null $java/lang/Class)" : "externref";
@@ -172,8 +220,8 @@ public void close() throws IOException {
         }
 
         int dataSize = dataStream.size();
-        if( dataSize > 0 ) {
-            int pages = (dataSize + 0xFFFF) / 0x10000;
+        if( dataSize > 0 || options.useLinearMemory() ) {
+            int pages = Math.max( (dataSize + 0xFFFF) / 0x10000, 1 );
             newline( textOutput );
             String pagesStr = Integer.toString( pages );
             textOutput.append( "(memory " ).append( pagesStr ).append( ')' );
@@ -207,7 +255,7 @@ protected int writeStructType( StructType type ) throws IOException {
         }
 
         if( !options.useGC() ) {
-            return ValueType.externref.getCode();
+            return options.useLinearMemory() ? ValueType.i32.getCode() : ValueType.externref.getCode();
         }
 
         int oldInset = inset;
@@ -248,6 +296,46 @@ protected int writeStructType( StructType type ) throws IOException {
         return 0;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int writeVTableType( VTableType type ) throws IOException {
+        int oldInset = inset;
+        inset = 1;
+        newline( output );
+        String typeName = normalizeName( type.getName() );
+        output.append( "(type $" ).append( typeName ).append( " (struct" );
+        inset++;
+        for( FunctionName func : type.getDeclarations() ) {
+            newline( output );
+            output.append( "(field (ref null $t" ).append( Integer.toString( getFunction( func ).typeId ) ).append( "))" );
+        }
+        inset--;
+        newline( output );
+        output.append( "))" );
+        inset = oldInset;
+
+        FunctionName instance = type.getInstance();
+        if( instance != null ) {
+            StringBuilder initCode = new StringBuilder( "(struct.new_with_rtt $" ).append( typeName );
+            for( FunctionName func : type.getFunctions() ) {
+                initCode.append( " (ref.func $" ).append( normalizeName( func ) ).append( ')' );
+            }
+            // the rtt is a sub rtt of the vtable of the super class
+            String rtt = null;
+            for( VTableType vtableType : type.getHierarchy() ) {
+                String name = normalizeName( vtableType.getName() );
+                rtt = rtt == null ? "(rtt.canon $" + name + ')' : "(rtt.sub $" + name + ' ' + rtt + ')';
+            }
+            initCode.append( ' ' ).append( rtt ).append( ')' );
+            String fullName = normalizeName( instance.fullName );
+            globals.put( fullName, type );
+            constGlobals.put( fullName, initCode.toString() );
+        }
+        return 0;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -271,6 +359,11 @@ protected int writeBlockType( BlockType type ) throws IOException {
      */
     @Override
     protected void writeException() throws IOException {
+        if( module != null ) {
+            // the tag is declared if the function is appended
+            useExceptions = true;
+            return;
+        }
         if( !useExceptions ) {
             useExceptions = true;
             int oldInset = inset;
@@ -279,7 +372,9 @@ protected void writeException() throws IOException {
             if( options.useGC() ) {
                 output.append( "(tag (param (ref null $java/lang/Throwable)))" );
             } else {
-                output.append( "(tag (param externref))" );
+                output.append( "(tag (param " );
+                writeTypeName( output, ValueType.externref );
+                output.append( "))" );
             }
             inset = oldInset;
         }
@@ -315,6 +410,11 @@ protected void prepareImport( FunctionName name, String importModule, String imp
      */
     @Nonnull
     private String normalizeName( FunctionName name ) {
+        if( module != null ) {
+            // the name depends on the order of the first use and is inserted if the function is appended
+            codeMarks.add( new CodeMark( methodOutput.length(), name ) );
+            return "";
+        }
         Function function = getFunction( name );
         if( function.name == null ) {
             String base;
@@ -350,6 +450,17 @@ protected void writeExport( FunctionName name, String exportName ) throws IOExce
         output.append( "(export \"" ).append( exportName ).append( "\" (func $" ).append( normalizeName( name ) ).append( "))" );
     }
 
+    /**
+     * If the type is a reference to an object.
+     * 
+     * @param type
+     *            the type
+     * @return true, if a reference
+     */
+    private static boolean isReference( AnyType type ) {
+        return type.isRefType() || type == ValueType.externref || type == ValueType.eqref || type == ValueType.anyref;
+    }
+
     /**
      * Write the name of a type.
      * 
@@ -361,7 +472,10 @@ protected void writeExport( FunctionName name, String exportName ) throws IOExce
      *             if any I/O error occur
      */
     private void writeTypeName( Appendable output, AnyType type ) throws IOException {
-        if( type instanceof ValueType ) {
+        if( options.useLinearMemory() && isReference( type ) ) {
+            // the reference is an address in the linear memory
+            output.append( ValueType.i32.toString() );
+        } else if( type instanceof ValueType ) {
             String name;
             switch( (ValueType)type ) {
                 case u16:
@@ -402,6 +516,7 @@ protected void writeMethodParamStart( @Nonnull FunctionName name, FunctionType f
                 imports.append( "(start $" ).append( normalizeName( name ) ).append( ")" );
                 break;
         }
+        functionName = name;
         typeOutput.setLength( 0 );
         methodParamNames.clear();
     }
@@ -458,6 +573,10 @@ private void writeParam( StringBuilder output, String kind, AnyType valueType, @
      */
     @Override
     protected void writeMethodParamFinish( @Nonnull FunctionName name ) throws IOException {
+        if( module != null ) {
+            // the type index is assigned if the function is appended
+            return;
+        }
         String typeStr = typeOutput.toString();
         int idx = types.indexOf( typeStr );
         if( idx < 0 ) {
@@ -479,6 +598,10 @@ private Function getFunction( FunctionName name ) {
         if( func == null ) {
             func = abstracts.get( signatureName );
             if( func == null ) {
+                if( module != null ) {
+                    // a function writer can not change the functions of the module
+                    throw new WasmException( "Function was not prepared: " + signatureName, -1 );
+                }
                 func = new Function();
                 func.id = functions.size();
                 functions.put( name.signatureName, func );
@@ -492,7 +615,7 @@ private Function getFunction( FunctionName name ) {
      */
     @Override
     protected void writeMethodStart( FunctionName name, String sourceFile ) throws IOException {
-        methodOutput = getFunction( name ).output;
+        methodOutput = module != null ? output : getFunction( name ).output;
 
         newline( methodOutput );
         methodOutput.append( "(func $" );
@@ -519,36 +642,92 @@ protected void writeMethodFinish() throws IOException {
         methodOutput = null;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected ModuleWriter createFunctionWriter() throws IOException {
+        return new TextModuleWriter( this );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void appendFunction( ModuleWriter functionWriter ) throws IOException {
+        TextModuleWriter writer = (TextModuleWriter)functionWriter;
+        typeOutput.setLength( 0 );
+        typeOutput.append( writer.typeOutput );
+        writeMethodParamFinish( writer.functionName );
+        if( writer.useExceptions ) {
+            writeException();
+        }
+        if( writer.callIndirect ) {
+            callIndirect = true;
+        }
+
+        // copy the code and insert the values that depends on the order of the writing
+        StringBuilder methodOutput = getFunction( writer.functionName ).output;
+        StringBuilder code = writer.output;
+        int pos = 0;
+        for( CodeMark mark : writer.codeMarks ) {
+            methodOutput.append( code, pos, mark.position );
+            pos = mark.position;
+            if( mark.functionName != null ) {
+                methodOutput.append( normalizeName( mark.functionName ) );
+            } else if( !globals.containsKey( mark.globalName ) ) {
+                globals.put( mark.globalName, mark.globalType );
+            }
+        }
+        methodOutput.append( code, pos, code.length() );
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     protected void writeConst( Number value, ValueType valueType ) throws IOException {
         newline( methodOutput );
-        methodOutput.append( valueType ).append( ".const " );
+        writeConst( methodOutput, value, valueType );
+    }
+
+    /**
+     * Write a constant number value
+     * 
+     * @param output
+     *            the target
+     * @param value
+     *            the value
+     * @param valueType
+     *            the data type of the number
+     * @throws IOException
+     *             if any I/O error occur
+     */
+    private static void writeConst( Appendable output, Number value, ValueType valueType ) throws IOException {
+        output.append( valueType.toString() ).append( ".const " );
         switch( valueType ) {
             case f32:
                 float floatValue = value.floatValue();
                 if( floatValue == Double.POSITIVE_INFINITY ) {
-                    methodOutput.append( "inf" );
+                    output.append( "inf" );
                 } else if( floatValue == Double.NEGATIVE_INFINITY ) { 
-                    methodOutput.append( "-inf" );
+                    output.append( "-inf" );
                 } else {
-                    methodOutput.append( Float.toHexString( floatValue ).toLowerCase() ).append( " ;;" ).append( value );
+                    output.append( Float.toHexString( floatValue ).toLowerCase() ).append( " ;;" ).append( value.toString() );
                 }
                 break;
             case f64:
                 double doubleValue = value.doubleValue();
                 if( doubleValue == Double.POSITIVE_INFINITY ) {
-                    methodOutput.append( "inf" );
+                    output.append( "inf" );
                 } else if( doubleValue == Double.NEGATIVE_INFINITY ) { 
-                    methodOutput.append( "-inf" );
+                    output.append( "-inf" );
                 } else {
-                    methodOutput.append( Double.toHexString( doubleValue ).toLowerCase() ).append( " ;;" ).append( value );
+                    output.append( Double.toHexString( doubleValue ).toLowerCase() ).append( " ;;" ).append( value.toString() );
                 }
                 break;
             default:
-                methodOutput.append( value );
+                output.append( value.toString() );
                 break;
         }
     }
@@ -574,7 +753,10 @@ protected void writeLocal( VariableOperator op, int idx ) throws IOException {
     @Override
     protected void writeGlobalAccess( boolean load, FunctionName name, AnyType type ) throws IOException {
         String fullName = normalizeName( name.fullName );
-        if( !globals.containsKey( fullName ) ) {
+        if( module != null ) {
+            // the global variable is declared if the function is appended
+            codeMarks.add( new CodeMark( methodOutput.length(), fullName, type ) );
+        } else if( !globals.containsKey( fullName ) ) {
             // declare global variable if not already declared.
             globals.put( fullName, type );
         }
@@ -582,6 +764,16 @@ protected void writeGlobalAccess( boolean load, FunctionName name, AnyType type
         methodOutput.append( load ? "global.get $" : "global.set $" ).append( fullName );
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void prepareGlobal( FunctionName name, AnyType type, Number value ) throws IOException {
+        String fullName = normalizeName( name.fullName );
+        globals.put( fullName, type );
+        globalInits.put( fullName, value );
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -611,7 +803,9 @@ protected void writeDefaultValue( AnyType type ) throws IOException {
      *             if an I/O error occurs.
      */
     private void writeDefaultValue( Appendable output, AnyType type ) throws IOException {
-        if( type instanceof ValueType ) {
+        if( options.useLinearMemory() && isReference( type ) ) {
+            writeDefaultValue( output, ValueType.i32 );
+        } else if( type instanceof ValueType ) {
             ValueType valueType = (ValueType)type;
             switch( valueType ) {
                 case i32:
@@ -655,18 +849,18 @@ protected void writeNumericOperator( NumericOperator numOp, @Nullable ValueType
                         op += "_s";
                         break;
                     case ifnonnull:
-                        op = "ref.is_null";
+                        op = options.useLinearMemory() ? "i32.eqz" : "ref.is_null";
                         negate = true;
                         break;
                     case ifnull:
-                        op = "ref.is_null";
+                        op = options.useLinearMemory() ? "i32.eqz" : "ref.is_null";
                         break;
                     case ref_ne:
-                        op = options.useGC() ? "ref.eq" : null;
-                        negate = true;
+                        op = options.useLinearMemory() ? "i32.ne" : options.useGC() ? "ref.eq" : null;
+                        negate = !options.useLinearMemory();
                         break;
                     case ref_eq:
-                        op = options.useGC() ? "ref.eq" : null;
+                        op = options.useLinearMemory() ? "i32.eq" : options.useGC() ? "ref.eq" : null;
                         break;
                     default:
                 }
@@ -791,6 +985,44 @@ protected void writeVirtualFunctionCall( FunctionName name, AnyType type ) throw
         methodOutput.append( "call_indirect (type $t" ).append( getFunction( name ).typeId ).append( ")  ;; " ).append( name.signatureName );
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void writeFunctionCallRef( FunctionName name ) throws IOException {
+        newline( methodOutput );
+        methodOutput.append( "call_ref  ;; " ).append( name.signatureName );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void writeReturnFunctionCall( FunctionName name ) throws IOException {
+        newline( methodOutput );
+        methodOutput.append( "return_call $" ).append( normalizeName( name ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void writeReturnVirtualFunctionCall( FunctionName name, AnyType type ) throws IOException {
+        callIndirect = true;
+
+        newline( methodOutput );
+        methodOutput.append( "return_call_indirect (type $t" ).append( getFunction( name ).typeId ).append( ")  ;; " ).append( name.signatureName );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void writeReturnFunctionCallRef( FunctionName name ) throws IOException {
+        newline( methodOutput );
+        methodOutput.append( "return_call_ref  ;; " ).append( name.signatureName );
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -933,6 +1165,9 @@ protected void writeArrayOperator( @Nonnull ArrayOperator op, ArrayType type ) t
             case NEW_ARRAY_WITH_RTT:
                 operation = "new_default_with_rtt";
                 break;
+            case COPY:
+                operation = "copy " + normalizeName( type.getNativeArrayType().toString() ); // destination and source have the same type
+                break;
             default:
                 throw new Error( "Unknown operator: " + op );
         }
@@ -967,9 +1202,16 @@ protected void writeStructOperator( StructOperator op, AnyType type, NamedStorag
                     type = null;
                 }
                 break;
+            case NON_NULL:
+                operation = "ref.as_non_null";
+                type = null;
+                break;
             case RTT_CANON:
                 operation = "rtt.canon";
                 break;
+            case RTT_SUB:
+                operation = "rtt.sub";
+                break;
             case NEW_WITH_RTT:
                 operation = "struct.new_with_rtt";
                 break;
@@ -999,8 +1241,63 @@ protected void writeStructOperator( StructOperator op, AnyType type, NamedStorag
     @Override
     protected void writeMemoryOperator( MemoryOperator memOp, ValueType valueType, int offset, int alignment ) throws IOException {
         newline( methodOutput );
+        switch( memOp ) {
+            case size:
+            case grow:
+            case copy:
+            case fill:
+                methodOutput.append( "memory." ).append( memOp );
+                return;
+            default:
+        }
         methodOutput.append( valueType ).append( '.' ).append( memOp )
         .append( " offset=" ).append( offset )
         .append( " align=" ).append( 1 << alignment );
     }
+
+    /**
+     * A position in the code of a function writer with a value that is resolved if the function is appended.
+     */
+    private static class CodeMark {
+
+        private final int          position;
+
+        private final FunctionName functionName;
+
+        private final String       globalName;
+
+        private final AnyType      globalType;
+
+        /**
+         * Create a mark for the name of a function.
+         * 
+         * @param position
+         *            the position in the code
+         * @param functionName
+         *            the function
+         */
+        private CodeMark( int position, FunctionName functionName ) {
+            this.position = position;
+            this.functionName = functionName;
+            this.globalName = null;
+            this.globalType = null;
+        }
+
+        /**
+         * Create a mark for the declaration of a global variable.
+         * 
+         * @param position
+         *            the position in the code
+         * @param globalName
+         *            the normalized name of the global variable
+         * @param globalType
+         *            the type of the global variable
+         */
+        private CodeMark( int position, String globalName, AnyType globalType ) {
+            this.position = position;
+            this.functionName = null;
+            this.globalName = globalName;
+            this.globalType = globalType;
+        }
+    }
 }
@@ -29,4 +29,6 @@ public enum ArrayOperator {
     SET,
     LEN,
     NEW_ARRAY_WITH_RTT,
+    COPY,
+    FILL,
 }
\ No newline at end of file
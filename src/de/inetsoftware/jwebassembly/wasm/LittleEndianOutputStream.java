@@ -92,6 +92,16 @@ public void writeTo( OutputStream output ) throws IOException {
         baos.writeTo( output );
     }
 
+    /**
+     * Get a copy of the data of this stream. Work only for in memory stream.
+     * 
+     * @return the data
+     */
+    public byte[] toByteArray() {
+        ByteArrayOutputStream baos = (ByteArrayOutputStream)out;
+        return baos.toByteArray();
+    }
+
     /**
      * The count of bytes in the stream.
      * 
@@ -25,4 +25,11 @@ public enum MemoryOperator {
     load16_s,
     load16_u,
     load,
+    store8,
+    store16,
+    store,
+    size,
+    grow,
+    copy,
+    fill,
 }
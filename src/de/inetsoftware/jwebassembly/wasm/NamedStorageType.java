@@ -15,6 +15,8 @@
  */
 package de.inetsoftware.jwebassembly.wasm;
 
+import java.io.Serializable;
+
 import de.inetsoftware.classparser.ConstantRef;
 import de.inetsoftware.classparser.FieldInfo;
 import de.inetsoftware.jwebassembly.module.TypeManager;
@@ -24,7 +26,7 @@
  * 
  * @author Volker Berlin
  */
-public class NamedStorageType {
+public class NamedStorageType implements Serializable {
 
     private final AnyType type;
 
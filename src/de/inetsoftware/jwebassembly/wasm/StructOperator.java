@@ -27,8 +27,10 @@ public enum StructOperator {
     GET,
     SET,
     NULL,
+    NON_NULL,
     CAST,
     INSTANCEOF,
     RTT_CANON,
+    RTT_SUB,
     NEW_WITH_RTT,
 }
\ No newline at end of file
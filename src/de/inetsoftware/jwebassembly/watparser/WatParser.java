@@ -89,6 +89,9 @@ public void parse( String wat, MethodInfo method, Iterator<AnyType> signature, i
                     case "i32.add":
                         addNumericInstruction( NumericOperator.add, ValueType.i32, javaCodePos, lineNumber );
                         break;
+                    case "i32.and":
+                        addNumericInstruction( NumericOperator.and, ValueType.i32, javaCodePos, lineNumber );
+                        break;
                     case "i32.eq":
                         addNumericInstruction( NumericOperator.eq, ValueType.i32, javaCodePos, lineNumber );
                         break;
@@ -98,12 +101,36 @@ public void parse( String wat, MethodInfo method, Iterator<AnyType> signature, i
                     case "i32.eqz":
                         addNumericInstruction( NumericOperator.eqz, ValueType.i32, javaCodePos, lineNumber );
                         break;
+                    case "i32.le_s":
+                        addNumericInstruction( NumericOperator.le, ValueType.i32, javaCodePos, lineNumber );
+                        break;
                     case "i32.mul":
                         addNumericInstruction( NumericOperator.mul, ValueType.i32, javaCodePos, lineNumber );
                         break;
                     case "i32.ne":
                         addNumericInstruction( NumericOperator.ne, ValueType.i32, javaCodePos, lineNumber );
                         break;
+                    case "i32.gt_s":
+                        addNumericInstruction( NumericOperator.gt, ValueType.i32, javaCodePos, lineNumber );
+                        break;
+                    case "i32.ge_s":
+                        addNumericInstruction( NumericOperator.ge, ValueType.i32, javaCodePos, lineNumber );
+                        break;
+                    case "i32.lt_s":
+                        addNumericInstruction( NumericOperator.lt, ValueType.i32, javaCodePos, lineNumber );
+                        break;
+                    case "i32.or":
+                        addNumericInstruction( NumericOperator.or, ValueType.i32, javaCodePos, lineNumber );
+                        break;
+                    case "i32.shl":
+                        addNumericInstruction( NumericOperator.shl, ValueType.i32, javaCodePos, lineNumber );
+                        break;
+                    case "i32.shr_u":
+                        addNumericInstruction( NumericOperator.shr_u, ValueType.i32, javaCodePos, lineNumber );
+                        break;
+                    case "i32.sub":
+                        addNumericInstruction( NumericOperator.sub, ValueType.i32, javaCodePos, lineNumber );
+                        break;
                     case "i32.reinterpret_f32":
                         addConvertInstruction( ValueTypeConvertion.f2i_re, javaCodePos, lineNumber );
                         break;
@@ -275,6 +302,9 @@ public void parse( String wat, MethodInfo method, Iterator<AnyType> signature, i
                     case "drop":
                         addBlockInstruction( WasmBlockOperator.DROP, null, javaCodePos, lineNumber );
                         break;
+                    case "block":
+                        addBlockInstruction( WasmBlockOperator.BLOCK, null, javaCodePos, lineNumber );
+                        break;
                     case "loop":
                         addBlockInstruction( WasmBlockOperator.LOOP, null, javaCodePos, lineNumber );
                         break;
@@ -299,6 +329,54 @@ public void parse( String wat, MethodInfo method, Iterator<AnyType> signature, i
                     case "i32.load8_u":
                         i = addMemoryInstruction( MemoryOperator.load8_u, ValueType.i32, tokens, i, lineNumber );
                         break;
+                    case "i32.load8_s":
+                        i = addMemoryInstruction( MemoryOperator.load8_s, ValueType.i32, tokens, i, lineNumber );
+                        break;
+                    case "i32.load16_s":
+                        i = addMemoryInstruction( MemoryOperator.load16_s, ValueType.i32, tokens, i, lineNumber );
+                        break;
+                    case "i32.load16_u":
+                        i = addMemoryInstruction( MemoryOperator.load16_u, ValueType.i32, tokens, i, lineNumber );
+                        break;
+                    case "i64.load":
+                        i = addMemoryInstruction( MemoryOperator.load, ValueType.i64, tokens, i, lineNumber );
+                        break;
+                    case "f32.load":
+                        i = addMemoryInstruction( MemoryOperator.load, ValueType.f32, tokens, i, lineNumber );
+                        break;
+                    case "f64.load":
+                        i = addMemoryInstruction( MemoryOperator.load, ValueType.f64, tokens, i, lineNumber );
+                        break;
+                    case "i32.store":
+                        i = addMemoryInstruction( MemoryOperator.store, ValueType.i32, tokens, i, lineNumber );
+                        break;
+                    case "i32.store8":
+                        i = addMemoryInstruction( MemoryOperator.store8, ValueType.i32, tokens, i, lineNumber );
+                        break;
+                    case "i32.store16":
+                        i = addMemoryInstruction( MemoryOperator.store16, ValueType.i32, tokens, i, lineNumber );
+                        break;
+                    case "i64.store":
+                        i = addMemoryInstruction( MemoryOperator.store, ValueType.i64, tokens, i, lineNumber );
+                        break;
+                    case "f32.store":
+                        i = addMemoryInstruction( MemoryOperator.store, ValueType.f32, tokens, i, lineNumber );
+                        break;
+                    case "f64.store":
+                        i = addMemoryInstruction( MemoryOperator.store, ValueType.f64, tokens, i, lineNumber );
+                        break;
+                    case "memory.size":
+                        addMemoryInstruction( MemoryOperator.size, ValueType.i32, 0, 0, javaCodePos, lineNumber );
+                        break;
+                    case "memory.grow":
+                        addMemoryInstruction( MemoryOperator.grow, ValueType.i32, 0, 0, javaCodePos, lineNumber );
+                        break;
+                    case "memory.copy":
+                        addMemoryInstruction( MemoryOperator.copy, ValueType.i32, 0, 0, javaCodePos, lineNumber );
+                        break;
+                    case "memory.fill":
+                        addMemoryInstruction( MemoryOperator.fill, ValueType.i32, 0, 0, javaCodePos, lineNumber );
+                        break;
                     case "struct.get":
                     case "struct.set":
                         StructOperator op = "struct.get".equals( tok ) ? StructOperator.GET : StructOperator.SET;
@@ -324,6 +402,26 @@ public void parse( String wat, MethodInfo method, Iterator<AnyType> signature, i
                         AnyType type = ((ArrayType)getTypeManager().valueOf( typeName )).getArrayType();
                         addArrayInstruction( ArrayOperator.LEN, type, javaCodePos, lineNumber );
                         break;
+                    case "array.new":
+                        typeName = get( tokens, ++i );
+                        type = ((ArrayType)getTypeManager().valueOf( typeName )).getArrayType();
+                        addArrayInstruction( ArrayOperator.NEW, type, javaCodePos, lineNumber );
+                        break;
+                    case "array.set":
+                        typeName = get( tokens, ++i );
+                        type = ((ArrayType)getTypeManager().valueOf( typeName )).getArrayType();
+                        addArrayInstruction( ArrayOperator.SET, type, javaCodePos, lineNumber );
+                        break;
+                    case "array.copy":
+                        typeName = get( tokens, ++i );
+                        type = ((ArrayType)getTypeManager().valueOf( typeName )).getArrayType();
+                        addArrayInstruction( ArrayOperator.COPY, type, javaCodePos, lineNumber );
+                        break;
+                    case "array.fill":
+                        typeName = get( tokens, ++i );
+                        type = ((ArrayType)getTypeManager().valueOf( typeName )).getArrayType();
+                        addArrayInstruction( ArrayOperator.FILL, type, javaCodePos, lineNumber );
+                        break;
                     case "array.new_default_with_rtt":
                         typeName = get( tokens, ++i );
                         type = ((ArrayType)getTypeManager().valueOf( typeName )).getArrayType();
@@ -420,7 +518,7 @@ private List<String> splitTokens( @Nullable String wat ) {
     }
 
     /**
-     * Parse the optional tokens of a load memory instruction and add it.
+     * Parse the optional tokens of a load or store memory instruction and add it.
      * 
      * @param op
      *            the operation
@@ -456,6 +554,9 @@ private int addMemoryInstruction( MemoryOperator op, ValueType type, List<String
                     case 4:
                         alignment = 2;
                         break;
+                    case 8:
+                        alignment = 3;
+                        break;
                     default:
                         throw new WasmException( "alignment must be power-of-two", lineNumber );
                 }
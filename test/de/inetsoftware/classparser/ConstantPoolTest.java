@@ -0,0 +1,161 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.classparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * @author Volker Berlin
+ */
+public class ConstantPoolTest {
+
+    private static final String TEXT = "ab\u0000\u00e4\u20ac\ud83d\ude00";
+
+    /**
+     * Create the bytes of a constant pool with all types that have its own decoding.
+     */
+    private static byte[] createPool() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream( bytes );
+        output.writeShort( 12 ); // count of entries + 1
+        output.writeByte( ConstantPool.CONSTANT_Utf8 );             // 1
+        output.writeUTF( TEXT );
+        output.writeByte( ConstantPool.CONSTANT_Utf8 );             // 2
+        output.writeUTF( "java/lang/Object" );
+        output.writeByte( ConstantPool.CONSTANT_Class );            // 3
+        output.writeShort( 2 );
+        output.writeByte( ConstantPool.CONSTANT_Long );             // 4 and 5
+        output.writeLong( 1L << 40 );
+        output.writeByte( ConstantPool.CONSTANT_Double );           // 6 and 7
+        output.writeDouble( 2.5 );
+        output.writeByte( ConstantPool.CONSTANT_Utf8 );             // 8
+        output.writeUTF( "()V" );
+        output.writeByte( ConstantPool.CONSTANT_NameAndType );      // 9
+        output.writeShort( 1 );
+        output.writeShort( 8 );
+        output.writeByte( ConstantPool.CONSTANT_Methodref );        // 10
+        output.writeShort( 3 );
+        output.writeShort( 9 );
+        output.writeByte( ConstantPool.CONSTANT_String );           // 11
+        output.writeShort( 1 );
+        return bytes.toByteArray();
+    }
+
+    private static ConstantPool read( byte[] data ) throws IOException {
+        return new ConstantPool( new ClassInputStream( ByteBuffer.wrap( data ) ) );
+    }
+
+    @Test
+    public void decode() throws IOException {
+        ConstantPool pool = read( createPool() );
+        assertEquals( 12, pool.size() );
+        assertNull( pool.get( 0 ) );
+        assertEquals( TEXT, pool.get( 1 ) );
+        assertEquals( "java/lang/Object", ((ConstantClass)pool.get( 3 )).getName() );
+        assertEquals( 1L << 40, pool.get( 4 ) );
+        assertNull( pool.get( 5 ) );
+        assertEquals( 2.5, pool.get( 6 ) );
+        assertNull( pool.get( 7 ) );
+        ConstantMethodRef method = (ConstantMethodRef)pool.get( 10 );
+        assertEquals( "java/lang/Object", method.getClassName() );
+        assertEquals( TEXT, method.getName() );
+        assertEquals( "()V", method.getType() );
+        assertSame( pool.get( 3 ), method.getConstantClass() );
+        assertSame( pool.get( 1 ), pool.get( 11 ) );
+    }
+
+    @Test
+    public void notHoldClassData() throws IOException {
+        byte[] data = createPool();
+        ConstantPool pool = read( data );
+        Arrays.fill( data, (byte)0 );
+        assertEquals( TEXT, pool.get( 1 ) );
+        assertEquals( "java/lang/Object", ((ConstantClass)pool.get( 3 )).getName() );
+    }
+
+    @Test
+    public void malformedUTF() throws IOException {
+        byte[][] strings = { //
+                        { 'a', (byte)0x80 }, // continuation byte without start
+                        { 'a', (byte)0xF0, (byte)0x80 }, // 4 byte sequence is not valid modified UTF-8
+                        { (byte)0xC3, 'a' }, // missing continuation byte
+                        { 'a', (byte)0xE2, (byte)0x82 }, // partial character at the end
+        };
+        for( byte[] str : strings ) {
+            byte[] data = new byte[5 + str.length];
+            data[1] = 2;
+            data[2] = ConstantPool.CONSTANT_Utf8;
+            data[4] = (byte)str.length;
+            System.arraycopy( str, 0, data, 5, str.length );
+            try {
+                read( data );
+                fail( Arrays.toString( str ) );
+            } catch( UTFDataFormatException ex ) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void parallelAccess() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try {
+            for( int n = 0; n < 100; n++ ) {
+                ConstantPool pool = read( createPool() );
+                Callable<Object> task = () -> pool.get( 10 );
+                Future<?>[] futures = new Future<?>[4];
+                for( int i = 0; i < futures.length; i++ ) {
+                    futures[i] = executor.submit( task );
+                }
+                // all threads must see the same instance
+                Object method = pool.get( 10 );
+                for( Future<?> future : futures ) {
+                    assertSame( method, future.get() );
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void classFile() throws IOException {
+        try( InputStream stream = String.class.getResourceAsStream( "String.class" ) ) {
+            ClassFile classFile = new ClassFile( stream );
+            assertEquals( "java/lang/String", classFile.getThisClass().getName() );
+            assertEquals( "java/lang/Object", classFile.getSuperClass().getName() );
+            MethodInfo method = classFile.getMethod( "length", "()I" );
+            assertEquals( "length", method.getName() );
+        }
+    }
+}
@@ -18,6 +18,7 @@
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URL;
@@ -25,6 +26,8 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -90,6 +93,153 @@ public void compileToBinary() throws Exception {
         assertArrayEquals( expected, actual );
     }
 
+    @Test
+    public void compileParallel() throws Exception {
+        JWebAssembly webAsm = new JWebAssembly();
+        webAsm.addFile( classFile );
+        byte[] expected = webAsm.compileToBinary();
+
+        webAsm = new JWebAssembly();
+        webAsm.addFile( classFile );
+        webAsm.setProperty( JWebAssembly.PARALLEL_THREADS, "4" );
+        byte[] actual = webAsm.compileToBinary();
+        assertArrayEquals( expected, actual );
+    }
+
+    @Test
+    public void compileWithCodeBufferLimit() throws Exception {
+        JWebAssembly webAsm = new JWebAssembly();
+        webAsm.addFile( classFile );
+        byte[] expected = webAsm.compileToBinary();
+
+        // about 100 bytes that the first bodies are hold in memory and the rest is written to the spill file
+        // and a single byte that every body is written to the spill file
+        for( String limit : new String[] { "0.0001", "0.000001" } ) {
+            webAsm = new JWebAssembly();
+            webAsm.addFile( classFile );
+            webAsm.setProperty( JWebAssembly.CODE_BUFFER_LIMIT, limit );
+            byte[] actual = webAsm.compileToBinary();
+            assertArrayEquals( limit, expected, actual );
+        }
+    }
+
+    @Test
+    public void compileWithCache() throws Exception {
+        JWebAssembly webAsm = new JWebAssembly();
+        webAsm.addFile( classFile );
+        String expected = webAsm.compileToText();
+
+        File cacheDir = Files.createTempDirectory( null ).toFile();
+        try {
+            for( int i = 0; i < 2; i++ ) {
+                webAsm = new JWebAssembly();
+                webAsm.addFile( classFile );
+                webAsm.setProperty( JWebAssembly.CACHE_DIR, cacheDir.getPath() );
+                assertEquals( expected, webAsm.compileToText() );
+                assertEquals( 1, moduleCount( cacheDir ) );
+            }
+        } finally {
+            for( File file : cacheDir.listFiles() ) {
+                file.delete();
+            }
+            cacheDir.delete();
+        }
+    }
+
+    @Test
+    public void cacheKeyLibraryContent() throws Exception {
+        File cacheDir = Files.createTempDirectory( null ).toFile();
+        File libDir = Files.createTempDirectory( null ).toFile();
+        File resource = new File( libDir, "resource.txt" );
+        try {
+            for( String content : new String[] { "abc", "abc", "xyz" } ) {
+                // same size and time stamp, only the content is changed
+                Files.write( resource.toPath(), content.getBytes( "UTF-8" ) );
+                resource.setLastModified( 1000000000000L );
+                JWebAssembly webAsm = new JWebAssembly();
+                webAsm.addFile( classFile );
+                webAsm.addLibrary( libDir );
+                webAsm.setProperty( JWebAssembly.CACHE_DIR, cacheDir.getPath() );
+                webAsm.compileToText();
+            }
+            assertEquals( 2, moduleCount( cacheDir ) );
+        } finally {
+            for( File file : cacheDir.listFiles() ) {
+                file.delete();
+            }
+            cacheDir.delete();
+            resource.delete();
+            libDir.delete();
+        }
+    }
+
+    @Test
+    public void cacheLimit() throws Exception {
+        File cacheDir = Files.createTempDirectory( null ).toFile();
+        try {
+            for( String debugNames : new String[] { "false", "true", "false" } ) {
+                JWebAssembly webAsm = new JWebAssembly();
+                webAsm.addFile( classFile );
+                webAsm.setProperty( JWebAssembly.DEBUG_NAMES, debugNames );
+                webAsm.setProperty( JWebAssembly.CACHE_DIR, cacheDir.getPath() );
+                webAsm.setProperty( JWebAssembly.CACHE_LIMIT, "0.000001" );
+                String expected = webAsm.compileToText();
+                // only the last output is hold
+                assertEquals( 1, moduleCount( cacheDir ) );
+                assertEquals( expected, webAsm.compileToText() );
+            }
+        } finally {
+            for( File file : cacheDir.listFiles() ) {
+                file.delete();
+            }
+            cacheDir.delete();
+        }
+    }
+
+    @Test
+    public void cacheKeyJarLibrary() throws Exception {
+        File cacheDir = Files.createTempDirectory( null ).toFile();
+        File jar = File.createTempFile( "library", ".jar" );
+        try {
+            for( String content : new String[] { "abc", "abc", "xyz" } ) {
+                try (JarOutputStream output = new JarOutputStream( new FileOutputStream( jar ) )) {
+                    output.putNextEntry( new JarEntry( "resource.txt" ) );
+                    output.write( content.getBytes( "UTF-8" ) );
+                }
+                JWebAssembly webAsm = new JWebAssembly();
+                webAsm.addFile( classFile );
+                webAsm.addLibrary( new URL( "jar:" + jar.toURI() + "!/resource.txt" ) );
+                webAsm.setProperty( JWebAssembly.CACHE_DIR, cacheDir.getPath() );
+                webAsm.compileToText();
+            }
+            assertEquals( 2, moduleCount( cacheDir ) );
+
+            // a library that can't be read is not hashable, then the cache is not used
+            for( File file : cacheDir.listFiles() ) {
+                file.delete();
+            }
+            JWebAssembly webAsm = new JWebAssembly();
+            webAsm.addFile( classFile );
+            webAsm.addLibrary( new URL( "jar:" + new File( jar.getPath() + ".missing" ).toURI() + "!/" ) );
+            webAsm.setProperty( JWebAssembly.CACHE_DIR, cacheDir.getPath() );
+            webAsm.compileToText();
+            assertEquals( 0, moduleCount( cacheDir ) );
+        } finally {
+            for( File file : cacheDir.listFiles() ) {
+                file.delete();
+            }
+            cacheDir.delete();
+            jar.delete();
+        }
+    }
+
+    /**
+     * Count the outputs in the cache directory.
+     */
+    private static int moduleCount( File cacheDir ) {
+        return cacheDir.list( ( dir, name ) -> name.endsWith( ".module" ) ).length;
+    }
+
     @Test
     public void npe() throws Exception {
         JWebAssembly webAsm = new JWebAssembly();
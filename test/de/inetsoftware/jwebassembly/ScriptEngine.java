@@ -65,16 +65,46 @@ public enum ScriptEngine {
      * Convert the text output with wat2wasm https://github.com/WebAssembly/wabt and test it with nodejs. GC is enabled.
      */
     Wat2WasmGC( true ),
+    /** 
+     * Test the binary output with a fix version nodejs JavaScript runtime. GC is disabled and the objects are
+     * allocated in the linear memory.
+     */
+    NodeJsLinearMemory( false, true ),
+    /**
+     * Test the binary output with a fix version nodejs JavaScript runtime. GC is disabled and calls in tail position
+     * are compiled to return_call.
+     */
+    NodeJsTailCall( false, false, true ),
     ;
 
     public final String useGC;
 
+    public final String useLinearMemory;
+
+    public final String useTailCall;
+
     private ScriptEngine() {
         this.useGC = null;
+        this.useLinearMemory = null;
+        this.useTailCall = null;
     }
 
     private ScriptEngine( boolean useGC ) {
         this.useGC = Boolean.toString( useGC );
+        this.useLinearMemory = null;
+        this.useTailCall = null;
+    }
+
+    private ScriptEngine( boolean useGC, boolean useLinearMemory ) {
+        this.useGC = Boolean.toString( useGC );
+        this.useLinearMemory = Boolean.toString( useLinearMemory );
+        this.useTailCall = null;
+    }
+
+    private ScriptEngine( boolean useGC, boolean useLinearMemory, boolean useTailCall ) {
+        this.useGC = Boolean.toString( useGC );
+        this.useLinearMemory = Boolean.toString( useLinearMemory );
+        this.useTailCall = Boolean.toString( useTailCall );
     }
 
     public static ScriptEngine[] testEngines() {
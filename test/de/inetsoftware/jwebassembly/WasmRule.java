@@ -37,6 +37,7 @@
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.TimeUnit;
@@ -111,13 +112,13 @@ public WasmRule( Class<?>... classes ) {
     }
 
     /**
-     * Set the parameter of a test.
+     * Set the parameter of a test. The exported functions are called in the order of the parameters.
      * 
      * @param params
      *            the parameters with [ScriptEngine,method name,method parameters]
      */
     public void setTestParameters( Collection<Object[]> params ) {
-        testData = new HashMap<>();
+        testData = new LinkedHashMap<>();
         for( Object[] param : params ) {
             testData.put( (String)param[1], (Object[])param[2] );
         }
@@ -176,7 +177,7 @@ public void before( ScriptEngine script ) throws Exception {
      */
     private void writeJsonTestData( Map<String, Object[]> data ) throws IOException {
         // a character we need to convert an integer
-        HashMap<String, Object[]> copy = new HashMap<>( data );
+        HashMap<String, Object[]> copy = new LinkedHashMap<>( data );
         for( Entry<String, Object[]> entry : copy.entrySet() ) {
             Object[] params = entry.getValue();
             for( int i = 0; i < params.length; i++ ) {
@@ -282,6 +283,8 @@ public File compile( ScriptEngine script ) throws WasmException {
         compiler.setProperty( JWebAssembly.DEBUG_NAMES, "true" );
         assertEquals( "true", compiler.getProperty( JWebAssembly.DEBUG_NAMES ) );
         compiler.setProperty( JWebAssembly.WASM_USE_GC, script.useGC );
+        compiler.setProperty( JWebAssembly.WASM_USE_LINEAR_MEMORY, script.useLinearMemory );
+        compiler.setProperty( JWebAssembly.WASM_USE_TAIL_CALL, script.useTailCall );
 
         File file = null;
         try {
@@ -549,6 +552,8 @@ public void test( ScriptEngine script, String methodName, Object... params ) {
      */
     private ProcessBuilder createCommand( ScriptEngine script ) throws Exception {
         compiler.setProperty( JWebAssembly.WASM_USE_GC, script.useGC );
+        compiler.setProperty( JWebAssembly.WASM_USE_LINEAR_MEMORY, script.useLinearMemory );
+        compiler.setProperty( JWebAssembly.WASM_USE_TAIL_CALL, script.useTailCall );
         switch( script ) {
             case SpiderMonkey:
                 return spiderMonkeyCommand( true, script );
@@ -560,6 +565,8 @@ private ProcessBuilder createCommand( ScriptEngine script ) throws Exception {
                 return spiderMonkeyCommand( false, script );
             case NodeJS:
             case NodeJsGC:
+            case NodeJsLinearMemory:
+            case NodeJsTailCall:
                 return nodeJsCommand( prepareNodeJs( script ) );
             case NodeWat:
             case NodeWatGC:
@@ -736,6 +743,7 @@ private static ProcessBuilder nodeJsCommand( File nodeScript ) throws IOExceptio
                         "--experimental-wasm-eh", // exception handling
                         "--experimental-wasm-typed-funcref", //
                         "--experimental-wasm-gc", //
+                        "--experimental-wasm-return-call", // tail calls
                         nodeScript.getName() );
         if( IS_WINDOWS ) {
             processBuilder.command().add( 0, "cmd" );
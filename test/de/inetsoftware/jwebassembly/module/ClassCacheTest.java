@@ -0,0 +1,189 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.module;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.inetsoftware.jwebassembly.JWebAssembly;
+
+/**
+ * @author Volker Berlin
+ */
+public class ClassCacheTest {
+
+    @Rule
+    public TemporaryFolder        temp     = new TemporaryFolder();
+
+    private static final Pattern  REUSED   = Pattern.compile( "class cache reused: (\\d+), created: (\\d+)" );
+
+    private final List<int[]>     counts   = new ArrayList<>();
+
+    private final Handler         handler  = new Handler() {
+                                               @Override
+                                               public void publish( LogRecord record ) {
+                                                   Matcher matcher = REUSED.matcher( record.getMessage() );
+                                                   if( matcher.matches() ) {
+                                                       counts.add( new int[] { Integer.parseInt( matcher.group( 1 ) ), Integer.parseInt( matcher.group( 2 ) ) } );
+                                                   }
+                                               }
+
+                                               @Override
+                                               public void flush() {
+                                               }
+
+                                               @Override
+                                               public void close() {
+                                               }
+                                           };
+
+    private Level                 level;
+
+    /**
+     * Test classes with virtual calls, interface calls, type tests, strings, arrays, enums and lambdas.
+     */
+    private static final String[] CLASSES  = { //
+                    "/de/inetsoftware/jwebassembly/runtime/Devirtualization$TestClass.class", //
+                    "/de/inetsoftware/jwebassembly/runtime/InterfaceSlots$TestClass.class", //
+                    "/de/inetsoftware/jwebassembly/runtime/CodeBufferLimit$TestClass.class", //
+                    "/de/inetsoftware/jwebassembly/runtime/PeepholeOptimizer$TestClass.class", //
+                    "/de/inetsoftware/jwebassembly/module/WasmConstLambdaInstructionTest.class", //
+    };
+
+    @Before
+    public void before() {
+        level = JWebAssembly.LOGGER.getLevel();
+        JWebAssembly.LOGGER.setLevel( Level.FINE );
+        JWebAssembly.LOGGER.addHandler( handler );
+    }
+
+    @After
+    public void after() {
+        JWebAssembly.LOGGER.removeHandler( handler );
+        JWebAssembly.LOGGER.setLevel( level );
+    }
+
+    private JWebAssembly create( List<String> classes, Map<String, String> properties, boolean cache ) {
+        JWebAssembly wasm = new JWebAssembly();
+        for( String className : classes ) {
+            wasm.addFile( ClassCacheTest.class.getResource( className ) );
+        }
+        // the replacements of the native methods of the JDK
+        for( String lib : System.getProperty( "java.class.path" ).split( File.pathSeparator ) ) {
+            if( lib.endsWith( ".jar" ) || lib.toLowerCase().contains( "jwebassembly-api" ) ) {
+                File library = new File( lib );
+                if( library.exists() ) {
+                    wasm.addLibrary( library );
+                }
+            }
+        }
+        for( Map.Entry<String, String> entry : properties.entrySet() ) {
+            wasm.setProperty( entry.getKey(), entry.getValue() );
+        }
+        if( cache ) {
+            wasm.setProperty( JWebAssembly.CACHE_DIR, new File( temp.getRoot(), "cache" ).getPath() );
+        }
+        return wasm;
+    }
+
+    /**
+     * Compile to a file that the debug names has a target for the source map.
+     */
+    private byte[][] compileToBinary( List<String> classes, Map<String, String> properties, boolean cache ) throws IOException {
+        File wasmFile = new File( temp.getRoot(), "module.wasm" );
+        File mapFile = new File( temp.getRoot(), "module.wasm.map" );
+        mapFile.delete();
+        create( classes, properties, cache ).compileToBinary( wasmFile );
+        return new byte[][] { Files.readAllBytes( wasmFile.toPath() ), mapFile.exists() ? Files.readAllBytes( mapFile.toPath() ) : new byte[0] };
+    }
+
+    /**
+     * The text output fill the cache of the classes. The binary output is another module that must reuse the cached
+     * instructions and must be equals to the output without cache. The last compile has a changed set of classes.
+     */
+    private void assertCache( Map<String, String> properties ) throws IOException {
+        List<String> classes = Arrays.asList( CLASSES );
+        byte[][] expected = compileToBinary( classes, properties, false );
+        String expectedText = create( classes, properties, false ).compileToText();
+
+        assertEquals( expectedText, create( classes, properties, true ).compileToText() );
+        assertArrayEquals( expected, compileToBinary( classes, properties, true ) );
+        assertEquals( 2, counts.size() );
+        assertEquals( 0, counts.get( 0 )[0] );
+        assertTrue( "reused: " + counts.get( 1 )[0], counts.get( 1 )[0] > counts.get( 1 )[1] );
+
+        // a partial rebuild, the instructions of the not changed classes are reused
+        classes = classes.subList( 1, classes.size() );
+        expected = compileToBinary( classes, properties, false );
+        assertArrayEquals( expected, compileToBinary( classes, properties, true ) );
+        assertEquals( 3, counts.size() );
+        assertTrue( "reused: " + counts.get( 2 )[0], counts.get( 2 )[0] > counts.get( 2 )[1] );
+    }
+
+    @Test
+    public void cache() throws IOException {
+        assertCache( new HashMap<>() );
+    }
+
+    @Test
+    public void cacheParallel() throws IOException {
+        HashMap<String, String> properties = new HashMap<>();
+        properties.put( JWebAssembly.PARALLEL_THREADS, "4" );
+        assertCache( properties );
+    }
+
+    @Test
+    public void cacheDebugNames() throws IOException {
+        HashMap<String, String> properties = new HashMap<>();
+        properties.put( JWebAssembly.DEBUG_NAMES, "true" );
+        assertCache( properties );
+    }
+
+    @Test
+    public void cacheLinearMemory() throws IOException {
+        HashMap<String, String> properties = new HashMap<>();
+        properties.put( JWebAssembly.WASM_USE_LINEAR_MEMORY, "true" );
+        assertCache( properties );
+    }
+
+    @Test
+    public void cacheGC() throws IOException {
+        HashMap<String, String> properties = new HashMap<>();
+        properties.put( JWebAssembly.WASM_USE_GC, "true" );
+        assertCache( properties );
+    }
+}
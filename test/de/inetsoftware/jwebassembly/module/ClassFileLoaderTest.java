@@ -0,0 +1,116 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import de.inetsoftware.classparser.ClassFile;
+import de.inetsoftware.classparser.MethodInfo;
+
+/**
+ * @author Volker Berlin
+ */
+public class ClassFileLoaderTest {
+
+    @Test
+    public void resolveMethod() throws IOException {
+        ClassFileLoader loader = new ClassFileLoader( getClass().getClassLoader() );
+        ClassFile classFile = loader.get( "java/util/ArrayList" );
+
+        MethodInfo method = loader.resolveMethod( classFile, "toString", "()Ljava/lang/String;" );
+        assertEquals( "java/util/AbstractCollection", method.getDeclaringClassFile().getThisClass().getName() );
+        assertSame( method, loader.resolveMethod( classFile, "toString", "()Ljava/lang/String;" ) );
+        assertSame( method, loader.get( "java/util/AbstractCollection" ).getMethod( "toString", "()Ljava/lang/String;" ) );
+
+        assertNull( loader.resolveMethod( classFile, "stream", "()Ljava/util/stream/Stream;" ) );
+        method = loader.resolveInterfaceMethod( classFile, "stream", "()Ljava/util/stream/Stream;" );
+        assertEquals( "java/util/Collection", method.getDeclaringClassFile().getThisClass().getName() );
+
+        assertNull( loader.resolveMethod( classFile, "xyz", "()V" ) );
+        assertNull( loader.resolveInterfaceMethod( classFile, "xyz", "()V" ) );
+    }
+
+    @Test
+    public void cacheLimit() throws IOException {
+        ClassFileLoader loader = new ClassFileLoader( getClass().getClassLoader(), 1 );
+        String[] names = { "java/util/ArrayList", "java/util/HashMap", "java/lang/String" };
+        for( String name : names ) {
+            assertEquals( name, loader.get( name ).getThisClass().getName() );
+        }
+        assertEquals( names.length, loader.getMissCount() );
+        assertEquals( names.length - 1, loader.getEvictionCount() );
+
+        // the last loaded class is hold
+        ClassFile classFile = loader.get( "java/lang/String" );
+        assertSame( classFile, loader.get( "java/lang/String" ) );
+
+        // an evicted class is reused or parsed again
+        for( String name : names ) {
+            assertEquals( name, loader.get( name ).getThisClass().getName() );
+        }
+        assertTrue( loader.getHitCount() >= 2 );
+    }
+
+    @Test
+    public void resolveMethodAfterEviction() throws IOException {
+        ClassFileLoader loader = new ClassFileLoader( getClass().getClassLoader(), 1 );
+        ClassFile classFile = loader.get( "java/util/ArrayList" );
+        MethodInfo method = loader.resolveMethod( classFile, "toString", "()Ljava/lang/String;" );
+        assertEquals( "java/util/AbstractCollection", method.getDeclaringClassFile().getThisClass().getName() );
+
+        // a cached result does not request any class
+        int requests = loader.getHitCount() + loader.getMissCount();
+        assertSame( method, loader.resolveMethod( classFile, "toString", "()Ljava/lang/String;" ) );
+        assertEquals( requests, loader.getHitCount() + loader.getMissCount() );
+
+        // evict the declaring class, the cached result must be released
+        int evictions = loader.getEvictionCount();
+        loader.get( "java/util/HashMap" );
+        assertTrue( loader.getEvictionCount() > evictions );
+        requests = loader.getHitCount() + loader.getMissCount();
+        method = loader.resolveMethod( classFile, "toString", "()Ljava/lang/String;" );
+        assertTrue( loader.getHitCount() + loader.getMissCount() > requests );
+        assertSame( loader.get( "java/util/AbstractCollection" ).getMethod( "toString", "()Ljava/lang/String;" ), method );
+    }
+
+    @Test
+    public void resolveLater() throws IOException {
+        ClassFileLoader loader = new ClassFileLoader( getClass().getClassLoader() );
+        String partial = "de/inetsoftware/jwebassembly/module/nativecode/ReplacementForClass";
+        loader.partialLater( "java/lang/Class", partial );
+        loader.replaceLater( "a/Replaced", "java/util/ArrayList" );
+        // nothing is loaded before the first request
+        assertEquals( 0, loader.getMissCount() );
+
+        // the partial class is added on the first request of the extended class
+        ClassFile classFile = loader.get( "java/lang/Class" );
+        assertNotNull( classFile.getMethod( "classConstant", "(I)Ljava/lang/Class;" ) );
+        assertSame( classFile, loader.get( "java/lang/Class" ) );
+
+        // the replacing class is loaded on the first request of the replaced class
+        classFile = loader.get( "a/Replaced" );
+        assertEquals( "a/Replaced", classFile.getThisClass().getName() );
+        assertNotNull( classFile.getMethod( "size", "()I" ) );
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.inetsoftware.jwebassembly.JWebAssembly;
+import de.inetsoftware.jwebassembly.api.annotation.Export;
+import de.inetsoftware.jwebassembly.api.annotation.WasmTextCode;
+
+/**
+ * @author Volker Berlin
+ */
+public class FunctionInlinerTest {
+
+    @WasmTextCode( "local.get 0 local.get 1 i32.add return" )
+    private static native int add( int a, int b );
+
+    @WasmTextCode( "local.get 1 local.get 0 i32.div_s return" )
+    private static native int div( int a, int b );
+
+    @WasmTextCode( "local.get 0 i32.const 1 i32.add i32.const 1 i32.add i32.const 1 i32.add return" )
+    private static native int large( int a );
+
+    @WasmTextCode( "local.get 0 local.get 0 call $de/inetsoftware/jwebassembly/module/FunctionInlinerTest.add(II)I return" )
+    private static native int twice( int a );
+
+    @WasmTextCode( "local.get 0 call $de/inetsoftware/jwebassembly/module/FunctionInlinerTest.recursive(I)I return" )
+    private static native int recursive( int a );
+
+    @Export
+    static int inlined( int x ) {
+        return add( x, 3 ) + div( x, 10 );
+    }
+
+    @Export
+    static int notInlined( int x ) {
+        return large( x ) + twice( x ) + recursive( x );
+    }
+
+    private static String compile( boolean inline ) {
+        JWebAssembly wasm = new JWebAssembly();
+        wasm.setProperty( JWebAssembly.INLINE_FUNCTIONS, Boolean.toString( inline ) );
+        wasm.addFile( FunctionInlinerTest.class.getResource( "FunctionInlinerTest.class" ) );
+        return wasm.compileToText();
+    }
+
+    @Test
+    public void inline() {
+        String text = compile( true );
+
+        // the parameters of add are used directly from the stack
+        assertFalse( text, text.contains( "FunctionInlinerTest.add" ) );
+        // the parameters of div are stored in temporary variables
+        assertFalse( text, text.contains( "FunctionInlinerTest.div" ) );
+        assertTrue( text, text.contains( "i32.div_s" ) );
+        // too large for inlining
+        assertEquals( text, 2, text.split( "FunctionInlinerTest.large" ).length - 1 );
+        // functions with calls are not inlined, also not recursive functions
+        assertTrue( text, text.contains( "call $de/inetsoftware/jwebassembly/module/FunctionInlinerTest.twice" ) );
+        assertTrue( text, text.contains( "call $de/inetsoftware/jwebassembly/module/FunctionInlinerTest.recursive" ) );
+    }
+
+    @Test
+    public void disabled() {
+        String text = compile( false );
+        assertTrue( text, text.contains( "call $de/inetsoftware/jwebassembly/module/FunctionInlinerTest.add" ) );
+        assertTrue( text, text.contains( "call $de/inetsoftware/jwebassembly/module/FunctionInlinerTest.div" ) );
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.inetsoftware.classparser.MethodInfo;
+import de.inetsoftware.jwebassembly.wasm.AnyType;
+
+/**
+ * @author Volker Berlin
+ */
+public class FunctionManagerTest {
+
+    private static List<FunctionName> list( Iterator<FunctionName> iterator ) {
+        List<FunctionName> list = new ArrayList<>();
+        iterator.forEachRemaining( list::add );
+        return list;
+    }
+
+    @Test
+    public void scanOrder() {
+        FunctionManager functions = new FunctionManager();
+        FunctionName a = new FunctionName( "a/A.a()V" );
+        FunctionName b = new FunctionName( "a/A.b()V" );
+        FunctionName c = new FunctionName( "a/A.c()V" );
+
+        // c is known before it is needed, the order of the first registration is used
+        functions.setVTableIndex( c, 5 );
+        functions.markAsNeeded( a, false );
+        functions.markAsNeeded( b, false );
+        assertSame( a, functions.nextScannLater() );
+
+        functions.markAsNeeded( c, false );
+        functions.markAsScanned( a );
+        assertSame( c, functions.nextScannLater() );
+
+        functions.markAsScanned( c );
+        assertSame( b, functions.nextScannLater() );
+
+        functions.setAlias( b, a );
+        assertNull( functions.nextScannLater() );
+        assertEquals( 3, functions.getNeededCount() );
+    }
+
+    @Test
+    public void writeLater() {
+        FunctionManager functions = new FunctionManager();
+        FunctionName a = new FunctionName( "a/A.a()V" );
+        FunctionName b = new FunctionName( "a/A.b()V" );
+        FunctionName c = new FunctionName( "a/A.c()V" );
+        functions.markAsNeeded( a, false );
+        functions.markAsNeeded( b, false );
+        functions.markAsNeeded( c, false );
+        functions.markAsScanned( b );
+        functions.markAsAbstract( c );
+
+        List<FunctionName> expected = new ArrayList<>();
+        expected.add( a );
+        expected.add( b );
+        assertEquals( expected, list( functions.getWriteLater() ) );
+        assertEquals( c, functions.getAbstractedFunctions().next() );
+
+        // a state change while iterating
+        Iterator<FunctionName> iterator = functions.getWriteLater();
+        assertSame( a, iterator.next() );
+        functions.markAsWritten( b );
+        assertFalse( iterator.hasNext() );
+        assertFalse( functions.needToWrite( b ) );
+        assertTrue( functions.needToWrite( a ) );
+    }
+
+    @Test
+    public void replaceIfExists() {
+        FunctionManager functions = new FunctionManager();
+        FunctionName a = new FunctionName( "a/A.a()V" );
+        FunctionName b = new FunctionName( "a/A.b()V" );
+        functions.markAsNeeded( a, false );
+        functions.markAsNeeded( b, false );
+
+        WatCodeSyntheticFunctionName synth = new WatCodeSyntheticFunctionName( "a/A", "a", "()V", "", (AnyType[])null );
+        functions.markAsNeededAndReplaceIfExists( synth );
+
+        List<FunctionName> names = list( functions.getWriteLater() );
+        assertEquals( 2, names.size() );
+        assertSame( b, names.get( 0 ) );
+        assertSame( synth, names.get( 1 ) );
+        assertSame( b, functions.nextScannLater() );
+    }
+
+    @Test
+    public void dependencies() {
+        FunctionManager functions = new FunctionManager();
+        FunctionName a = new FunctionName( "a/A.a()V" );
+        FunctionName b = new FunctionName( "a/A.b()V" );
+        FunctionName c = new FunctionName( "a/A.c()V" );
+
+        // the own registrations of the recorded method does not invalidate it
+        functions.startRecording();
+        assertFalse( functions.isUsed( a ) );
+        functions.markAsNeeded( a, false );
+        functions.getImportAnannotation( b );
+        FunctionManager.Dependencies dependencies = functions.stopRecording();
+        assertTrue( functions.isUnchanged( dependencies ) );
+
+        // the progress of the scan and the vtable index of a called function are not read
+        functions.markAsScanned( a );
+        functions.setVTableIndex( a, 5 );
+        functions.markAsNeeded( c, false );
+        assertTrue( functions.isUnchanged( dependencies ) );
+
+        functions.markAsImport( b, key -> null );
+        assertFalse( functions.isUnchanged( dependencies ) );
+
+        functions.startRecording();
+        functions.recordUnknownValue();
+        assertNull( functions.stopRecording() );
+    }
+
+    @Test
+    public void replaceLater() {
+        FunctionManager functions = new FunctionManager();
+        functions.init( new ClassFileLoader( getClass().getClassLoader() ) );
+        FunctionName name = new FunctionName( "a/A.size()I" );
+        functions.replaceLater( name, new FunctionName( "java/util/ArrayList.size()I" ) );
+
+        // the replacement method is loaded on the first use
+        MethodInfo method = functions.replace( name, null );
+        assertEquals( "java/util/ArrayList", method.getClassName() );
+        assertEquals( "size", method.getName() );
+        assertSame( method, functions.replace( name, null ) );
+    }
+}
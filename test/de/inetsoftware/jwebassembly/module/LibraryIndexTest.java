@@ -0,0 +1,125 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+
+import de.inetsoftware.jwebassembly.JWebAssembly;
+
+/**
+ * @author Volker Berlin
+ */
+public class LibraryIndexTest {
+
+    private static final String ANNOTATED = "de/inetsoftware/jwebassembly/module/nativecode/ReplacementForClass";
+
+    private static final String PLAIN     = LibraryIndexTest.class.getName().replace( '.', '/' );
+
+    /**
+     * Create a library with an annotated and a not annotated class.
+     */
+    private static File createLibrary() throws IOException {
+        File library = File.createTempFile( "library", ".jar" );
+        library.deleteOnExit();
+        try (ZipOutputStream zip = new ZipOutputStream( new FileOutputStream( library ) )) {
+            for( String className : new String[] { ANNOTATED, PLAIN } ) {
+                zip.putNextEntry( new ZipEntry( className + ".class" ) );
+                try (InputStream input = LibraryIndexTest.class.getResourceAsStream( '/' + className + ".class" )) {
+                    zip.write( LibraryScanner.readAllBytes( input ) );
+                }
+            }
+        }
+        return library;
+    }
+
+    /**
+     * The annotation records of the compiler replace the parsing of the annotated class.
+     */
+    private static void assertAnnotations( LibraryIndex index ) {
+        assertEquals( Collections.emptyList(), index.getAnnotations( PLAIN ) );
+
+        List<LibraryIndex.Annotation> annotations = index.getAnnotations( ANNOTATED );
+        LibraryIndex.Annotation partial = annotations.get( 0 );
+        assertNull( partial.methodName );
+        assertEquals( JWebAssembly.PARTIAL_ANNOTATION, partial.type );
+        assertEquals( "java/lang/Class", partial.values.get( "value" ) );
+
+        LibraryIndex.Annotation replace = annotations.stream().filter( a -> "getClassObject".equals( a.methodName ) ).findFirst().get();
+        assertEquals( JWebAssembly.REPLACE_ANNOTATION, replace.type );
+        assertEquals( "java/lang/Object.getClass()Ljava/lang/Class;", replace.values.get( "value" ) );
+        assertTrue( replace.isStatic );
+    }
+
+    @Test
+    public void create() throws IOException {
+        File library = createLibrary();
+        File indexFile = new File( library.getPath() + LibraryIndex.SUFFIX );
+        indexFile.deleteOnExit();
+        assertNull( LibraryIndex.read( library ) );
+
+        LibraryIndex.create( library );
+        LibraryIndex index = LibraryIndex.read( library );
+        assertNotNull( index );
+        assertEquals( Arrays.asList( ANNOTATED, PLAIN ), index.getClasses() );
+        assertEquals( Collections.emptyList(), index.getParsedClasses() );
+        assertAnnotations( index );
+
+        // an index next to a changed library is ignored
+        assertTrue( library.setLastModified( library.lastModified() - 10000 ) );
+        assertNull( LibraryIndex.read( library ) );
+
+        indexFile.delete();
+        library.delete();
+    }
+
+    @Test
+    public void embedded() throws IOException {
+        File library = createLibrary();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        LibraryIndex.write( library, output );
+
+        File embedded = File.createTempFile( "embedded", ".jar" );
+        embedded.deleteOnExit();
+        try (ZipOutputStream zip = new ZipOutputStream( new FileOutputStream( embedded ) )) {
+            zip.putNextEntry( new ZipEntry( LibraryIndex.ENTRY_NAME ) );
+            zip.write( output.toByteArray() );
+        }
+        LibraryIndex index = LibraryIndex.read( embedded );
+        assertNotNull( index );
+        assertEquals( Arrays.asList( ANNOTATED, PLAIN ), index.getClasses() );
+        assertEquals( Collections.emptyList(), index.getParsedClasses() );
+        assertAnnotations( index );
+
+        embedded.delete();
+        library.delete();
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.inetsoftware.classparser.ClassFile;
+import de.inetsoftware.jwebassembly.JWebAssembly;
+
+/**
+ * @author Volker Berlin
+ */
+public class LibraryScannerTest {
+
+    private static final String   ANNOTATED = "de/inetsoftware/jwebassembly/module/nativecode/ReplacementForClass";
+
+    private static final String   PLAIN     = "de/inetsoftware/jwebassembly/module/FunctionName";
+
+    private static final String   BOOT      = "java/lang/Integer";
+
+    private final List<LogRecord> records   = new ArrayList<>();
+
+    private final List<String>    prepared  = new ArrayList<>();
+
+    private final Handler         handler   = new Handler() {
+                                                @Override
+                                                public void publish( LogRecord record ) {
+                                                    records.add( record );
+                                                }
+
+                                                @Override
+                                                public void flush() {
+                                                }
+
+                                                @Override
+                                                public void close() {
+                                                }
+                                            };
+
+    @Before
+    public void before() {
+        JWebAssembly.LOGGER.addHandler( handler );
+    }
+
+    @After
+    public void after() {
+        JWebAssembly.LOGGER.removeHandler( handler );
+    }
+
+    private static byte[] read( String className ) throws IOException {
+        try (InputStream input = ClassLoader.getSystemResourceAsStream( className + ".class" )) {
+            return LibraryScanner.readAllBytes( input );
+        }
+    }
+
+    /**
+     * Create a library with an annotated, a not annotated, a boot class and a broken class file.
+     */
+    private static File createLibrary() throws IOException {
+        File library = File.createTempFile( "library", ".jar" );
+        library.deleteOnExit();
+        try (ZipOutputStream zip = new ZipOutputStream( new FileOutputStream( library ) )) {
+            for( String className : new String[] { ANNOTATED, PLAIN, BOOT } ) {
+                zip.putNextEntry( new ZipEntry( className + ".class" ) );
+                zip.write( read( className ) );
+            }
+            // a truncated class file with the annotation package in its bytes that it must be parsed
+            zip.putNextEntry( new ZipEntry( "Broken.class" ) );
+            zip.write( new byte[] { (byte)0xCA, (byte)0xFE, (byte)0xBA, (byte)0xBE, 0, 0 } );
+            zip.write( "Lde/inetsoftware/jwebassembly/api/annotation/".getBytes( StandardCharsets.UTF_8 ) );
+        }
+        return library;
+    }
+
+    /**
+     * Scan the library and return the names of the parsed classes. The classes with annotation records of an index are
+     * added to {@link #prepared}.
+     */
+    private List<String> scan( ClassFileLoader loader, URL url, int threads ) {
+        List<String> parsed = new ArrayList<>();
+        prepared.clear();
+        LibraryScanner scanner = new LibraryScanner( loader, threads );
+        try {
+            scanner.scan( url, new LibraryScanner.ClassFileHandler() {
+                @Override
+                public void prepare( ClassFile classFile ) {
+                    parsed.add( classFile.getThisClass().getName() );
+                }
+
+                @Override
+                public void prepare( String className, List<LibraryIndex.Annotation> annotations ) {
+                    prepared.add( className );
+                }
+            } );
+        } finally {
+            scanner.close();
+        }
+        return parsed;
+    }
+
+    private void assertScan( URL url, int threads, String... expected ) {
+        records.clear();
+        ClassFileLoader loader = new ClassFileLoader( getClass().getClassLoader() );
+        // the handler is called in the order of the entries
+        assertEquals( Arrays.asList( expected ), scan( loader, url, threads ) );
+
+        // the broken class file is logged and does not stop the scanning
+        assertEquals( records.toString(), 1, records.size() );
+        assertEquals( Level.SEVERE, records.get( 0 ).getLevel() );
+        assertTrue( records.get( 0 ).getMessage(), records.get( 0 ).getMessage().contains( "Broken.class" ) );
+    }
+
+    @Test
+    public void archive() throws IOException {
+        File library = createLibrary();
+        for( int threads : new int[] { 1, 4 } ) {
+            // the not annotated class and the boot class are loaded on demand from the library
+            assertScan( library.toURI().toURL(), threads, ANNOTATED );
+        }
+        try (URLClassLoader bootOnly = new URLClassLoader( new URL[0], null )) {
+            ClassFileLoader loader = new ClassFileLoader( bootOnly );
+            assertNull( loader.get( PLAIN ) );
+            loader = new ClassFileLoader( bootOnly );
+            scan( loader, library.toURI().toURL(), 4 );
+            assertNotNull( loader.get( PLAIN ) );
+        }
+        library.delete();
+    }
+
+    @Test
+    public void bootClass() throws IOException {
+        File library = createLibrary();
+        ClassFileLoader loader = new ClassFileLoader( getClass().getClassLoader(), 1 );
+        scan( loader, library.toURI().toURL(), 4 );
+
+        // the boot class is checked on first use and hold permanently, it is not evicted from the other class
+        ClassFile classFile = loader.get( BOOT );
+        assertEquals( BOOT, classFile.getThisClass().getName() );
+        loader.get( PLAIN );
+        assertEquals( 0, loader.getEvictionCount() );
+        assertSame( classFile, loader.get( BOOT ) );
+        library.delete();
+    }
+
+    @Test
+    public void index() throws IOException {
+        File library = createLibrary();
+        File indexFile = new File( library.getPath() + LibraryIndex.SUFFIX );
+        indexFile.deleteOnExit();
+        LibraryIndex.create( library );
+        for( int threads : new int[] { 1, 4 } ) {
+            // no class file is parsed, the annotations come from the index and the broken class is parsed
+            assertScan( library.toURI().toURL(), threads );
+            assertEquals( Arrays.asList( ANNOTATED ), prepared );
+        }
+        indexFile.delete();
+        library.delete();
+    }
+
+    @Test
+    public void stream() throws IOException {
+        File library = createLibrary();
+        // a nested library has no random access to the entries and the class files can not be loaded later
+        File outer = File.createTempFile( "outer", ".jar" );
+        outer.deleteOnExit();
+        try (ZipOutputStream zip = new ZipOutputStream( new FileOutputStream( outer ) )) {
+            zip.putNextEntry( new ZipEntry( "lib/library.jar" ) );
+            zip.write( Files.readAllBytes( library.toPath() ) );
+        }
+        assertScan( new URL( "jar:" + outer.toURI().toURL() + "!/lib/library.jar" ), 4, ANNOTATED, PLAIN, BOOT );
+        outer.delete();
+        library.delete();
+    }
+
+    @Test
+    public void missingLibrary() throws IOException {
+        File library = File.createTempFile( "library", ".jar" );
+        library.delete();
+        ClassFileLoader loader = new ClassFileLoader( getClass().getClassLoader() );
+        assertEquals( 0, scan( loader, library.toURI().toURL(), 1 ).size() );
+        assertEquals( records.toString(), 1, records.size() );
+        assertEquals( Level.SEVERE, records.get( 0 ).getLevel() );
+        assertNotNull( records.get( 0 ).getThrown() );
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.module;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import de.inetsoftware.jwebassembly.JWebAssembly;
+import de.inetsoftware.jwebassembly.api.annotation.Export;
+
+/**
+ * @author Volker Berlin
+ */
+public class LocaleVariableManagerTest {
+
+    @Export
+    static int sequential( int x ) {
+        int a = x * 3;
+        x += a;
+        int b = x * 5;
+        x += b;
+        long c = x * 7L;
+        x += (int)c;
+        int d = x * 11;
+        return x + d;
+    }
+
+    @Export
+    static int loop( int x ) {
+        int a = x * 3;
+        int b = 0;
+        for( int i = 0; i < x; i++ ) {
+            b += a;
+        }
+        return b;
+    }
+
+    /**
+     * Get the local declarations of a function from the text output.
+     */
+    private static String locals( String text, String method ) {
+        text = text.substring( text.indexOf( "LocaleVariableManagerTest." + method + "\n" ) );
+        text = text.substring( 0, text.indexOf( "  )" ) );
+        return text.replaceAll( "(?s).*?(\\(local \\w+\\))|.*", "$1" );
+    }
+
+    @Test
+    public void coalesce() {
+        JWebAssembly wasm = new JWebAssembly();
+        wasm.addFile( LocaleVariableManagerTest.class.getResource( "LocaleVariableManagerTest.class" ) );
+        String text = wasm.compileToText();
+
+        // the live ranges of a, b and d do not overlap
+        assertEquals( text, "(local i32)(local i64)", locals( text, "sequential" ) );
+        // a, b and i are live in the complete loop
+        assertEquals( text, "(local i32)(local i32)(local i32)", locals( text, "loop" ) );
+    }
+}
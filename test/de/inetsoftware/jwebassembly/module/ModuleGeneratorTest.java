@@ -0,0 +1,127 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.module;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.inetsoftware.jwebassembly.JWebAssembly;
+
+/**
+ * @author Volker Berlin
+ */
+public class ModuleGeneratorTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    /**
+     * Test classes with virtual calls, interface calls, type tests, lambdas and switch tables. Many types and functions
+     * are registered on the creating of the instructions.
+     */
+    private static final String[] CLASSES = { //
+                    "/de/inetsoftware/jwebassembly/runtime/Devirtualization$TestClass.class", //
+                    "/de/inetsoftware/jwebassembly/runtime/InterfaceSlots$TestClass.class", //
+                    "/de/inetsoftware/jwebassembly/runtime/CodeBufferLimit$TestClass.class", //
+                    "/de/inetsoftware/jwebassembly/runtime/PeepholeOptimizer$TestClass.class", //
+                    "/de/inetsoftware/jwebassembly/module/WasmConstLambdaInstructionTest.class", //
+    };
+
+    private static JWebAssembly create( Map<String, String> properties, int threads ) {
+        JWebAssembly wasm = new JWebAssembly();
+        for( String className : CLASSES ) {
+            wasm.addFile( ModuleGeneratorTest.class.getResource( className ) );
+        }
+        // the replacements of the native methods of the JDK
+        for( String lib : System.getProperty( "java.class.path" ).split( File.pathSeparator ) ) {
+            if( lib.endsWith( ".jar" ) || lib.toLowerCase().contains( "jwebassembly-api" ) ) {
+                File library = new File( lib );
+                if( library.exists() ) {
+                    wasm.addLibrary( library );
+                }
+            }
+        }
+        for( Map.Entry<String, String> entry : properties.entrySet() ) {
+            wasm.setProperty( entry.getKey(), entry.getValue() );
+        }
+        wasm.setProperty( JWebAssembly.PARALLEL_THREADS, Integer.toString( threads ) );
+        return wasm;
+    }
+
+    /**
+     * Read a file of the compiler output.
+     */
+    private static byte[] read( File file ) throws IOException {
+        return file.exists() ? Files.readAllBytes( file.toPath() ) : new byte[0];
+    }
+
+    private void assertParallel( Map<String, String> properties ) throws IOException {
+        // compile to a file that the debug names has a target for the source map
+        File wasmFile = new File( temp.getRoot(), "parallel.wasm" );
+        File mapFile = new File( temp.getRoot(), "parallel.wasm.map" );
+        create( properties, 1 ).compileToBinary( wasmFile );
+        byte[] expected = read( wasmFile );
+        byte[] expectedMap = read( mapFile );
+        String expectedText = create( properties, 1 ).compileToText();
+        // repeat it that different timings of the threads are tested
+        for( int i = 0; i < 5; i++ ) {
+            for( int threads : new int[] { 2, 8 } ) {
+                String message = properties + " threads: " + threads;
+                mapFile.delete();
+                create( properties, threads ).compileToBinary( wasmFile );
+                assertArrayEquals( message, expected, read( wasmFile ) );
+                assertArrayEquals( message, expectedMap, read( mapFile ) );
+                assertEquals( message, expectedText, create( properties, threads ).compileToText() );
+            }
+        }
+    }
+
+    @Test
+    public void parallel() throws IOException {
+        assertParallel( new HashMap<>() );
+    }
+
+    @Test
+    public void parallelDebugNames() throws IOException {
+        HashMap<String, String> properties = new HashMap<>();
+        properties.put( JWebAssembly.DEBUG_NAMES, "true" );
+        assertParallel( properties );
+    }
+
+    @Test
+    public void parallelLinearMemory() throws IOException {
+        HashMap<String, String> properties = new HashMap<>();
+        properties.put( JWebAssembly.WASM_USE_LINEAR_MEMORY, "true" );
+        assertParallel( properties );
+    }
+
+    @Test
+    public void parallelGC() throws IOException {
+        HashMap<String, String> properties = new HashMap<>();
+        properties.put( JWebAssembly.WASM_USE_GC, "true" );
+        assertParallel( properties );
+    }
+}
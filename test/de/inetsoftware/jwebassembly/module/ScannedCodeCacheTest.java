@@ -0,0 +1,201 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.inetsoftware.classparser.ClassFile;
+import de.inetsoftware.classparser.MethodInfo;
+import de.inetsoftware.jwebassembly.text.TextModuleWriter;
+import de.inetsoftware.jwebassembly.watparser.WatParser;
+
+/**
+ * @author Volker Berlin
+ */
+public class ScannedCodeCacheTest {
+
+    private static final String CALLER = "local.get 0 local.get 1 call $de/inetsoftware/jwebassembly/module/FunctionInlinerTest.add(II)I return";
+
+    private static final String CALL_LARGE = "local.get 0 local.set 0 local.get 0 call $de/inetsoftware/jwebassembly/module/FunctionInlinerTest.large(I)I return";
+
+    private WasmOptions         options;
+
+    private ClassFileLoader     loader;
+
+    private ClassFile           classFile;
+
+    private FunctionName        add;
+
+    @Before
+    public void before() throws IOException {
+        options = new WasmOptions( new HashMap<>() );
+        loader = new ClassFileLoader( getClass().getClassLoader() );
+        classFile = loader.get( "de/inetsoftware/jwebassembly/module/FunctionInlinerTest" );
+        add = new FunctionName( classFile.getMethod( "add", "(II)I" ) );
+    }
+
+    /**
+     * Create the instructions of the caller like in the scan or in the write phase.
+     */
+    private WasmCodeBuilder scan() {
+        return scan( CALLER );
+    }
+
+    /**
+     * Create the instructions of the caller from the given code.
+     */
+    private WasmCodeBuilder scan( String wat ) {
+        WatParser parser = new WatParser();
+        WasmCodeBuilder codeBuilder = parser;
+        codeBuilder.init( options, loader );
+        parser.parse( wat, caller(), null, 100 );
+        return codeBuilder;
+    }
+
+    private MethodInfo caller() {
+        return classFile.getMethod( "inlined", "(I)I" );
+    }
+
+    private static String toText( WasmCodeBuilder codeBuilder, WasmOptions options ) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        ModuleWriter writer = new TextModuleWriter( new WasmTarget( builder ), options );
+        writer.writeMethodStart( new FunctionName( "A.a()V" ), null );
+        for( WasmInstruction instruction : codeBuilder.getInstructions() ) {
+            instruction.writeTo( writer );
+        }
+        writer.writeMethodFinish();
+        writer.close();
+        return builder.toString();
+    }
+
+    @Test
+    public void unchanged() throws IOException {
+        ScannedCodeCache cache = new ScannedCodeCache( options, null );
+        cache.start();
+        WasmCodeBuilder codeBuilder = scan();
+        assertTrue( codeBuilder.getInlinedFunctions().containsKey( add ) );
+        String expected = toText( codeBuilder, options );
+        assertTrue( expected, expected.contains( "i32.add" ) );
+
+        cache.put( caller(), codeBuilder, false );
+        WasmCodeBuilder writeBuilder = new WatParser();
+        assertSame( writeBuilder, cache.get( caller(), writeBuilder ) );
+        assertEquals( expected, toText( writeBuilder, options ) );
+        assertEquals( codeBuilder.getInlinedFunctions(), writeBuilder.getInlinedFunctions() );
+    }
+
+    @Test
+    public void replacementAfterScan() throws IOException {
+        ScannedCodeCache cache = new ScannedCodeCache( options, null );
+        cache.start();
+        cache.put( caller(), scan(), false );
+
+        // a later scanned method replace the inlined function
+        options.functions.addReplacement( add, classFile.getMethod( "div", "(II)I" ) );
+        assertNull( cache.get( caller(), new WatParser() ) );
+
+        // created again the code of the replacement is inlined
+        String text = toText( scan(), options );
+        assertFalse( text, text.contains( "i32.add" ) );
+        assertTrue( text, text.contains( "i32.div_s" ) );
+    }
+
+    @Test
+    public void replacementInlinedByOtherMethod() throws IOException {
+        ScannedCodeCache cache = new ScannedCodeCache( options, null );
+        cache.start();
+        cache.put( caller(), scan(), false );
+
+        // the inliner parse the replacement for another caller, the first caller must not use its old code
+        options.functions.addReplacement( add, classFile.getMethod( "div", "(II)I" ) );
+        scan();
+        assertNull( cache.get( caller(), new WatParser() ) );
+    }
+
+    @Test
+    public void importAfterScan() throws IOException {
+        ScannedCodeCache cache = new ScannedCodeCache( options, null );
+        cache.start();
+        cache.put( caller(), scan(), false );
+
+        options.functions.markAsImport( add, Collections.emptyMap() );
+        assertNull( cache.get( caller(), new WatParser() ) );
+
+        // created again the function is called
+        WasmCodeBuilder codeBuilder = scan();
+        assertTrue( codeBuilder.getInlinedFunctions().isEmpty() );
+        String text = toText( codeBuilder, options );
+        assertTrue( text, text.contains( "call $de/inetsoftware/jwebassembly/module/FunctionInlinerTest.add" ) );
+    }
+
+    @Test
+    public void aliasAfterScan() throws IOException {
+        ScannedCodeCache cache = new ScannedCodeCache( options, null );
+        cache.start();
+        cache.put( caller(), scan( CALL_LARGE ), false );
+
+        // the alias is found after the call was created, no manual check of the call instruction is needed
+        FunctionName large = new FunctionName( classFile.getMethod( "large", "(I)I" ) );
+        options.functions.setAlias( large, add );
+        assertNull( cache.get( caller(), new WatParser() ) );
+    }
+
+    @Test
+    public void vtableNotKnownInScan() throws IOException {
+        ScannedCodeCache cache = new ScannedCodeCache( options, null );
+        cache.start();
+        WasmCodeBuilder codeBuilder = scan();
+        options.functions.recordUnknownValue(); // like the vtable offset of a new object with GC
+        cache.put( caller(), codeBuilder, false );
+        assertNull( cache.get( caller(), new WatParser() ) );
+    }
+
+    @Test
+    public void optimizedAfterPut() throws IOException {
+        ScannedCodeCache cache = new ScannedCodeCache( options, null );
+        cache.start();
+        WasmCodeBuilder codeBuilder = scan( CALL_LARGE );
+        String expected = toText( codeBuilder, options );
+        cache.put( caller(), codeBuilder, true );
+
+        // the optimizer of the write phase change the instructions of the code builder
+        new CodeOptimizer().optimize( codeBuilder.getInstructions() );
+        String optimized = toText( codeBuilder, options );
+        assertTrue( optimized, optimized.contains( "local.tee" ) );
+        WasmCallInstruction call = (WasmCallInstruction)codeBuilder.getInstructions().get( 2 );
+        call.setTailCall(); // like the tail call rule
+
+        // the cached instructions are not changed, only the local variables of the scan are hold and not the code builder
+        WasmCodeBuilder restored = cache.get( caller(), null );
+        assertNotSame( codeBuilder, restored );
+        assertSame( codeBuilder.getLocalVariables(), restored.getLocalVariables() );
+        assertEquals( expected, toText( restored, options ) );
+        call = (WasmCallInstruction)restored.getInstructions().get( 3 );
+        assertFalse( call.isTailCall() );
+    }
+}
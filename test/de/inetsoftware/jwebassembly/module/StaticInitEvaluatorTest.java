@@ -0,0 +1,202 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+import de.inetsoftware.jwebassembly.JWebAssembly;
+import de.inetsoftware.jwebassembly.api.annotation.Export;
+
+/**
+ * @author Volker Berlin
+ */
+public class StaticInitEvaluatorTest {
+
+    static class Evaluable {
+        static int  sum;
+
+        static long big = 1L << 40;
+
+        static int  answer = compute();
+
+        static {
+            for( int i = 1; i <= 10; i++ ) {
+                sum += i;
+            }
+        }
+
+        static int compute() {
+            return 42;
+        }
+    }
+
+    static class NotEvaluable {
+        static int value = Evaluable.sum - 13;
+    }
+
+    static class Arrays {
+        static byte[] bytes = { 1, (byte)200, 3 };
+
+        static long[] longs = { -2, 1L << 40 };
+
+        static long[] alias = longs;
+    }
+
+    static class StepBudget {
+        static int sum;
+
+        static {
+            for( int i = 0; i < StaticInitEvaluator.MAX_STEPS; i++ ) {
+                sum += i;
+            }
+        }
+    }
+
+    static class DivideByZero {
+        static int zero;
+
+        static int value = 1 / zero;
+    }
+
+    @Export
+    static int test() {
+        return Evaluable.sum + (int)(Evaluable.big >> 40) + Evaluable.answer + NotEvaluable.value;
+    }
+
+    @Export
+    static int testArrays() {
+        return Arrays.bytes[1] + (int)Arrays.longs[0] + (int)Arrays.alias[1] + StepBudget.sum + DivideByZero.value;
+    }
+
+    /**
+     * Get the declaration of a global variable from the text output.
+     */
+    private static String global( String text, String name ) {
+        for( String line : text.split( "\n" ) ) {
+            if( line.trim().startsWith( "(global " ) && line.contains( name + " " ) ) {
+                return line.trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the initial value of an i32 global variable from the text output.
+     */
+    private static int address( String text, String name ) {
+        String global = global( text, name );
+        return Integer.parseInt( global.substring( global.lastIndexOf( ' ' ) + 1, global.length() - 1 ) );
+    }
+
+    /**
+     * Get the data of the linear memory from the text output.
+     */
+    private static byte[] data( String text ) {
+        String data = text.substring( text.indexOf( "(data (i32.const 0) \"" ) + 21 );
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for( int i = 0; data.charAt( i ) != '"'; i++ ) {
+            char ch = data.charAt( i );
+            if( ch == '\\' ) {
+                bytes.write( Integer.parseInt( data.substring( i + 1, i + 3 ), 16 ) );
+                i += 2;
+            } else {
+                bytes.write( ch );
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read a little-endian value from the data.
+     */
+    private static long read( byte[] data, int offset, int size ) {
+        long value = 0;
+        for( int i = size - 1; i >= 0; i-- ) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Get the instructions of the start function from the text output.
+     */
+    private static String start( String text ) {
+        String start = text.substring( text.indexOf( "(func $.<start>" ) );
+        return start.substring( 0, start.indexOf( "\n  )" ) );
+    }
+
+    @Test
+    public void evaluate() {
+        JWebAssembly wasm = new JWebAssembly();
+        wasm.setProperty( JWebAssembly.EVALUATE_CLINIT, "true" );
+        wasm.addFile( StaticInitEvaluatorTest.class.getResource( "StaticInitEvaluatorTest.class" ) );
+        wasm.addFile( StaticInitEvaluatorTest.class.getResource( "StaticInitEvaluatorTest$Evaluable.class" ) );
+        wasm.addFile( StaticInitEvaluatorTest.class.getResource( "StaticInitEvaluatorTest$NotEvaluable.class" ) );
+        String text = wasm.compileToText();
+
+        assertTrue( text, global( text, "$Evaluable.sum" ).endsWith( "i32.const 55)" ) );
+        assertTrue( text, global( text, "$Evaluable.big" ).endsWith( "i64.const 1099511627776)" ) );
+        assertTrue( text, global( text, "$Evaluable.answer" ).endsWith( "i32.const 42)" ) );
+
+        String start = start( text );
+        assertFalse( text, start.contains( "$Evaluable.<clinit>" ) );
+        assertTrue( text, start.contains( "$NotEvaluable.<clinit>" ) );
+    }
+
+    @Test
+    public void linearMemoryArrays() {
+        JWebAssembly wasm = new JWebAssembly();
+        wasm.setProperty( JWebAssembly.EVALUATE_CLINIT, "true" );
+        wasm.setProperty( JWebAssembly.WASM_USE_LINEAR_MEMORY, "true" );
+        wasm.addFile( StaticInitEvaluatorTest.class.getResource( "StaticInitEvaluatorTest.class" ) );
+        wasm.addFile( StaticInitEvaluatorTest.class.getResource( "StaticInitEvaluatorTest$Arrays.class" ) );
+        wasm.addFile( StaticInitEvaluatorTest.class.getResource( "StaticInitEvaluatorTest$StepBudget.class" ) );
+        wasm.addFile( StaticInitEvaluatorTest.class.getResource( "StaticInitEvaluatorTest$DivideByZero.class" ) );
+        String text = wasm.compileToText();
+        byte[] data = data( text );
+
+        // the header of vtable, hashcode, length and padding and the elements with its size
+        int bytes = address( text, "$Arrays.bytes" );
+        assertEquals( 0, bytes % 8 );
+        assertTrue( read( data, bytes, 4 ) > 0 );
+        assertEquals( 0, read( data, bytes + 4, 4 ) );
+        assertEquals( 3, read( data, bytes + MemoryManager.ARRAY_LENGTH, 4 ) );
+        assertEquals( 0, read( data, bytes + 12, 4 ) );
+        assertEquals( 0x03C801, read( data, bytes + MemoryManager.ARRAY_DATA, 3 ) );
+
+        int longs = address( text, "$Arrays.longs" );
+        assertEquals( 0, longs % 8 );
+        assertTrue( longs >= bytes + MemoryManager.ARRAY_DATA + 3 );
+        assertEquals( 2, read( data, longs + MemoryManager.ARRAY_LENGTH, 4 ) );
+        assertEquals( -2, read( data, longs + MemoryManager.ARRAY_DATA, 8 ) );
+        assertEquals( 1L << 40, read( data, longs + MemoryManager.ARRAY_DATA + 8, 8 ) );
+
+        // both fields reference the same array
+        assertEquals( longs, address( text, "$Arrays.alias" ) );
+
+        // the evaluation bails out and the static class initializers are called at runtime
+        String start = start( text );
+        assertFalse( text, start.contains( "$Arrays.<clinit>" ) );
+        assertTrue( text, start.contains( "$StepBudget.<clinit>" ) );
+        assertTrue( text, start.contains( "$DivideByZero.<clinit>" ) );
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.module;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.function.IntUnaryOperator;
+
+import org.junit.Test;
+
+import de.inetsoftware.jwebassembly.JWebAssembly;
+import de.inetsoftware.jwebassembly.api.annotation.Export;
+
+/**
+ * @author Volker Berlin
+ */
+public class WasmConstLambdaInstructionTest {
+
+    @Export
+    static int lambda( int x ) {
+        IntUnaryOperator constant = v -> v + 1;
+        IntUnaryOperator capturing = v -> v + x;
+        return constant.applyAsInt( x ) + capturing.applyAsInt( 1 );
+    }
+
+    @Test
+    public void singleton() {
+        JWebAssembly wasm = new JWebAssembly();
+        wasm.setProperty( JWebAssembly.WASM_USE_LINEAR_MEMORY, "true" );
+        wasm.addFile( WasmConstLambdaInstructionTest.class.getResource( "WasmConstLambdaInstructionTest.class" ) );
+        String text = wasm.compileToText();
+
+        // only the lambda without parameters has a global instance
+        assertEquals( text, 2, text.split( "\\(global \\$[^ ]*\\.<instance> " ).length );
+        assertEquals( text, 2, text.split( "\\(func \\$[^ ]*\\.<createInstance>" ).length );
+    }
+}
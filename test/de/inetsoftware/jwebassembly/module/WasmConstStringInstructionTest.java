@@ -0,0 +1,78 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.module;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import de.inetsoftware.jwebassembly.JWebAssembly;
+import de.inetsoftware.jwebassembly.text.TextModuleWriter;
+
+/**
+ * @author Volker Berlin
+ */
+public class WasmConstStringInstructionTest {
+
+    private static String write( WasmOptions options, String... values ) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        ModuleWriter writer = new TextModuleWriter( new WasmTarget( builder ), options );
+        writer.writeMethodStart( new FunctionName( "A.a()V" ), null );
+        for( String value : values ) {
+            new WasmConstStringInstruction( value, options.strings, options.types, 0, 1 ).writeTo( writer );
+        }
+        writer.writeMethodFinish();
+        writer.close();
+        return builder.toString().replaceAll( "\\s+", " " );
+    }
+
+    @Test
+    public void tableGet() throws IOException {
+        WasmOptions options = new WasmOptions( new HashMap<>() );
+        String text = write( options, "abc", "xyz", "abc" );
+
+        // the table is only read on the fast path, the function call is only on the first access
+        String fastPath = "table.get " + ModuleWriter.STRING_TABLE + " ref.is_null";
+        String expected = "(func $A.a i32.const 0 " + fastPath + " if(result externref) i32.const 0 " //
+                        + "call $de/inetsoftware/jwebassembly/module/nativecode/StringTable.stringConstant ;; \"abc\" " //
+                        + "else i32.const 0 table.get " + ModuleWriter.STRING_TABLE + " end " //
+                        + "i32.const 1 " + fastPath + " if(result externref) i32.const 1 ";
+        assertEquals( text, expected, text.substring( text.indexOf( "(func $A.a" ), text.indexOf( "(func $A.a" ) + expected.length() ) );
+
+        // the same string use the same id
+        assertEquals( text, 3, text.split( "call \\$" ).length - 1 );
+        assertEquals( text, 2, text.split( "i32.const 0 " + fastPath ).length - 1 );
+
+        // the string table is declared with the index that is used in the code
+        String[] tables = text.split( "\\(table " );
+        assertEquals( text, ModuleWriter.TABLE_COUNT + 1, tables.length );
+        assertEquals( text, "$strings 2 externref) ", tables[ModuleWriter.STRING_TABLE + 1] );
+    }
+
+    @Test
+    public void linearMemory() throws IOException {
+        HashMap<String, String> properties = new HashMap<>();
+        properties.put( JWebAssembly.WASM_USE_LINEAR_MEMORY, "true" );
+        WasmOptions options = new WasmOptions( properties );
+        String text = write( options, "abc" );
+        // without tables the string instance is loaded from the memory
+        assertEquals( text, -1, text.indexOf( "table.get" ) );
+        assertEquals( text, 2, text.split( "i32.load" ).length - 1 );
+    }
+}
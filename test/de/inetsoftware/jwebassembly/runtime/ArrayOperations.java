@@ -1,5 +1,5 @@
 /*
- * Copyright 2018 - 2021 Volker Berlin (i-net software)
+ * Copyright 2018 - 2022 Volker Berlin (i-net software)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -64,6 +64,7 @@ public static Collection<Object[]> data() {
             addParam( list, script, "loopObject" );
             addParam( list, script, "copyBack2Front" );
             addParam( list, script, "copyFront2Back" );
+            addParam( list, script, "fillAndCopyOf" );
             addParam( list, script, "dup2" );
             addParam( list, script, "dup2FromStack" );
             addParam( list, script, "dup_x2" );
@@ -215,6 +216,24 @@ static double copyFront2Back() {
             return crc.getValue();
         }
 
+        @Export
+        static int fillAndCopyOf() {
+            int[] a = new int[10];
+            Arrays.fill( a, 7 );
+            Arrays.fill( a, 2, 5, -3 );
+            int[] b = Arrays.copyOf( a, 12 );
+            double[] c = new double[4];
+            Arrays.fill( c, 1.5 );
+            long[] d = new long[6];
+            Arrays.fill( d, 1L << 40 );
+            System.arraycopy( d, 1, d, 0, 5 );
+            int sum = 0;
+            for( int i = 0; i < b.length; i++ ) {
+                sum = sum * 31 + b[i];
+            }
+            return sum + (int)(c[3] * 10) + (int)(d[4] >> 32) + Arrays.copyOf( a, 3 ).length;
+        }
+
         @Export
         static int dup2() {
             int[] data = {1,2,3};
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.runtime;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.junit.ClassRule;
+import org.junit.runners.Parameterized.Parameters;
+
+import de.inetsoftware.jwebassembly.JWebAssembly;
+import de.inetsoftware.jwebassembly.ScriptEngine;
+import de.inetsoftware.jwebassembly.WasmRule;
+import de.inetsoftware.jwebassembly.api.annotation.Export;
+
+/**
+ * A module with a memory limit of about 100 bytes for the function bodies. The most bodies are written to the temporary
+ * file and copied into the code section.
+ */
+public class CodeBufferLimit extends AbstractBaseTest {
+
+    @ClassRule
+    public static WasmRule rule = new WasmRule( TestClass.class );
+
+    public CodeBufferLimit( ScriptEngine script, String method, Object[] params ) {
+        super( rule, script, method, params );
+    }
+
+    @Parameters( name = "{0}-{1}" )
+    public static Collection<Object[]> data() {
+        ArrayList<Object[]> list = new ArrayList<>();
+        for( ScriptEngine script : ScriptEngine.testEngines() ) {
+            addParam( list, script, "checksum" );
+            addParam( list, script, "calls" );
+            addParam( list, script, "switchTable" );
+        }
+        rule.setTestParameters( list );
+        rule.setProperty( JWebAssembly.CODE_BUFFER_LIMIT, "0.0001" );
+        return list;
+    }
+
+    static class TestClass {
+
+        @Export
+        static int checksum() {
+            byte[] data = new byte[300];
+            for( int i = 0; i < data.length; i++ ) {
+                data[i] = (byte)(i * 7);
+            }
+            int a = 1;
+            int b = 0;
+            for( byte value : data ) {
+                a = (a + (value & 0xFF)) % 65521;
+                b = (b + a) % 65521;
+            }
+            return (b << 16) | a;
+        }
+
+        @Export
+        static int calls() {
+            int sum = 0;
+            for( int i = 0; i < 10; i++ ) {
+                sum += square( i ) - twice( i );
+            }
+            return sum;
+        }
+
+        @Export
+        static int switchTable() {
+            int sum = 0;
+            for( int i = 0; i < 8; i++ ) {
+                sum = sum * 3 + select( i );
+            }
+            return sum;
+        }
+
+        static int square( int value ) {
+            return value * value;
+        }
+
+        static int twice( int value ) {
+            return value + value;
+        }
+
+        static int select( int value ) {
+            switch( value ) {
+                case 0:
+                    return 5;
+                case 1:
+                    return 3;
+                case 2:
+                    return 8;
+                case 3:
+                    return 1;
+                case 5:
+                    return 7;
+                default:
+                    return 2;
+            }
+        }
+    }
+}
@@ -46,6 +46,7 @@ public static Collection<Object[]> data() {
             addParam( list, script, "ifMultipleDouble" );
             addParam( list, script, "ifCompare" );
             addParam( list, script, "switchDirect" );
+            addParam( list, script, "switchSparse" );
             addParam( list, script, "switchWithConditionMethodParams" );
             addParam( list, script, "switchWithConditionSelect" );
             addParam( list, script, "endlessLoop" );
@@ -292,6 +293,50 @@ private static int lookupSwitch( int a ) {
             return b;
         }
 
+        @Export
+        static int switchSparse() {
+            int result = 0;
+            int[] values = { Integer.MIN_VALUE, -5000, -1, 0, 3, 4, 5, 6, 7, 8, 9, 10, 42, 99, 100, 4711, 65536, Integer.MAX_VALUE };
+            for( int a : values ) {
+                result = result * 31 + sparseSwitch( a );
+            }
+            return result;
+        }
+
+        private static int sparseSwitch( int a ) {
+            // a binary decision tree with a br_table for the dense cluster 3 - 9
+            switch( a ) {
+                case Integer.MIN_VALUE:
+                    return 1;
+                case -5000:
+                    return 2;
+                case 3:
+                    return 3;
+                case 4:
+                case 5:
+                    return 4;
+                case 6:
+                    return 5;
+                case 7:
+                case 8:
+                    return 6;
+                case 9:
+                    return 13;
+                case 42:
+                    return 7;
+                case 100:
+                    return 8;
+                case 4711:
+                    return 9;
+                case 65536:
+                    return 10;
+                case Integer.MAX_VALUE:
+                    return 11;
+                default:
+                    return 12;
+            }
+        }
+
         @Export
         public static int switchWithConditionMethodParams() {
             int last = 8;
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.runtime;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runners.Parameterized.Parameters;
+
+import de.inetsoftware.jwebassembly.ScriptEngine;
+import de.inetsoftware.jwebassembly.WasmRule;
+import de.inetsoftware.jwebassembly.api.annotation.Export;
+
+/**
+ * Virtual and interface calls that are replaced with a direct call if there is only one implementation over all types
+ * with instances. The override of "late" is only created in a method that is scanned after the call site. The methods
+ * with the prefix "trap" call a method with a null receiver and must abort.
+ */
+public class Devirtualization extends AbstractBaseTest {
+
+    @ClassRule
+    public static WasmRule rule = new WasmRule( TestClass.class );
+
+    public Devirtualization( ScriptEngine script, String method, Object[] params ) {
+        super( rule, script, method, params );
+    }
+
+    @Parameters( name = "{0}-{1}" )
+    public static Collection<Object[]> data() {
+        ArrayList<Object[]> list = new ArrayList<>();
+        ArrayList<ScriptEngine> engines = new ArrayList<>();
+        for( ScriptEngine script : ScriptEngine.testEngines() ) {
+            engines.add( script );
+        }
+        engines.add( ScriptEngine.NodeJsGC );
+        engines.add( ScriptEngine.Wat2WasmGC );
+        engines.add( ScriptEngine.NodeJsLinearMemory );
+        for( ScriptEngine script : engines ) {
+            addParam( list, script, "monomorphic" );
+            addParam( list, script, "monomorphicInterface" );
+            addParam( list, script, "polymorphic" );
+            addParam( list, script, "polymorphicInterface" );
+            addParam( list, script, "lateBase" );
+            addParam( list, script, "lateOverride" );
+            addParam( list, script, "lateInterface" );
+            addParam( list, script, "trapNullReceiver" );
+            addParam( list, script, "trapNullReceiverInterface" );
+        }
+        rule.setTestParameters( list );
+        return list;
+    }
+
+    @Test
+    @Override
+    public void test() {
+        if( getMethod().startsWith( "trap" ) ) {
+            // the direct call must trap like the indirect call, also if the called method does not use THIS
+            String result = rule.evalWasm( getScriptEngine(), getMethod() );
+            assertTrue( result, result != null && (result.contains( "unreachable" ) || result.contains( "null" )) );
+        } else {
+            super.test();
+        }
+    }
+
+    static class TestClass {
+
+        @Export
+        static int monomorphic() {
+            // only Single has instances, the abstract base class has none
+            AbstractSingle single = new Single();
+            return single.value( 3 );
+        }
+
+        @Export
+        static int monomorphicInterface() {
+            SingleFace face = new SingleImpl();
+            return face.value( 4 );
+        }
+
+        @Export
+        static int polymorphic() {
+            Animal[] animals = { new Animal(), new Dog(), new Cat(), new Puppy() };
+            int result = 0;
+            for( Animal animal : animals ) {
+                result = result * 10 + animal.legs();
+            }
+            return result;
+        }
+
+        @Export
+        static int polymorphicInterface() {
+            Face[] faces = { new FaceA(), new FaceB() };
+            int result = 0;
+            for( Face face : faces ) {
+                result = result * 10 + face.value();
+            }
+            return result;
+        }
+
+        @Export
+        static int lateBase() {
+            // the call site is scanned before the override has instances
+            return callLate( new Late() );
+        }
+
+        @Export
+        static int lateOverride() {
+            return callLate( createLateSub() );
+        }
+
+        @Export
+        static int lateInterface() {
+            return callLateFace( new LateFaceA() ) * 10 + callLateFace( createLateFaceB() );
+        }
+
+        @Export
+        static int trapNullReceiver() {
+            Single single = createSingle( false );
+            return single.value( 3 );
+        }
+
+        @Export
+        static int trapNullReceiverInterface() {
+            SingleFace face = createSingleFace( false );
+            return face.value( 4 );
+        }
+
+        static Single createSingle( boolean create ) {
+            return create ? new Single() : null;
+        }
+
+        static SingleFace createSingleFace( boolean create ) {
+            return create ? new SingleImpl() : null;
+        }
+
+        static int callLate( Late late ) {
+            return late.value();
+        }
+
+        static Late createLateSub() {
+            return new LateSub();
+        }
+
+        static int callLateFace( LateFace face ) {
+            return face.value();
+        }
+
+        static LateFace createLateFaceB() {
+            return new LateFaceB();
+        }
+    }
+
+    static abstract class AbstractSingle {
+        abstract int value( int a );
+    }
+
+    static class Single extends AbstractSingle {
+        @Override
+        int value( int a ) {
+            return a * 7;
+        }
+    }
+
+    interface SingleFace {
+        int value( int a );
+    }
+
+    static class SingleImpl implements SingleFace {
+        @Override
+        public int value( int a ) {
+            return a * 11;
+        }
+    }
+
+    static class Animal {
+        int legs() {
+            return 2;
+        }
+    }
+
+    static class Dog extends Animal {
+        @Override
+        int legs() {
+            return 4;
+        }
+    }
+
+    static class Cat extends Animal {
+        @Override
+        int legs() {
+            return 3;
+        }
+    }
+
+    static class Puppy extends Dog {
+        // inherit the override of Dog
+    }
+
+    interface Face {
+        int value();
+    }
+
+    static class FaceA implements Face {
+        @Override
+        public int value() {
+            return 1;
+        }
+    }
+
+    static class FaceB implements Face {
+        @Override
+        public int value() {
+            return 2;
+        }
+    }
+
+    static class Late {
+        int value() {
+            return 1;
+        }
+    }
+
+    static class LateSub extends Late {
+        @Override
+        int value() {
+            return 2;
+        }
+    }
+
+    interface LateFace {
+        int value();
+    }
+
+    static class LateFaceA implements LateFace {
+        @Override
+        public int value() {
+            return 3;
+        }
+    }
+
+    static class LateFaceB implements LateFace {
+        @Override
+        public int value() {
+            return 4;
+        }
+    }
+}
@@ -64,6 +64,9 @@ public static Collection<Object[]> data() {
             addParam( list, script, "whileTrueTryFinally" );
             addParam( list, script, "ifMultipleInFinally" );
             addParam( list, script, "catchWithContinue" );
+            addParam( list, script, "catchFilter" );
+            addParam( list, script, "catchFilterInterface" );
+            addParam( list, script, "castFailure" );
         }
         rule.setTestParameters( list );
         rule.setProperty( JWebAssembly.WASM_USE_EH, "true" );
@@ -347,10 +350,96 @@ static private int catchWithContinue() {
             return val;
         }
 
+        @Export
+        static int catchFilter() {
+            int result = 0;
+            for( int i = 0; i < 4; i++ ) {
+                try {
+                    throwFor( i );
+                } catch( IllegalArgumentException ex ) {
+                    // NumberFormatException is a sub class and must also be caught here
+                    result = result * 10 + 1;
+                } catch( IllegalStateException ex ) {
+                    result = result * 10 + 2;
+                } catch( RuntimeException ex ) {
+                    result = result * 10 + 3;
+                }
+            }
+            return result;
+        }
+
+        @Export
+        static int catchFilterInterface() {
+            int result = 0;
+            for( int i = 0; i < 3; i++ ) {
+                try {
+                    throwError( i );
+                } catch( FaceException ex ) {
+                    result = result * 10 + (ex instanceof Face ? 1 : 2);
+                } catch( RuntimeException ex ) {
+                    result = result * 10 + 3;
+                }
+            }
+            return result;
+        }
+
+        static void throwFor( int i ) {
+            switch( i ) {
+                case 0:
+                    throw new NumberFormatException();
+                case 1:
+                    throw new IllegalStateException();
+                case 2:
+                    throw new UnsupportedOperationException();
+                default:
+                    throw new IllegalArgumentException();
+            }
+        }
+
+        static void throwError( int i ) {
+            switch( i ) {
+                case 0:
+                    throw new FaceException();
+                case 1:
+                    throw new FaceSubException();
+                default:
+                    throw new RuntimeException();
+            }
+        }
+
+        @Export
+        static int castFailure() {
+            Object[] objects = { new Object(), new FaceException(), new FaceSubException(), null };
+            int result = 0;
+            for( Object obj : objects ) {
+                try {
+                    FaceException ex = (FaceException)obj;
+                    result = result * 10 + (ex == null ? 1 : 2);
+                } catch( ClassCastException ex ) {
+                    result = result * 10 + 3;
+                }
+            }
+            return result;
+        }
+
 //        @Export
 //        static int npe() {
 //            Object obj = new NullPointerException();
 //            return 3;
 //        }
     }
+
+    interface Face {
+        int face();
+    }
+
+    static class FaceException extends RuntimeException {
+    }
+
+    static class FaceSubException extends FaceException implements Face {
+        @Override
+        public int face() {
+            return 1;
+        }
+    }
 }
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.runtime;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.junit.ClassRule;
+import org.junit.runners.Parameterized.Parameters;
+
+import de.inetsoftware.jwebassembly.ScriptEngine;
+import de.inetsoftware.jwebassembly.WasmRule;
+import de.inetsoftware.jwebassembly.api.annotation.Export;
+
+/**
+ * Interface calls over the interface slots of the types. Interfaces that are never implemented from the same type share
+ * a slot. Every interface has at least two implementations that the calls are not replaced with direct calls.
+ */
+public class InterfaceSlots extends AbstractBaseTest {
+
+    @ClassRule
+    public static WasmRule rule = new WasmRule( TestClass.class );
+
+    public InterfaceSlots( ScriptEngine script, String method, Object[] params ) {
+        super( rule, script, method, params );
+    }
+
+    @Parameters( name = "{0}-{1}" )
+    public static Collection<Object[]> data() {
+        ArrayList<Object[]> list = new ArrayList<>();
+        for( ScriptEngine script : ScriptEngine.testEngines() ) {
+            addParam( list, script, "sharedSlot" );
+            addParam( list, script, "sameTypeDifferentSlots" );
+            addParam( list, script, "manyInterfaces" );
+            addParam( list, script, "subInterface" );
+            addParam( list, script, "inheritedInterface" );
+        }
+        rule.setTestParameters( list );
+        return list;
+    }
+
+    static class TestClass {
+
+        @Export
+        static int sharedSlot() {
+            // Red and Green are never implemented together and can share a slot
+            Red[] reds = { new RedA(), new RedB() };
+            Green[] greens = { new GreenA(), new GreenB() };
+            int result = 0;
+            for( int i = 0; i < 2; i++ ) {
+                result = result * 100 + reds[i].red() * 10 + greens[i].green();
+            }
+            return result;
+        }
+
+        @Export
+        static int sameTypeDifferentSlots() {
+            // Blue shares a slot with Red or Green, but not with both because RedGreenBlue has all three
+            Object[] objects = { new RedGreenBlue(), new RedA(), new GreenB(), new BlueA() };
+            int result = 0;
+            for( Object obj : objects ) {
+                int value = 0;
+                if( obj instanceof Red ) {
+                    value += ((Red)obj).red();
+                }
+                if( obj instanceof Green ) {
+                    value += ((Green)obj).green() * 10;
+                }
+                if( obj instanceof Blue ) {
+                    value += ((Blue)obj).blue() * 100;
+                }
+                result = result * 3 + value;
+            }
+            return result;
+        }
+
+        @Export
+        static int manyInterfaces() {
+            All all = new All();
+            Red red = all;
+            Green green = all;
+            Blue blue = all;
+            Yellow yellow = all;
+            Yellow other = new YellowA();
+            return red.red() + green.green() * 10 + blue.blue() * 100 + yellow.yellow() * 1000 + other.yellow() * 10000;
+        }
+
+        @Export
+        static int subInterface() {
+            Shade[] shades = { new ShadeA(), new ShadeB() };
+            int result = 0;
+            for( Shade shade : shades ) {
+                // the method of the super interface is called over the slot of the super interface
+                Red red = shade;
+                result = result * 100 + shade.shade() * 10 + red.red();
+            }
+            return result;
+        }
+
+        @Export
+        static int inheritedInterface() {
+            // the sub class inherits the interface and one implementation from its super class
+            Red[] reds = { new RedA(), new RedSub() };
+            Green green = new RedSub();
+            return reds[0].red() * 100 + reds[1].red() * 10 + green.green();
+        }
+    }
+
+    interface Red {
+        int red();
+    }
+
+    interface Green {
+        int green();
+    }
+
+    interface Blue {
+        int blue();
+    }
+
+    interface Yellow {
+        int yellow();
+    }
+
+    interface Shade extends Red {
+        int shade();
+    }
+
+    static class RedA implements Red {
+        @Override
+        public int red() {
+            return 1;
+        }
+    }
+
+    static class RedB implements Red {
+        @Override
+        public int red() {
+            return 2;
+        }
+    }
+
+    static class GreenA implements Green {
+        @Override
+        public int green() {
+            return 3;
+        }
+    }
+
+    static class GreenB implements Green {
+        @Override
+        public int green() {
+            return 4;
+        }
+    }
+
+    static class BlueA implements Blue {
+        @Override
+        public int blue() {
+            return 5;
+        }
+    }
+
+    static class YellowA implements Yellow {
+        @Override
+        public int yellow() {
+            return 6;
+        }
+    }
+
+    static class RedGreenBlue implements Red, Green, Blue {
+        @Override
+        public int red() {
+            return 7;
+        }
+
+        @Override
+        public int green() {
+            return 8;
+        }
+
+        @Override
+        public int blue() {
+            return 9;
+        }
+    }
+
+    static class All implements Red, Green, Blue, Yellow {
+        @Override
+        public int red() {
+            return 2;
+        }
+
+        @Override
+        public int green() {
+            return 3;
+        }
+
+        @Override
+        public int blue() {
+            return 4;
+        }
+
+        @Override
+        public int yellow() {
+            return 5;
+        }
+    }
+
+    static class ShadeA implements Shade {
+        @Override
+        public int red() {
+            return 3;
+        }
+
+        @Override
+        public int shade() {
+            return 4;
+        }
+    }
+
+    static class ShadeB implements Shade {
+        @Override
+        public int red() {
+            return 5;
+        }
+
+        @Override
+        public int shade() {
+            return 6;
+        }
+    }
+
+    static class RedSub extends RedA implements Green {
+        @Override
+        public int green() {
+            return 7;
+        }
+    }
+}
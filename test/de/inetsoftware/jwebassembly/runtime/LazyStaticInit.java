@@ -0,0 +1,249 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.runtime;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runners.Parameterized.Parameters;
+
+import de.inetsoftware.jwebassembly.JWebAssembly;
+import de.inetsoftware.jwebassembly.ScriptEngine;
+import de.inetsoftware.jwebassembly.WasmRule;
+import de.inetsoftware.jwebassembly.api.annotation.Export;
+
+/**
+ * The order of the static class initializers if they are called lazy on the first use of a class. Every static
+ * initializer append its digit to a log. The expected values are fix because the classes in the JVM are initialized only
+ * once for all script engines.
+ */
+public class LazyStaticInit extends AbstractBaseTest {
+
+    @ClassRule
+    public static WasmRule rule = new WasmRule( TestClass.class );
+
+    public LazyStaticInit( ScriptEngine script, String method, Object[] params ) {
+        super( rule, script, method, params );
+    }
+
+    @Parameters( name = "{0}-{1}" )
+    public static Collection<Object[]> data() {
+        ArrayList<Object[]> list = new ArrayList<>();
+        for( ScriptEngine script : ScriptEngine.testEngines() ) {
+            addParam( list, script, "staticField" );
+            addParam( list, script, "staticCall" );
+            addParam( list, script, "newInstance" );
+            addParam( list, script, "superClassFirst" );
+            addParam( list, script, "inheritedStaticMethod" );
+            addParam( list, script, "onlyOnUsedPath" );
+            addParam( list, script, "onlyOnce" );
+        }
+        rule.setTestParameters( list );
+        rule.setProperty( JWebAssembly.LAZY_CLINIT, "true" );
+        return list;
+    }
+
+    @Test
+    @Override
+    public void test() {
+        String expected;
+        switch( getMethod() ) {
+            case "staticField":
+                expected = "1007";
+                break;
+            case "staticCall":
+                expected = "1005";
+                break;
+            case "newInstance":
+                expected = "1003";
+                break;
+            case "superClassFirst":
+                expected = "12";
+                break;
+            case "inheritedStaticMethod":
+                expected = "1004";
+                break;
+            case "onlyOnUsedPath":
+                expected = "1";
+                break;
+            case "onlyOnce":
+                expected = "19";
+                break;
+            default:
+                throw new IllegalStateException( getMethod() );
+        }
+        assertEquals( expected, rule.evalWasm( getScriptEngine(), getMethod() ) );
+    }
+
+    static class TestClass {
+
+        static int fieldLog;
+
+        static int callLog;
+
+        static int newLog;
+
+        static int superLog;
+
+        static int inheritedLog;
+
+        static int pathLog;
+
+        static int onceLog;
+
+        @Export
+        static int staticField() {
+            int before = fieldLog;
+            int value = FieldHolder.value;
+            return before * 10000 + fieldLog * 1000 + value;
+        }
+
+        @Export
+        static int staticCall() {
+            int before = callLog;
+            int value = CallHolder.value();
+            return before * 10000 + callLog * 1000 + value;
+        }
+
+        @Export
+        static int newInstance() {
+            int before = newLog;
+            NewHolder holder = new NewHolder();
+            return before * 10000 + newLog * 1000 + holder.value;
+        }
+
+        @Export
+        static int superClassFirst() {
+            new SubClass();
+            return superLog;
+        }
+
+        @Export
+        static int inheritedStaticMethod() {
+            int before = inheritedLog;
+            // javac reference the sub class, but only the declaring class is initialized
+            int value = InheritedSub.value();
+            return before * 10000 + inheritedLog * 1000 + value;
+        }
+
+        @Export
+        static int onlyOnUsedPath() {
+            use( false );
+            int result = pathLog;
+            use( true );
+            return result * 10 + pathLog;
+        }
+
+        @Export
+        static int onlyOnce() {
+            int sum = 0;
+            for( int i = 0; i < 3; i++ ) {
+                sum += OnceHolder.value() + new OnceHolder().get() + OnceHolder.field;
+            }
+            return onceLog * 10 + sum;
+        }
+
+        static void use( boolean flag ) {
+            if( flag ) {
+                PathHolder.value();
+            }
+        }
+    }
+
+    static class FieldHolder {
+        static int value = 7;
+
+        static {
+            TestClass.fieldLog = TestClass.fieldLog * 10 + 1;
+        }
+    }
+
+    static class CallHolder {
+        static {
+            TestClass.callLog = TestClass.callLog * 10 + 1;
+        }
+
+        static int value() {
+            return 5;
+        }
+    }
+
+    static class NewHolder {
+        static {
+            TestClass.newLog = TestClass.newLog * 10 + 1;
+        }
+
+        int value = 3;
+    }
+
+    static class SuperClass {
+        static {
+            TestClass.superLog = TestClass.superLog * 10 + 1;
+        }
+    }
+
+    static class SubClass extends SuperClass {
+        static {
+            TestClass.superLog = TestClass.superLog * 10 + 2;
+        }
+    }
+
+    static class InheritedBase {
+        static {
+            TestClass.inheritedLog = TestClass.inheritedLog * 10 + 1;
+        }
+
+        static int value() {
+            return 4;
+        }
+    }
+
+    static class InheritedSub extends InheritedBase {
+        static {
+            TestClass.inheritedLog = TestClass.inheritedLog * 10 + 2;
+        }
+    }
+
+    static class PathHolder {
+        static {
+            TestClass.pathLog = TestClass.pathLog * 10 + 1;
+        }
+
+        static void value() {
+            // only the initialization is needed
+        }
+    }
+
+    static class OnceHolder {
+        static int field = 1;
+
+        static {
+            TestClass.onceLog = TestClass.onceLog * 10 + 1;
+        }
+
+        static int value() {
+            return 1;
+        }
+
+        int get() {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.runtime;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.function.IntSupplier;
+import java.util.function.IntUnaryOperator;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runners.Parameterized.Parameters;
+
+import de.inetsoftware.jwebassembly.ScriptEngine;
+import de.inetsoftware.jwebassembly.WasmRule;
+import de.inetsoftware.jwebassembly.api.annotation.Export;
+
+/**
+ * Objects and arrays in the linear memory. The methods with the prefix "trap" must abort with an unreachable.
+ */
+public class LinearMemory extends AbstractBaseTest {
+
+    @ClassRule
+    public static WasmRule rule = new WasmRule( TestClass.class );
+
+    public LinearMemory( ScriptEngine script, String method, Object[] params ) {
+        super( rule, script, method, params );
+    }
+
+    @Parameters( name = "{0}-{1}" )
+    public static Collection<Object[]> data() {
+        ArrayList<Object[]> list = new ArrayList<>();
+        ScriptEngine[] engines = { ScriptEngine.NodeJsLinearMemory };
+        for( ScriptEngine script : engines ) {
+            addParam( list, script, "fields" );
+            addParam( list, script, "referenceField" );
+            addParam( list, script, "byteArray" );
+            addParam( list, script, "charArray" );
+            addParam( list, script, "shortArray" );
+            addParam( list, script, "longArray" );
+            addParam( list, script, "doubleArray" );
+            addParam( list, script, "objectArray" );
+            addParam( list, script, "lastIndex" );
+            addParam( list, script, "lambdaSingletonRepeated" );
+            addParam( list, script, "lambdaSingletonIdentity" );
+            addParam( list, script, "collectorRoots" );
+            addParam( list, script, "collectorReuse" );
+            addParam( list, script, "collectorReuseAgain" );
+            addParam( list, script, "trapNullFieldGet" );
+            addParam( list, script, "trapNullFieldSet" );
+            addParam( list, script, "trapNullArrayLength" );
+            addParam( list, script, "trapNullArrayGet" );
+            addParam( list, script, "trapNegativeIndex" );
+            addParam( list, script, "trapIndexEqualsLength" );
+            addParam( list, script, "trapSetOutOfBounds" );
+        }
+        rule.setTestParameters( list );
+        return list;
+    }
+
+    @Test
+    @Override
+    public void test() {
+        if( getMethod().startsWith( "trap" ) ) {
+            String result = rule.evalWasm( getScriptEngine(), getMethod() );
+            assertTrue( result, result != null && result.contains( "unreachable" ) );
+        } else {
+            super.test();
+        }
+    }
+
+    static class TestClass {
+
+        static Node   chain;
+
+        static Node[] table;
+
+        @Export
+        static double fields() {
+            Values values = new Values();
+            values.b = (byte)200;
+            values.c = 'x';
+            values.i = -7;
+            values.l = 1L << 40;
+            values.d = 2.5;
+            values.flag = true;
+            return values.b + values.c + values.i + values.l + values.d + (values.flag ? 1000 : 0);
+        }
+
+        @Export
+        static int referenceField() {
+            Node first = new Node( 1 );
+            first.next = new Node( 2 );
+            first.next.next = new Node( 3 );
+            int sum = 0;
+            for( Node node = first; node != null; node = node.next ) {
+                sum = sum * 10 + node.value;
+            }
+            return sum;
+        }
+
+        @Export
+        static int byteArray() {
+            byte[] data = new byte[4];
+            data[0] = (byte)-1;
+            data[3] = (byte)200;
+            return data[0] + data[3] * 10 + data.length * 1000;
+        }
+
+        @Export
+        static int charArray() {
+            char[] data = new char[3];
+            data[1] = 0xFFFF;
+            data[2] = 'a';
+            return data[0] + data[1] + data[2];
+        }
+
+        @Export
+        static int shortArray() {
+            short[] data = new short[3];
+            data[1] = (short)0xFFFF;
+            data[2] = 1234;
+            return data[0] + data[1] + data[2];
+        }
+
+        @Export
+        static long longArray() {
+            long[] data = new long[5];
+            for( int i = 0; i < data.length; i++ ) {
+                data[i] = (1L << 33) * i;
+            }
+            return data[4] - data[1];
+        }
+
+        @Export
+        static double doubleArray() {
+            double[] data = { 1.5, 2.25, -3.125 };
+            double sum = 0;
+            for( double value : data ) {
+                sum += value;
+            }
+            return sum;
+        }
+
+        @Export
+        static int objectArray() {
+            Node[] nodes = new Node[3];
+            nodes[0] = new Node( 5 );
+            nodes[2] = new Node( 7 );
+            return nodes[0].value * 100 + (nodes[1] == null ? 10 : 0) + nodes[2].value;
+        }
+
+        @Export
+        static int lastIndex() {
+            int[] data = new int[10];
+            data[data.length - 1] = 42;
+            data[0] = 1;
+            return data[9] + data[0];
+        }
+
+        @Export
+        static int lambdaSingletonRepeated() {
+            // the instance of a lambda without captured values is created once and reused in the loop
+            int sum = 0;
+            for( int i = 0; i < 3; i++ ) {
+                IntUnaryOperator val = (x) -> x * 2 + 1;
+                sum += val.applyAsInt( sum );
+            }
+            return sum;
+        }
+
+        @Export
+        static int lambdaSingletonIdentity() {
+            // two evaluations of the same site return the same instance only if nothing is captured
+            return (constantLambda() == constantLambda() ? 1 : 0) + (capturingLambda( 3 ) == capturingLambda( 3 ) ? 10 : 0) + constantLambda().getAsInt() + capturingLambda( 3 ).getAsInt();
+        }
+
+        static IntSupplier constantLambda() {
+            return () -> 42;
+        }
+
+        static IntSupplier capturingLambda( int value ) {
+            return () -> value * 100;
+        }
+
+        @Export
+        static int collectorRoots() {
+            // the collector runs after the exported function and must keep the objects of the static fields
+            createRoots();
+            return garbage( 100 ) * 1000000 + sumRoots();
+        }
+
+        @Export
+        static int collectorReuse() {
+            // the blocks that was freed from the collector are reused and must be empty
+            if( chain == null ) {
+                createRoots();
+            }
+            return garbage( 2000 ) * 1000000 + sumRoots();
+        }
+
+        @Export
+        static int collectorReuseAgain() {
+            return collectorReuse();
+        }
+
+        static void createRoots() {
+            chain = null;
+            for( int i = 1; i <= 100; i++ ) {
+                Node node = new Node( i );
+                node.next = chain;
+                chain = node;
+            }
+            table = new Node[10];
+            for( int i = 0; i < table.length; i++ ) {
+                table[i] = new Node( i * 1000 );
+            }
+        }
+
+        static int sumRoots() {
+            int sum = 0;
+            for( Node node = chain; node != null; node = node.next ) {
+                sum += node.value;
+            }
+            for( Node node : table ) {
+                sum += node.value;
+            }
+            return sum;
+        }
+
+        /**
+         * Create unreachable objects and arrays of different sizes and count the new instances that are not empty.
+         */
+        static int garbage( int count ) {
+            int dirty = 0;
+            for( int i = 0; i < count; i++ ) {
+                Node node = new Node( i );
+                if( node.next != null ) {
+                    dirty++;
+                }
+                node.next = node;
+                int[] data = new int[i % 50];
+                for( int k = 0; k < data.length; k++ ) {
+                    if( data[k] != 0 ) {
+                        dirty++;
+                    }
+                    data[k] = -1;
+                }
+                long[] values = new long[i % 7];
+                for( int k = 0; k < values.length; k++ ) {
+                    if( values[k] != 0 ) {
+                        dirty++;
+                    }
+                    values[k] = -1;
+                }
+            }
+            return dirty;
+        }
+
+        @Export
+        static int trapNullFieldGet() {
+            Node node = create( false );
+            return node.value;
+        }
+
+        @Export
+        static int trapNullFieldSet() {
+            Node node = create( false );
+            node.value = 5;
+            return 1;
+        }
+
+        @Export
+        static int trapNullArrayLength() {
+            int[] data = createArray( -1 );
+            return data.length;
+        }
+
+        @Export
+        static int trapNullArrayGet() {
+            int[] data = createArray( -1 );
+            return data[0];
+        }
+
+        @Export
+        static int trapNegativeIndex() {
+            int[] data = createArray( 4 );
+            return data[data.length - 5];
+        }
+
+        @Export
+        static int trapIndexEqualsLength() {
+            int[] data = createArray( 4 );
+            return data[data.length];
+        }
+
+        @Export
+        static int trapSetOutOfBounds() {
+            byte[] data = new byte[2];
+            int idx = data.length + 1;
+            data[idx] = 1;
+            return 1;
+        }
+
+        static Node create( boolean notNull ) {
+            return notNull ? new Node( 1 ) : null;
+        }
+
+        static int[] createArray( int length ) {
+            return length < 0 ? null : new int[length];
+        }
+    }
+
+    static class Values {
+        byte    b;
+
+        char    c;
+
+        int     i;
+
+        long    l;
+
+        double  d;
+
+        boolean flag;
+    }
+
+    static class Node {
+        int  value;
+
+        Node next;
+
+        Node( int value ) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.runtime;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runners.Parameterized.Parameters;
+
+import de.inetsoftware.jwebassembly.JWebAssembly;
+import de.inetsoftware.jwebassembly.ScriptEngine;
+import de.inetsoftware.jwebassembly.WasmRule;
+import de.inetsoftware.jwebassembly.api.annotation.Export;
+import de.inetsoftware.jwebassembly.api.annotation.WasmTextCode;
+
+/**
+ * The rules of the peephole optimizer. The result of every method is compared with the Java result and the optimized
+ * code with the function in the file PeepholeOptimizer.wat. The WASM code is used for patterns that javac does not
+ * produce.
+ */
+public class PeepholeOptimizer extends AbstractBaseTest {
+
+    @ClassRule
+    public static WasmRule rule = new WasmRule( TestClass.class );
+
+    private static String  optimized;
+
+    public PeepholeOptimizer( ScriptEngine script, String method, Object[] params ) {
+        super( rule, script, method, params );
+    }
+
+    @Parameters( name = "{0}-{1}" )
+    public static Collection<Object[]> data() {
+        ArrayList<Object[]> list = new ArrayList<>();
+        for( ScriptEngine script : ScriptEngine.testEngines() ) {
+            addParam( list, script, "constantFolding", 5 );
+            addParam( list, script, "divisionByZero", 0 );
+            addParam( list, script, "compareWithZero", 0 );
+            addParam( list, script, "redundantConversion", -5 );
+            addParam( list, script, "unreachableCode", 6 );
+            addParam( list, script, "deadLocalSet", 7 );
+            addParam( list, script, "dropValue", 0 );
+            addParam( list, script, "localTee", 8 );
+        }
+        rule.setTestParameters( list );
+        return list;
+    }
+
+    /**
+     * Get the code of the function of the tested method.
+     *
+     * @param text
+     *            the text format of a module
+     * @return the function
+     */
+    private String function( String text ) {
+        String name = "(func $" + TestClass.class.getName().replace( '.', '/' ) + '.' + getMethod() + '\n';
+        int start = text.indexOf( name );
+        return start < 0 ? text : text.substring( start, text.indexOf( "\n  )\n", start ) );
+    }
+
+    @Test
+    public void optimizedCode() throws Exception {
+        if( optimized == null ) {
+            JWebAssembly wasm = new JWebAssembly();
+            wasm.addFile( TestClass.class.getResource( '/' + TestClass.class.getName().replace( '.', '/' ) + ".class" ) );
+            optimized = wasm.compileToText();
+        }
+        File watFile = new File( PeepholeOptimizer.class.getResource( "PeepholeOptimizer.wat" ).toURI() );
+        String expected = new String( Files.readAllBytes( watFile.toPath() ), StandardCharsets.UTF_8 ).replace( "\r\n", "\n" );
+        assertEquals( function( expected ), function( optimized ) );
+    }
+
+    static class TestClass {
+
+        @Export
+        @WasmTextCode( "i32.const 3 i32.const 4 i32.mul local.get 0 i32.add return" )
+        static int constantFolding( int a ) {
+            return 3 * 4 + a;
+        }
+
+        @Export
+        @WasmTextCode( "local.get 0 if (result i32) i32.const 7 i32.const 0 i32.div_s else i32.const 3 end return" )
+        static int divisionByZero( int a ) {
+            // the division by zero must trap at runtime and is not folded
+            return a != 0 ? 7 / 0 : 3;
+        }
+
+        @Export
+        static int compareWithZero( int a ) {
+            if( a != 0 ) {
+                return 7;
+            }
+            return 9;
+        }
+
+        @Export
+        static int redundantConversion( int a ) {
+            return (int)(long)a;
+        }
+
+        @Export
+        @WasmTextCode( "local.get 0 return i32.const 1 drop" )
+        static int unreachableCode( int a ) {
+            return a;
+        }
+
+        @Export
+        @WasmTextCode( "local.get 0 local.set 1 local.get 0 return" )
+        static int deadLocalSet( int a ) {
+            return a;
+        }
+
+        @Export
+        @WasmTextCode( "local.get 0 i32.const 1 i32.add local.set 1 local.get 0 f32.convert_i32_s f32.const 0.5 f32.div drop local.get 0 i32.const 2 i32.div_s drop local.get 0 return" )
+        static int dropValue( int a ) {
+            // the integer division can trap and is not removed
+            return a;
+        }
+
+        @Export
+        static int localTee( int a ) {
+            int b = a * 3;
+            return b + b;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+(module
+  (type $t0 (func(param i32)(result i32)))
+  (type $t1 (func(param i32)))
+  (export "constantFolding" (func $de/inetsoftware/jwebassembly/runtime/PeepholeOptimizer$TestClass.constantFolding))
+  (export "divisionByZero" (func $de/inetsoftware/jwebassembly/runtime/PeepholeOptimizer$TestClass.divisionByZero))
+  (export "compareWithZero" (func $de/inetsoftware/jwebassembly/runtime/PeepholeOptimizer$TestClass.compareWithZero))
+  (export "redundantConversion" (func $de/inetsoftware/jwebassembly/runtime/PeepholeOptimizer$TestClass.redundantConversion))
+  (export "unreachableCode" (func $de/inetsoftware/jwebassembly/runtime/PeepholeOptimizer$TestClass.unreachableCode))
+  (export "deadLocalSet" (func $de/inetsoftware/jwebassembly/runtime/PeepholeOptimizer$TestClass.deadLocalSet))
+  (export "dropValue" (func $de/inetsoftware/jwebassembly/runtime/PeepholeOptimizer$TestClass.dropValue))
+  (export "localTee" (func $de/inetsoftware/jwebassembly/runtime/PeepholeOptimizer$TestClass.localTee))
+  (func $de/inetsoftware/jwebassembly/runtime/PeepholeOptimizer$TestClass.constantFolding
+        (param i32)
+        (result i32)
+    i32.const 12
+    local.get 0
+    i32.add
+    return
+  )
+  (func $de/inetsoftware/jwebassembly/runtime/PeepholeOptimizer$TestClass.divisionByZero
+        (param i32)
+        (result i32)
+    local.get 0
+    if(result i32)
+      i32.const 7
+      i32.const 0
+      i32.div_s
+    else
+      i32.const 3
+    end
+    return
+  )
+  (func $de/inetsoftware/jwebassembly/runtime/PeepholeOptimizer$TestClass.compareWithZero
+        (param i32)
+        (result i32)
+    local.get 0
+    i32.eqz
+    block(param i32)
+      br_if 0
+      i32.const 7
+      return
+    end
+    i32.const 9
+    return
+  )
+  (func $de/inetsoftware/jwebassembly/runtime/PeepholeOptimizer$TestClass.redundantConversion
+        (param i32)
+        (result i32)
+    local.get 0
+    return
+  )
+  (func $de/inetsoftware/jwebassembly/runtime/PeepholeOptimizer$TestClass.unreachableCode
+        (param i32)
+        (result i32)
+    local.get 0
+    return
+  )
+  (func $de/inetsoftware/jwebassembly/runtime/PeepholeOptimizer$TestClass.deadLocalSet
+        (param i32)
+        (result i32)
+    local.get 0
+    return
+  )
+  (func $de/inetsoftware/jwebassembly/runtime/PeepholeOptimizer$TestClass.dropValue
+        (param i32)
+        (result i32)
+    local.get 0
+    i32.const 2
+    i32.div_s
+    drop
+    local.get 0
+    return
+  )
+  (func $de/inetsoftware/jwebassembly/runtime/PeepholeOptimizer$TestClass.localTee
+        (param i32)
+        (result i32)
+        (local i32)
+    local.get 0
+    i32.const 3
+    i32.mul
+    local.tee 1
+    local.get 1
+    i32.add
+    return
+  )
+)
\ No newline at end of file
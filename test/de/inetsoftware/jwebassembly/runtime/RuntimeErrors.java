@@ -50,9 +50,13 @@ public static Collection<ScriptEngine[]> data() {
     }
 
     private void compileErrorTest( String expectedMessge, Class<?> classes ) throws IOException {
+        compileErrorTest( expectedMessge, classes, ScriptEngine.NodeJS );
+    }
+
+    private void compileErrorTest( String expectedMessge, Class<?> classes, ScriptEngine script ) throws IOException {
         WasmRule wasm = new WasmRule( classes );
         try {
-            wasm.compile();
+            wasm.compile( script );
             fail( "Exception expected with: " + expectedMessge );
         } catch( WasmException ex ) {
             assertTrue( "Wrong error message: " + ex.getMessage(), ex.getMessage().contains( expectedMessge ) );
@@ -86,6 +90,35 @@ float function() {
         }
     }
 
+    @Test
+    public void linearMemoryImportObject() throws IOException {
+        compileErrorTest( "Import function", LinearMemoryImportObject.class, ScriptEngine.NodeJsLinearMemory );
+    }
+
+    static class LinearMemoryImportObject {
+        @Import( module = "m", name = "n" )
+        static int function( Object value ) {
+            return 1;
+        }
+
+        @Export
+        static int main() {
+            return function( new Object() );
+        }
+    }
+
+    @Test
+    public void linearMemoryExportObject() throws IOException {
+        compileErrorTest( "Export function", LinearMemoryExportObject.class, ScriptEngine.NodeJsLinearMemory );
+    }
+
+    static class LinearMemoryExportObject {
+        @Export
+        static int[] function() {
+            return new int[1];
+        }
+    }
+
     @Test
     public void nativeMethod() throws IOException {
         compileErrorTest( "Native methods cannot be compiled to WebAssembly:", NativeMethod.class );
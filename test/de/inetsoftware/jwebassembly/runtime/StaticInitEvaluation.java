@@ -0,0 +1,341 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.runtime;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.junit.ClassRule;
+import org.junit.runners.Parameterized.Parameters;
+
+import de.inetsoftware.jwebassembly.JWebAssembly;
+import de.inetsoftware.jwebassembly.ScriptEngine;
+import de.inetsoftware.jwebassembly.WasmRule;
+import de.inetsoftware.jwebassembly.api.annotation.Export;
+
+/**
+ * Static class initializers that are evaluated at compile time. The evaluated arrays are written into the data of the
+ * linear memory and must be readable and writable like arrays that are created at runtime. Strings, objects and the
+ * other arrays are created with the residual code of the evaluation.
+ */
+public class StaticInitEvaluation extends AbstractBaseTest {
+
+    @ClassRule
+    public static WasmRule rule = new WasmRule( TestClass.class );
+
+    public StaticInitEvaluation( ScriptEngine script, String method, Object[] params ) {
+        super( rule, script, method, params );
+    }
+
+    @Parameters( name = "{0}-{1}" )
+    public static Collection<Object[]> data() {
+        ArrayList<Object[]> list = new ArrayList<>();
+        ScriptEngine[] engines = { ScriptEngine.NodeJsLinearMemory, ScriptEngine.NodeJS };
+        for( ScriptEngine script : engines ) {
+            addParam( list, script, "booleanArray" );
+            addParam( list, script, "byteArray" );
+            addParam( list, script, "charArray" );
+            addParam( list, script, "shortArray" );
+            addParam( list, script, "intArray" );
+            addParam( list, script, "longArray" );
+            addParam( list, script, "floatArray" );
+            addParam( list, script, "doubleArray" );
+            addParam( list, script, "lengths" );
+            addParam( list, script, "arrayAsObject" );
+            addParam( list, script, "mutateAfterStart" );
+            addParam( list, script, "aliasingFields" );
+            addParam( list, script, "stepBudget" );
+            addParam( list, script, "strings" );
+            addParam( list, script, "objects" );
+            addParam( list, script, "referenceArrays" );
+            addParam( list, script, "mutateObject" );
+            addParam( list, script, "afterCollect" );
+        }
+        rule.setTestParameters( list );
+        rule.setProperty( JWebAssembly.EVALUATE_CLINIT, "true" );
+        return list;
+    }
+
+    static class TestClass {
+
+        @Export
+        static int booleanArray() {
+            boolean[] data = Tables.BOOLEANS;
+            int result = 0;
+            for( int i = 0; i < data.length; i++ ) {
+                result = result * 10 + (data[i] ? 1 : 0);
+            }
+            return result;
+        }
+
+        @Export
+        static int byteArray() {
+            // the values are truncated to 8 bit and sign extended on reading
+            byte[] data = Tables.BYTES;
+            int result = 0;
+            for( int i = 0; i < data.length; i++ ) {
+                result = result * 3 + data[i];
+            }
+            return result;
+        }
+
+        @Export
+        static int charArray() {
+            // the values are truncated to 16 bit without sign
+            char[] data = Tables.CHARS;
+            int result = 0;
+            for( int i = 0; i < data.length; i++ ) {
+                result = result * 3 + data[i];
+            }
+            return result;
+        }
+
+        @Export
+        static int shortArray() {
+            short[] data = Tables.SHORTS;
+            int result = 0;
+            for( int i = 0; i < data.length; i++ ) {
+                result = result * 3 + data[i];
+            }
+            return result;
+        }
+
+        @Export
+        static int intArray() {
+            int[] data = Tables.INTS;
+            int result = 0;
+            for( int i = 0; i < data.length; i++ ) {
+                result = result * 31 + data[i];
+            }
+            return result;
+        }
+
+        @Export
+        static long longArray() {
+            long[] data = Tables.LONGS;
+            long result = 0;
+            for( int i = 0; i < data.length; i++ ) {
+                result = result * 31 + data[i];
+            }
+            return result;
+        }
+
+        @Export
+        static float floatArray() {
+            float[] data = Tables.FLOATS;
+            float result = 0;
+            for( int i = 0; i < data.length; i++ ) {
+                result = result * 2 + data[i];
+            }
+            return result;
+        }
+
+        @Export
+        static double doubleArray() {
+            double[] data = Tables.DOUBLES;
+            double result = 0;
+            for( int i = 0; i < data.length; i++ ) {
+                result = result * 2 + data[i];
+            }
+            return result;
+        }
+
+        @Export
+        static int lengths() {
+            // the length is read from the header of the arrays
+            return Tables.BOOLEANS.length + Tables.BYTES.length * 10 + Tables.CHARS.length * 100 + Tables.LONGS.length * 1000 + Tables.EMPTY.length * 10000;
+        }
+
+        @Export
+        static int arrayAsObject() {
+            // the vtable in the header is used for the type test
+            Object data = Tables.INTS;
+            return (data instanceof int[] ? 1 : 0) + (data instanceof Object ? 10 : 0);
+        }
+
+        @Export
+        static long mutateAfterStart() {
+            // the neighbor elements must not be changed
+            Mutable.BYTES[1] = (byte)-100;
+            Mutable.CHARS[2] = 'z';
+            Mutable.LONGS[1] = Long.MIN_VALUE;
+            Mutable.DOUBLES[0] = -0.5;
+            return Mutable.BYTES[0] + Mutable.BYTES[1] * 10 + Mutable.BYTES[2] * 100 + Mutable.CHARS[1] + Mutable.CHARS[2] + Mutable.CHARS[3] //
+                            + Mutable.LONGS[0] + Mutable.LONGS[1] + Mutable.LONGS[2] + (long)(Mutable.DOUBLES[0] * 4 + Mutable.DOUBLES[1] * 8);
+        }
+
+        @Export
+        static int aliasingFields() {
+            // both fields reference the same array in the memory
+            Mutable.ALIAS[1] = 77;
+            Mutable.INTS[2] = 88;
+            return (Mutable.ALIAS == Mutable.INTS ? 1000 : 0) + Mutable.INTS[0] + Mutable.INTS[1] + Mutable.ALIAS[2];
+        }
+
+        @Export
+        static int stepBudget() {
+            // the static initializer needs more steps as the evaluator allows and is called at runtime
+            return Budget.SUM + Budget.VALUES[Budget.VALUES.length - 1];
+        }
+
+        @Export
+        static int strings() {
+            // the string constants are the same instances
+            String[] words = Shapes.WORDS;
+            return (Shapes.NAME == words[1] ? 1 : 0) + (words[2] == null ? 10 : 0) + words.length * 100 + ("alpha" == words[0] ? 1000 : 0);
+        }
+
+        @Export
+        static long objects() {
+            Point[] line = Shapes.LINE;
+            return Shapes.ORIGIN.x + line[0].x * 10 + (line[0].y >> 40) * 100 + line[1].x * 1000 + line[1].y * 10000 //
+                            + (line[2] == Shapes.ORIGIN ? 100000 : 0) + (line[0].next == line[1] && line[1].next == line[0] ? 1000000 : 0);
+        }
+
+        @Export
+        static int referenceArrays() {
+            int[][] grid = Shapes.GRID;
+            return grid[0][1] + grid[1][0] * 10 + (grid[2] == null ? 100 : 0) + grid.length * 1000 + (Shapes.VALUES[1] == grid[1] ? 10000 : 0);
+        }
+
+        @Export
+        static int mutateObject() {
+            // the evaluated object is a normal object
+            Point moved = Shapes.MOVED;
+            moved.x = 8;
+            moved.next = new Point( 9, 0 );
+            return moved.x + moved.next.x * 10 + (int)moved.y * 100;
+        }
+
+        @Export
+        static int afterCollect() {
+            // the evaluated values are reachable from the static fields and are not freed
+            int sum = 0;
+            for( int i = 0; i < 100; i++ ) {
+                sum += new int[1000].length;
+            }
+            return sum + Shapes.GRID[0][0] + Shapes.LINE[1].x * 10;
+        }
+    }
+
+    static class Point {
+        int   x;
+
+        long  y;
+
+        Point next;
+
+        Point( int x, long y ) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    static class Shapes {
+        static final String[] WORDS  = { "alpha", "beta", null, "delta" };
+
+        static final String   NAME   = WORDS[1];
+
+        static final Point    ORIGIN = new Point( 0, 0 );
+
+        static final Point[]  LINE   = { new Point( 1, 2L << 40 ), new Point( -3, 4 ), ORIGIN };
+
+        static final Point    MOVED  = new Point( 5, 6 );
+
+        static final int[][]  GRID   = { { 1, 2 }, { 3 }, null };
+
+        static final Object[] VALUES = { GRID[0], GRID[1] };
+
+        static {
+            LINE[0].next = LINE[1];
+            LINE[1].next = LINE[0];
+        }
+    }
+
+    static class Tables {
+        static final boolean[] BOOLEANS = new boolean[5];
+
+        static final byte[]    BYTES    = new byte[7];
+
+        static final char[]    CHARS    = new char[6];
+
+        static final short[]   SHORTS   = new short[6];
+
+        static final int[]     INTS     = new int[9];
+
+        static final long[]    LONGS    = new long[5];
+
+        static final float[]   FLOATS   = new float[3];
+
+        static final double[]  DOUBLES  = new double[4];
+
+        static final int[]     EMPTY    = new int[0];
+
+        static {
+            for( int i = 0; i < BOOLEANS.length; i++ ) {
+                BOOLEANS[i] = (i & 1) == 0;
+            }
+            for( int i = 0; i < BYTES.length; i++ ) {
+                BYTES[i] = (byte)(i * 70 - 100);
+            }
+            for( int i = 0; i < CHARS.length; i++ ) {
+                CHARS[i] = (char)(0xFFF0 + i * 5);
+            }
+            for( int i = 0; i < SHORTS.length; i++ ) {
+                SHORTS[i] = (short)(i * 15000 - 30000);
+            }
+            for( int i = 0; i < INTS.length; i++ ) {
+                INTS[i] = i * i - 3;
+            }
+            for( int i = 0; i < LONGS.length; i++ ) {
+                LONGS[i] = (1L << 40) * i - i;
+            }
+            for( int i = 0; i < FLOATS.length; i++ ) {
+                FLOATS[i] = i * 1.25F;
+            }
+            for( int i = 0; i < DOUBLES.length; i++ ) {
+                DOUBLES[i] = i / 8.0 - 1;
+            }
+        }
+    }
+
+    static class Mutable {
+        static final byte[]   BYTES   = { 1, 2, 3 };
+
+        static final char[]   CHARS   = { 'a', 'b', 'c', 'd' };
+
+        static final long[]   LONGS   = { -1, 2, 1L << 50 };
+
+        static final double[] DOUBLES = { 1.5, 2.5 };
+
+        static final int[]    INTS    = { 5, 6, 7 };
+
+        static final int[]    ALIAS   = INTS;
+    }
+
+    static class Budget {
+        static final int[] VALUES = new int[3];
+
+        static int         SUM;
+
+        static {
+            for( int i = 0; i < 500000; i++ ) {
+                SUM += i & 7;
+            }
+            VALUES[2] = SUM / 2;
+        }
+    }
+}
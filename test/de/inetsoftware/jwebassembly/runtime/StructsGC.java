@@ -17,6 +17,8 @@
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.function.IntSupplier;
+import java.util.function.IntUnaryOperator;
 
 import org.junit.Assume;
 import org.junit.ClassRule;
@@ -50,6 +52,8 @@ public static Collection<Object[]> data() {
             //TODO addParam( list, script, "callVirtualMethod" );
             addParam( list, script, "useGlobalObject" );
             addParam( list, script, "multipleAssign" );
+            addParam( list, script, "lambdaSingletonRepeated" );
+            addParam( list, script, "lambdaSingletonIdentity" );
         }
         rule.setTestParameters( list );
         return list;
@@ -106,6 +110,31 @@ static int callSuperMethod() {
             return val.a;
         }
 
+        @Export
+        static int lambdaSingletonRepeated() {
+            // the instance of a lambda without captured values is created once and reused in the loop
+            int sum = 0;
+            for( int i = 0; i < 3; i++ ) {
+                IntUnaryOperator val = (x) -> x * 2 + 1;
+                sum += val.applyAsInt( sum );
+            }
+            return sum;
+        }
+
+        @Export
+        static int lambdaSingletonIdentity() {
+            // two evaluations of the same site return the same instance only if nothing is captured
+            return (constantLambda() == constantLambda() ? 1 : 0) + (capturingLambda( 3 ) == capturingLambda( 3 ) ? 10 : 0) + constantLambda().getAsInt() + capturingLambda( 3 ).getAsInt();
+        }
+
+        static IntSupplier constantLambda() {
+            return () -> 42;
+        }
+
+        static IntSupplier capturingLambda( int value ) {
+            return () -> value * 100;
+        }
+
         /**
          * Call an overridden method
          */
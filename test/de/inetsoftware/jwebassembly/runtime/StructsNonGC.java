@@ -78,6 +78,8 @@ public static Collection<Object[]> data() {
             addParam( list, script, "lambda3" );
             addParam( list, script, "lambdaWithInstanceAccess" );
             addParam( list, script, "lambdaInsideTryCatch" );
+            addParam( list, script, "lambdaSingletonRepeated" );
+            addParam( list, script, "lambdaSingletonIdentity" );
             addParam( list, script, "simpleName_Object" );
             addParam( list, script, "simpleName_Anonymous" );
             addParam( list, script, "simpleName_Array" );
@@ -363,6 +365,31 @@ public static int lambdaInsideTryCatch() {
             return result;
         }
 
+        @Export
+        static int lambdaSingletonRepeated() {
+            // the instance of a lambda without captured values is created once and reused in the loop
+            int sum = 0;
+            for( int i = 0; i < 3; i++ ) {
+                IntUnaryOperator val = (x) -> x * 2 + 1;
+                sum += val.applyAsInt( sum );
+            }
+            return sum;
+        }
+
+        @Export
+        static int lambdaSingletonIdentity() {
+            // two evaluations of the same site return the same instance only if nothing is captured
+            return (constantLambda() == constantLambda() ? 1 : 0) + (capturingLambda( 3 ) == capturingLambda( 3 ) ? 10 : 0) + constantLambda().getAsInt() + capturingLambda( 3 ).getAsInt();
+        }
+
+        static IntSupplier constantLambda() {
+            return () -> 42;
+        }
+
+        static IntSupplier capturingLambda( int value ) {
+            return () -> value * 100;
+        }
+
         @Export
         static boolean isPrimitive_int() {
             return int.class.isPrimitive();
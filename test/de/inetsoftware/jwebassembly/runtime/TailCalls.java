@@ -0,0 +1,139 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runners.Parameterized.Parameters;
+
+import de.inetsoftware.jwebassembly.ScriptEngine;
+import de.inetsoftware.jwebassembly.WasmRule;
+import de.inetsoftware.jwebassembly.api.annotation.Export;
+
+/**
+ * Recursions that are too deep for the stack. With tail calls they must run. Without tail calls they must overflow, else
+ * the test is not meaningful. The Java methods are not called because they would also overflow in the JVM.
+ */
+public class TailCalls extends AbstractBaseTest {
+
+    private static final int DEPTH = 1000000;
+
+    @ClassRule
+    public static WasmRule   rule  = new WasmRule( TestClass.class );
+
+    public TailCalls( ScriptEngine script, String method, Object[] params ) {
+        super( rule, script, method, params );
+    }
+
+    @Parameters( name = "{0}-{1}" )
+    public static Collection<Object[]> data() {
+        ArrayList<Object[]> list = new ArrayList<>();
+        ScriptEngine[] engines = { ScriptEngine.NodeJsTailCall, ScriptEngine.NodeJS };
+        for( ScriptEngine script : engines ) {
+            addParam( list, script, "selfRecursion" );
+            addParam( list, script, "mutualRecursion" );
+            addParam( list, script, "objectResult" );
+        }
+        rule.setTestParameters( list );
+        return list;
+    }
+
+    @Test
+    @Override
+    public void test() {
+        String result = rule.evalWasm( getScriptEngine(), getMethod() );
+        switch( getMethod() ) {
+            case "selfRecursion":
+                if( getScriptEngine() == ScriptEngine.NodeJsTailCall ) {
+                    assertEquals( Long.toString( (long)DEPTH * (DEPTH + 1) / 2 ), result );
+                } else {
+                    assertTrue( result, result != null && result.contains( "Maximum call stack size exceeded" ) );
+                }
+                break;
+            case "mutualRecursion":
+                if( getScriptEngine() == ScriptEngine.NodeJsTailCall ) {
+                    assertEquals( "1", result );
+                } else {
+                    assertTrue( result, result != null && result.contains( "Maximum call stack size exceeded" ) );
+                }
+                break;
+            default:
+                super.test();
+        }
+    }
+
+    static class TestClass {
+
+        @Export
+        static long selfRecursion() {
+            return sum( DEPTH, 0 );
+        }
+
+        @Export
+        static int mutualRecursion() {
+            return isEven( DEPTH ) ? 1 : 0;
+        }
+
+        @Export
+        static int objectResult() {
+            // a constructor call does not return the new object and can not be a tail call
+            return value( create( 7 ) ) + value( create( 5 ) ) * 10;
+        }
+
+        static long sum( int n, long acc ) {
+            if( n == 0 ) {
+                return acc;
+            }
+            return sum( n - 1, acc + n );
+        }
+
+        static boolean isEven( int n ) {
+            if( n == 0 ) {
+                return true;
+            }
+            return isOdd( n - 1 );
+        }
+
+        static boolean isOdd( int n ) {
+            if( n == 0 ) {
+                return false;
+            }
+            return isEven( n - 1 );
+        }
+
+        static Node create( int value ) {
+            return new Node( value );
+        }
+
+        static int value( Node node ) {
+            return node.value;
+        }
+    }
+
+    static class Node {
+        int value;
+
+        Node( int value ) {
+            this.value = value;
+        }
+    }
+}
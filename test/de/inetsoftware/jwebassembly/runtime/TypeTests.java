@@ -0,0 +1,227 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.runtime;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.junit.ClassRule;
+import org.junit.runners.Parameterized.Parameters;
+
+import de.inetsoftware.jwebassembly.ScriptEngine;
+import de.inetsoftware.jwebassembly.WasmRule;
+import de.inetsoftware.jwebassembly.api.annotation.Export;
+
+/**
+ * The type tests of instanceof and checkcast. A class is tested with its depth in the class display of the object and
+ * an interface with its bit. The catch filters are tested in {@link Exceptions}.
+ */
+public class TypeTests extends AbstractBaseTest {
+
+    @ClassRule
+    public static WasmRule rule = new WasmRule( TestClass.class );
+
+    public TypeTests( ScriptEngine script, String method, Object[] params ) {
+        super( rule, script, method, params );
+    }
+
+    @Parameters( name = "{0}-{1}" )
+    public static Collection<Object[]> data() {
+        ArrayList<Object[]> list = new ArrayList<>();
+        for( ScriptEngine script : ScriptEngine.testEngines() ) {
+            addParam( list, script, "deepHierarchy" );
+            addParam( list, script, "deeperThanObject" );
+            addParam( list, script, "siblings" );
+            addParam( list, script, "interfaces" );
+            addParam( list, script, "inheritedInterfaces" );
+            addParam( list, script, "arrays" );
+            addParam( list, script, "nullValue" );
+            addParam( list, script, "castSuccess" );
+        }
+        rule.setTestParameters( list );
+        return list;
+    }
+
+    static class TestClass {
+
+        static Object[] levels() {
+            return new Object[] { new Object(), new Level1(), new Level2(), new Level3(), new Level4(), new Level5(), new Level6() };
+        }
+
+        @Export
+        static int deepHierarchy() {
+            int result = 0;
+            for( Object obj : levels() ) {
+                int count = 0;
+                count += obj instanceof Level1 ? 1 : 0;
+                count += obj instanceof Level2 ? 1 : 0;
+                count += obj instanceof Level3 ? 1 : 0;
+                count += obj instanceof Level4 ? 1 : 0;
+                count += obj instanceof Level5 ? 1 : 0;
+                count += obj instanceof Level6 ? 1 : 0;
+                result = result * 10 + count;
+            }
+            return result;
+        }
+
+        @Export
+        static int deeperThanObject() {
+            // a class that is deeper than the display of the tested object
+            Object[] objects = levels();
+            int result = 0;
+            for( int i = 0; i < objects.length; i++ ) {
+                result = result * 2 + (objects[i] instanceof Level6 ? 1 : 0);
+            }
+            return result;
+        }
+
+        @Export
+        static int siblings() {
+            Object[] objects = { new Level3(), new Level3Sibling(), new Level2() };
+            int result = 0;
+            for( Object obj : objects ) {
+                result = result * 100 + (obj instanceof Level3 ? 10 : 0) + (obj instanceof Level3Sibling ? 1 : 0);
+            }
+            return result;
+        }
+
+        @Export
+        static int interfaces() {
+            Object[] objects = { new Level1(), new Both(), new OnlyB(), new Level4() };
+            int result = 0;
+            for( Object obj : objects ) {
+                result = result * 1000 + (obj instanceof FaceA ? 100 : 0) + (obj instanceof FaceB ? 10 : 0) + (obj instanceof FaceC ? 1 : 0);
+            }
+            return result;
+        }
+
+        @Export
+        static int inheritedInterfaces() {
+            // Level4 implements FaceC, the sub classes inherit it. FaceC extends FaceA
+            Object[] objects = { new Level3(), new Level4(), new Level6() };
+            int result = 0;
+            for( Object obj : objects ) {
+                result = result * 100 + (obj instanceof FaceA ? 10 : 0) + (obj instanceof FaceC ? 1 : 0);
+            }
+            return result;
+        }
+
+        @Export
+        static int arrays() {
+            Object[] objects = { new int[1], new Level1[1], new Object(), "abc" };
+            int result = 0;
+            for( Object obj : objects ) {
+                result = result * 10 + (obj instanceof Object ? 1 : 0) + (obj instanceof Level1 ? 2 : 0) + (obj instanceof FaceA ? 4 : 0);
+            }
+            return result;
+        }
+
+        @Export
+        static int nullValue() {
+            Object obj = null;
+            return (obj instanceof Object ? 1 : 0) + (obj instanceof Level1 ? 2 : 0) + (obj instanceof FaceA ? 4 : 0);
+        }
+
+        @Export
+        static int castSuccess() {
+            Object obj = new Level6();
+            Level2 level2 = (Level2)obj;
+            FaceA faceA = (FaceA)obj;
+            Level5 level5 = (Level5)level2;
+            Object empty = null;
+            Level1 nothing = (Level1)empty;
+            return level5.value() + faceA.face() * 10 + (nothing == null ? 100 : 0);
+        }
+    }
+
+    interface FaceA {
+        int face();
+    }
+
+    interface FaceB {
+        int face();
+    }
+
+    interface FaceC extends FaceA {
+    }
+
+    static class Level1 {
+        int value() {
+            return 1;
+        }
+    }
+
+    static class Level2 extends Level1 {
+        @Override
+        int value() {
+            return 2;
+        }
+    }
+
+    static class Level3 extends Level2 {
+        @Override
+        int value() {
+            return 3;
+        }
+    }
+
+    static class Level3Sibling extends Level2 {
+        @Override
+        int value() {
+            return 7;
+        }
+    }
+
+    static class Level4 extends Level3 implements FaceC {
+        @Override
+        int value() {
+            return 4;
+        }
+
+        @Override
+        public int face() {
+            return 4;
+        }
+    }
+
+    static class Level5 extends Level4 {
+        @Override
+        int value() {
+            return 5;
+        }
+    }
+
+    static class Level6 extends Level5 {
+        @Override
+        int value() {
+            return 6;
+        }
+    }
+
+    static class Both implements FaceA, FaceB {
+        @Override
+        public int face() {
+            return 8;
+        }
+    }
+
+    static class OnlyB implements FaceB {
+        @Override
+        public int face() {
+            return 9;
+        }
+    }
+}
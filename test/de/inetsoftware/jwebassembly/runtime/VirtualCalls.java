@@ -0,0 +1,130 @@
+/*
+ * Copyright 2022 Volker Berlin (i-net software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.inetsoftware.jwebassembly.runtime;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.junit.ClassRule;
+import org.junit.runners.Parameterized.Parameters;
+
+import de.inetsoftware.jwebassembly.JWebAssembly;
+import de.inetsoftware.jwebassembly.ScriptEngine;
+import de.inetsoftware.jwebassembly.WasmRule;
+import de.inetsoftware.jwebassembly.api.annotation.Export;
+
+/**
+ * Virtual calls of overridden methods. With GC the calls use call_ref on the immutable vtable structs.
+ */
+public class VirtualCalls extends AbstractBaseTest {
+
+    @ClassRule
+    public static WasmRule rule = new WasmRule( TestClass.class );
+
+    public VirtualCalls( ScriptEngine script, String method, Object[] params ) {
+        super( rule, script, method, params );
+    }
+
+    @Parameters( name = "{0}-{1}" )
+    public static Collection<Object[]> data() {
+        ArrayList<Object[]> list = new ArrayList<>();
+        ArrayList<ScriptEngine> engines = new ArrayList<>();
+        for( ScriptEngine script : ScriptEngine.testEngines() ) {
+            engines.add( script );
+        }
+        engines.add( ScriptEngine.NodeJsGC );
+        engines.add( ScriptEngine.Wat2WasmGC );
+        for( ScriptEngine script : engines ) {
+            addParam( list, script, "baseReference" );
+            addParam( list, script, "intermediateReference" );
+            addParam( list, script, "inheritedOverride" );
+            addParam( list, script, "overrideWithParams" );
+        }
+        rule.setTestParameters( list );
+        rule.setProperty( JWebAssembly.WASM_USE_CALL_REF, "true" );
+        return list;
+    }
+
+    static class TestClass {
+
+        @Export
+        static int baseReference() {
+            return area( new Square(), 2 ) + area( new Rect(), 3 ) * 10 + area( new Big(), 1 ) * 100;
+        }
+
+        @Export
+        static int intermediateReference() {
+            Square square = new Big();
+            int result = square.area( 3 );
+            square = new Square();
+            return result * 10 + square.area( 1 );
+        }
+
+        @Export
+        static int inheritedOverride() {
+            return area( new Thin(), 2 ) + area( new Square(), 2 ) * 1000;
+        }
+
+        @Export
+        static double overrideWithParams() {
+            Shape shape = new Rect();
+            double result = shape.scale( 1.5, 4L );
+            shape = new Square();
+            return result + shape.scale( 2.5, 3L );
+        }
+
+        static int area( Shape shape, int k ) {
+            return shape.area( k );
+        }
+    }
+
+    static abstract class Shape {
+        abstract int area( int k );
+
+        double scale( double factor, long count ) {
+            return factor * count;
+        }
+    }
+
+    static class Square extends Shape {
+        @Override
+        int area( int k ) {
+            return 4 * k;
+        }
+    }
+
+    static class Rect extends Shape {
+        @Override
+        int area( int k ) {
+            return 6 * k;
+        }
+
+        @Override
+        double scale( double factor, long count ) {
+            return factor * count * 2;
+        }
+    }
+
+    static class Big extends Square {
+        @Override
+        int area( int k ) {
+            return 7 * k;
+        }
+    }
+
+    static class Thin extends Big {
+    }
+}